@@ -0,0 +1,103 @@
+package de.endrullis.xml;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of a synthetic sessions.xml (one comment every 100 sessions).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class XMLParserBenchmark{
+  @Param({"1000", "50000"})
+  public int sessions;
+
+  private File file;
+  private String xml;
+
+  @Setup
+  public void setUp() throws IOException{
+    file = File.createTempFile("sessions", ".xml");
+    writeSessionsXml(file, sessions);
+
+    StringWriter writer = new StringWriter();
+    Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+    try{
+      char[] buffer = new char[8192];
+      int read;
+      while((read = reader.read(buffer)) != -1) writer.write(buffer, 0, read);
+    } finally{
+      reader.close();
+    }
+    xml = writer.toString();
+  }
+
+  @TearDown
+  public void tearDown(){
+    file.delete();
+  }
+
+  @Benchmark
+  public XMLDocument parseString() throws XMLException{
+    return new XMLParser().parse(xml);
+  }
+
+  @Benchmark
+  public XMLDocument parseFile() throws IOException, XMLException{
+    return new XMLParser().parse(file);
+  }
+
+  @Benchmark
+  public int parseEvents() throws IOException, XMLException{
+    final int[] count = new int[1];
+    InputStream in = new FileInputStream(file);
+    try{
+      new XMLStreamParser().parse(in, new XMLHandler(){
+        public void startElement(String name, XMLAttributes attributes){
+          count[0]++;
+        }
+        public void endElement(String name){
+        }
+        public void text(String text){
+        }
+        public void processingInstruction(String target, XMLAttributes attributes){
+        }
+      });
+    } finally{
+      in.close();
+    }
+    return count[0];
+  }
+
+  private static void writeStats(Writer out, String name, int i, int duration) throws IOException{
+    out.write("      <" + name + " pulseSum=\"" + (i * 7 + duration * 120) + "\" powerSum=\"" + (i * 11 + duration * 100) +
+        "\" pedalRpmSum=\"" + (i * 5 + duration * 80) + "\" duration=\"" + duration + "\" pulseCount=\"" + duration + "\"/>\n");
+  }
+
+  static void writeSessionsXml(File file, int sessions) throws IOException{
+    Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+    try{
+      out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+      out.write("<!-- sessions of the user -->\n");
+      out.write("<sessions version=\"3\">\n");
+      out.write("  <sessions>\n");
+      long date = 1200000000000L;
+      for(int i = 0; i < sessions; i++){
+        date += 86400000L;
+        if(i % 100 == 0) out.write("    <!-- session block " + i + " -->\n");
+        out.write("    <session date=\"" + date + "\" programName=\"examples/program " + (i % 20) + "\"" +
+            " programDuration=\"3600\">\n");
+        writeStats(out, "statsRegular", i, 3600);
+        writeStats(out, "statsTotal", i, 3700);
+        out.write("    </session>\n");
+      }
+      out.write("  </sessions>\n");
+      out.write("</sessions>\n");
+    } finally{
+      out.close();
+    }
+  }
+}
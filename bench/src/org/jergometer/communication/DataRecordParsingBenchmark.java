@@ -0,0 +1,57 @@
+package org.jergometer.communication;
+
+import org.jergometer.model.DataRecord;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the status lines of the bike: DataRecord(String) vs. {@link KettlerFrameDecoder}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class DataRecordParsingBenchmark {
+	private static final int FRAMES = 3600;
+
+	private byte[][] corpus;
+	private String[] lines;
+	private int next = 0;
+	private KettlerFrameDecoder decoder = new KettlerFrameDecoder();
+	private DataRecord record = new DataRecord();
+
+	@Setup
+	public void setUp() {
+		// status lines of a 1 hour session
+		Random random = new Random(42);
+		corpus = new byte[FRAMES][];
+		lines = new String[FRAMES];
+		for (int second = 0; second < FRAMES; second++) {
+			int power = 100 + random.nextInt(100);
+			lines[second] = (100 + random.nextInt(60)) + "\t" + (60 + random.nextInt(40)) + "\t" + (200 + random.nextInt(150)) +
+					"\t" + (second / 10) + "\t" + power + "\t" + (second / 5) + "\t" +
+					(second / 60 < 10 ? "0" : "") + (second / 60) + ":" + (second % 60 < 10 ? "0" : "") + (second % 60) +
+					"\t" + (power - 5 + random.nextInt(10));
+			corpus[second] = lines[second].getBytes();
+		}
+	}
+
+	private int nextIndex() {
+		if (++next == FRAMES) next = 0;
+		return next;
+	}
+
+	@Benchmark
+	public DataRecord dataRecordConstructor() {
+		// the reader had to create the string from the received bytes
+		return new DataRecord(new String(corpus[nextIndex()]));
+	}
+
+	@Benchmark
+	public DataRecord kettlerFrameDecoder() {
+		byte[] frame = corpus[nextIndex()];
+		decoder.decode(frame, 0, frame.length, record);
+		return record;
+	}
+}
@@ -0,0 +1,68 @@
+package org.jergometer.diagram;
+
+import org.jergometer.gui.Diagram;
+import org.jergometer.model.SessionSampleColumns;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adding the samples of a 2 hour session to the diagram, point by point (as the visualizers
+ * did before) and in one bulk per graph, including the rendering of the result.
+ * Run headless (-Djava.awt.headless=true).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class SessionVisualizationBenchmark {
+	private static final int DURATION = 2 * 60 * 60;
+	private static final String[] GRAPHS = {"pulse", "pedalRPM", "power"};
+
+	private SessionSampleColumns samples;
+	private Diagram diagram;
+
+	@Setup
+	public void setUp() throws InterruptedException {
+		samples = new SessionSampleColumns(DURATION);
+		for (int i = 0; i < DURATION; i++) {
+			samples.add(120 + (int) (20 * Math.sin(i / 300.0)), 100 + 25 * ((i / 120) % 4), 80 + i % 7);
+		}
+
+		diagram = new Diagram();
+		diagram.setSize(1280, 720);
+		diagram.componentShown(null);
+		diagram.setTimeRange(new Diagram.Range(0, DURATION));
+		BikeDiagram.createLegend(diagram, false, false);
+		diagram.awaitRendering();
+	}
+
+	private void clear() {
+		for (String graph : GRAPHS) {
+			diagram.clearGraph(graph);
+		}
+	}
+
+	@Benchmark
+	public Diagram addValuePerPoint() throws InterruptedException {
+		synchronized (diagram) {
+			clear();
+			for (int time = 0; time < DURATION; time++) {
+				diagram.addValue("pulse", time, samples.getPulse(time));
+				diagram.addValue("pedalRPM", time, samples.getPedalRpm(time));
+				diagram.addValue("power", time, samples.getPower(time));
+			}
+		}
+		diagram.awaitRendering();
+		return diagram;
+	}
+
+	@Benchmark
+	public Diagram addSamples() throws InterruptedException {
+		synchronized (diagram) {
+			clear();
+			BikeDiagram.addSamples(diagram, samples, 0, DURATION);
+		}
+		diagram.awaitRendering();
+		return diagram;
+	}
+}
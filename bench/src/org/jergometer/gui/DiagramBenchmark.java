@@ -0,0 +1,47 @@
+package org.jergometer.gui;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redrawing of the diagram with 3 graphs (pulse, pedal rpm, power).
+ * Run headless (-Djava.awt.headless=true).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class DiagramBenchmark {
+	private static final String[] GRAPHS = {"pulse", "pedalRPM", "power"};
+
+	/** Number of points per graph (2 hours, 8 hours, progression of many sessions). */
+	@Param({"7200", "28800", "100000"})
+	public int points;
+
+	private Diagram diagram;
+
+	@Setup
+	public void setUp() throws InterruptedException {
+		diagram = new Diagram();
+		diagram.setSize(1280, 720);
+		diagram.componentShown(null);
+		diagram.setTimeRange(new Diagram.Range(0, points));
+
+		for (int g = 0; g < GRAPHS.length; g++) {
+			diagram.addGraph(GRAPHS[g], new Diagram.Graph(GRAPHS[g], new Color(64 * g, 0, 128), new BasicStroke(1), false), Diagram.Side.left);
+			for (int i = 0; i < points; i++) {
+				diagram.addValue(GRAPHS[g], i, 80 + 30 * g + (int) (20 * Math.sin(i / (50.0 + g))));
+			}
+		}
+		diagram.awaitRendering();
+	}
+
+	/** Complete redraw of all layers by the render thread. */
+	@Benchmark
+	public Diagram redrawImage() throws InterruptedException {
+		diagram.redrawImage();
+		diagram.awaitRendering();
+		return diagram;
+	}
+}
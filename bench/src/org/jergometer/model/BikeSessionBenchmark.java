@@ -0,0 +1,66 @@
+package org.jergometer.model;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording, writing and reading of a 2 hour bike session.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class BikeSessionBenchmark {
+	private static final int DURATION = 2 * 3600;
+
+	private DataRecord[] records;
+	private File dir;
+	private BikeSession session;
+
+	@Setup
+	public void setUp() throws IOException {
+		records = new DataRecord[DURATION];
+		for (int i = 0; i < DURATION; i++) {
+			records[i] = new DataRecord(100 + i % 50, 80 + i % 7, 300, i / 10, 120, i / 5, (i / 60) + ":" + (i % 60), 115 + i % 10);
+		}
+
+		dir = File.createTempFile("jergometer", "bench");
+		dir.delete();
+		dir.mkdirs();
+		session = record();
+		session.save(dir.getPath());
+	}
+
+	@TearDown
+	public void tearDown() {
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	/** BikeSession.update for every second of the session. */
+	@Benchmark
+	public BikeSession record() {
+		BikeSession bikeSession = new BikeSession("examples/bench", DURATION);
+		for (DataRecord record : records) {
+			bikeSession.update(record);
+		}
+		return bikeSession;
+	}
+
+	/** BikeSession.toStream via save. */
+	@Benchmark
+	public File save() throws IOException {
+		session.save(dir.getPath());
+		return session.getFile();
+	}
+
+	/** BikeSession.fromStream via the file constructor. */
+	@Benchmark
+	public BikeSession load() throws IOException {
+		return new BikeSession(session.getFile());
+	}
+}
@@ -0,0 +1,60 @@
+package org.jergometer.model;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Averaging of several 1 hour sessions (average view of the selected sessions).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class SessionAveragerBenchmark {
+	private static final int DURATION = 3600;
+
+	@Param({"10", "100"})
+	public int sessionCount;
+
+	private ArrayList<BikeSession> sessions;
+	private SessionAverager averager;
+	private boolean fullLength = false;
+
+	@Setup
+	public void setUp() {
+		sessions = new ArrayList<BikeSession>(sessionCount);
+		for (int s = 0; s < sessionCount; s++) {
+			BikeSession session = new BikeSession("examples/bench", DURATION);
+			for (int i = 0; i < DURATION; i++) {
+				session.update(new DataRecord(100 + (i + s) % 50, 80 + i % 7, 300, i / 10, 120, i / 5, "" + i, 115 + s % 10));
+			}
+			sessions.add(session);
+		}
+		averager = new SessionAverager();
+	}
+
+	@Benchmark
+	public BikeSession average() throws IOException {
+		return SessionAverager.average(sessions, false);
+	}
+
+	/** Toggling "show full session length" with the aggregate of the selection cached. */
+	@Benchmark
+	public BikeSession toggleFullLength() throws IOException {
+		fullLength = !fullLength;
+		return averager.aggregate(sessions).toBikeSession(fullLength);
+	}
+
+	/** Median and percentile bands of all metrics. */
+	@Benchmark
+	public int percentiles() throws IOException {
+		SessionAggregate aggregate = SessionAverager.compute(sessions);
+		int sum = 0;
+		for (SessionAggregate.Metric metric : SessionAggregate.Metric.values()) {
+			sum += aggregate.getPercentile(metric, 90, 0);
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,47 @@
+package org.jergometer.model;
+
+import org.jergometer.JergometerSettings;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading of the session index of a user with 1k to 100k sessions.
+ * <p>
+ * The user directory is created below <code>user.home</code>; the benchmark target of
+ * build.xml sets <code>user.home</code> to a directory inside the build directory.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class UserDataLoadBenchmark {
+	private static final String USER_NAME = "benchmark";
+
+	@Param({"1000", "10000", "100000"})
+	public int sessions;
+
+	@Setup
+	public void setUp() throws IOException {
+		String userDirName = JergometerSettings.jergometerUsersDirName + "/" + USER_NAME;
+		String sessionsDirName = userDirName + "/sessions/";
+
+		ArrayList<BikeSession> bikeSessions = new ArrayList<BikeSession>(sessions);
+		long time = 1200000000000L;
+		for (int i = 0; i < sessions; i++) {
+			time += 86400000L;
+			StatsRecord stats = new StatsRecord(3600 * 120, 3600 * 100, 3600 * 80, 3600, 3600);
+			bikeSessions.add(new BikeSession(sessionsDirName, new Date(time), "examples/program " + (i % 20), 3600,
+					stats, stats));
+		}
+		new SessionIndex(new File(userDirName + "/sessions.idx")).write(bikeSessions);
+	}
+
+	@Benchmark
+	public UserData load() {
+		return new UserData(USER_NAME, null);
+	}
+}
@@ -29,4 +29,22 @@ public class FileUtils {
     out.print(text);
     out.close();
   }
+
+  /**
+   * Replaces a file with another file, e.g. with a temporary file written completely before.
+   * The target is renamed over first, so it is only deleted beforehand on platforms
+   * where a file cannot be renamed over an existing one.
+   *
+   * @param source new file (renamed)
+   * @param target file to replace
+   * @throws IOException if the file could not be replaced
+   */
+  public static void replace(File source, File target) throws IOException {
+    if (source.renameTo(target)) return;
+
+    // renameTo does not overwrite existing files on some platforms (e.g. Windows)
+    if (!target.exists() || !target.delete() || !source.renameTo(target)) {
+      throw new IOException("Could not replace \"" + target + "\" with \"" + source + "\".");
+    }
+  }
 }
@@ -0,0 +1,47 @@
+package de.endrullis.utils;
+
+/**
+ * Growable list of primitive ints (avoids boxing to Integer).
+ *
+ * @author Stefan Endrullis &lt;stefan@endrullis.de&gt;
+ */
+public class IntArrayList {
+	private int[] values;
+	private int size = 0;
+
+	public IntArrayList() {
+		this(10);
+	}
+
+	public IntArrayList(int capacity) {
+		values = new int[Math.max(capacity, 1)];
+	}
+
+	public void add(int value) {
+		if (size == values.length) {
+			int[] newValues = new int[values.length + (values.length >> 1) + 1];
+			System.arraycopy(values, 0, newValues, 0, size);
+			values = newValues;
+		}
+		values[size++] = value;
+	}
+
+	public int get(int index) {
+		if (index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		return values[index];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+}
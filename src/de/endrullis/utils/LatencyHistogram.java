@@ -0,0 +1,116 @@
+package de.endrullis.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies with power-of-two buckets in microseconds.
+ * Bucket <i>i</i> counts the latencies in [2^(i-1), 2^i) microseconds (bucket 0: below 1 &micro;s).
+ * Recording does not allocate and is thread-safe.
+ *
+ * @author Stefan Endrullis &lt;stefan@endrullis.de&gt;
+ */
+public class LatencyHistogram {
+	private static final int BUCKETS = 40;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sumNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * Records a latency.
+	 *
+	 * @param nanos latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) nanos = 0;
+		long micros = nanos / 1000;
+		int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+		counts.incrementAndGet(bucket);
+		count.incrementAndGet();
+		sumNanos.addAndGet(nanos);
+
+		long max;
+		while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+			// retry
+		}
+	}
+
+	/**
+	 * Adds the latencies of another histogram, e.g. to aggregate the histograms of several bikes.
+	 *
+	 * @param other histogram to add
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.addAndGet(i, other.counts.get(i));
+		}
+		count.addAndGet(other.count.get());
+		sumNanos.addAndGet(other.sumNanos.get());
+
+		long otherMax = other.maxNanos.get();
+		long max;
+		while (otherMax > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, otherMax)) {
+			// retry
+		}
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		sumNanos.set(0);
+		maxNanos.set(0);
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMeanMicros() {
+		long n = count.get();
+		return n == 0 ? 0 : sumNanos.get() / n / 1000;
+	}
+
+	public long getMaxMicros() {
+		return maxNanos.get() / 1000;
+	}
+
+	/**
+	 * Returns the upper bound of the bucket containing the given percentile.
+	 *
+	 * @param percentile percentile (0 to 100)
+	 * @return upper bound of the latency in microseconds
+	 */
+	public long getPercentileMicros(double percentile) {
+		long n = count.get();
+		if (n == 0) return 0;
+
+		long rank = (long) Math.ceil(n * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) return 1L << i;
+		}
+		return getMaxMicros();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("n=").append(getCount())
+				.append(" mean=").append(getMeanMicros()).append("us")
+				.append(" p50<").append(getPercentileMicros(50)).append("us")
+				.append(" p99<").append(getPercentileMicros(99)).append("us")
+				.append(" max=").append(getMaxMicros()).append("us");
+		for (int i = 0; i < BUCKETS; i++) {
+			long c = counts.get(i);
+			if (c != 0) {
+				sb.append("\n  <").append(1L << i).append("us: ").append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
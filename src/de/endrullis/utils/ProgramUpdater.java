@@ -144,14 +144,14 @@ public class ProgramUpdater extends JFrame implements ActionListener {
 
 	  // open local versions.xml
 	  try {
-	    XMLDocument doc = parser.parse(StreamUtils.readXmlStream(new FileInputStream(VERSIONS_FILE_NAME)));
+	    XMLDocument doc = parser.parse(new File(VERSIONS_FILE_NAME));
 	    for (XMLElement fileXml : doc.getRootElement().getChildElements()) {
 	      files.put(fileXml.getAttribute("name"), fileXml);
 	    }
 	  } catch (Exception ignored) {}
 
 	  // load versions.xml from the web
-	  XMLDocument doc = parser.parse(StreamUtils.readXmlStream(getInputStream(VERSIONS_FILE_NAME)));
+	  XMLDocument doc = parser.parse(getInputStream(VERSIONS_FILE_NAME));
 
 	  for (XMLElement fileXml : doc.getRootElement().getChildElements()) {
 	    String name = fileXml.getAttribute("name");
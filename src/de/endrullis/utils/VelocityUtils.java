@@ -15,7 +15,7 @@ import java.util.Properties;
 public class VelocityUtils {
 	private static boolean initialized = false;
 
-	public static void init() throws Exception {
+	public static synchronized void init() throws Exception {
 		if (initialized) return;
 
 		// initialize Velocity
@@ -0,0 +1,54 @@
+/**
+ * XMLAttributes.
+ *
+ * Attributes of a tag reported by the {@link XMLStreamParser}.
+ */
+
+package de.endrullis.xml;
+
+import java.util.ArrayList;
+
+public class XMLAttributes{
+  private ArrayList<String> names = new ArrayList<String>();
+  private ArrayList<String> values = new ArrayList<String>();
+
+  void clear(){
+    names.clear();
+    values.clear();
+  }
+
+  void add(String name, String value){
+    names.add(name);
+    values.add(value);
+  }
+
+  /**
+   * Returns the number of attributes.
+   *
+   * @return number of attributes
+   */
+  public int getLength(){
+    return names.size();
+  }
+
+  public String getName(int index){
+    return names.get(index);
+  }
+
+  public String getValue(int index){
+    return values.get(index);
+  }
+
+  /**
+   * Returns the value of the attribute with the given name (ignoring case).
+   *
+   * @param name attribute name
+   * @return attribute value or null if not available
+   */
+  public String getValue(String name){
+    for(int i = 0; i < names.size(); i++){
+      if(names.get(i).equalsIgnoreCase(name)) return values.get(i);
+    }
+    return null;
+  }
+}
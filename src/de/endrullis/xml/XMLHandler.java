@@ -0,0 +1,46 @@
+/**
+ * XMLHandler.
+ *
+ * Receives the events of the {@link XMLStreamParser}.
+ */
+
+package de.endrullis.xml;
+
+public interface XMLHandler{
+  /**
+   * Called for every opening (or self-closing) tag.
+   * The attributes object is reused by the parser and must not be stored.
+   *
+   * @param name element name
+   * @param attributes attributes of the element
+   * @throws XMLException to abort the parsing
+   */
+  public void startElement(String name, XMLAttributes attributes) throws XMLException;
+
+  /**
+   * Called for every closing tag and after {@link #startElement} for self-closing tags.
+   *
+   * @param name element name
+   * @throws XMLException to abort the parsing
+   */
+  public void endElement(String name) throws XMLException;
+
+  /**
+   * Called for the text in front of a tag if it is not empty.
+   * Newlines are replaced by spaces, comments are removed, and the text is trimmed.
+   *
+   * @param text text
+   * @throws XMLException to abort the parsing
+   */
+  public void text(String text) throws XMLException;
+
+  /**
+   * Called for processing instructions like &lt;?xml version="1.0"?&gt;.
+   * The attributes object is reused by the parser and must not be stored.
+   *
+   * @param target target of the processing instruction (e.g. "xml")
+   * @param attributes pseudo attributes of the processing instruction
+   * @throws XMLException to abort the parsing
+   */
+  public void processingInstruction(String target, XMLAttributes attributes) throws XMLException;
+}
@@ -0,0 +1,277 @@
+/**
+ * XMLStreamParser.
+ *
+ * Parses an XML stream in a single pass and reports the elements to an {@link XMLHandler}.
+ * The whole document is never held in memory, so large files (e.g. sessions.xml) can be
+ * parsed with constant memory besides the memory needed by the handler.
+ *
+ * Comments and the DOCTYPE definition are skipped, entities are not resolved.
+ */
+
+package de.endrullis.xml;
+
+import java.io.*;
+
+public class XMLStreamParser{
+  private static final int BUFFER_SIZE = 8192;
+  /** Number of bytes examined to detect the encoding of a stream. */
+  private static final int ENCODING_DETECTION_SIZE = 100;
+
+  private Reader reader;
+  private char[] buffer = new char[BUFFER_SIZE];
+  private int pos = 0;
+  private int limit = 0;
+
+  private StringBuilder text = new StringBuilder();
+  private StringBuilder tag = new StringBuilder();
+  private XMLAttributes attributes = new XMLAttributes();
+
+  /**
+   * Parses the XML stream.  The encoding is detected by the encoding attribute of the
+   * XML declaration (default UTF-8).
+   *
+   * @param stream XML stream
+   * @param handler handler receiving the XML events
+   * @throws IOException if an I/O error occurs
+   * @throws XMLException if the document is not well-formed
+   */
+  public void parse(InputStream stream, XMLHandler handler)
+          throws IOException, XMLException{
+    if(!stream.markSupported()) stream = new BufferedInputStream(stream, BUFFER_SIZE);
+    parse(new InputStreamReader(stream, detectEncoding(stream)), handler);
+  }
+
+  /**
+   * Parses the XML characters provided by the reader.
+   *
+   * @param reader XML reader
+   * @param handler handler receiving the XML events
+   * @throws IOException if an I/O error occurs
+   * @throws XMLException if the document is not well-formed
+   */
+  public void parse(Reader reader, XMLHandler handler)
+          throws IOException, XMLException{
+    this.reader = reader;
+    pos = 0;
+    limit = 0;
+    text.setLength(0);
+
+    int c;
+    while((c = read()) != -1){
+      if(c != '<'){
+        // newlines are treated as spaces
+        if(c == '\n' || c == '\r') c = ' ';
+        text.append((char) c);
+        continue;
+      }
+
+      if(startsWith("!--")){
+        // skip the comment (a comment without end goes to the end of the file)
+        pos += 3;
+        if(!skipTo("-->")) break;
+      } else if(startsWith("!DOCTYPE")){
+        skipDoctype();
+      } else{
+        readTag();
+        reportText(handler);
+        processTag(handler);
+      }
+    }
+
+    if(trimmedText() != null) throw new XMLException("falsche Syntax in XMLDaten");
+  }
+
+  /**
+   * Guesses the encoding of the stream from the XML declaration.
+   *
+   * @param stream stream supporting mark/reset
+   * @return encoding
+   * @throws IOException if an I/O error occurs
+   */
+  private static String detectEncoding(InputStream stream) throws IOException{
+    byte[] bytes = new byte[ENCODING_DETECTION_SIZE];
+    stream.mark(ENCODING_DETECTION_SIZE);
+    int length = 0;
+    int read;
+    while(length < bytes.length && (read = stream.read(bytes, length, bytes.length - length)) != -1){
+      length += read;
+    }
+    stream.reset();
+
+    String encoding = "UTF-8";
+    String beginning = new String(bytes, 0, length, "ISO-8859-1");
+    int encodingStart = beginning.indexOf("encoding=\"");
+    if(encodingStart != -1){
+      encodingStart += 10;
+      int encodingEnd = beginning.indexOf('"', encodingStart);
+      if(encodingStart < encodingEnd) encoding = beginning.substring(encodingStart, encodingEnd);
+    }
+    return encoding;
+  }
+
+  private int read() throws IOException{
+    if(pos == limit && !fill(1)) return -1;
+    return buffer[pos++];
+  }
+
+  /**
+   * Ensures that at least n characters are available in the buffer.
+   *
+   * @param n number of characters
+   * @return false if the end of the stream has been reached before
+   * @throws IOException if an I/O error occurs
+   */
+  private boolean fill(int n) throws IOException{
+    if(limit - pos >= n) return true;
+
+    // move the remaining characters to the beginning of the buffer
+    System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+    limit -= pos;
+    pos = 0;
+
+    while(limit < n){
+      int read = reader.read(buffer, limit, buffer.length - limit);
+      if(read == -1) return false;
+      limit += read;
+    }
+    return true;
+  }
+
+  private boolean startsWith(String s) throws IOException{
+    if(!fill(s.length())) return false;
+    for(int i = 0; i < s.length(); i++){
+      if(buffer[pos + i] != s.charAt(i)) return false;
+    }
+    return true;
+  }
+
+  /**
+   * Skips all characters up to and including the given string.
+   *
+   * @param end string to search for
+   * @return false if the end of the stream has been reached before
+   * @throws IOException if an I/O error occurs
+   */
+  private boolean skipTo(String end) throws IOException{
+    char first = end.charAt(0);
+    int c;
+    while((c = read()) != -1){
+      if(c == first && startsWith(end.substring(1))){
+        pos += end.length() - 1;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Skips the DOCTYPE definition including an internal subset in brackets.
+   */
+  private void skipDoctype() throws IOException, XMLException{
+    int c;
+    boolean inSubset = false;
+    while((c = read()) != -1){
+      if(c == '[') inSubset = true;
+      else if(c == ']') inSubset = false;
+      else if(c == '>' && !inSubset) return;
+    }
+    throw new XMLException("falsche Syntax in XMLDaten");
+  }
+
+  /**
+   * Reads the content of a tag (without the angle brackets) into the tag buffer.
+   */
+  private void readTag() throws IOException, XMLException{
+    tag.setLength(0);
+    char quote = 0;
+    int c;
+    while((c = read()) != -1){
+      if(quote != 0){
+        if(c == quote) quote = 0;
+      } else if(c == '"' || c == '\''){
+        quote = (char) c;
+      } else if(c == '>'){
+        return;
+      }
+      tag.append((char) c);
+    }
+    throw new XMLException("falsche Syntax in XMLDaten");
+  }
+
+  private String trimmedText(){
+    int start = 0;
+    int end = text.length();
+    while(start < end && text.charAt(start) <= ' ') start++;
+    while(end > start && text.charAt(end - 1) <= ' ') end--;
+    return start == end ? null : text.substring(start, end);
+  }
+
+  private void reportText(XMLHandler handler) throws XMLException{
+    String trimmed = trimmedText();
+    text.setLength(0);
+    if(trimmed != null) handler.text(trimmed);
+  }
+
+  private void processTag(XMLHandler handler) throws XMLException{
+    int start = 0;
+    int end = tag.length();
+    while(start < end && tag.charAt(start) <= ' ') start++;
+    while(end > start && tag.charAt(end - 1) <= ' ') end--;
+
+    if(start < end && tag.charAt(start) == '/'){
+      // closing tag
+      handler.endElement(tag.substring(start + 1, end).trim());
+      return;
+    }
+
+    boolean isProcessingInstruction = start < end && tag.charAt(start) == '?';
+    // is this an empty / selfclosing tag?
+    boolean isEmptyTag = false;
+    if(end > start && (tag.charAt(end - 1) == '/' || tag.charAt(end - 1) == '?')){
+      isEmptyTag = true;
+      end--;
+    }
+
+    // get the tag name
+    int nameEnd = start;
+    while(nameEnd < end && tag.charAt(nameEnd) > ' ') nameEnd++;
+    String name = tag.substring(start, nameEnd);
+
+    parseAttributes(nameEnd, end);
+
+    if(isProcessingInstruction){
+      handler.processingInstruction(name.substring(1), attributes);
+    } else{
+      handler.startElement(name, attributes);
+      if(isEmptyTag) handler.endElement(name);
+    }
+  }
+
+  private void parseAttributes(int index, int end) throws XMLException{
+    attributes.clear();
+    while(true){
+      while(index < end && tag.charAt(index) <= ' ') index++;
+      if(index >= end) return;
+
+      // attribute name before '='
+      int equals = tag.indexOf("=", index);
+      if(equals == -1 || equals >= end) throw new XMLException("wrong attribute definition");
+      String attributeName = tag.substring(index, equals).trim();
+
+      // attribute value after '=' surrounded by quotes
+      index = equals + 1;
+      while(index < end && tag.charAt(index) <= ' ') index++;
+      char quote = index < end ? tag.charAt(index) : 0;
+      if(quote != '"' && quote != '\''){
+        throw new XMLException("attribute value must be surrounded by quotes: " + attributeName);
+      }
+      int valueEnd = tag.indexOf(String.valueOf(quote), index + 1);
+      if(valueEnd == -1 || valueEnd >= end){
+        throw new XMLException("attribute value must be surrounded by quotes: " + attributeName);
+      }
+
+      attributes.add(attributeName, tag.substring(index + 1, valueEnd));
+      index = valueEnd + 1;
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/**
+ * XMLTreeBuilder.
+ *
+ * Builds an {@link XMLDocument} from the events of the {@link XMLStreamParser}.
+ */
+
+package de.endrullis.xml;
+
+import java.util.ArrayList;
+
+public class XMLTreeBuilder implements XMLHandler{
+  private XMLDocument document = new XMLDocument();
+  /** Open elements; the first one is a pseudo element holding the root element. */
+  private ArrayList<XMLElement> theParents = new ArrayList<XMLElement>();
+  /** Text in front of the next tag. */
+  private String pendingText = null;
+
+  public XMLTreeBuilder(){
+    theParents.add(new XMLElement());
+  }
+
+  public void startElement(String name, XMLAttributes attributes) throws XMLException{
+    // we do not allow child tags if the element contains text
+    if(pendingText != null){
+      throw new XMLException("element must not contain text: " + pendingText);
+    }
+
+    XMLElement parent = theParents.get(theParents.size() - 1);
+    if(theParents.size() == 1 && parent.getChildElements().size() != 0){
+      throw new XMLException("more than one root element");
+    }
+
+    XMLElement element = new XMLElement(name);
+    for(int i = 0; i < attributes.getLength(); i++){
+      element.setAttribute(attributes.getName(i), attributes.getValue(i));
+    }
+    parent.addChildElement(element);
+    if(theParents.size() == 1) document.setRootElement(element);
+    theParents.add(element);
+  }
+
+  public void endElement(String name) throws XMLException{
+    XMLElement element = theParents.get(theParents.size() - 1);
+
+    if(pendingText != null){
+      if(element.getChildElements().size() != 0){
+        throw new XMLException("element must not contain text: " + pendingText);
+      } else{
+        // element contains only text
+        element.setText(pendingText);
+      }
+      pendingText = null;
+    }
+
+    // closing tag, the tag name must be identical with the parent element
+    if(theParents.size() == 1 || !element.getName().equalsIgnoreCase(name)){
+      throw new XMLException("wrong closing tag: /" + name);
+    }
+
+    // element has been processed, go one level back
+    theParents.remove(theParents.size() - 1);
+  }
+
+  public void text(String text) throws XMLException{
+    pendingText = text;
+  }
+
+  public void processingInstruction(String target, XMLAttributes attributes) throws XMLException{
+    if(pendingText != null){
+      throw new XMLException("element must not contain text: " + pendingText);
+    }
+
+    // is this an XML type definition
+    if(target.equals("xml")){
+      // read version and encoding
+      if(attributes.getValue("version") != null){
+        document.setXMLVerion(attributes.getValue("version"));
+      }
+      if(attributes.getValue("encoding") != null){
+        document.setXMLEncoding(attributes.getValue("encoding"));
+      }
+    }
+  }
+
+  /**
+   * Returns the document built so far.
+   *
+   * @return document
+   */
+  public XMLDocument getDocument(){
+    return document;
+  }
+}
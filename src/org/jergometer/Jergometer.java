@@ -1,5 +1,6 @@
 package org.jergometer;
 
+import de.endrullis.utils.IntArrayList;
 import de.endrullis.utils.ParamsExt;
 import de.endrullis.utils.ProgramUpdater;
 import de.endrullis.utils.ShellPrintStream;
@@ -18,16 +19,19 @@ import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.TreePath;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import gnu.io.UnsupportedCommOperationException;
 
 /**
  * Main class of JErgometer.
  */
-public class Jergometer implements BikeListener, ActionListener, WindowListener {
+public class Jergometer implements BikeListener, WindowListener {
 
 // static
 
@@ -43,9 +47,11 @@ public class Jergometer implements BikeListener, ActionListener, WindowListener
 		} catch (IOException ignored) {}
 	}
 
-	public enum State { notConnected, connected, reset, hello }
 	public enum SessionsVis { average, progression }
 
+	/** Maximal number of sessions plotted individually in the progression of all filtered sessions. */
+	private static final int MAX_PROGRESSION_POINTS = 400;
+
 	private final ProgramUpdater updater = new ProgramUpdater("JErgometer update", "http://common.jergometer.org/update/");
 
 	public static void main(String[] args) {
@@ -100,11 +106,10 @@ public class Jergometer implements BikeListener, ActionListener, WindowListener
 	private JergometerSettings jergometerSettings;
 	private UserSettings userSettings = null;
 	private UserData userData = null;
-	private State state = State.notConnected;
 	private BikeConnector bikeConnector;
+	private BikeCommandScheduler commandScheduler = null;
 	private MainWindow mainWindow;
 	private boolean gui;
-	private Timer communicationTimer = null;
 	private boolean recording = false;
 	private int power;
 	private BikeProgramTree programTree;
@@ -112,6 +117,10 @@ public class Jergometer implements BikeListener, ActionListener, WindowListener
 	private DiagramVisualizer diagramVisualizer = new BikeProgramVisualizer(null);
 	private BikeSessionFilter sessionFilter = new BikeSessionFilter();
 	private SessionsVis sessionsVis = SessionsVis.average;
+	private final SessionAverager sessionAverager = new SessionAverager();
+	/** Number of sessions in the session table. */
+	private int filteredSessionCount = 0;
+	private SessionTableModel sessionTableModel = null;
 	private ArrayList<BikeSession> selectedSessions = new ArrayList<BikeSession>();
 	private Diagram.Marker sessionEndMarker = null;
 
@@ -124,6 +133,7 @@ public class Jergometer implements BikeListener, ActionListener, WindowListener
 		this.gui = gui;
 
 		jergometerSettings = new JergometerSettings();
+		SessionSampleCache.getShared().setByteBudget(jergometerSettings.getSampleCacheSize() * 1024L * 1024);
 
 		// search for updates in the background
 		if (updatable) {
@@ -195,15 +205,26 @@ public class Jergometer implements BikeListener, ActionListener, WindowListener
 	 */
 	private void connectToSerialPort() throws BikeException, UnsupportedCommOperationException, IOException, UnconfiguredSerialPortException {
 		String driver = jergometerSettings.getSerialDriver();
-		bikeConnector = BikeConnectors.name2bikeConnector.get(driver);
+		bikeConnector = BikeConnectors.create(driver);
 
 		String serialPort = jergometerSettings.getSerialPort();
-		if (serialPort == null) {
+		long pollPeriod = jergometerSettings.getBikePollPeriod();
+		if (bikeConnector instanceof ModelBikeConnector) {
+			// the simulated bike does not need a serial port
+			ModelBikeConnector modelBikeConnector = (ModelBikeConnector) bikeConnector;
+			modelBikeConnector.setParameters(jergometerSettings.getSimulatorParameters());
+			modelBikeConnector.setTimeScale(jergometerSettings.getSimulatorTimeScale());
+			modelBikeConnector.setSeed(System.currentTimeMillis());
+			// the simulated bike rides one second per poll
+			pollPeriod = Math.min(pollPeriod, ModelBikeConnector.getMaxPollPeriod(jergometerSettings.getSimulatorTimeScale()));
+		} else if (serialPort == null) {
 			throw new UnconfiguredSerialPortException();
 		}
 
+		commandScheduler = new BikeCommandScheduler(bikeConnector, this,
+				jergometerSettings.getBikeRequestsInFlight(), pollPeriod);
 		try {
-			bikeConnector.connect(serialPort, this);
+			bikeConnector.connect(serialPort, commandScheduler);
 		} catch (IOException e) {
 			if (e.getMessage().equals("Cannot run program \"/usr/bin/socat\": java.io.IOException: error=2, No such file or directory")) {
 				JOptionPane.showMessageDialog(mainWindow, I18n.getString("msg.socat_not_found"), I18n.getString("error_dialog.title"), JOptionPane.ERROR_MESSAGE);
@@ -267,13 +288,15 @@ public class Jergometer implements BikeListener, ActionListener, WindowListener
 	private void filterSessions() {
 		if (!gui || userData == null) return;
 
-		ArrayList<BikeSession> filteredList = new ArrayList<BikeSession>();
-		for (BikeSession bikeSession : userData.getSessions()) {
-			if (sessionFilter.match(bikeSession)) {
-				filteredList.add(bikeSession);
-			}
+		// the table reads the sessions from the catalog
+		List<BikeSession> filteredList = userData.getCatalog().view(sessionFilter);
+		filteredSessionCount = filteredList.size();
+		if (sessionTableModel == null) {
+			sessionTableModel = new SessionTableModel(filteredList);
+			mainWindow.getSessionTable().setModel(sessionTableModel);
+		} else {
+			sessionTableModel.setSessions(filteredList);
 		}
-		mainWindow.getSessionTable().setModel(new SessionTableModel(filteredList));
 	}
 
 	/**
@@ -288,6 +311,15 @@ public class Jergometer implements BikeListener, ActionListener, WindowListener
 
 			// parse all session files
 			userData.generate();
+			if (!userData.getGenerateErrors().isEmpty()) {
+				StringBuilder files = new StringBuilder();
+				for (Map.Entry<File, IOException> entry : userData.getGenerateErrors().entrySet()) {
+					System.err.println(entry.getKey() + ": " + entry.getValue().getMessage());
+					files.append("\n").append(entry.getKey().getName());
+				}
+				JOptionPane.showMessageDialog(mainWindow, I18n.getString("msg.sessions_could_not_be_parsed", files.toString()),
+						I18n.getString("error_dialog.title"), JOptionPane.ERROR_MESSAGE);
+			}
 
 			// check if there are old/unknown bike programs in the sessions
 			// and put them into unknownBikeProgram2Sessions
@@ -336,10 +368,13 @@ public class Jergometer implements BikeListener, ActionListener, WindowListener
 				}
 				if (bikeSession.isNeedToBeSaved()) {
 					bikeSession.save(getCurrentSessionDir());
+				} else {
+					// rewrite session files of older formats
+					bikeSession.migrateFile();
 				}
 			}
 
-			// save the sessions.xml
+			// rewrite the session index
 			userData.save();
 			pm.close();
 		} catch (IOException e) {
@@ -377,6 +412,7 @@ public class Jergometer implements BikeListener, ActionListener, WindowListener
 				e.printStackTrace();
 				JOptionPane.showMessageDialog(mainWindow, I18n.getString("msg.configure_comport_first"));
 				mainWindow.openSettingsWindow();
+				return;
 			} catch (NoClassDefFoundError e) {
 				JOptionPane.showMessageDialog(mainWindow, I18n.getString("msg.unsatisfied_link_error"), I18n.getString("error_dialog.title"), JOptionPane.ERROR_MESSAGE);
 				return;
@@ -393,10 +429,10 @@ public class Jergometer implements BikeListener, ActionListener, WindowListener
 			mainWindow.setRecordState(true);
 			recording = true;
 
+			program.setPulseControllerName(jergometerSettings.getPulseController());
 			program.newSession();
 
-			communicationTimer = new Timer(500, this);
-			communicationTimer.start();
+			commandScheduler.start();
 		}
 	}
 
@@ -405,8 +441,8 @@ public class Jergometer implements BikeListener, ActionListener, WindowListener
 	 */
 	public void stopRecording() {
 		if (recording) {
-			if (communicationTimer != null) {
-				communicationTimer.stop();
+			if (commandScheduler != null) {
+				commandScheduler.stop();
 			}
 			try {
 				if (bikeConnector != null) {
@@ -420,10 +456,12 @@ public class Jergometer implements BikeListener, ActionListener, WindowListener
 					// save session file
 					program.getSession().save(getCurrentSessionDir());
 					// add session to session table
-					userData.getSessions().add(program.getSession());
-					userData.save();
+					userData.addSession(program.getSession());
 					// update session table
-					filterSessions();
+					if (gui && sessionTableModel != null) {
+						sessionTableModel.sessionAdded(program.getSession());
+						filteredSessionCount = sessionTableModel.getRowCount();
+					}
 				} catch (IOException e) {
 					e.printStackTrace();
 				}
@@ -491,13 +529,32 @@ public class Jergometer implements BikeListener, ActionListener, WindowListener
 	}
 
 	public void deleteSelectedBikeSessions() {
-		for (BikeSession selectedSession : selectedSessions) {
-			this.userData.getSessions().remove(selectedSession);
-			//noinspection ResultOfMethodCallIgnored
-			selectedSession.getFile().delete();
+		// removing rows changes the selection -> iterate over a copy
+		for (BikeSession selectedSession : new ArrayList<BikeSession>(selectedSessions)) {
+			int row = gui && sessionTableModel != null ? sessionTableModel.getRow(selectedSession) : -1;
+			// release the cached samples of the deleted session
+			File file = selectedSession.getFile();
+			SessionSampleCache.getShared().invalidate(file);
+			if (file.exists() && !file.delete()) {
+				// keep the session, otherwise it would come back with the next reparse
+				String message = I18n.getString("msg.session_could_not_be_deleted", file.getPath());
+				if (gui) {
+					JOptionPane.showMessageDialog(mainWindow, message, I18n.getString("error_dialog.title"), JOptionPane.ERROR_MESSAGE);
+				} else {
+					System.err.println(message);
+				}
+				continue;
+			}
+			try {
+				this.userData.removeSession(selectedSession);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			if (gui && sessionTableModel != null) {
+				sessionTableModel.sessionRemoved(selectedSession, row);
+				filteredSessionCount = sessionTableModel.getRowCount();
+			}
 		}
-		userData.save();
-		filterSessions();
 	}
 
 	/**
@@ -529,46 +586,22 @@ public class Jergometer implements BikeListener, ActionListener, WindowListener
 
 		switch (sessionsVis) {
 			case average:
-				boolean fullLength = mainWindow.isShowFullSessionLength();
-
-				// calculate minimal duration
-				int duration = Integer.MAX_VALUE;
-				for (BikeSession bikeSession : bikeSessions) {
-					int thisDuration = fullLength ? bikeSession.getStatsTotal().getDuration() : bikeSession.getProgramDuration();
-					duration = Math.min(duration, thisDuration);
-				}
-
-				BikeSession virtualBikeSession = new BikeSession(bikeSessions.get(0).getProgramName(), duration);
-				virtualBikeSession.initialVirtualBikeSession();
-
-				int sessionCount = bikeSessions.size();
-
-				int pulse, pulseCount, finalPulse, pedalRpm, power;
-				MiniDataRecord data;
-
-				for (int i = 0; i < duration; i++) {
-					// reset values
-					pulse = 0; pulseCount = 0; pedalRpm = 0; power = 0;
-
-					for (BikeSession bikeSession : bikeSessions) {
-						data = bikeSession.getData().get(i);
-						if (data.getPulse() > 0) {
-							pulse += data.getPulse();
-							pulseCount++;
-						}
-						pedalRpm += data.getPedalRpm();
-						power += data.getPower();
-					}
-					finalPulse = pulseCount == 0 ? 0 : pulse/pulseCount;
-
-					virtualBikeSession.getData().add(new MiniDataRecord(finalPulse, power/sessionCount, pedalRpm/sessionCount));
-				}
+				// the aggregate is cached, toggling the session length only creates another virtual session
+				BikeSession virtualBikeSession = sessionAverager.aggregate(bikeSessions).toBikeSession(mainWindow.isShowFullSessionLength());
 				visualizeBikeSession(virtualBikeSession);
 				break;
 			case progression:
 				ProgressionVisualizer progressionVisualizer = new ProgressionVisualizer(mainWindow.getDiagram());
 				diagramVisualizer = progressionVisualizer;
-				progressionVisualizer.visualize(bikeSessions);
+				if (bikeSessions.size() > MAX_PROGRESSION_POINTS && bikeSessions.size() == filteredSessionCount) {
+					// all filtered sessions -> plot the aggregates of the rollup instead of every session
+					long start = bikeSessions.get(0).getStartTime().getTime();
+					long end = bikeSessions.get(bikeSessions.size() - 1).getStartTime().getTime() + 1;
+					SessionRollup.Period period = SessionRollup.getPeriod(start, end, MAX_PROGRESSION_POINTS);
+					progressionVisualizer.visualize(userData.getRollup().getBuckets(sessionFilter, period, start, end), start, end);
+				} else {
+					progressionVisualizer.visualize(bikeSessions);
+				}
 				break;
 		}
 	}
@@ -616,6 +649,18 @@ public class Jergometer implements BikeListener, ActionListener, WindowListener
 		return selectedSessions;
 	}
 
+	public BikeCommandScheduler getCommandScheduler() {
+		return commandScheduler;
+	}
+
+	public MainWindow getMainWindow() {
+		return mainWindow;
+	}
+
+	public UserData getUserData() {
+		return userData;
+	}
+
 	public JergometerSettings getSettings() {
 		return jergometerSettings;
 	}
@@ -635,14 +680,7 @@ public class Jergometer implements BikeListener, ActionListener, WindowListener
 
 // BikeListener by BikeReader
 	public void bikeAck() {
-		switch(state) {
-			case hello:
-				state = State.connected;
-				break;
-			case reset:
-				state = State.hello;
-				break;
-		}
+		// the connection handshake is done by the command scheduler
 	}
 
 	public void bikeData(DataRecord data) {
@@ -671,10 +709,9 @@ public class Jergometer implements BikeListener, ActionListener, WindowListener
 			case cycle:
 				// user is cycling -> remove session end marker if added
 				if (sessionEndMarker != null) {
+					// only the program and data layers are redrawn
 					diagram.removeVerticalMarker(sessionEndMarker);
 					diagram.clearGraph("pulse-end");
-					diagram.redrawImage();
-					diagram.repaint();
 					sessionEndMarker = null;
 				}
 
@@ -684,11 +721,8 @@ public class Jergometer implements BikeListener, ActionListener, WindowListener
 				diagram.addValue("power", time, data.getRealPower());
 
 				power = program.getPower();
-				try {
-					if (power != data.getDestPower()) {
-						bikeConnector.sendSetPower(power);
-					}
-				} catch (IOException ignored) {
+				if (power != data.getDestPower()) {
+					commandScheduler.setPower(power);
 				}
 				mainWindow.setProgramAction(program.getProgramAction());
 				break;
@@ -699,11 +733,11 @@ public class Jergometer implements BikeListener, ActionListener, WindowListener
 					int endTime = program.getSession().getStatsTotal().getDuration();
 					sessionEndMarker = new Diagram.Marker(endTime, new Color(196, 196, 0), new BasicStroke(), "session end");
 					diagram.addVerticalMarker(sessionEndMarker);
-					diagram.repaint();
 					
 					time = program.getSession().getDuration();
-					for (Integer pulse : program.getSession().getPulseAfterSession()) {
-						diagram.addValue("pulse-end", ++time, pulse);
+					IntArrayList pulseAfterSession = program.getSession().getPulseAfterSession();
+					for (int i = 0; i < pulseAfterSession.size(); i++) {
+						diagram.addValue("pulse-end", ++time, pulseAfterSession.get(i));
 					}
 				} else {
 					time = program.getSession().getDurationPulse();
@@ -725,32 +759,6 @@ public class Jergometer implements BikeListener, ActionListener, WindowListener
 		program.changeInteractively(change);
 	}
 
-	// ActionListener by communicationTimer
-	public void actionPerformed(ActionEvent e) {
-		if (e.getSource() == communicationTimer) {
-			try {
-				// FSM
-				switch(state) {
-					case notConnected:
-						state = State.reset;
-						bikeConnector.sendReset();
-						break;
-					case hello:
-						bikeConnector.sendHello();
-						break;
-					case reset:
-						bikeConnector.sendReset();
-						break;
-					case connected:
-						bikeConnector.sendGetData();
-						break;
-				}
-			} catch (IOException e1) {
-				e1.printStackTrace();
-			}
-		}
-	}
-
 // WindowListener by mainWindow
 	public void windowOpened(WindowEvent e) {
 	}
@@ -1,8 +1,10 @@
 package org.jergometer;
 
 import org.jergometer.model.DataRecord;
+import org.jergometer.model.SessionSampleCache;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.Random;
@@ -67,6 +69,28 @@ public class JergometerConsole extends Thread {
 						sleep(10);
 					}
 				} else
+				if (line.startsWith("export ")) {
+					// export the session index as XML
+					File xmlFile = new File(line.substring("export ".length()).trim());
+					try {
+						jergometer.getUserData().exportXml(xmlFile);
+						System.out.println("sessions exported to " + xmlFile);
+					} catch (IOException e) {
+						System.err.println("export failed: " + e.getMessage());
+					}
+				} else
+				if (line.equals("metrics")) {
+					// bike communication metrics
+					if (jergometer.getCommandScheduler() != null) {
+						System.out.println(jergometer.getCommandScheduler());
+					} else {
+						System.out.println("not connected");
+					}
+					// diagram frame and redraw times
+					System.out.println(jergometer.getMainWindow().getDiagram().getRenderMetrics());
+					// samples of the viewed sessions
+					System.out.println(SessionSampleCache.getShared());
+				} else
 				if (line.equals("quit")) {
 					System.exit(0);
 				}
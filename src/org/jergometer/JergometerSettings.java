@@ -6,6 +6,8 @@ import de.endrullis.xml.XMLDocument;
 import de.endrullis.xml.XMLElement;
 import de.endrullis.xml.XMLParser;
 import org.jergometer.communication.BikeConnectors;
+import org.jergometer.control.PulseControllers;
+import org.jergometer.control.SyntheticRider;
 
 import javax.swing.*;
 import java.awt.*;
@@ -51,6 +53,12 @@ public class JergometerSettings {
 	private String serialDriver;
 	private String serialPort;
 	private String xmlEditor;
+	private int bikeRequestsInFlight;
+	private int bikePollPeriod;
+	private int sampleCacheSize;
+	private String pulseController;
+	private int simulatorTimeScale;
+	private SyntheticRider.Parameters simulatorParameters = new SyntheticRider.Parameters();
 
 	public JergometerSettings() {
 		// create all directories
@@ -94,6 +102,39 @@ public class JergometerSettings {
 		properties.addEntry(new BetterProperties2.Def("comport", STRING, null));
 		properties.addEntry(new BetterProperties2.Def("xml_editor", STRING, null));
 
+		properties.addEntry(new BetterProperties2.Comment("\n## Bike communication"));
+		properties.addEntry(new BetterProperties2.Comment(" Maximal number of requests sent to the bike without response"));
+		properties.addEntry(new BetterProperties2.Def("bike.requests_in_flight", INT_GT_0, "1"));
+		properties.addEntry(new BetterProperties2.Comment(" Minimal period between two requests in ms (increased automatically for slow bikes)"));
+		properties.addEntry(new BetterProperties2.Def("bike.poll_period", INT_GT_0, "500"));
+
+		properties.addEntry(new BetterProperties2.Comment("\n## Programs"));
+		properties.addEntry(new BetterProperties2.Comment(" Controller of the pulse actions (switcher, pid or model)"));
+		properties.addEntry(new BetterProperties2.Def("program.pulse_controller", STRING, PulseControllers.DEFAULT));
+
+		properties.addEntry(new BetterProperties2.Comment("\n## Sessions"));
+		properties.addEntry(new BetterProperties2.Comment(" Maximal size of the samples of recently viewed sessions kept in memory in MB"));
+		properties.addEntry(new BetterProperties2.Def("sessions.sample_cache_size", INT_GT_0, "64"));
+
+		SyntheticRider.Parameters rider = new SyntheticRider.Parameters();
+		properties.addEntry(new BetterProperties2.Comment("\n## Simulator (driver simulator-model)"));
+		properties.addEntry(new BetterProperties2.Comment(" Simulated seconds per second (1 = real time)"));
+		properties.addEntry(new BetterProperties2.Def("simulator.time_scale", INT_GT_0, "1"));
+		properties.addEntry(new BetterProperties2.Comment(" Pulse of the rider without power, increase of the pulse per W, and time constant of the pulse in s"));
+		properties.addEntry(new BetterProperties2.Def("simulator.rest_pulse", DOUBLE_GT_0, "" + rider.restPulse));
+		properties.addEntry(new BetterProperties2.Def("simulator.pulse_gain", DOUBLE_GT_0, "" + rider.gain));
+		properties.addEntry(new BetterProperties2.Def("simulator.time_constant", DOUBLE_GT_0, "" + rider.timeConstant));
+		properties.addEntry(new BetterProperties2.Comment(" Delay of the measured pulse in s and its noise in bpm"));
+		properties.addEntry(new BetterProperties2.Def("simulator.pulse_lag", INT_GT_0, "" + rider.pulseLag));
+		properties.addEntry(new BetterProperties2.Def("simulator.pulse_noise", DOUBLE_GT_0, "" + rider.pulseNoise));
+		properties.addEntry(new BetterProperties2.Comment(" Increase of the pulse per hour due to fatigue in bpm"));
+		properties.addEntry(new BetterProperties2.Def("simulator.fatigue_drift", DOUBLE_GT_0, "" + rider.fatigueDrift));
+		properties.addEntry(new BetterProperties2.Comment(" Mean cadence and its noise in rpm"));
+		properties.addEntry(new BetterProperties2.Def("simulator.cadence", INT_GT_0, "" + rider.cadence));
+		properties.addEntry(new BetterProperties2.Def("simulator.cadence_noise", DOUBLE_GT_0, "" + rider.cadenceNoise));
+		properties.addEntry(new BetterProperties2.Comment(" Probability per second that the pulse signal drops out"));
+		properties.addEntry(new BetterProperties2.Def("simulator.dropout_rate", DOUBLE_0_TO_1, "" + rider.dropoutRate));
+
 		properties.addEntry(new BetterProperties2.Comment("\n## Window properties"));
 		properties.addEntry(new BetterProperties2.Comment(" Position, width, and height of the main window"));
 		properties.addEntry(new BetterProperties2.Def("main_window.x", INT_GT_0, "0"));
@@ -147,11 +188,28 @@ public class JergometerSettings {
 			serialDriver = BikeConnectors.allBikeConnectors[0].getName();
 		}
 		xmlEditor = properties.getString("xml_editor");
+		bikeRequestsInFlight = properties.getInt("bike.requests_in_flight");
+		bikePollPeriod = properties.getInt("bike.poll_period");
+		sampleCacheSize = properties.getInt("sessions.sample_cache_size");
+		pulseController = properties.getString("program.pulse_controller");
+		if (pulseController == null) {
+			pulseController = PulseControllers.DEFAULT;
+		}
+		simulatorTimeScale = properties.getInt("simulator.time_scale");
+		simulatorParameters.restPulse = properties.getDouble("simulator.rest_pulse");
+		simulatorParameters.gain = properties.getDouble("simulator.pulse_gain");
+		simulatorParameters.timeConstant = properties.getDouble("simulator.time_constant");
+		simulatorParameters.pulseLag = properties.getInt("simulator.pulse_lag");
+		simulatorParameters.pulseNoise = properties.getDouble("simulator.pulse_noise");
+		simulatorParameters.fatigueDrift = properties.getDouble("simulator.fatigue_drift");
+		simulatorParameters.cadence = properties.getInt("simulator.cadence");
+		simulatorParameters.cadenceNoise = properties.getDouble("simulator.cadence_noise");
+		simulatorParameters.dropoutRate = properties.getDouble("simulator.dropout_rate");
 
 		if (oldSettingsFile.exists()) {
 			XMLParser parser = new XMLParser();
 			try {
-				XMLDocument doc = parser.parse(StreamUtils.readXmlStream(new FileInputStream(oldSettingsFile)));
+				XMLDocument doc = parser.parse(oldSettingsFile);
 				XMLElement root = doc.getRootElement();
 
 				XMLElement update = root.getChildElement("update");
@@ -184,6 +242,20 @@ public class JergometerSettings {
 		properties.setString("comport", serialPort);
 		properties.setString("driver", serialDriver);
 		properties.setString("xml_editor", xmlEditor);
+		properties.setInt("bike.requests_in_flight", bikeRequestsInFlight);
+		properties.setInt("bike.poll_period", bikePollPeriod);
+		properties.setInt("sessions.sample_cache_size", sampleCacheSize);
+		properties.setString("program.pulse_controller", pulseController);
+		properties.setInt("simulator.time_scale", simulatorTimeScale);
+		properties.setDouble("simulator.rest_pulse", simulatorParameters.restPulse);
+		properties.setDouble("simulator.pulse_gain", simulatorParameters.gain);
+		properties.setDouble("simulator.time_constant", simulatorParameters.timeConstant);
+		properties.setInt("simulator.pulse_lag", simulatorParameters.pulseLag);
+		properties.setDouble("simulator.pulse_noise", simulatorParameters.pulseNoise);
+		properties.setDouble("simulator.fatigue_drift", simulatorParameters.fatigueDrift);
+		properties.setInt("simulator.cadence", simulatorParameters.cadence);
+		properties.setDouble("simulator.cadence_noise", simulatorParameters.cadenceNoise);
+		properties.setDouble("simulator.dropout_rate", simulatorParameters.dropoutRate);
 
 		settingsFile.getParentFile().mkdirs();
 		try {
@@ -272,4 +344,68 @@ public class JergometerSettings {
 	public void setXmlEditor(String xmlEditor) {
 		this.xmlEditor = xmlEditor;
 	}
+
+	public int getBikeRequestsInFlight() {
+		return bikeRequestsInFlight;
+	}
+
+	public void setBikeRequestsInFlight(int bikeRequestsInFlight) {
+		this.bikeRequestsInFlight = bikeRequestsInFlight;
+	}
+
+	public int getBikePollPeriod() {
+		return bikePollPeriod;
+	}
+
+	public void setBikePollPeriod(int bikePollPeriod) {
+		this.bikePollPeriod = bikePollPeriod;
+	}
+
+	/**
+	 * Returns the maximal size of the session samples kept in memory.
+	 *
+	 * @return size in MB
+	 */
+	public int getSampleCacheSize() {
+		return sampleCacheSize;
+	}
+
+	public void setSampleCacheSize(int sampleCacheSize) {
+		this.sampleCacheSize = sampleCacheSize;
+	}
+
+	/**
+	 * Returns the name of the controller of the pulse actions.
+	 *
+	 * @return controller name (see {@link PulseControllers})
+	 */
+	public String getPulseController() {
+		return pulseController;
+	}
+
+	public void setPulseController(String pulseController) {
+		this.pulseController = pulseController;
+	}
+
+	/**
+	 * Returns how fast the time of the simulated bike runs.
+	 *
+	 * @return simulated seconds per second
+	 */
+	public int getSimulatorTimeScale() {
+		return simulatorTimeScale;
+	}
+
+	public void setSimulatorTimeScale(int simulatorTimeScale) {
+		this.simulatorTimeScale = simulatorTimeScale;
+	}
+
+	/**
+	 * Returns the parameters of the rider of the simulated bike.
+	 *
+	 * @return rider parameters (modifiable)
+	 */
+	public SyntheticRider.Parameters getSimulatorParameters() {
+		return simulatorParameters;
+	}
 }
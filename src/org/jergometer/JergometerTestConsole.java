@@ -46,6 +46,7 @@ public class JergometerTestConsole implements BikeListener {
 			System.out.println("*   9 - close connection");
 			System.out.println("*  11 - print available input data");
 			System.out.println("*  12 - print available input data as decimals");
+			System.out.println("*  13 - print latency histogram of the received data");
 
 
 			while(true) {
@@ -124,6 +125,10 @@ public class JergometerTestConsole implements BikeListener {
 						bikeConnector.reader.setPrintAvailable(KettlerBikeReader.PrintAvailable.decimals);
 						break;
 
+					case 13:
+						System.out.println("* latency: " + bikeConnector.reader.getLatencyHistogram());
+						break;
+
 					default:
 						System.out.println("* error: unknown command");
 				}
@@ -1,12 +1,10 @@
 package org.jergometer;
 
-import de.endrullis.utils.StreamUtils;
 import de.endrullis.xml.XMLDocument;
 import de.endrullis.xml.XMLElement;
 import de.endrullis.xml.XMLParser;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 
@@ -30,7 +28,7 @@ public class UserSettings {
 			// default settings
 			XMLParser parser = new XMLParser();
 			try {
-				XMLDocument doc = parser.parse(StreamUtils.readXmlStream(new FileInputStream(settingsFile)));
+				XMLDocument doc = parser.parse(settingsFile);
 				XMLElement root = doc.getRootElement();
 
 				XMLElement users = root.getChildElement("programs");
@@ -0,0 +1,438 @@
+package org.jergometer.communication;
+
+import de.endrullis.utils.LatencyHistogram;
+import org.jergometer.model.DataRecord;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.*;
+
+/**
+ * Drives the communication with the bike on its own thread.
+ * <p>
+ * The scheduler performs the connection handshake and afterwards polls the bike for data.
+ * The handshake does not wait a fixed time after the reset: as soon as the bike acknowledges
+ * the reset, hello is sent (with increasing delays until the bike answers it), and the
+ * polling starts immediately after the bike has acknowledged hello.  If the bike does not
+ * answer, reset and hello are repeated.
+ * <p>
+ * When connected, the scheduler keeps up to <code>maxRequestsInFlight</code> requests in flight
+ * and matches the responses (in order) to the requests to measure the round-trip time.
+ * The poll period adapts to the round-trip time: it is at least the configured minimal
+ * poll period and at least the round-trip time divided by the number of requests in flight.
+ * <p>
+ * Power changes are coalesced: only the latest power is sent with the next request.
+ * <p>
+ * The scheduler is registered as listener at the bike connector and forwards all
+ * events to the actual listener.
+ * <p>
+ * Several schedulers may share one executor (see {@link #start(ScheduledExecutorService)}),
+ * so many bikes can be driven by a few threads.  The ticks of one scheduler never run
+ * concurrently.
+ */
+public class BikeCommandScheduler implements BikeListener {
+	public static enum State { notConnected, reset, hello, connected }
+
+	/** Upper bound of the poll period in ms. */
+	private static final long MAX_POLL_PERIOD = 2000;
+	/** Time in ms after which an unanswered reset is repeated. */
+	private static final long RESET_RETRY_DELAY = 2000;
+	/** First and maximal delay in ms before an unanswered hello is repeated. */
+	private static final long MIN_HELLO_RETRY_DELAY = 100;
+	private static final long MAX_HELLO_RETRY_DELAY = 1000;
+	/** Time in ms after which the handshake is restarted with a reset if the bike does not answer hello. */
+	private static final long HELLO_TIMEOUT = 10000;
+	/** Minimal time in ms after which an unanswered request is dropped. */
+	private static final long MIN_REQUEST_TIMEOUT = 2000;
+
+	/** Request sent to the bike. */
+	private static class Request {
+		private final long sentNanos;
+		/** Time the sent power has been requested or -1 if the request does not set the power. */
+		private final long powerRequestedNanos;
+
+		private Request(long sentNanos, long powerRequestedNanos) {
+			this.sentNanos = sentNanos;
+			this.powerRequestedNanos = powerRequestedNanos;
+		}
+	}
+
+	private final BikeConnector bikeConnector;
+	private final BikeListener listener;
+	private final int maxRequestsInFlight;
+	private final long minPollPeriod;
+	private ScheduledExecutorService executor = null;
+	/** True if the executor has been created by this scheduler and has to be shut down. */
+	private boolean ownsExecutor;
+	/** Next scheduled tick or null if the tick is running. */
+	private ScheduledFuture<?> nextTick = null;
+	/** True while a tick is running. */
+	private boolean ticking = false;
+	/** Smallest delay requested while the tick was running. */
+	private long requestedDelay = Long.MAX_VALUE;
+	private volatile State state = State.notConnected;
+	/** Time the current state has been entered. */
+	private long stateEnteredNanos;
+	private long helloRetryDelay;
+	private long connectStartNanos;
+	/** Duration of the handshake in ms or -1 if not connected yet. */
+	private long connectTime = -1;
+
+	private final LinkedList<Request> requestsInFlight = new LinkedList<Request>();
+	private boolean powerPending = false;
+	private int pendingPower;
+	private long pendingPowerRequestedNanos;
+
+	// metrics
+	private final LatencyHistogram roundTripHistogram = new LatencyHistogram();
+	private final LatencyHistogram setpointLatencyHistogram = new LatencyHistogram();
+	/** Smoothed round-trip time in ns or -1 if not measured yet. */
+	private long smoothedRoundTrip = -1;
+	/** Smoothed interval between two data records in ns or -1 if not measured yet. */
+	private long smoothedDataInterval = -1;
+	private long lastDataNanos = -1;
+	private int timeouts = 0;
+
+	private final Runnable tickTask = new Runnable() {
+		public void run() {
+			tick();
+		}
+	};
+
+	/**
+	 * Creates a command scheduler.
+	 *
+	 * @param bikeConnector bike connector (connect it with this scheduler as listener)
+	 * @param listener listener receiving the events of the bike
+	 * @param maxRequestsInFlight maximal number of requests without response
+	 * @param minPollPeriod minimal poll period in ms
+	 */
+	public BikeCommandScheduler(BikeConnector bikeConnector, BikeListener listener, int maxRequestsInFlight, long minPollPeriod) {
+		this.bikeConnector = bikeConnector;
+		this.listener = listener;
+		this.maxRequestsInFlight = Math.max(1, maxRequestsInFlight);
+		this.minPollPeriod = minPollPeriod;
+	}
+
+	/**
+	 * Starts the handshake and the polling on an own thread.
+	 */
+	public synchronized void start() {
+		if (executor != null) return;
+
+		start(Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "bike command scheduler");
+				thread.setDaemon(true);
+				return thread;
+			}
+		}));
+		ownsExecutor = true;
+	}
+
+	/**
+	 * Starts the handshake and the polling on a shared executor.  The executor is not shut
+	 * down by {@link #stop()}.
+	 *
+	 * @param executor executor running the ticks of this scheduler
+	 */
+	public synchronized void start(ScheduledExecutorService executor) {
+		if (this.executor != null) return;
+
+		this.executor = executor;
+		ownsExecutor = false;
+		connectStartNanos = System.nanoTime();
+		connectTime = -1;
+		schedule(0);
+	}
+
+	/**
+	 * Stops the scheduler.  The bike connector is not closed.
+	 */
+	public synchronized void stop() {
+		if (executor != null) {
+			if (ownsExecutor) {
+				executor.shutdownNow();
+			} else if (nextTick != null) {
+				nextTick.cancel(false);
+			}
+			executor = null;
+			nextTick = null;
+		}
+		state = State.notConnected;
+		requestsInFlight.clear();
+	}
+
+	/**
+	 * Sets the power of the bike.  The power is sent with the next request;
+	 * if the power is changed again before, only the latest power is sent.
+	 *
+	 * @param power power
+	 */
+	public synchronized void setPower(int power) {
+		if (!powerPending) {
+			pendingPowerRequestedNanos = System.nanoTime();
+		}
+		pendingPower = power;
+		powerPending = true;
+	}
+
+	private void tick() {
+		long delay = getPollPeriod();
+		synchronized (this) {
+			if (ticking) {
+				// tick has been scheduled again while it was running -> run it afterwards
+				requestedDelay = 0;
+				return;
+			}
+			ticking = true;
+			nextTick = null;
+		}
+		try {
+			long now = System.nanoTime();
+			long timeInState = TimeUnit.NANOSECONDS.toMillis(now - stateEnteredNanos);
+
+			switch (state) {
+				case notConnected:
+					setState(State.reset);
+					bikeConnector.sendReset();
+					delay = RESET_RETRY_DELAY;
+					break;
+				case reset:
+					// no answer to the reset -> repeat it
+					delay = RESET_RETRY_DELAY - timeInState;
+					if (delay <= 0) {
+						setState(State.reset);
+						bikeConnector.sendReset();
+						delay = RESET_RETRY_DELAY;
+					}
+					break;
+				case hello:
+					if (timeInState >= HELLO_TIMEOUT) {
+						// bike does not answer -> start again with reset
+						setState(State.notConnected);
+						delay = 0;
+					} else {
+						// the bike may not be ready directly after the reset -> repeat hello with increasing delays
+						bikeConnector.sendHello();
+						delay = helloRetryDelay;
+						helloRetryDelay = Math.min(2 * helloRetryDelay, MAX_HELLO_RETRY_DELAY);
+					}
+					break;
+				case connected:
+					poll();
+					break;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			synchronized (this) {
+				ticking = false;
+				delay = Math.min(delay, requestedDelay);
+				requestedDelay = Long.MAX_VALUE;
+				schedule(delay);
+			}
+		}
+	}
+
+	private synchronized void setState(State state) {
+		this.state = state;
+		stateEnteredNanos = System.nanoTime();
+		if (state == State.hello) {
+			helloRetryDelay = MIN_HELLO_RETRY_DELAY;
+		}
+		if (state == State.connected && connectTime < 0) {
+			connectTime = TimeUnit.NANOSECONDS.toMillis(stateEnteredNanos - connectStartNanos);
+		}
+	}
+
+	/**
+	 * Schedules the next tick unless an earlier tick is already scheduled.
+	 *
+	 * @param delay delay in ms
+	 */
+	private synchronized void schedule(long delay) {
+		if (executor == null) return;
+		if (ticking) {
+			// the running tick schedules the next one when it is done
+			requestedDelay = Math.min(requestedDelay, delay);
+			return;
+		}
+
+		if (nextTick != null) {
+			if (nextTick.getDelay(TimeUnit.MILLISECONDS) <= delay) return;
+			nextTick.cancel(false);
+		}
+		try {
+			nextTick = executor.schedule(tickTask, Math.max(0, delay), TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException ignored) {
+			// scheduler has been stopped
+		}
+	}
+
+	private void poll() throws IOException {
+		boolean setPower;
+		int power;
+		synchronized (this) {
+			long now = System.nanoTime();
+			dropTimedOutRequests(now);
+			if (requestsInFlight.size() >= maxRequestsInFlight) return;
+
+			setPower = powerPending;
+			power = pendingPower;
+			powerPending = false;
+			// register the request before sending it since the response may arrive immediately
+			requestsInFlight.add(new Request(now, setPower ? pendingPowerRequestedNanos : -1));
+		}
+
+		if (setPower) {
+			bikeConnector.sendSetPower(power);
+		}
+		bikeConnector.sendGetData();
+	}
+
+	private void dropTimedOutRequests(long now) {
+		long timeout = TimeUnit.MILLISECONDS.toNanos(MIN_REQUEST_TIMEOUT);
+		if (smoothedRoundTrip > 0) {
+			timeout = Math.max(timeout, 4 * smoothedRoundTrip);
+		}
+		while (!requestsInFlight.isEmpty() && now - requestsInFlight.getFirst().sentNanos > timeout) {
+			requestsInFlight.removeFirst();
+			timeouts++;
+		}
+	}
+
+	/**
+	 * Matches a response to the oldest request in flight.
+	 *
+	 * @param data true if the response contains data
+	 */
+	private synchronized void response(boolean data) {
+		long now = System.nanoTime();
+
+		Request request = requestsInFlight.poll();
+		if (request != null) {
+			long roundTrip = now - request.sentNanos;
+			roundTripHistogram.record(roundTrip);
+			smoothedRoundTrip = smoothedRoundTrip < 0 ? roundTrip : (7 * smoothedRoundTrip + roundTrip) / 8;
+			if (request.powerRequestedNanos >= 0) {
+				setpointLatencyHistogram.record(now - request.powerRequestedNanos);
+			}
+		}
+
+		if (data) {
+			if (lastDataNanos >= 0) {
+				long interval = now - lastDataNanos;
+				smoothedDataInterval = smoothedDataInterval < 0 ? interval : (7 * smoothedDataInterval + interval) / 8;
+			}
+			lastDataNanos = now;
+		}
+	}
+
+// BikeListener
+
+	public void bikeAck() {
+		// continue the handshake immediately
+		synchronized (this) {
+			switch (state) {
+				case hello:
+					setState(State.connected);
+					schedule(0);
+					break;
+				case reset:
+					setState(State.hello);
+					schedule(0);
+					break;
+			}
+		}
+		listener.bikeAck();
+	}
+
+	public void bikeData(DataRecord data) {
+		if (state == State.connected) {
+			response(true);
+		}
+		listener.bikeData(data);
+	}
+
+	public void bikeError() {
+		if (state == State.connected) {
+			response(false);
+		}
+		listener.bikeError();
+	}
+
+	public void bikeDestPowerChanged(int change) {
+		listener.bikeDestPowerChanged(change);
+	}
+
+// metrics
+
+	/**
+	 * Returns the current poll period, adapted to the round-trip time.
+	 *
+	 * @return poll period in ms
+	 */
+	public synchronized long getPollPeriod() {
+		long period = minPollPeriod;
+		if (smoothedRoundTrip > 0) {
+			period = Math.max(period, TimeUnit.NANOSECONDS.toMillis(smoothedRoundTrip) / maxRequestsInFlight);
+		}
+		return Math.min(period, MAX_POLL_PERIOD);
+	}
+
+	/**
+	 * Returns the rate in which data records are received.
+	 *
+	 * @return data records per second or 0 if not measured yet
+	 */
+	public synchronized double getSamplingRate() {
+		return smoothedDataInterval <= 0 ? 0 : 1e9 / smoothedDataInterval;
+	}
+
+	/**
+	 * Returns the histogram of the round-trip times of the requests.
+	 *
+	 * @return round-trip histogram
+	 */
+	public LatencyHistogram getRoundTripHistogram() {
+		return roundTripHistogram;
+	}
+
+	/**
+	 * Returns the histogram of the latencies from {@link #setPower} to the response of the bike.
+	 *
+	 * @return setpoint latency histogram
+	 */
+	public LatencyHistogram getSetpointLatencyHistogram() {
+		return setpointLatencyHistogram;
+	}
+
+	public synchronized int getTimeouts() {
+		return timeouts;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * Returns the time from {@link #start()} until the handshake has been completed.
+	 *
+	 * @return connect time in ms or -1 if not connected yet
+	 */
+	public synchronized long getConnectTime() {
+		return connectTime;
+	}
+
+	public int getMaxRequestsInFlight() {
+		return maxRequestsInFlight;
+	}
+
+	@Override
+	public String toString() {
+		return "state: " + state + ", connect time: " + getConnectTime() + " ms, poll period: " + getPollPeriod() + " ms, sampling rate: " +
+				String.format("%.2f", getSamplingRate()) + "/s, timeouts: " + getTimeouts() +
+				"\nround trip: " + roundTripHistogram + "\nsetpoint latency: " + setpointLatencyHistogram;
+	}
+}
@@ -11,6 +11,7 @@ public class BikeConnectors {
 		new SocatKettlerBikeConnector(),
 		new BikeConnectorSimulatorRecord(),
 		new BikeConnectorSimulatorReplay(),
+		new ModelBikeConnector(),
 	};
 
 	public static HashMap<String, BikeConnector> name2bikeConnector = new HashMap<String, BikeConnector>() {{
@@ -18,4 +19,22 @@ public class BikeConnectors {
 			put(bikeConnector.getName(), bikeConnector);
 		}
 	}};
+
+	/**
+	 * Creates a new instance of a bike connector, e.g. to connect several bikes at once.
+	 *
+	 * @param name name of the bike connector (driver)
+	 * @return new bike connector or null if there is no bike connector with this name
+	 */
+	public static BikeConnector create(String name) {
+		BikeConnector bikeConnector = name2bikeConnector.get(name);
+		if (bikeConnector == null) return null;
+		try {
+			return bikeConnector.getClass().newInstance();
+		} catch (InstantiationException e) {
+			throw new RuntimeException(e);
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+	}
 }
@@ -13,6 +13,7 @@ public interface BikeListener {
 
 	/**
 	 * Called if the bike has sent the data.
+	 * The record may be reused by the caller after this call, so it must be copied to keep it.
 	 *
 	 * @param data date from the bike
 	 */
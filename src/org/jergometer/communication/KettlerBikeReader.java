@@ -1,15 +1,18 @@
 package org.jergometer.communication;
 
+import de.endrullis.utils.LatencyHistogram;
 import org.jergometer.model.DataRecord;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 
 /**
  * It reads incoming messages from the bike.
+ * <p>
+ * The available bytes are read in chunks and split into frames by a {@link LineFramer}.
+ * The latency from the arrival of a frame to the delivery of its data to the listeners
+ * is recorded in a {@link LatencyHistogram}.
  */
 public class KettlerBikeReader extends Thread {
 
@@ -22,18 +25,26 @@ public class KettlerBikeReader extends Thread {
 	public static final String CMD_ERROR    = "ERROR";
 	public static final String CMD_RUN      = "RUN";
 
+	/** Maximal length of a message of the bike. */
+	private static final int FRAME_BUFFER_SIZE = 256;
+
 // dynamic
 
 	/** Input stream. */
 	private InputStream inStream;
-	private boolean closed = false;
-	private BufferedReader in;
+	private volatile boolean closed = false;
 	/** BikeReaderListeners. */
 	private ArrayList<BikeListener> bikeListeners = new ArrayList<BikeListener>();
 	/** Print available bytes (for debugging). */
 	private PrintAvailable printAvailable = PrintAvailable.none;
 	private int lastJergometerDesPower = 0;
 	private int jergometerDestPower = 0;
+	/** Latency from the arrival of a data frame to BikeListener.bikeData. */
+	private LatencyHistogram latencyHistogram = new LatencyHistogram();
+	private KettlerFrameDecoder decoder = new KettlerFrameDecoder();
+	/** Record reused for all data frames. */
+	private DataRecord data = new DataRecord();
+	private int malformedFrames = 0;
 
 	/**
 	 * Creates the reader for the incoming messages of the bike.
@@ -42,71 +53,101 @@ public class KettlerBikeReader extends Thread {
 	 */
 	public KettlerBikeReader(InputStream in) {
 		this.inStream = in;
-		this.in = new BufferedReader(new InputStreamReader(inStream), 1);
 	}
 
 	public void run() {
-		while(!isInterrupted()) {
+		LineFramer framer = new LineFramer(FRAME_BUFFER_SIZE);
+		LineFramer.FrameHandler frameHandler = new LineFramer.FrameHandler() {
+			public void frame(byte[] buffer, int offset, int length, long arrivalNanos) {
+				if (!closed) {
+					processFrame(buffer, offset, length, arrivalNanos);
+				}
+			}
+		};
+
+		while(!closed && !isInterrupted()) {
 			try {
-				String dataString = in.readLine();
-				if (dataString == null || closed) {
+				if (!framer.readFrom(inStream, frameHandler)) {
 					return;
 				}
+			} catch (IOException e) {
+				if (closed) {
+					return;
+				}
+				e.printStackTrace();
+			}
+		}
+	}
 
-				if(printAvailable == PrintAvailable.none) {
-					if (dataString.contains(CMD_ACK)) {
-						for (BikeListener listener : bikeListeners) {
-							listener.bikeAck();
-						}
-					}
-					else if (dataString.equals(CMD_ERROR)) {
-						for (BikeListener listener : bikeListeners) {
-							listener.bikeError();
-						}
-					}
-					else if (dataString.equals(CMD_RUN)) {
-						for (BikeListener listener : bikeListeners) {
-							listener.bikeAck();
-						}
-					}
-					else {
-						DataRecord data = new DataRecord(dataString);
-
-						if (lastJergometerDesPower == 0) {
-							lastJergometerDesPower = data.getDestPower();
-						}
-
-						for (BikeListener listener : bikeListeners) {
-							if (data.getDestPower() != lastJergometerDesPower && data.getDestPower() != jergometerDestPower) {
-								listener.bikeDestPowerChanged((data.getDestPower() - jergometerDestPower)/5);
-							}
-							listener.bikeData(data);
-						}
-						lastJergometerDesPower = data.getDestPower();
-					}
+	private void processFrame(byte[] buffer, int offset, int length, long arrivalNanos) {
+		if(printAvailable == PrintAvailable.none) {
+			if (contains(buffer, offset, length, CMD_ACK)) {
+				for (BikeListener listener : bikeListeners) {
+					listener.bikeAck();
+				}
+			}
+			else if (equals(buffer, offset, length, CMD_ERROR)) {
+				for (BikeListener listener : bikeListeners) {
+					listener.bikeError();
+				}
+			}
+			else if (equals(buffer, offset, length, CMD_RUN)) {
+				for (BikeListener listener : bikeListeners) {
+					listener.bikeAck();
+				}
+			}
+			else {
+				if (!decoder.decode(buffer, offset, length, data)) {
+					malformedFrames++;
+					System.err.println("Malformed bike data (" + decoder.getError() + " in field " + decoder.getErrorField() +
+							"): " + new String(buffer, offset, length));
+					return;
 				}
-				else {
-					// for debugging
-					byte[] bytes = dataString.getBytes();
 
-					if(printAvailable == PrintAvailable.characters) {
-						System.err.print(dataString);
-					}
-					else if(printAvailable == PrintAvailable.decimals) {
-						for (byte aByte : bytes) {
-							System.out.print("," + (aByte & 0xFF));
-						}
-					}
-					else if(printAvailable == PrintAvailable.hexadecimal) {
-						for (byte aByte : bytes) {
-							System.out.format(",%X", (aByte & 0xFF));
-						}
+				if (lastJergometerDesPower == 0) {
+					lastJergometerDesPower = data.getDestPower();
+				}
+
+				latencyHistogram.record(System.nanoTime() - arrivalNanos);
+				for (BikeListener listener : bikeListeners) {
+					if (data.getDestPower() != lastJergometerDesPower && data.getDestPower() != jergometerDestPower) {
+						listener.bikeDestPowerChanged((data.getDestPower() - jergometerDestPower)/5);
 					}
+					listener.bikeData(data);
 				}
-			} catch (IOException e) {
-				e.printStackTrace();
+				lastJergometerDesPower = data.getDestPower();
 			}
 		}
+		else {
+			// for debugging
+			if(printAvailable == PrintAvailable.characters) {
+				System.err.print(new String(buffer, offset, length));
+			}
+			else if(printAvailable == PrintAvailable.decimals) {
+				for (int i = offset; i < offset + length; i++) {
+					System.out.print("," + (buffer[i] & 0xFF));
+				}
+			}
+			else if(printAvailable == PrintAvailable.hexadecimal) {
+				for (int i = offset; i < offset + length; i++) {
+					System.out.format(",%X", (buffer[i] & 0xFF));
+				}
+			}
+		}
+	}
+
+	private static boolean equals(byte[] buffer, int offset, int length, String cmd) {
+		return length == cmd.length() && contains(buffer, offset, length, cmd);
+	}
+
+	private static boolean contains(byte[] buffer, int offset, int length, String cmd) {
+		int cmdLength = cmd.length();
+		for (int start = offset; start <= offset + length - cmdLength; start++) {
+			int i = 0;
+			while (i < cmdLength && buffer[start + i] == cmd.charAt(i)) i++;
+			if (i == cmdLength) return true;
+		}
+		return false;
 	}
 
 	public void close() {
@@ -118,6 +159,14 @@ public class KettlerBikeReader extends Thread {
 		super.interrupt();
 	}
 
+	public LatencyHistogram getLatencyHistogram() {
+		return latencyHistogram;
+	}
+
+	public int getMalformedFrames() {
+		return malformedFrames;
+	}
+
 	public PrintAvailable getPrintAvailable() {
 		return printAvailable;
 	}
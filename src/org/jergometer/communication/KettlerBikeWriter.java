@@ -50,16 +50,14 @@ public class KettlerBikeWriter {
 	}
 
 	/**
-	 * Sends the hello command to the bike.
+	 * Sends the reset command to the bike.
+	 * Some bikes (e.g. X3) need some time after the reset before they accept further commands;
+	 * the caller has to wait until the bike answers (see {@link BikeCommandScheduler}).
 	 *
 	 * @throws IOException thrown if io problems occurred
 	 */
 	public void sendReset() throws IOException {
 		writeRawBytes(CMD_RESET.getBytes());
-		try {
-			// wait 5s after bike reset (avoids problems with X3)
-			Thread.sleep(5000);
-		} catch (InterruptedException ignored) {}
 	}
 
 	/**
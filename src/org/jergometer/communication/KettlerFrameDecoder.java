@@ -0,0 +1,103 @@
+package org.jergometer.communication;
+
+import org.jergometer.model.DataRecord;
+
+/**
+ * Decodes the status frames of Kettler bikes directly from the received bytes.
+ * <p>
+ * A status frame consists of 8 tab-separated fields:
+ * pulse, pedal rpm, speed, distance, destination power, energy, time (mm:ss), real power.
+ * Additional fields are ignored.  The decoder does not allocate any objects; it fills
+ * a given {@link DataRecord} and reports malformed frames via {@link #getError()}
+ * instead of throwing exceptions.
+ */
+public class KettlerFrameDecoder {
+	public static enum Error { none, missingField, invalidNumber, invalidTime }
+
+	public static final int FIELD_COUNT = 8;
+	private static final int TIME_FIELD = 6;
+
+	private final int[] values = new int[FIELD_COUNT];
+	private Error error = Error.none;
+	private int errorField = -1;
+
+	/**
+	 * Decodes a status frame.
+	 *
+	 * @param buffer buffer holding the frame
+	 * @param offset offset of the frame
+	 * @param length length of the frame
+	 * @param record record to fill (only modified if the frame is valid)
+	 * @return true if the frame is valid, false otherwise (see {@link #getError()})
+	 */
+	public boolean decode(byte[] buffer, int offset, int length, DataRecord record) {
+		int end = offset + length;
+		int pos = offset;
+
+		for (int field = 0; field < FIELD_COUNT; field++) {
+			if (pos > end || (pos == end && field > 0)) {
+				return fail(Error.missingField, field);
+			}
+
+			int value = 0;
+			int seconds = 0;
+			int digits = 0;
+			boolean negative = false;
+			if (pos < end && buffer[pos] == '-' && field != TIME_FIELD) {
+				negative = true;
+				pos++;
+			}
+			for (; pos < end && buffer[pos] != '\t'; pos++) {
+				byte b = buffer[pos];
+				if (b >= '0' && b <= '9') {
+					if (++digits > 9) {
+						return fail(field == TIME_FIELD ? Error.invalidTime : Error.invalidNumber, field);
+					}
+					value = value * 10 + (b - '0');
+				} else if (b == ':' && field == TIME_FIELD && digits > 0) {
+					seconds = (seconds + value) * 60;
+					value = 0;
+					digits = 0;
+				} else {
+					return fail(field == TIME_FIELD ? Error.invalidTime : Error.invalidNumber, field);
+				}
+			}
+			if (digits == 0) {
+				return fail(field == TIME_FIELD ? Error.invalidTime : Error.invalidNumber, field);
+			}
+			values[field] = field == TIME_FIELD ? seconds + value : negative ? -value : value;
+
+			// skip the separator
+			pos++;
+		}
+
+		record.set(values[0], values[1], values[2], values[3], values[4], values[5], values[6], values[7]);
+		error = Error.none;
+		errorField = -1;
+		return true;
+	}
+
+	private boolean fail(Error error, int field) {
+		this.error = error;
+		this.errorField = field;
+		return false;
+	}
+
+	/**
+	 * Returns the error of the last decoded frame.
+	 *
+	 * @return error or {@link Error#none}
+	 */
+	public Error getError() {
+		return error;
+	}
+
+	/**
+	 * Returns the index of the field which caused the error of the last decoded frame.
+	 *
+	 * @return field index or -1
+	 */
+	public int getErrorField() {
+		return errorField;
+	}
+}
@@ -0,0 +1,91 @@
+package org.jergometer.communication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Splits the byte stream of the bike into CR/LF terminated frames.
+ * <p>
+ * All bytes available on the stream are read at once into a reusable buffer and
+ * complete frames are passed to the {@link FrameHandler} as ranges of that buffer,
+ * so no intermediate Strings or arrays are allocated.  Empty frames (e.g. between
+ * CR and LF) are skipped.
+ */
+public class LineFramer {
+	/** Receiver of complete frames. */
+	public static interface FrameHandler {
+		/**
+		 * Called for every complete frame.  The buffer is only valid during this call.
+		 *
+		 * @param buffer buffer holding the frame
+		 * @param offset offset of the frame in the buffer
+		 * @param length length of the frame (without the line terminator)
+		 * @param arrivalNanos {@link System#nanoTime()} when the first byte of the frame has been read
+		 * @throws IOException if the frame cannot be processed
+		 */
+		public void frame(byte[] buffer, int offset, int length, long arrivalNanos) throws IOException;
+	}
+
+	private final ByteBuffer buffer;
+	/** Arrival time of the first byte of the incomplete frame in the buffer. */
+	private long pendingArrival;
+	/** Number of frames dropped because they exceeded the buffer size. */
+	private int overflows = 0;
+
+	/**
+	 * Creates a line framer.
+	 *
+	 * @param capacity maximal length of a frame
+	 */
+	public LineFramer(int capacity) {
+		buffer = ByteBuffer.allocate(capacity);
+	}
+
+	/**
+	 * Reads the available bytes from the stream (blocks until at least one byte is available)
+	 * and passes all completed frames to the handler.
+	 *
+	 * @param in input stream
+	 * @param handler frame handler
+	 * @return false if the end of the stream has been reached
+	 * @throws IOException if an I/O error occurs
+	 */
+	public boolean readFrom(InputStream in, FrameHandler handler) throws IOException {
+		if (!buffer.hasRemaining()) {
+			// frame too long -> drop it
+			buffer.clear();
+			overflows++;
+		}
+
+		byte[] array = buffer.array();
+		int scanStart = buffer.position();
+		int read = in.read(array, scanStart, buffer.remaining());
+		if (read == -1) return false;
+
+		long now = System.nanoTime();
+		if (scanStart == 0) pendingArrival = now;
+		buffer.position(scanStart + read);
+
+		buffer.flip();
+		int frameStart = 0;
+		for (int i = scanStart; i < buffer.limit(); i++) {
+			byte b = array[i];
+			if (b == '\r' || b == '\n') {
+				if (i > frameStart) {
+					handler.frame(array, frameStart, i - frameStart, pendingArrival);
+				}
+				frameStart = i + 1;
+				pendingArrival = now;
+			}
+		}
+		buffer.position(frameStart);
+		buffer.compact();
+
+		return true;
+	}
+
+	public int getOverflows() {
+		return overflows;
+	}
+}
@@ -0,0 +1,175 @@
+package org.jergometer.communication;
+
+import org.jergometer.control.SyntheticRider;
+import org.jergometer.model.DataRecord;
+
+import java.io.IOException;
+
+/**
+ * Simulated bike whose rider reacts on the power set by the program (see {@link SyntheticRider}),
+ * so programs and pulse controllers can be tested without a real ergometer.
+ * <p>
+ * The bike time runs with the wall clock multiplied by the time scale and starts with the
+ * reset.  Every data request rides at most one second, so a power set after a request is
+ * ridden in the next second.  If the bike is polled slower than its time runs, the bike
+ * time falls behind the wall clock (see {@link #getMaxPollPeriod(int)}), but no second is lost.
+ */
+public class ModelBikeConnector implements BikeConnector {
+	public static final String NAME = "simulator-model";
+
+	private BikeListener listener = null;
+	private SyntheticRider.Parameters parameters = new SyntheticRider.Parameters();
+	private int timeScale = 1;
+	private long seed = 1;
+
+	private SyntheticRider rider;
+	private long startNanos;
+	/** Number of seconds ridden. */
+	private int second;
+	private int power;
+	private final DataRecord record = new DataRecord();
+
+	@Override
+	public synchronized void connect(String serialName, BikeListener listener) throws IOException {
+		this.listener = listener;
+		reset();
+	}
+
+	/**
+	 * Starts a new ride at time 0 with the rest pulse.
+	 */
+	private void reset() {
+		rider = new SyntheticRider(parameters, seed);
+		startNanos = System.nanoTime();
+		second = 0;
+		power = 25;
+		record.set(0, 0, 0, 0, power, 0, 0, power);
+	}
+
+	@Override
+	public void sendHello() throws IOException {
+		listener.bikeAck();
+	}
+
+	@Override
+	public void sendReset() throws IOException {
+		synchronized (this) {
+			reset();
+		}
+		listener.bikeAck();
+	}
+
+	@Override
+	public void sendGetId() throws IOException {
+	}
+
+	@Override
+	public synchronized void sendGetData() throws IOException {
+		long elapsed = (System.nanoTime() - startNanos) * timeScale / 1000000000L;
+		if (second < elapsed) {
+			// ride only the next second with the current power
+			advanceTo(second + 1);
+		} else {
+			// no second has passed -> the bike sends the current values again
+			listener.bikeData(record);
+		}
+	}
+
+	/**
+	 * Rides until the given bike time with the current power and sends the records of these
+	 * seconds to the listener.
+	 *
+	 * @param time bike time in seconds
+	 * @return true if a record has been sent
+	 */
+	public synchronized boolean advanceTo(int time) {
+		if (second >= time) return false;
+
+		while (second < time) {
+			rider.ride(second, power, record);
+			second++;
+			listener.bikeData(record);
+		}
+		return true;
+	}
+
+	@Override
+	public synchronized void sendSetPower(int power) throws IOException {
+		this.power = power;
+	}
+
+	@Override
+	public void close() throws IOException {
+	}
+
+	/**
+	 * Returns the longest poll period at which the bike time keeps up with the wall clock.
+	 *
+	 * @param timeScale bike seconds per second of wall time
+	 * @return poll period in ms
+	 */
+	public static long getMaxPollPeriod(int timeScale) {
+		return Math.max(1, 1000 / Math.max(1, timeScale));
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+
+
+	// getters and setters
+
+	public synchronized SyntheticRider.Parameters getParameters() {
+		return parameters.clone();
+	}
+
+	/**
+	 * Sets the parameters of the rider of the next ride.
+	 *
+	 * @param parameters rider parameters (copied)
+	 */
+	public synchronized void setParameters(SyntheticRider.Parameters parameters) {
+		this.parameters = parameters.clone();
+	}
+
+	public synchronized int getTimeScale() {
+		return timeScale;
+	}
+
+	/**
+	 * Sets how fast the bike time runs.
+	 *
+	 * @param timeScale bike seconds per second of wall time (1 for real time)
+	 */
+	public synchronized void setTimeScale(int timeScale) {
+		this.timeScale = Math.max(1, timeScale);
+	}
+
+	public synchronized long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Sets the seed of the noise and the dropouts of the next ride.
+	 *
+	 * @param seed seed
+	 */
+	public synchronized void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Returns the pulse of the rider without measurement errors.
+	 *
+	 * @return actual pulse
+	 */
+	public synchronized double getPulse() {
+		return rider == null ? 0 : rider.getPulse();
+	}
+}
@@ -66,33 +66,16 @@ public class RXTXReader extends InputStream implements SerialPortEventListener {
 		}
 
 		try {
-			if (available() == 0) {
-				wait();
-			}
-
-			len = Math.min(len, off + available());
-
-			int c = read();
-			if (c == -1) {
-				return -1;
-			}
-			b[off] = (byte)c;
-
-			int i = 1;
-			try {
-				for (; i < len ; i++) {
-					c = read();
-					if (c == -1) {
-						break;
-					}
-					b[off + i] = (byte)c;
+			// wait until data is available and read it as a whole
+			int available;
+			while ((available = available()) == 0) {
+				if (Thread.interrupted()) {
+					return -1;
 				}
-			} catch (IOException ee) {
-				ee.printStackTrace();
+				wait();
 			}
 
-			return i;
-
+			return in.read(b, off, Math.min(len, available));
 		} catch (InterruptedException e) {
 			return -1;
 		}
@@ -2,9 +2,8 @@ package org.jergometer.control;
 
 import org.jergometer.model.*;
 
-import java.util.ArrayList;
-import java.util.Iterator;
 import java.io.File;
+import java.io.IOException;
 
 /**
  * Controls the power of the ergometer. It may use any input
@@ -16,18 +15,21 @@ public class BikeProgram extends HoldsFile {
 	private BikeProgramData programData;
 	private BikeSession session;
 	private SubProgram subProgram;
-	private Iterator<BikeProgramData.TimeEvent> eventIterator;
-	private BikeProgramData.TimeEvent nextEvent;
+	private final ProgramTimeline timeline;
+	/** Segment of the timeline the sub program has been created for. */
+	private ProgramTimeline.Segment segment;
 	private int idleCounter = 0;
+	/** Name of the pulse controller (see {@link PulseControllers}). */
+	private String pulseControllerName = PulseControllers.DEFAULT;
+	/** Pulse controller of the current session, created by the first pulse action. */
+	private PulseController pulseController = null;
 
 	public BikeProgram(File file, String programName, BikeProgramData programData) {
 		super(file);
 		this.programName = programName.replaceAll("\\\\", "/");
 		this.programData = programData;
-		eventIterator = programData.getEvents().iterator();
-		nextEvent = eventIterator.next();
-		doActions(nextEvent.getActions());
-		nextEvent = eventIterator.hasNext() ? eventIterator.next() : null;
+		timeline = programData.getTimeline();
+		seek(0);
 	}
 
 	/**
@@ -38,9 +40,10 @@ public class BikeProgram extends HoldsFile {
 	 */
 	public UpdateStatus update(DataRecord dataRecord) {
 		if(session.update(dataRecord)) {
-			if(nextEvent != null && nextEvent.getTime() == session.getDuration()) {
-				doActions(nextEvent.getActions());
-				nextEvent = eventIterator.hasNext() ? eventIterator.next() : null;
+			int second = session.getDuration();
+			if(second >= segment.getEnd()) {
+				// next segment reached
+				seek(second);
 			} else {
 				subProgram.update(dataRecord);
 			}
@@ -55,24 +58,21 @@ public class BikeProgram extends HoldsFile {
 		}
 	}
 
-	private void doActions(ArrayList<BikeProgramData.Action> actions) {
-		BikeProgramData.Action currentAction;
-
-		for (BikeProgramData.Action action : actions) {
-			doAction(action);
-
-			currentAction = action;
-		}
-	}
-
-	private void doAction(BikeProgramData.Action action) {
-		if(action.getType() == BikeProgramData.Action.Type.power) {
-			power = action.getValue();
+	/**
+	 * Continues the program at the given second, e.g. to skip a part of the program in a
+	 * simulation.  The segment containing this second is found by binary search.
+	 *
+	 * @param second second of the program
+	 */
+	public void seek(int second) {
+		segment = timeline.getSegmentAt(second);
+		if(segment.getType() == BikeProgramData.Action.Type.power) {
+			power = segment.getPower();
 			subProgram = new SubProgram.Power(session, power);
 		}
-		else if(action.getType() == BikeProgramData.Action.Type.pulse) {
-			int pulse = action.getValue();
-			subProgram = new SubProgram.Pulse(session, power, pulse);
+		else if(segment.getType() == BikeProgramData.Action.Type.pulse) {
+			// start with the current power or the power the program had before
+			subProgram = new SubProgram.Pulse(session, power > 0 ? power : segment.getPower(), segment.getPulse(), getPulseController());
 		}
 	}
 
@@ -94,7 +94,61 @@ public class BikeProgram extends HoldsFile {
 	}
 
 	public BikeSession newSession() {
-		return session = new BikeSession(programName, programData.getDuration());
+		session = new BikeSession(programName, programData.getDuration());
+		startSession();
+		return session;
+	}
+
+	/**
+	 * Continues an interrupted session (e.g. after a crash) at its last recorded second.
+	 *
+	 * @param session session of this program loaded from its file
+	 * @throws IOException if the samples of the session could not be loaded
+	 */
+	public void resumeSession(BikeSession session) throws IOException {
+		session.continueRecording();
+		this.session = session;
+		startSession();
+	}
+
+	private void startSession() {
+		power = 0;
+		pulseController = null;
+		seek(session.getDuration());
+	}
+
+	/**
+	 * Sets the pulse controller of the current session (e.g. to evaluate a controller with
+	 * other parameters).  Call it after {@link #newSession()}.
+	 *
+	 * @param pulseController controller used by the current and the next pulse actions
+	 */
+	public void setPulseController(PulseController pulseController) {
+		this.pulseController = pulseController;
+		if (subProgram instanceof SubProgram.Pulse) {
+			SubProgram.Pulse pulseProgram = (SubProgram.Pulse) subProgram;
+			subProgram = new SubProgram.Pulse(session, pulseProgram.getPower(), pulseProgram.getDestPulse(), pulseController);
+		}
+	}
+
+	private PulseController getPulseController() {
+		if (pulseController == null) {
+			pulseController = PulseControllers.create(pulseControllerName);
+		}
+		return pulseController;
+	}
+
+	public String getPulseControllerName() {
+		return pulseControllerName;
+	}
+
+	/**
+	 * Sets the pulse controller used for the pulse actions of the next session.
+	 *
+	 * @param pulseControllerName name of the controller (see {@link PulseControllers})
+	 */
+	public void setPulseControllerName(String pulseControllerName) {
+		this.pulseControllerName = pulseControllerName;
 	}
 
 	public BikeSession getSession() {
@@ -111,7 +165,7 @@ public class BikeProgram extends HoldsFile {
 		}
 		if (subProgram instanceof SubProgram.Pulse) {
 			SubProgram.Pulse pulseProgram = (SubProgram.Pulse) subProgram;
-			subProgram = new SubProgram.Pulse(session, pulseProgram.getPower(), pulseProgram.getDestPulse() + change);
+			subProgram = new SubProgram.Pulse(session, pulseProgram.getPower(), pulseProgram.getDestPulse() + change, pulseProgram.getController());
 		}
 	}
 }
@@ -0,0 +1,158 @@
+package org.jergometer.control;
+
+import org.jergometer.model.SessionSamples;
+
+/**
+ * First-order model of the heart rate response to the power:
+ * the pulse approaches the steady state pulse <code>restPulse + gain * power</code>
+ * exponentially with the given time constant.
+ */
+public class HeartRateModel {
+	public static final double DEFAULT_REST_PULSE = 70;
+	/** Default increase of the steady state pulse per W. */
+	public static final double DEFAULT_GAIN = 0.4;
+	/** Default time constant in seconds. */
+	public static final double DEFAULT_TIME_CONSTANT = 40;
+
+	/** Step width in seconds used to fit the model (reduces the influence of the pulse noise). */
+	private static final int FIT_STEP = 5;
+
+	private final double restPulse;
+	private final double gain;
+	private final double timeConstant;
+	private double pulse;
+
+	public HeartRateModel() {
+		this(DEFAULT_REST_PULSE, DEFAULT_GAIN, DEFAULT_TIME_CONSTANT);
+	}
+
+	/**
+	 * Creates a heart rate model.
+	 *
+	 * @param restPulse steady state pulse without power
+	 * @param gain increase of the steady state pulse per W
+	 * @param timeConstant time constant in seconds
+	 */
+	public HeartRateModel(double restPulse, double gain, double timeConstant) {
+		this.restPulse = restPulse;
+		this.gain = gain;
+		this.timeConstant = timeConstant;
+		this.pulse = restPulse;
+	}
+
+	/**
+	 * Fits a model to the samples of a session by least squares on the pulse change per
+	 * {@link #FIT_STEP} seconds.
+	 *
+	 * @param samples samples of a session
+	 * @return fitted model or null if the session does not contain enough pulse information
+	 *         or the fitted parameters are implausible
+	 */
+	public static HeartRateModel fit(SessionSamples samples) {
+		// normal equations of  (p[t+k] - p[t]) / k = a + b * power + c * p[t]
+		double[][] m = new double[3][4];
+		int count = 0;
+		for (int t = 0; t + FIT_STEP < samples.size(); t++) {
+			int p0 = samples.getPulse(t), p1 = samples.getPulse(t + FIT_STEP);
+			if (p0 <= 0 || p1 <= 0) continue;
+			double power = 0;
+			for (int i = t; i < t + FIT_STEP; i++) {
+				power += samples.getPower(i);
+			}
+			double[] x = {1, power / FIT_STEP, p0};
+			double y = (double) (p1 - p0) / FIT_STEP;
+			for (int r = 0; r < 3; r++) {
+				for (int c = 0; c < 3; c++) {
+					m[r][c] += x[r] * x[c];
+				}
+				m[r][3] += x[r] * y;
+			}
+			count++;
+		}
+		if (count < 60) return null;
+
+		double[] solution = solve(m);
+		if (solution == null || solution[2] >= 0) return null;
+		double timeConstant = -1 / solution[2];
+		double gain = solution[1] * timeConstant;
+		double restPulse = solution[0] * timeConstant;
+		if (timeConstant < 5 || timeConstant > 600 || gain < 0.02 || gain > 2 || restPulse < 20 || restPulse > 150) {
+			return null;
+		}
+		return new HeartRateModel(restPulse, gain, timeConstant);
+	}
+
+	/**
+	 * Solves a linear equation system given as augmented matrix (Gaussian elimination).
+	 *
+	 * @return solution or null if the system is singular
+	 */
+	private static double[] solve(double[][] m) {
+		int n = m.length;
+		for (int col = 0; col < n; col++) {
+			int pivot = col;
+			for (int r = col + 1; r < n; r++) {
+				if (Math.abs(m[r][col]) > Math.abs(m[pivot][col])) pivot = r;
+			}
+			if (Math.abs(m[pivot][col]) < 1e-12) return null;
+			double[] tmp = m[col]; m[col] = m[pivot]; m[pivot] = tmp;
+			for (int r = 0; r < n; r++) {
+				if (r == col) continue;
+				double factor = m[r][col] / m[col][col];
+				for (int c = col; c <= n; c++) {
+					m[r][c] -= factor * m[col][c];
+				}
+			}
+		}
+		double[] solution = new double[n];
+		for (int r = 0; r < n; r++) {
+			solution[r] = m[r][n] / m[r][r];
+		}
+		return solution;
+	}
+
+	/**
+	 * Returns the pulse the model approaches at the given power.
+	 *
+	 * @param power power in W
+	 * @return steady state pulse
+	 */
+	public double getSteadyPulse(double power) {
+		return restPulse + gain * power;
+	}
+
+	/**
+	 * Advances the model by one second.
+	 *
+	 * @param power power during this second in W
+	 * @return pulse at the end of the second
+	 */
+	public double step(double power) {
+		pulse += (getSteadyPulse(power) - pulse) * (1 - Math.exp(-1 / timeConstant));
+		return pulse;
+	}
+
+	public double getPulse() {
+		return pulse;
+	}
+
+	public void setPulse(double pulse) {
+		this.pulse = pulse;
+	}
+
+	public double getRestPulse() {
+		return restPulse;
+	}
+
+	public double getGain() {
+		return gain;
+	}
+
+	public double getTimeConstant() {
+		return timeConstant;
+	}
+
+	public String toString() {
+		return String.format("rest pulse %.0f, gain %.2f bpm/W, time constant %.0f s", restPulse, gain, timeConstant);
+	}
+}
@@ -0,0 +1,267 @@
+package org.jergometer.control;
+
+import de.endrullis.utils.LatencyHistogram;
+import gnu.io.UnsupportedCommOperationException;
+import org.jergometer.communication.BikeCommandScheduler;
+import org.jergometer.communication.BikeConnector;
+import org.jergometer.communication.BikeException;
+import org.jergometer.communication.BikeListener;
+import org.jergometer.communication.FileRecorder;
+import org.jergometer.model.BikeSession;
+import org.jergometer.model.DataRecord;
+import org.jergometer.model.UpdateStatus;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Bike hosted by a {@link SessionHost}.  Every hosted bike has its own bike connector,
+ * command scheduler (connection handshake and polling), program and session, and it may
+ * record the raw data records of the bike.  Only the threads of the scheduler are shared
+ * with the other bikes.
+ */
+public class HostedBike implements BikeListener {
+	private final String name;
+	private final BikeConnector bikeConnector;
+	private final String serialPort;
+	private final BikeProgram program;
+	private final BikeCommandScheduler commandScheduler;
+	private String sessionDir = null;
+	private String recordFile = null;
+	private FileRecorder recorder = null;
+	private boolean running = false;
+
+	// metrics
+	private final LatencyHistogram updateHistogram = new LatencyHistogram();
+	private long records = 0;
+	private int errors = 0;
+	private long startNanos = -1;
+	private long stopNanos = -1;
+
+	/**
+	 * Creates a hosted bike.
+	 *
+	 * @param name name of the bike (unique within the host)
+	 * @param bikeConnector bike connector used only by this bike
+	 * @param serialPort serial port of the bike
+	 * @param program program used only by this bike
+	 * @param maxRequestsInFlight maximal number of requests without response
+	 * @param minPollPeriod minimal poll period in ms
+	 */
+	public HostedBike(String name, BikeConnector bikeConnector, String serialPort, BikeProgram program, int maxRequestsInFlight, long minPollPeriod) {
+		this.name = name;
+		this.bikeConnector = bikeConnector;
+		this.serialPort = serialPort;
+		this.program = program;
+		commandScheduler = new BikeCommandScheduler(bikeConnector, this, maxRequestsInFlight, minPollPeriod);
+	}
+
+	/**
+	 * Connects to the bike and starts a new session.
+	 *
+	 * @param executor shared executor of the command schedulers
+	 * @throws BikeException if the bike communication fails
+	 * @throws UnsupportedCommOperationException if communication operation is not supported
+	 * @throws IOException if an I/O error occurs
+	 */
+	synchronized void start(ScheduledExecutorService executor) throws BikeException, UnsupportedCommOperationException, IOException {
+		if (running) return;
+
+		if (recordFile != null) {
+			recorder = new FileRecorder(recordFile);
+		}
+		try {
+			bikeConnector.connect(serialPort, commandScheduler);
+		} catch (IOException e) {
+			closeRecorder();
+			throw e;
+		} catch (BikeException e) {
+			closeRecorder();
+			throw e;
+		} catch (UnsupportedCommOperationException e) {
+			closeRecorder();
+			throw e;
+		}
+		program.newSession();
+		records = 0;
+		errors = 0;
+		startNanos = System.nanoTime();
+		stopNanos = -1;
+		running = true;
+		commandScheduler.start(executor);
+	}
+
+	/**
+	 * Disconnects from the bike and saves the session if a session directory is set.
+	 *
+	 * @throws IOException if the bike connector could not be closed or the session could not be saved
+	 */
+	void stop() throws IOException {
+		synchronized (this) {
+			if (!running) return;
+			running = false;
+			stopNanos = System.nanoTime();
+		}
+		// stop the communication without holding the lock since the bike may be sending data
+		commandScheduler.stop();
+		try {
+			bikeConnector.close();
+		} finally {
+			synchronized (this) {
+				closeRecorder();
+				if (sessionDir != null) {
+					program.getSession().save(sessionDir);
+				}
+			}
+		}
+	}
+
+	private void closeRecorder() {
+		if (recorder != null) {
+			recorder.close();
+			recorder = null;
+		}
+	}
+
+	/**
+	 * Returns true if the program has been ridden until its end.
+	 *
+	 * @return true if the session is as long as the program
+	 */
+	public synchronized boolean isFinished() {
+		BikeSession session = program.getSession();
+		return session != null && session.getDuration() >= program.getProgramData().getDuration();
+	}
+
+// BikeListener
+
+	public void bikeAck() {
+		// the connection handshake is done by the command scheduler
+	}
+
+	public synchronized void bikeData(DataRecord data) {
+		if (!running) return;
+
+		long start = System.nanoTime();
+		records++;
+		if (recorder != null) {
+			recorder.bikeData(data);
+		}
+		if (program.update(data) == UpdateStatus.cycle) {
+			int power = program.getPower();
+			if (power != data.getDestPower()) {
+				commandScheduler.setPower(power);
+			}
+		}
+		updateHistogram.record(System.nanoTime() - start);
+	}
+
+	public synchronized void bikeError() {
+		errors++;
+	}
+
+	/** Called if user has pressed plus or minus key on ergometer. */
+	public synchronized void bikeDestPowerChanged(int change) {
+		program.changeInteractively(change);
+	}
+
+// getters and setters
+
+	public String getName() {
+		return name;
+	}
+
+	public BikeConnector getBikeConnector() {
+		return bikeConnector;
+	}
+
+	public BikeProgram getProgram() {
+		return program;
+	}
+
+	public BikeCommandScheduler getCommandScheduler() {
+		return commandScheduler;
+	}
+
+	public synchronized String getSessionDir() {
+		return sessionDir;
+	}
+
+	/**
+	 * Sets the directory the session is saved in when the bike is stopped.
+	 *
+	 * @param sessionDir session directory or null to discard the session
+	 */
+	public synchronized void setSessionDir(String sessionDir) {
+		this.sessionDir = sessionDir;
+	}
+
+	public synchronized String getRecordFile() {
+		return recordFile;
+	}
+
+	/**
+	 * Sets the file the raw data records are recorded in (see {@link FileRecorder}),
+	 * e.g. to replay the ride later.
+	 *
+	 * @param recordFile record file or null to record nothing
+	 */
+	public synchronized void setRecordFile(String recordFile) {
+		this.recordFile = recordFile;
+	}
+
+	public synchronized boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Returns the number of data records received since the start.
+	 *
+	 * @return number of data records
+	 */
+	public synchronized long getRecords() {
+		return records;
+	}
+
+	/**
+	 * Returns the number of seconds ridden in the current session.
+	 *
+	 * @return session duration in seconds
+	 */
+	public synchronized int getSeconds() {
+		BikeSession session = program.getSession();
+		return session == null ? 0 : session.getDuration();
+	}
+
+	public synchronized int getErrors() {
+		return errors;
+	}
+
+	/**
+	 * Returns the number of data records received per second of wall time.
+	 *
+	 * @return data records per second
+	 */
+	public synchronized double getThroughput() {
+		if (startNanos < 0) return 0;
+		long elapsed = (stopNanos < 0 ? System.nanoTime() : stopNanos) - startNanos;
+		return elapsed <= 0 ? 0 : records * 1e9 / elapsed;
+	}
+
+	/**
+	 * Returns the histogram of the times needed to process a data record (program and session).
+	 *
+	 * @return update histogram
+	 */
+	public LatencyHistogram getUpdateHistogram() {
+		return updateHistogram;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%s (%s): %s, %d s, %d records (%.1f/s), errors: %d, program: %s, round trip p99<%dus, setpoint latency p99<%dus, update p99<%dus",
+				name, bikeConnector.getName(), commandScheduler.getState(), getSeconds(), getRecords(), getThroughput(), getErrors(),
+				program.getProgramAction(), commandScheduler.getRoundTripHistogram().getPercentileMicros(99),
+				commandScheduler.getSetpointLatencyHistogram().getPercentileMicros(99), updateHistogram.getPercentileMicros(99));
+	}
+}
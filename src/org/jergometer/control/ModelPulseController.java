@@ -0,0 +1,92 @@
+package org.jergometer.control;
+
+import org.jergometer.model.PulseWindow;
+
+/**
+ * Pulse controller based on a first-order model of the heart rate response
+ * (see {@link HeartRateModel}).
+ * <p>
+ * The controller advances the model with the power it has chosen and corrects the estimated
+ * pulse by the measured one, so the estimate follows the rider without the noise of the
+ * measurement.  Persistent deviations shift the rest pulse of the model (e.g. fatigue).
+ * The controller chooses the power for which the model predicts the destination pulse after
+ * the prediction horizon.  The power changes by at most {@link #MAX_POWER_CHANGE} W per second.
+ */
+public class ModelPulseController implements PulseController {
+	public static final String NAME = "model";
+
+	/** Seconds the measured pulse is averaged over. */
+	private static final int MEASUREMENT_WINDOW = 5;
+	/** Weight of the measurement when correcting the estimated pulse. */
+	private static final double CORRECTION = 0.1;
+	/** Maximal power change per second in W. */
+	private static final int MAX_POWER_CHANGE = 5;
+
+	private final double gain;
+	private final double timeConstant;
+	private final double horizon;
+	private int destPulse;
+	private double power;
+	private boolean estimated = false;
+	/** Estimated current pulse. */
+	private double estimate;
+	/** Estimated steady state pulse without power. */
+	private double restPulse;
+
+	public ModelPulseController() {
+		this(HeartRateModel.DEFAULT_GAIN, HeartRateModel.DEFAULT_TIME_CONSTANT, 20);
+	}
+
+	/**
+	 * Creates a controller for the given model parameters.
+	 *
+	 * @param gain increase of the steady state pulse per W
+	 * @param timeConstant time constant of the heart rate response in seconds
+	 * @param horizon prediction horizon in seconds
+	 */
+	public ModelPulseController(double gain, double timeConstant, double horizon) {
+		this.gain = gain;
+		this.timeConstant = timeConstant;
+		this.horizon = horizon;
+	}
+
+	public void setDestPulse(int destPulse, int power) {
+		this.destPulse = destPulse;
+		this.power = power;
+	}
+
+	public int update(PulseWindow pulseWindow, int pulse, int power) {
+		if (pulseWindow.getCount(0, MEASUREMENT_WINDOW) == 0) {
+			// pulse unknown -> keep the power
+			return power;
+		}
+
+		double measured = pulseWindow.getAverage(0, MEASUREMENT_WINDOW);
+		if (estimated) {
+			// advance the estimate with the power of the last second
+			estimate += (restPulse + gain * power - estimate) * (1 - Math.exp(-1 / timeConstant));
+		} else {
+			// assume the rider is in the steady state of the current power
+			estimate = measured;
+			restPulse = measured - gain * power;
+			estimated = true;
+		}
+		double error = measured - estimate;
+		estimate += CORRECTION * error;
+		// unexplained deviations are attributed to the rest pulse (fatigue, heat, ...)
+		restPulse += CORRECTION * CORRECTION * error;
+
+		// steady state pulse which leads to the destination pulse after the horizon
+		double decay = Math.exp(-horizon / timeConstant);
+		double destSteadyPulse = (destPulse - estimate * decay) / (1 - decay);
+		double destPower = (destSteadyPulse - restPulse) / gain;
+
+		this.power = Math.max(this.power - MAX_POWER_CHANGE, Math.min(this.power + MAX_POWER_CHANGE, destPower));
+		this.power = Math.max(SubProgram.MIN_POWER, Math.min(SubProgram.MAX_POWER, this.power));
+		return SubProgram.roundPower(this.power);
+	}
+
+	public String getName() {
+		return NAME;
+	}
+}
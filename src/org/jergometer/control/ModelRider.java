@@ -0,0 +1,40 @@
+package org.jergometer.control;
+
+import org.jergometer.model.DataRecord;
+
+import java.util.Random;
+
+/**
+ * Synthetic rider whose pulse follows a {@link HeartRateModel}.  The measured pulse has a
+ * gaussian noise of {@link PulseControllerEvaluation#PULSE_NOISE}; the rider always pedals
+ * with {@link #PEDAL_RPM} rpm.
+ */
+public class ModelRider implements SimulatedRider {
+	public static final int PEDAL_RPM = 60;
+
+	private final HeartRateModel model;
+	private final Random noise;
+
+	/**
+	 * Creates a rider.
+	 *
+	 * @param model heart rate model (not modified; its current pulse is the initial pulse)
+	 * @param seed seed of the measurement noise
+	 */
+	public ModelRider(HeartRateModel model, long seed) {
+		this.model = new HeartRateModel(model.getRestPulse(), model.getGain(), model.getTimeConstant());
+		this.model.setPulse(model.getPulse());
+		noise = new Random(seed);
+	}
+
+	public boolean ride(int second, int power, DataRecord record) {
+		double pulse = model.step(power);
+		int measuredPulse = (int) Math.round(pulse + noise.nextGaussian() * PulseControllerEvaluation.PULSE_NOISE);
+		record.set(measuredPulse, PEDAL_RPM, 0, 0, power, 0, second + 1, power);
+		return true;
+	}
+
+	public double getPulse() {
+		return model.getPulse();
+	}
+}
@@ -0,0 +1,76 @@
+package org.jergometer.control;
+
+import org.jergometer.model.PulseWindow;
+
+/**
+ * PID pulse controller.
+ * <p>
+ * The integral part holds the power of the steady state; it starts with the current power,
+ * so switching from a power action to a pulse action does not change the power abruptly.
+ * The derivative part acts on the slope of the measured pulse instead of the error, so a
+ * new destination pulse does not cause a power spike.  The integral part is not increased
+ * while the power is at the limit of the bike (anti-windup).
+ */
+public class PidPulseController implements PulseController {
+	public static final String NAME = "pid";
+
+	/** Seconds the measured pulse is averaged over. */
+	private static final int MEASUREMENT_WINDOW = 5;
+	/** Seconds the pulse slope is determined from. */
+	private static final int SLOPE_WINDOW = 10;
+
+	private final double kp, ki, kd;
+	private int destPulse;
+	private double integral;
+	private boolean started = false;
+
+	public PidPulseController() {
+		this(3, 0.05, 10);
+	}
+
+	/**
+	 * Creates a PID controller with the given gains.
+	 *
+	 * @param kp proportional gain in W per bpm
+	 * @param ki integral gain in W per bpm and second
+	 * @param kd derivative gain in W per bpm/s
+	 */
+	public PidPulseController(double kp, double ki, double kd) {
+		this.kp = kp;
+		this.ki = ki;
+		this.kd = kd;
+	}
+
+	public void setDestPulse(int destPulse, int power) {
+		this.destPulse = destPulse;
+		if (!started) {
+			integral = power;
+			started = true;
+		}
+	}
+
+	public int update(PulseWindow pulseWindow, int pulse, int power) {
+		if (pulseWindow.getCount(0, MEASUREMENT_WINDOW) == 0) {
+			// pulse unknown -> keep the power
+			return power;
+		}
+
+		double error = destPulse - pulseWindow.getAverage(0, MEASUREMENT_WINDOW);
+		double slope = pulseWindow.getSlope(0, SLOPE_WINDOW);
+
+		double newIntegral = integral + ki * error;
+		double output = newIntegral + kp * error - kd * slope;
+		if ((output > SubProgram.MAX_POWER && error > 0) || (output < SubProgram.MIN_POWER && error < 0)) {
+			// anti-windup: do not integrate further into the limit
+			output = integral + kp * error - kd * slope;
+		} else {
+			integral = Math.max(SubProgram.MIN_POWER, Math.min(SubProgram.MAX_POWER, newIntegral));
+		}
+
+		return SubProgram.roundPower(output);
+	}
+
+	public String getName() {
+		return NAME;
+	}
+}
@@ -0,0 +1,33 @@
+package org.jergometer.control;
+
+import org.jergometer.model.PulseWindow;
+
+/**
+ * Closed-loop strategy of the pulse sub program: determines the power which brings the
+ * pulse of the rider to the destination pulse.
+ * <p>
+ * A controller holds the state of one session.  It is created by {@link PulseControllers}
+ * and kept when the destination pulse changes, so it can continue with its state.
+ */
+public interface PulseController {
+	/**
+	 * Sets the destination pulse.  Called when a pulse action starts or the destination
+	 * pulse is changed interactively.
+	 *
+	 * @param destPulse destination pulse
+	 * @param power current power
+	 */
+	public void setDestPulse(int destPulse, int power);
+
+	/**
+	 * Determines the power after a new sample has been recorded.
+	 *
+	 * @param pulseWindow latest pulses including the new sample
+	 * @param pulse pulse of the new sample (&lt;= 0 if unknown)
+	 * @param power current power
+	 * @return new power (limited by the sub program to the power range of the bike)
+	 */
+	public int update(PulseWindow pulseWindow, int pulse, int power);
+
+	public String getName();
+}
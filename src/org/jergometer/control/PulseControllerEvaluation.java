@@ -0,0 +1,313 @@
+package org.jergometer.control;
+
+import de.endrullis.xml.XMLParser;
+import org.jergometer.model.BikeProgramData;
+import org.jergometer.model.BikeSession;
+import org.jergometer.model.ProgramTimeline;
+import org.jergometer.model.SessionSamples;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Offline evaluation of the pulse controllers.
+ * <p>
+ * A program is run against a {@link HeartRateModel} once per controller and the settling
+ * time and the overshoot after every change of the destination pulse are measured.
+ * For recorded sessions, the model is fitted to the samples of each session, so the
+ * controllers are compared on the heart rate responses of real rides.
+ * <pre>
+ * java org.jergometer.control.PulseControllerEvaluation program.xml [session file or directory ...]
+ * </pre>
+ */
+public class PulseControllerEvaluation {
+	/** Maximal deviation from the destination pulse in bpm regarded as settled. */
+	public static final int SETTLING_TOLERANCE = 3;
+	/** Standard deviation of the noise of the measured pulse in bpm. */
+	public static final double PULSE_NOISE = 1.5;
+
+	/** Metrics of the pulse actions of one or more rides. */
+	public static class Result {
+		private final String controllerName;
+		private long seconds = 0;
+		private int segments = 0;
+		private int unsettledSegments = 0;
+		private long settlingTimeSum = 0;
+		private double overshootSum = 0;
+		private double maxOvershoot = 0;
+		private double squaredErrorSum = 0;
+		private long errorSeconds = 0;
+
+		public Result(String controllerName) {
+			this.controllerName = controllerName;
+		}
+
+		/**
+		 * Adds the metrics of another result.
+		 *
+		 * @param result result of the same controller
+		 */
+		public void add(Result result) {
+			seconds += result.seconds;
+			segments += result.segments;
+			unsettledSegments += result.unsettledSegments;
+			settlingTimeSum += result.settlingTimeSum;
+			overshootSum += result.overshootSum;
+			maxOvershoot = Math.max(maxOvershoot, result.maxOvershoot);
+			squaredErrorSum += result.squaredErrorSum;
+			errorSeconds += result.errorSeconds;
+		}
+
+		public String getControllerName() {
+			return controllerName;
+		}
+
+		/**
+		 * Returns the number of simulated seconds.
+		 *
+		 * @return duration of all rides in seconds
+		 */
+		public long getSeconds() {
+			return seconds;
+		}
+
+		/**
+		 * Returns the number of evaluated pulse segments (destination pulse changes).
+		 *
+		 * @return number of segments
+		 */
+		public int getSegments() {
+			return segments;
+		}
+
+		/**
+		 * Returns the number of segments in which the pulse did not settle.
+		 *
+		 * @return number of unsettled segments
+		 */
+		public int getUnsettledSegments() {
+			return unsettledSegments;
+		}
+
+		/**
+		 * Returns the average time until the pulse stays within {@link #SETTLING_TOLERANCE}
+		 * of the destination pulse (segment length for unsettled segments).
+		 *
+		 * @return settling time in seconds
+		 */
+		public double getAverageSettlingTime() {
+			return segments == 0 ? 0 : (double) settlingTimeSum / segments;
+		}
+
+		/**
+		 * Returns the average overshoot beyond the destination pulse.
+		 *
+		 * @return overshoot in bpm
+		 */
+		public double getAverageOvershoot() {
+			return segments == 0 ? 0 : overshootSum / segments;
+		}
+
+		public double getMaxOvershoot() {
+			return maxOvershoot;
+		}
+
+		/**
+		 * Returns the root mean square deviation from the destination pulse.
+		 *
+		 * @return deviation in bpm
+		 */
+		public double getRmsError() {
+			return errorSeconds == 0 ? 0 : Math.sqrt(squaredErrorSum / errorSeconds);
+		}
+
+		public String toString() {
+			return String.format("%-10s segments %4d, unsettled %3d, settling time %6.1f s, overshoot %5.1f bpm (max %5.1f), rms error %5.1f bpm",
+					controllerName, segments, unsettledSegments, getAverageSettlingTime(), getAverageOvershoot(), maxOvershoot, getRmsError());
+		}
+	}
+
+	/**
+	 * Returns the destination pulse of every second of a program.
+	 *
+	 * @param programData program
+	 * @return destination pulse per second (0 while the power is given by the program)
+	 */
+	static int[] getDestPulses(BikeProgramData programData) {
+		int[] destPulses = new int[programData.getDuration()];
+		for (ProgramTimeline.Segment segment : programData.getTimeline().getSegments()) {
+			if (segment.getStart() >= destPulses.length) break;
+			Arrays.fill(destPulses, segment.getStart(), Math.min(segment.getEnd(), destPulses.length), segment.getPulse());
+		}
+		return destPulses;
+	}
+
+	/**
+	 * Runs a program with a controller against a heart rate model.  The controller gets the
+	 * pulse of the model with {@link #PULSE_NOISE} (same noise for every controller), the
+	 * metrics are measured on the pulse of the model.
+	 *
+	 * @param controllerName name of the controller (see {@link PulseControllers})
+	 * @param programData program
+	 * @param model heart rate model (not modified; its current pulse is the initial pulse)
+	 * @return metrics of the pulse actions
+	 */
+	public static Result evaluate(String controllerName, BikeProgramData programData, HeartRateModel model) {
+		return evaluate(PulseControllers.create(controllerName), programData, model);
+	}
+
+	/**
+	 * Runs a program with a controller against a heart rate model (e.g. to tune a controller).
+	 *
+	 * @param controller new controller
+	 * @param programData program
+	 * @param model heart rate model (not modified; its current pulse is the initial pulse)
+	 * @return metrics of the pulse actions
+	 */
+	public static Result evaluate(PulseController controller, BikeProgramData programData, HeartRateModel model) {
+		SimulationRunner.Ride ride = new SimulationRunner.Ride(programData, programData.getName(), new ModelRider(model, 1), controller);
+		ride.run();
+		return ride.getResult();
+	}
+
+	/**
+	 * Measures settling time and overshoot of every segment with a constant destination pulse.
+	 */
+	static Result measure(String controllerName, int[] destPulses, int[] pulses) {
+		Result result = new Result(controllerName);
+		result.seconds = destPulses.length;
+		int start = 0;
+		while (start < destPulses.length) {
+			int end = start;
+			while (end < destPulses.length && destPulses[end] == destPulses[start]) {
+				end++;
+			}
+			int destPulse = destPulses[start];
+			if (destPulse > 0) {
+				// direction in which the pulse has to change
+				int direction = Integer.signum(destPulse - pulses[Math.max(0, start - 1)]);
+				int settled = start;
+				double overshoot = 0;
+				for (int second = start; second < end; second++) {
+					int error = pulses[second] - destPulse;
+					if (Math.abs(error) > SETTLING_TOLERANCE) {
+						settled = second + 1;
+					}
+					overshoot = Math.max(overshoot, error * direction);
+					result.squaredErrorSum += error * error;
+				}
+				result.errorSeconds += end - start;
+				result.segments++;
+				if (settled == end && Math.abs(pulses[end - 1] - destPulse) > SETTLING_TOLERANCE) {
+					result.unsettledSegments++;
+				}
+				result.settlingTimeSum += settled - start;
+				result.overshootSum += overshoot;
+				result.maxOvershoot = Math.max(result.maxOvershoot, overshoot);
+			}
+			start = end;
+		}
+		return result;
+	}
+
+	/**
+	 * Runs a program with all controllers against the given heart rate models.
+	 *
+	 * @param programData program
+	 * @param models heart rate models (e.g. fitted to recorded sessions)
+	 * @return results per controller
+	 */
+	public static LinkedHashMap<String, Result> evaluateAll(BikeProgramData programData, List<HeartRateModel> models) {
+		LinkedHashMap<String, Result> results = new LinkedHashMap<String, Result>();
+		for (String controllerName : PulseControllers.name2controllerClass.keySet()) {
+			Result result = new Result(controllerName);
+			for (HeartRateModel model : models) {
+				result.add(evaluate(controllerName, programData, model));
+			}
+			results.put(controllerName, result);
+		}
+		return results;
+	}
+
+	/**
+	 * Fits a heart rate model to a recorded session.  The initial pulse of the model is the
+	 * first known pulse of the session.
+	 *
+	 * @param file session file
+	 * @return model or null if the session does not allow to fit a model
+	 * @throws IOException if the session file could not be loaded
+	 */
+	public static HeartRateModel fit(File file) throws IOException {
+		SessionSamples samples = new BikeSession(file).getSamples();
+		HeartRateModel model = HeartRateModel.fit(samples);
+		if (model != null) {
+			for (int second = 0; second < samples.size(); second++) {
+				if (samples.getPulse(second) > 0) {
+					model.setPulse(samples.getPulse(second));
+					break;
+				}
+			}
+		}
+		return model;
+	}
+
+	/**
+	 * Adds the session files (*.dat) given directly or contained in a directory and its subdirectories.
+	 *
+	 * @param file session file or directory
+	 * @param files list the session files are added to (sorted by name per directory)
+	 */
+	static void addSessionFiles(File file, List<File> files) {
+		if (file.isDirectory()) {
+			File[] children = file.listFiles();
+			Arrays.sort(children);
+			for (File child : children) {
+				addSessionFiles(child, files);
+			}
+		} else if (file.getName().endsWith(".dat")) {
+			files.add(file);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			System.err.println("Usage: java " + PulseControllerEvaluation.class.getName() + " program.xml [session file or directory ...]");
+			System.exit(1);
+		}
+
+		BikeProgramData programData = new BikeProgramData(new XMLParser().parse(new File(args[0])).getRootElement());
+
+		ArrayList<File> files = new ArrayList<File>();
+		for (int i = 1; i < args.length; i++) {
+			addSessionFiles(new File(args[i]), files);
+		}
+
+		ArrayList<HeartRateModel> models = new ArrayList<HeartRateModel>();
+		for (File file : files) {
+			try {
+				HeartRateModel model = fit(file);
+				if (model != null) {
+					System.out.println(file.getName() + ": " + model);
+					models.add(model);
+				} else {
+					System.out.println(file.getName() + ": not enough pulse information");
+				}
+			} catch (IOException e) {
+				System.err.println(file.getName() + ": " + e.getMessage());
+			}
+		}
+		if (files.isEmpty()) {
+			HeartRateModel model = new HeartRateModel();
+			System.out.println("default model: " + model);
+			models.add(model);
+		}
+
+		for (Result result : evaluateAll(programData, models).values()) {
+			System.out.println(result);
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package org.jergometer.control;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Registry of the pulse controllers.
+ */
+public class PulseControllers {
+	/** Name of the controller used if none or an unknown one is configured. */
+	public static final String DEFAULT = SwitcherPulseController.NAME;
+
+	public static final LinkedHashMap<String, Class<? extends PulseController>> name2controllerClass = new LinkedHashMap<String, Class<? extends PulseController>>() {{
+		put(SwitcherPulseController.NAME, SwitcherPulseController.class);
+		put(PidPulseController.NAME, PidPulseController.class);
+		put(ModelPulseController.NAME, ModelPulseController.class);
+	}};
+
+	/**
+	 * Creates a new controller.
+	 *
+	 * @param name name of the controller
+	 * @return new controller (the default controller if the name is unknown)
+	 */
+	public static PulseController create(String name) {
+		Class<? extends PulseController> controllerClass = name2controllerClass.get(name);
+		if (controllerClass == null) {
+			controllerClass = name2controllerClass.get(DEFAULT);
+		}
+		try {
+			return controllerClass.newInstance();
+		} catch (Exception e) {
+			throw new RuntimeException("Could not create pulse controller \"" + name + "\".", e);
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package org.jergometer.control;
+
+import org.jergometer.model.DataRecord;
+import org.jergometer.model.SessionSampleColumns;
+import org.jergometer.model.SessionSamples;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Replays the pulse and pedal rpm of a recorded ride.  The recorded pulse does not react on
+ * the power set by the program, so a replay tests how a program handles a real pulse
+ * signal (noise, dropouts), not how well it reaches the destination pulse.
+ */
+public class RecordedRider implements SimulatedRider {
+	private final SessionSamples samples;
+	private int pulse = 0;
+
+	/**
+	 * Creates a rider replaying the samples of a session.
+	 *
+	 * @param samples samples of a recorded session
+	 */
+	public RecordedRider(SessionSamples samples) {
+		this.samples = samples;
+	}
+
+	/**
+	 * Reads a stream of data records as written by the simulator recorder
+	 * (see {@link org.jergometer.communication.BikeConnectorSimulatorRecord}).
+	 * Records of paused seconds are skipped.
+	 *
+	 * @param in record stream
+	 * @return samples of the stream
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static SessionSamples readRecords(InputStream in) throws IOException {
+		DataInputStream dataIn = new DataInputStream(in);
+		SessionSampleColumns samples = new SessionSampleColumns();
+		DataRecord last = new DataRecord();
+		DataRecord record = new DataRecord();
+		try {
+			while (true) {
+				record.fromStream(dataIn);
+				if (!record.sameTime(last)) {
+					samples.add(record.getPulse(), record.getRealPower(), record.getPedalRpm());
+					last.copyFrom(record);
+				}
+			}
+		} catch (EOFException ignored) {
+		}
+		return samples;
+	}
+
+	public boolean ride(int second, int power, DataRecord record) {
+		if (second >= samples.size()) return false;
+
+		pulse = samples.getPulse(second);
+		record.set(pulse, samples.getPedalRpm(second), 0, 0, power, 0, second + 1, power);
+		return true;
+	}
+
+	public double getPulse() {
+		return pulse;
+	}
+}
@@ -0,0 +1,407 @@
+package org.jergometer.control;
+
+import de.endrullis.utils.LatencyHistogram;
+import de.endrullis.xml.XMLParser;
+import gnu.io.UnsupportedCommOperationException;
+import org.jergometer.communication.BikeConnector;
+import org.jergometer.communication.BikeConnectors;
+import org.jergometer.communication.BikeException;
+import org.jergometer.communication.ModelBikeConnector;
+import org.jergometer.model.BikeProgramData;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Hosts several bikes in one process, e.g. all ergometers of a studio.
+ * <p>
+ * Every bike is a {@link HostedBike} with its own connection, program and session.  The
+ * command schedulers of all bikes share a pool with a fixed number of threads, so the
+ * number of threads does not grow with the number of bikes.  The host sums up the
+ * throughput and the latencies of all bikes.
+ * <pre>
+ * java org.jergometer.control.SessionHost [options] program.xml
+ *   -bikes n            number of simulated bikes if no ports are given (default: 10)
+ *   -driver name        bike driver (default: simulator-model)
+ *   -ports p1,p2        serial ports of the bikes (one bike per port)
+ *   -controller name    pulse controller (default: switcher)
+ *   -threads n          number of threads (default: 2)
+ *   -time-scale n       bike seconds per second of the simulated bikes (default: 1)
+ *   -requests n         maximal number of requests in flight per bike (default: 1)
+ *   -poll-period ms     minimal poll period (default: 500)
+ *   -out dir            directory for the sessions (one subdirectory per bike)
+ * </pre>
+ * The bikes ride until the program has ended on all bikes.
+ */
+public class SessionHost {
+	private final int threadCount;
+	private int maxRequestsInFlight = 1;
+	private long minPollPeriod = 500;
+	private String outDir = null;
+	private final ArrayList<HostedBike> bikes = new ArrayList<HostedBike>();
+	private ScheduledExecutorService executor = null;
+
+	/**
+	 * Creates a session host.
+	 *
+	 * @param threadCount number of threads shared by all bikes
+	 */
+	public SessionHost(int threadCount) {
+		this.threadCount = Math.max(1, threadCount);
+	}
+
+	/**
+	 * Adds a bike with a new bike connector of the given driver.
+	 *
+	 * @param name unique name of the bike
+	 * @param driver name of the bike connector (see {@link BikeConnectors})
+	 * @param serialPort serial port of the bike
+	 * @param program program used only by this bike
+	 * @return hosted bike
+	 */
+	public HostedBike addBike(String name, String driver, String serialPort, BikeProgram program) {
+		BikeConnector bikeConnector = BikeConnectors.create(driver);
+		if (bikeConnector == null) {
+			throw new IllegalArgumentException("Unknown bike driver: " + driver);
+		}
+		return addBike(name, bikeConnector, serialPort, program);
+	}
+
+	/**
+	 * Adds a bike.  If the host is running, the bike is started immediately.
+	 *
+	 * @param name unique name of the bike
+	 * @param bikeConnector bike connector used only by this bike
+	 * @param serialPort serial port of the bike
+	 * @param program program used only by this bike
+	 * @return hosted bike
+	 */
+	public synchronized HostedBike addBike(String name, BikeConnector bikeConnector, String serialPort, BikeProgram program) {
+		if (getBike(name) != null) {
+			throw new IllegalArgumentException("Bike " + name + " already exists.");
+		}
+		HostedBike bike = new HostedBike(name, bikeConnector, serialPort, program, maxRequestsInFlight, minPollPeriod);
+		if (outDir != null) {
+			bike.setSessionDir(outDir + "/" + name);
+		}
+		bikes.add(bike);
+		if (executor != null) {
+			try {
+				bike.start(executor);
+			} catch (Exception e) {
+				bikes.remove(bike);
+				throw new RuntimeException("Bike " + name + " could not be started.", e);
+			}
+		}
+		return bike;
+	}
+
+	/**
+	 * Starts all bikes.  If a bike cannot be connected, the bikes started before are stopped.
+	 *
+	 * @throws BikeException if the bike communication fails
+	 * @throws UnsupportedCommOperationException if communication operation is not supported
+	 * @throws IOException if an I/O error occurs
+	 */
+	public synchronized void start() throws BikeException, UnsupportedCommOperationException, IOException {
+		if (executor != null) return;
+
+		executor = Executors.newScheduledThreadPool(threadCount, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "session host");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		boolean started = false;
+		try {
+			for (HostedBike bike : bikes) {
+				bike.start(executor);
+			}
+			started = true;
+		} finally {
+			if (!started) {
+				try {
+					stop();
+				} catch (IOException ignored) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops all bikes and saves their sessions.  All bikes are stopped even if a session
+	 * could not be saved.
+	 *
+	 * @throws IOException the first error while stopping a bike
+	 */
+	public synchronized void stop() throws IOException {
+		IOException error = null;
+		for (HostedBike bike : bikes) {
+			try {
+				bike.stop();
+			} catch (IOException e) {
+				if (error == null) error = e;
+			}
+		}
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+		if (error != null) throw error;
+	}
+
+	/**
+	 * Waits until the program has ended on all bikes.
+	 *
+	 * @param timeout maximal time to wait in ms
+	 * @return true if all bikes have finished
+	 * @throws InterruptedException if the thread has been interrupted
+	 */
+	public boolean awaitFinished(long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		while (true) {
+			boolean finished = true;
+			for (HostedBike bike : getBikes()) {
+				finished &= bike.isFinished();
+			}
+			if (finished) return true;
+			if (System.currentTimeMillis() >= end) return false;
+			Thread.sleep(100);
+		}
+	}
+
+	public synchronized HostedBike getBike(String name) {
+		for (HostedBike bike : bikes) {
+			if (bike.getName().equals(name)) return bike;
+		}
+		return null;
+	}
+
+	public synchronized List<HostedBike> getBikes() {
+		return Collections.unmodifiableList(new ArrayList<HostedBike>(bikes));
+	}
+
+	public synchronized boolean isRunning() {
+		return executor != null;
+	}
+
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	public synchronized int getMaxRequestsInFlight() {
+		return maxRequestsInFlight;
+	}
+
+	/**
+	 * Sets the maximal number of requests in flight of the bikes added afterwards.
+	 *
+	 * @param maxRequestsInFlight maximal number of requests without response
+	 */
+	public synchronized void setMaxRequestsInFlight(int maxRequestsInFlight) {
+		this.maxRequestsInFlight = maxRequestsInFlight;
+	}
+
+	public synchronized long getMinPollPeriod() {
+		return minPollPeriod;
+	}
+
+	/**
+	 * Sets the minimal poll period of the bikes added afterwards.
+	 *
+	 * @param minPollPeriod minimal poll period in ms
+	 */
+	public synchronized void setMinPollPeriod(long minPollPeriod) {
+		this.minPollPeriod = minPollPeriod;
+	}
+
+	public synchronized String getOutDir() {
+		return outDir;
+	}
+
+	/**
+	 * Sets the directory the sessions of the bikes added afterwards are saved in
+	 * (one subdirectory per bike).
+	 *
+	 * @param outDir directory or null to discard the sessions
+	 */
+	public synchronized void setOutDir(String outDir) {
+		this.outDir = outDir;
+	}
+
+// aggregate metrics
+
+	/**
+	 * Returns the number of data records received from all bikes.
+	 *
+	 * @return number of data records
+	 */
+	public long getRecords() {
+		long records = 0;
+		for (HostedBike bike : getBikes()) {
+			records += bike.getRecords();
+		}
+		return records;
+	}
+
+	/**
+	 * Returns the number of data records received from all bikes per second.
+	 *
+	 * @return data records per second
+	 */
+	public double getThroughput() {
+		double throughput = 0;
+		for (HostedBike bike : getBikes()) {
+			throughput += bike.getThroughput();
+		}
+		return throughput;
+	}
+
+	/**
+	 * Returns the round-trip times of the requests of all bikes.
+	 *
+	 * @return new histogram containing the round-trip times of all bikes
+	 */
+	public LatencyHistogram getRoundTripHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (HostedBike bike : getBikes()) {
+			histogram.add(bike.getCommandScheduler().getRoundTripHistogram());
+		}
+		return histogram;
+	}
+
+	/**
+	 * Returns the setpoint latencies of all bikes.
+	 *
+	 * @return new histogram containing the setpoint latencies of all bikes
+	 */
+	public LatencyHistogram getSetpointLatencyHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (HostedBike bike : getBikes()) {
+			histogram.add(bike.getCommandScheduler().getSetpointLatencyHistogram());
+		}
+		return histogram;
+	}
+
+	/**
+	 * Returns the times needed to process the data records of all bikes.
+	 *
+	 * @return new histogram containing the update times of all bikes
+	 */
+	public LatencyHistogram getUpdateHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (HostedBike bike : getBikes()) {
+			histogram.add(bike.getUpdateHistogram());
+		}
+		return histogram;
+	}
+
+	public int getTimeouts() {
+		int timeouts = 0;
+		for (HostedBike bike : getBikes()) {
+			timeouts += bike.getCommandScheduler().getTimeouts();
+		}
+		return timeouts;
+	}
+
+	@Override
+	public String toString() {
+		List<HostedBike> bikes = getBikes();
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%d bikes on %d threads, %d records (%.1f/s), timeouts: %d",
+				bikes.size(), threadCount, getRecords(), getThroughput(), getTimeouts()));
+		sb.append("\nround trip: ").append(getRoundTripHistogram());
+		sb.append("\nsetpoint latency: ").append(getSetpointLatencyHistogram());
+		sb.append("\nupdate: ").append(getUpdateHistogram());
+		for (HostedBike bike : bikes) {
+			sb.append("\n").append(bike);
+		}
+		return sb.toString();
+	}
+
+	public static void main(String[] args) throws Exception {
+		int bikeCount = 10;
+		String driver = ModelBikeConnector.NAME;
+		List<String> ports = null;
+		String controllerName = PulseControllers.DEFAULT;
+		int threads = 2;
+		int timeScale = 1;
+		int requests = 1;
+		long pollPeriod = 500;
+		String outDir = null;
+		String programPath = null;
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("-bikes") && i + 1 < args.length) {
+				bikeCount = Integer.parseInt(args[++i]);
+			} else if (arg.equals("-driver") && i + 1 < args.length) {
+				driver = args[++i];
+			} else if (arg.equals("-ports") && i + 1 < args.length) {
+				ports = Arrays.asList(args[++i].split(","));
+			} else if (arg.equals("-controller") && i + 1 < args.length) {
+				controllerName = args[++i];
+			} else if (arg.equals("-threads") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (arg.equals("-time-scale") && i + 1 < args.length) {
+				timeScale = Integer.parseInt(args[++i]);
+			} else if (arg.equals("-requests") && i + 1 < args.length) {
+				requests = Integer.parseInt(args[++i]);
+			} else if (arg.equals("-poll-period") && i + 1 < args.length) {
+				pollPeriod = Long.parseLong(args[++i]);
+			} else if (arg.equals("-out") && i + 1 < args.length) {
+				outDir = args[++i];
+			} else {
+				programPath = arg;
+			}
+		}
+		if (programPath == null) {
+			System.err.println("Usage: java " + SessionHost.class.getName() + " [-bikes n] [-driver name] [-ports p1,p2] [-controller name] [-threads n] " +
+					"[-time-scale n] [-requests n] [-poll-period ms] [-out dir] program.xml");
+			System.exit(1);
+		}
+
+		File programFile = new File(programPath);
+		String programName = SimulationRunner.getProgramName(programFile);
+		BikeProgramData programData = new BikeProgramData(new XMLParser().parse(programFile).getRootElement());
+
+		SessionHost host = new SessionHost(threads);
+		host.setMaxRequestsInFlight(requests);
+		if (driver.equals(ModelBikeConnector.NAME)) {
+			// the simulated bikes ride one second per poll
+			pollPeriod = Math.min(pollPeriod, ModelBikeConnector.getMaxPollPeriod(timeScale));
+		}
+		host.setMinPollPeriod(pollPeriod);
+		host.setOutDir(outDir);
+		if (ports == null) {
+			ports = Collections.nCopies(bikeCount, null);
+		}
+		for (int i = 0; i < ports.size(); i++) {
+			BikeProgram program = new BikeProgram(programFile, programName, programData);
+			program.setPulseControllerName(controllerName);
+			HostedBike bike = host.addBike("bike" + (i + 1), driver, ports.get(i), program);
+			if (bike.getBikeConnector() instanceof ModelBikeConnector) {
+				ModelBikeConnector modelBikeConnector = (ModelBikeConnector) bike.getBikeConnector();
+				modelBikeConnector.setTimeScale(timeScale);
+				modelBikeConnector.setSeed(i + 1);
+			}
+		}
+
+		host.start();
+		try {
+			while (!host.awaitFinished(10000)) {
+				System.out.println(String.format("%d records (%.1f/s)", host.getRecords(), host.getThroughput()));
+			}
+		} finally {
+			host.stop();
+		}
+		System.out.println(host);
+	}
+}
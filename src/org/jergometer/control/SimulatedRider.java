@@ -0,0 +1,25 @@
+package org.jergometer.control;
+
+import org.jergometer.model.DataRecord;
+
+/**
+ * Source of the data records of a simulated ride (see {@link SimulationRunner}).
+ */
+public interface SimulatedRider {
+	/**
+	 * Rides one second with the given power.
+	 *
+	 * @param second second of the ride (starting with 0)
+	 * @param power power set by the program
+	 * @param record record to fill with the data of this second (reused by the caller)
+	 * @return false if the ride has ended
+	 */
+	public boolean ride(int second, int power, DataRecord record);
+
+	/**
+	 * Returns the pulse of the last second without measurement errors.
+	 *
+	 * @return actual pulse
+	 */
+	public double getPulse();
+}
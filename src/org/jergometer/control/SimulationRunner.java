@@ -0,0 +1,419 @@
+package org.jergometer.control;
+
+import de.endrullis.xml.XMLParser;
+import org.jergometer.model.BikeProgramData;
+import org.jergometer.model.BikeSession;
+import org.jergometer.model.DataRecord;
+import org.jergometer.model.SessionSamples;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Headless simulation of bike programs.
+ * <p>
+ * A program runs with {@link BikeProgram}, {@link SubProgram} and {@link BikeSession} as in
+ * a real session, but the data records come from {@link SimulatedRider}s as fast as the
+ * program can process them.  The rides are distributed over all processors.  The sessions
+ * can be written to a directory and the metrics of the pulse actions are summed up per
+ * controller, so changes of a controller can be checked on many rides.
+ * <pre>
+ * java org.jergometer.control.SimulationRunner [options] program.xml [session file or directory ...]
+ *   -controllers c1,c2  controllers to simulate (default: all)
+ *   -rides n            number of synthetic riders if no sessions are given (default: 100)
+ *   -replay             replay the recorded sessions instead of riders fitted to them
+ *   -threads n          number of threads (default: number of processors)
+ *   -out dir            directory for the sessions and the metrics
+ * </pre>
+ */
+public class SimulationRunner {
+	/** Simulation of one ride. */
+	public static class Ride implements Callable<Ride> {
+		private final BikeProgramData programData;
+		private final String programName;
+		private final SimulatedRider rider;
+		private final PulseController controller;
+		private Date startTime = null;
+		private String sessionDir = null;
+		private BikeSession session = null;
+		private PulseControllerEvaluation.Result result = null;
+
+		/**
+		 * Creates a ride.
+		 *
+		 * @param programData program
+		 * @param programName name of the program stored in the session
+		 * @param rider rider (used only once)
+		 * @param controller pulse controller (used only once)
+		 */
+		public Ride(BikeProgramData programData, String programName, SimulatedRider rider, PulseController controller) {
+			this.programData = programData;
+			this.programName = programName;
+			this.rider = rider;
+			this.controller = controller;
+		}
+
+		/**
+		 * Rides the program and saves the session if requested (see {@link #saveTo}).
+		 * Only the metrics are kept afterwards.
+		 *
+		 * @return this ride
+		 * @throws IOException if the session could not be saved
+		 */
+		public Ride call() throws IOException {
+			run();
+			if (sessionDir != null) {
+				session.save(sessionDir);
+			}
+			// do not keep the samples of thousands of rides
+			session = null;
+			return this;
+		}
+
+		/**
+		 * Rides the program until its end or the end of the rider's data.
+		 */
+		public void run() {
+			BikeProgram program = new BikeProgram(new File(programName), programName, programData);
+			session = program.newSession();
+			if (startTime != null) {
+				session.setStartTime(startTime);
+			}
+			program.setPulseController(controller);
+
+			int[] destPulses = PulseControllerEvaluation.getDestPulses(programData);
+			int[] pulses = new int[destPulses.length];
+			DataRecord record = new DataRecord();
+			int second = 0;
+			for (; second < destPulses.length; second++) {
+				if (!rider.ride(second, program.getPower(), record)) break;
+				pulses[second] = (int) Math.round(rider.getPulse());
+				program.update(record);
+			}
+
+			result = PulseControllerEvaluation.measure(controller.getName(),
+					Arrays.copyOf(destPulses, second), Arrays.copyOf(pulses, second));
+		}
+
+		/**
+		 * Saves the session after the ride.
+		 *
+		 * @param sessionDir directory of the session file
+		 * @param startTime start time of the session (determines the file name)
+		 */
+		public void saveTo(String sessionDir, Date startTime) {
+			this.sessionDir = sessionDir;
+			this.startTime = startTime;
+		}
+
+		/**
+		 * Returns the session of the ride.
+		 *
+		 * @return session (null after {@link #call()})
+		 */
+		public BikeSession getSession() {
+			return session;
+		}
+
+		public PulseControllerEvaluation.Result getResult() {
+			return result;
+		}
+	}
+
+	/** Creates a new rider for every controller. */
+	public static interface RiderFactory {
+		public SimulatedRider createRider();
+	}
+
+	private final BikeProgramData programData;
+	private final String programName;
+	private int threadCount = Runtime.getRuntime().availableProcessors();
+	private String outDir = null;
+	private long simulatedSeconds = 0;
+	private long wallTime = 0;
+
+	public SimulationRunner(BikeProgramData programData, String programName) {
+		this.programData = programData;
+		this.programName = programName;
+	}
+
+	/**
+	 * Simulates the program with every controller and every rider.
+	 *
+	 * @param controllerNames names of the controllers
+	 * @param riders riders
+	 * @return metrics per controller
+	 * @throws IOException if a session could not be saved or the simulation has been interrupted
+	 * @throws IllegalArgumentException if a controller is unknown
+	 */
+	public LinkedHashMap<String, PulseControllerEvaluation.Result> run(List<String> controllerNames, List<RiderFactory> riders) throws IOException {
+		for (String controllerName : controllerNames) {
+			// PulseControllers.create() would fall back to the default controller
+			if (!PulseControllers.name2controllerClass.containsKey(controllerName)) {
+				throw new IllegalArgumentException("Unknown pulse controller: " + controllerName);
+			}
+		}
+
+		// start times of the saved sessions: one minute per ride
+		long startTime = (System.currentTimeMillis() / 60000 - riders.size()) * 60000;
+
+		LinkedHashMap<String, PulseControllerEvaluation.Result> results = new LinkedHashMap<String, PulseControllerEvaluation.Result>();
+		ArrayList<Ride> rides = new ArrayList<Ride>();
+		for (String controllerName : controllerNames) {
+			results.put(controllerName, new PulseControllerEvaluation.Result(controllerName));
+			for (int i = 0; i < riders.size(); i++) {
+				Ride ride = new Ride(programData, programName, riders.get(i).createRider(), PulseControllers.create(controllerName));
+				if (outDir != null) {
+					ride.saveTo(outDir + "/" + controllerName, new Date(startTime + i * 60000L));
+				}
+				rides.add(ride);
+			}
+		}
+
+		long start = System.currentTimeMillis();
+		for (Ride ride : runAll(rides)) {
+			results.get(ride.getResult().getControllerName()).add(ride.getResult());
+			simulatedSeconds += ride.getResult().getSeconds();
+		}
+		wallTime += System.currentTimeMillis() - start;
+		return results;
+	}
+
+	/**
+	 * Runs the rides in parallel.
+	 */
+	private List<Ride> runAll(List<Ride> rides) throws IOException {
+		int threads = Math.max(1, Math.min(threadCount, rides.size()));
+		if (threads == 1) {
+			for (Ride ride : rides) {
+				ride.call();
+			}
+			return rides;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "simulation");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			for (Future<Ride> future : executor.invokeAll(rides)) {
+				future.get();
+			}
+			return rides;
+		} catch (InterruptedException e) {
+			throw new IOException("Simulation has been interrupted.");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Creates synthetic riders with random heart rate models.
+	 *
+	 * @param count number of riders
+	 * @param seed seed of the random model parameters
+	 * @return riders
+	 */
+	public static List<RiderFactory> createSyntheticRiders(int count, long seed) {
+		Random random = new Random(seed);
+		ArrayList<RiderFactory> riders = new ArrayList<RiderFactory>();
+		for (int i = 0; i < count; i++) {
+			final HeartRateModel model = new HeartRateModel(55 + 25 * random.nextDouble(), 0.25 + 0.35 * random.nextDouble(), 25 + 45 * random.nextDouble());
+			model.setPulse(model.getRestPulse() + 20 * random.nextDouble());
+			final long noiseSeed = random.nextLong();
+			riders.add(new RiderFactory() {
+				public SimulatedRider createRider() {
+					return new ModelRider(model, noiseSeed);
+				}
+			});
+		}
+		return riders;
+	}
+
+	public String getOutDir() {
+		return outDir;
+	}
+
+	/**
+	 * Sets the directory the sessions are saved in (one subdirectory per controller).
+	 *
+	 * @param outDir directory or null to discard the sessions
+	 */
+	public void setOutDir(String outDir) {
+		this.outDir = outDir;
+	}
+
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	public void setThreadCount(int threadCount) {
+		this.threadCount = threadCount;
+	}
+
+	/**
+	 * Returns the number of seconds ridden per second of wall time.
+	 *
+	 * @return speedup over real time
+	 */
+	public double getSpeedup() {
+		return wallTime == 0 ? 0 : simulatedSeconds * 1000.0 / wallTime;
+	}
+
+	/**
+	 * Creates the riders of recorded sessions (session files or simulator recordings).
+	 */
+	private static List<RiderFactory> createRecordedRiders(List<File> files, final boolean replay) {
+		ArrayList<RiderFactory> riders = new ArrayList<RiderFactory>();
+		for (File file : files) {
+			try {
+				if (replay) {
+					final SessionSamples samples;
+					if (file.getName().endsWith(".dat")) {
+						samples = new BikeSession(file).getSamples();
+					} else {
+						InputStream in = new FileInputStream(file);
+						try {
+							samples = RecordedRider.readRecords(in);
+						} finally {
+							in.close();
+						}
+					}
+					riders.add(new RiderFactory() {
+						public SimulatedRider createRider() {
+							return new RecordedRider(samples);
+						}
+					});
+				} else if (file.getName().endsWith(".dat")) {
+					final HeartRateModel model = PulseControllerEvaluation.fit(file);
+					if (model == null) {
+						System.out.println(file.getName() + ": not enough pulse information");
+						continue;
+					}
+					riders.add(new RiderFactory() {
+						public SimulatedRider createRider() {
+							return new ModelRider(model, 1);
+						}
+					});
+				}
+			} catch (IOException e) {
+				System.err.println(file.getName() + ": " + e.getMessage());
+			}
+		}
+		return riders;
+	}
+
+	/**
+	 * Returns the name of a program file as stored in the sessions.
+	 *
+	 * @param programFile program file
+	 * @return name relative to the program directory as used by the program tree
+	 */
+	static String getProgramName(File programFile) {
+		String programName = programFile.getPath().replaceAll("\\\\", "/");
+		if (programName.contains("programs/")) {
+			programName = programName.substring(programName.lastIndexOf("programs/") + "programs/".length());
+		}
+		return programName;
+	}
+
+	public static void main(String[] args) throws Exception {
+		List<String> controllerNames = new ArrayList<String>(PulseControllers.name2controllerClass.keySet());
+		int rideCount = 100;
+		boolean replay = false;
+		int threads = Runtime.getRuntime().availableProcessors();
+		String outDir = null;
+		ArrayList<String> files = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("-controllers") && i + 1 < args.length) {
+				controllerNames = Arrays.asList(args[++i].split(","));
+			} else if (arg.equals("-rides") && i + 1 < args.length) {
+				rideCount = Integer.parseInt(args[++i]);
+			} else if (arg.equals("-replay")) {
+				replay = true;
+			} else if (arg.equals("-threads") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (arg.equals("-out") && i + 1 < args.length) {
+				outDir = args[++i];
+			} else {
+				files.add(arg);
+			}
+		}
+		boolean unknownController = false;
+		for (String controllerName : controllerNames) {
+			if (!PulseControllers.name2controllerClass.containsKey(controllerName)) {
+				System.err.println("Unknown pulse controller \"" + controllerName + "\", available controllers: " + PulseControllers.name2controllerClass.keySet());
+				unknownController = true;
+			}
+		}
+		if (files.isEmpty() || unknownController) {
+			System.err.println("Usage: java " + SimulationRunner.class.getName() + " [-controllers c1,c2] [-rides n] [-replay] [-threads n] [-out dir] program.xml [session file or directory ...]");
+			System.exit(1);
+		}
+
+		File programFile = new File(files.remove(0));
+		String programName = getProgramName(programFile);
+		BikeProgramData programData = new BikeProgramData(new XMLParser().parse(programFile).getRootElement());
+
+		List<RiderFactory> riders;
+		if (files.isEmpty()) {
+			riders = createSyntheticRiders(rideCount, 1);
+		} else {
+			ArrayList<File> sessionFiles = new ArrayList<File>();
+			for (String path : files) {
+				File file = new File(path);
+				if (replay && file.isFile()) {
+					// simulator recordings are replayed if given explicitly
+					sessionFiles.add(file);
+				} else {
+					PulseControllerEvaluation.addSessionFiles(file, sessionFiles);
+				}
+			}
+			riders = createRecordedRiders(sessionFiles, replay);
+		}
+
+		SimulationRunner runner = new SimulationRunner(programData, programName);
+		runner.setThreadCount(threads);
+		runner.setOutDir(outDir);
+		LinkedHashMap<String, PulseControllerEvaluation.Result> results = runner.run(controllerNames, riders);
+
+		PrintStream metrics = null;
+		if (outDir != null) {
+			new File(outDir).mkdirs();
+			metrics = new PrintStream(new File(outDir, "metrics.txt"));
+		}
+		String summary = String.format("%d rides of %s with %d threads, %.0f times faster than real time",
+				riders.size() * controllerNames.size(), programData.getName(), threads, runner.getSpeedup());
+		System.out.println(summary);
+		if (metrics != null) metrics.println(summary);
+		for (PulseControllerEvaluation.Result result : results.values()) {
+			System.out.println(result);
+			if (metrics != null) metrics.println(result);
+		}
+		if (metrics != null) metrics.close();
+	}
+}
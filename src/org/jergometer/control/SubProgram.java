@@ -2,18 +2,17 @@ package org.jergometer.control;
 
 import org.jergometer.model.BikeSession;
 import org.jergometer.model.DataRecord;
-import org.jergometer.model.MiniDataRecord;
 import org.jergometer.translation.I18n;
 
-import java.util.ArrayList;
-import java.io.IOException;
-
 /**
  * Sub program of bike program.
  *
  * @see org.jergometer.control.SubProgram
  */
 abstract public class SubProgram {
+	/** Power range of the bike in W. */
+	public static final int MIN_POWER = 25, MAX_POWER = 400;
+
 	protected BikeSession session;
 	protected int power;
 
@@ -31,8 +30,18 @@ abstract public class SubProgram {
 	public void setPower(int power) {
 		this.power = power;
 
-		if(this.power < 25)  this.power = 25;
-		if(this.power > 400) this.power = 400;
+		if(this.power < MIN_POWER) this.power = MIN_POWER;
+		if(this.power > MAX_POWER) this.power = MAX_POWER;
+	}
+
+	/**
+	 * Rounds a power to the 5 W steps of the bike.
+	 *
+	 * @param power power in W
+	 * @return rounded power
+	 */
+	public static int roundPower(double power) {
+		return (int) Math.round(power / 5) * 5;
 	}
 
 	public abstract String getActionName();
@@ -55,94 +64,43 @@ abstract public class SubProgram {
 
 	public static class Pulse extends SubProgram {
 		private int destPulse;
-		private int last10 = 0, last20 = 0;
-		private int last10Count = 0, last20Count = 0;
-		private int switcher = 0;
+		private PulseController controller;
 
+		/**
+		 * Creates a pulse sub program with the original controller.
+		 */
 		public Pulse(BikeSession session, int power, int pulse) {
+			this(session, power, pulse, new SwitcherPulseController());
+		}
+
+		/**
+		 * Creates a pulse sub program.
+		 *
+		 * @param session session
+		 * @param power current power
+		 * @param pulse destination pulse
+		 * @param controller controller (may be taken over from the previous pulse sub program)
+		 */
+		public Pulse(BikeSession session, int power, int pulse, PulseController controller) {
 			super(session, power);
 			destPulse = pulse;
-
-			ArrayList<MiniDataRecord> data = null;
-			try {
-				data = session.getData();
-			} catch (IOException e) {
-				// this should never happen
-				data = new ArrayList<MiniDataRecord>();
-			}
-
-			// calculate the pulse sum vom -20 to -10
-			int value;
-			for(int i = Math.max(0, data.size() - 20); i < data.size() - 10; i++) {
-				value = data.get(i).getPulse();
-				if (value > 0) {
-					last20 += value;
-					last20Count++;
-				}
-			}
-
-			// calculate the pulse sum vom -10 to 0
-			for(int i = Math.max(0, data.size() - 10); i < data.size(); i++) {
-				value = data.get(i).getPulse();
-				if (value > 0) {
-					last10 += value;
-					last10Count++;
-				}
-			}
+			this.controller = controller;
+			controller.setDestPulse(pulse, power);
 		}
 
 		public void update(DataRecord dataRecord) {
-			ArrayList<MiniDataRecord> data = null;
-			try {
-				data = session.getData();
-			} catch (IOException e) {
-				throw new RuntimeException("This should never happen!");
-			}
-			int value;
-
-			if (data.size() >= 21) {
-				value = data.get(data.size() - 21).getPulse();
-				if (value > 0) {
-					last20 -= value;
-					last20Count--;
-				}
-			}
-			if (data.size() >= 11) {
-				value = data.get(data.size() - 11).getPulse();
-				if (value > 0) {
-					last20 += value;
-					last20Count++;
-					last10 -= value;
-					last10Count--;
-				}
-			}
-			if (data.size() >= 1) {
-				value = data.get(data.size() - 1).getPulse();
-				if (value > 0) {
-					last10 += value;
-					last10Count++;
-				}
-			}
-
-			if (last10Count >= 5 && last20Count >= 5) {
-				switcher += destPulse - ((0.5 + (double) (last10/last10Count - last20/last20Count)*10/3 + dataRecord.getPulse()));
-
-				if (switcher >= 100) {
-					setPower(power + 5);
-					switcher = 0;
-				}
-
-				if (switcher <= -100) {
-					setPower(power - 5);
-					switcher = 0;
-				}
-			}
+			// the pulse window is fed by the session
+			setPower(controller.update(session.getPulseWindow(), dataRecord.getPulse(), power));
 		}
 
 		public int getDestPulse() {
 			return destPulse;
 		}
 
+		public PulseController getController() {
+			return controller;
+		}
+
 		public String getActionName() {
 			return I18n.getString("action.keep_pulse_at_x", destPulse);
 		}
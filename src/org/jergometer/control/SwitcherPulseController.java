@@ -0,0 +1,47 @@
+package org.jergometer.control;
+
+import org.jergometer.model.PulseWindow;
+
+/**
+ * Original pulse controller of JErgometer: accumulates the deviation of the extrapolated
+ * pulse from the destination pulse and changes the power by 5 W whenever the accumulated
+ * deviation reaches 100.
+ */
+public class SwitcherPulseController implements PulseController {
+	public static final String NAME = "switcher";
+
+	private int destPulse;
+	private int switcher = 0;
+
+	public void setDestPulse(int destPulse, int power) {
+		this.destPulse = destPulse;
+		switcher = 0;
+	}
+
+	public int update(PulseWindow pulseWindow, int pulse, int power) {
+		// pulse sums from -10 to 0 and from -20 to -10
+		int last10Count = pulseWindow.getCount(0, 10);
+		int last20Count = pulseWindow.getCount(10, 20);
+
+		if (last10Count >= 5 && last20Count >= 5) {
+			int last10 = (int) pulseWindow.getSum(0, 10);
+			int last20 = (int) pulseWindow.getSum(10, 20);
+			switcher += destPulse - ((0.5 + (double) (last10/last10Count - last20/last20Count)*10/3 + pulse));
+
+			if (switcher >= 100) {
+				switcher = 0;
+				return power + 5;
+			}
+
+			if (switcher <= -100) {
+				switcher = 0;
+				return power - 5;
+			}
+		}
+		return power;
+	}
+
+	public String getName() {
+		return NAME;
+	}
+}
@@ -0,0 +1,111 @@
+package org.jergometer.control;
+
+import org.jergometer.model.DataRecord;
+
+import java.util.Random;
+
+/**
+ * Synthetic rider with the imperfections of a real ride: the pulse follows a
+ * {@link HeartRateModel}, but it drifts upwards with the time (fatigue), it is measured
+ * with a delay and noise, and the pulse signal drops out from time to time.  The cadence
+ * varies around its mean value.
+ *
+ * @see org.jergometer.communication.ModelBikeConnector
+ */
+public class SyntheticRider implements SimulatedRider {
+	/** Parameters of the rider. */
+	public static class Parameters implements Cloneable {
+		/** Steady state pulse without power. */
+		public double restPulse = 65;
+		/** Increase of the steady state pulse per W. */
+		public double gain = HeartRateModel.DEFAULT_GAIN;
+		/** Time constant of the heart rate response in seconds. */
+		public double timeConstant = HeartRateModel.DEFAULT_TIME_CONSTANT;
+		/** Delay of the measured pulse in seconds. */
+		public int pulseLag = 5;
+		/** Standard deviation of the noise of the measured pulse in bpm. */
+		public double pulseNoise = PulseControllerEvaluation.PULSE_NOISE;
+		/** Increase of the pulse per hour at constant power in bpm. */
+		public double fatigueDrift = 10;
+		/** Mean cadence in rpm. */
+		public int cadence = 70;
+		/** Standard deviation of the cadence in rpm. */
+		public double cadenceNoise = 3;
+		/** Probability per second that the pulse signal drops out (for 5 to 20 seconds). */
+		public double dropoutRate = 0.002;
+
+		public Parameters clone() {
+			try {
+				return (Parameters) super.clone();
+			} catch (CloneNotSupportedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		public String toString() {
+			return String.format("rest pulse %.0f, gain %.2f bpm/W, time constant %.0f s, pulse lag %d s, pulse noise %.1f bpm, " +
+					"fatigue drift %.1f bpm/h, cadence %d rpm (noise %.1f), dropout rate %.4f/s",
+					restPulse, gain, timeConstant, pulseLag, pulseNoise, fatigueDrift, cadence, cadenceNoise, dropoutRate);
+		}
+	}
+
+	private static final int MIN_DROPOUT = 5, MAX_DROPOUT = 20;
+
+	private final Parameters parameters;
+	private final HeartRateModel model;
+	private final Random random;
+	/** Actual pulses of the last seconds (to delay the measurement). */
+	private final double[] pulses;
+	private double pulse;
+	private int dropoutRemaining = 0;
+	private double distance = 0;
+	private double energy = 0;
+
+	/**
+	 * Creates a rider starting with the rest pulse.
+	 *
+	 * @param parameters parameters (copied)
+	 * @param seed seed of the noise and the dropouts
+	 */
+	public SyntheticRider(Parameters parameters, long seed) {
+		this.parameters = parameters.clone();
+		model = new HeartRateModel(parameters.restPulse, parameters.gain, parameters.timeConstant);
+		random = new Random(seed);
+		pulses = new double[Math.max(0, parameters.pulseLag) + 1];
+		pulse = parameters.restPulse;
+	}
+
+	public boolean ride(int second, int power, DataRecord record) {
+		pulse = model.step(power) + parameters.fatigueDrift * second / 3600;
+		pulses[second % pulses.length] = pulse;
+		// measured pulse of the rider some seconds ago
+		double laggedPulse = pulses[(second - Math.min(second, pulses.length - 1)) % pulses.length];
+
+		int measuredPulse;
+		if (dropoutRemaining > 0) {
+			dropoutRemaining--;
+			measuredPulse = 0;
+		} else if (random.nextDouble() < parameters.dropoutRate) {
+			dropoutRemaining = MIN_DROPOUT + random.nextInt(MAX_DROPOUT - MIN_DROPOUT + 1) - 1;
+			measuredPulse = 0;
+		} else {
+			measuredPulse = (int) Math.round(laggedPulse + random.nextGaussian() * parameters.pulseNoise);
+		}
+
+		int cadence = Math.max(0, (int) Math.round(parameters.cadence + random.nextGaussian() * parameters.cadenceNoise));
+		// speed in km/h (about 2.5 m per revolution), distance in m, energy in kJ
+		int speed = cadence * 3 / 20;
+		distance += speed / 3.6;
+		energy += power / 1000.0;
+		record.set(measuredPulse, cadence, speed, (int) distance, power, (int) energy, second + 1, power);
+		return true;
+	}
+
+	public double getPulse() {
+		return pulse;
+	}
+
+	public Parameters getParameters() {
+		return parameters.clone();
+	}
+}
@@ -1,12 +1,13 @@
 package org.jergometer.diagram;
 
 import org.jergometer.gui.Diagram;
+import org.jergometer.model.SessionSamples;
 import org.jergometer.translation.I18n;
 
 import java.awt.*;
 
 /**
- * Utility class for adding the legend to a diagram.
+ * Utility class for adding the legend and the samples of a session to a diagram.
  *
  * @author Stefan Endrullis
  */
@@ -22,18 +23,47 @@ public class BikeDiagram {
 		Stroke s = dest ? new BasicStroke(2f) : new BasicStroke(0.5f);
 		int a = bright ? 64 : 255;
 		double b = -0.5; //bright ? 0 : -0.5;
+		// the program is drawn in its own layer below the recorded data
+		Diagram.Layer layer = dest ? Diagram.Layer.program : Diagram.Layer.data;
 		if (dest) {
 			suffix = "-dest";
 		} else {
-			addGraph(diagram, "pulse-end", Diagram.brighten(0.5, new Color(255,0,0, a)), s, Diagram.Side.left, true);
+			addGraph(diagram, "pulse-end", Diagram.brighten(0.5, new Color(255,0,0, a)), s, Diagram.Side.left, layer, true);
 		}
-		addGraph(diagram, "pulse"       + suffix, Diagram.brighten(b, new Color(255,0,0, a)), s, Diagram.Side.left, bright);
-		addGraph(diagram, "pedalRPM"    + suffix, Diagram.brighten(b, new Color(0,255,0, a)), s, Diagram.Side.left, bright);
-		addGraph(diagram, "power"       + suffix, Diagram.brighten(b, new Color(0,0,255, a)), s, Diagram.Side.left, bright);
-		addGraph(diagram, "performance" + suffix, Diagram.brighten(b, new Color(0,0,0, a)),   s, Diagram.Side.left, bright);
+		addGraph(diagram, "pulse"       + suffix, Diagram.brighten(b, new Color(255,0,0, a)), s, Diagram.Side.left, layer, bright);
+		addGraph(diagram, "pedalRPM"    + suffix, Diagram.brighten(b, new Color(0,255,0, a)), s, Diagram.Side.left, layer, bright);
+		addGraph(diagram, "power"       + suffix, Diagram.brighten(b, new Color(0,0,255, a)), s, Diagram.Side.left, layer, bright);
+		addGraph(diagram, "performance" + suffix, Diagram.brighten(b, new Color(0,0,0, a)),   s, Diagram.Side.left, layer, bright);
 	}
 
-	public static void addGraph(Diagram diagram, String name, Color color, Stroke s, Diagram.Side side, boolean hideInLegend) {
-		diagram.addGraph(name, new Diagram.Graph(hideInLegend ? "" : I18n.getString("legend." + name), color, s, hideInLegend), side);
+	/**
+	 * Adds the samples of the given range of a session to the graphs "pulse", "pedalRPM" and "power"
+	 * (one value per second, the time of a value is its second).
+	 *
+	 * @param diagram diagram
+	 * @param samples samples of the session
+	 * @param fromSecond first second (inclusive)
+	 * @param toSecond last second (exclusive)
+	 */
+	public static void addSamples(Diagram diagram, SessionSamples samples, int fromSecond, int toSecond) {
+		int length = toSecond - fromSecond;
+		if (length <= 0) return;
+
+		int[] pulse = new int[length];
+		int[] pedalRpm = new int[length];
+		int[] power = new int[length];
+		for (int i = 0; i < length; i++) {
+			pulse[i] = samples.getPulse(fromSecond + i);
+			pedalRpm[i] = samples.getPedalRpm(fromSecond + i);
+			power[i] = samples.getPower(fromSecond + i);
+		}
+
+		diagram.addValues("pulse", fromSecond, 1, pulse, 0, length);
+		diagram.addValues("pedalRPM", fromSecond, 1, pedalRpm, 0, length);
+		diagram.addValues("power", fromSecond, 1, power, 0, length);
+	}
+
+	public static void addGraph(Diagram diagram, String name, Color color, Stroke s, Diagram.Side side, Diagram.Layer layer, boolean hideInLegend) {
+		diagram.addGraph(name, new Diagram.Graph(hideInLegend ? "" : I18n.getString("legend." + name), color, s, hideInLegend), side, layer);
 	}
 }
@@ -3,6 +3,7 @@ package org.jergometer.diagram;
 import org.jergometer.control.BikeProgram;
 import org.jergometer.gui.Diagram;
 import org.jergometer.model.BikeProgramData;
+import org.jergometer.model.ProgramTimeline;
 
 import java.awt.*;
 
@@ -12,6 +13,8 @@ import java.awt.*;
 public class BikeProgramVisualizer implements DiagramVisualizer {
 	private final Diagram diagram;
 	private boolean stopped = false;
+	private final Points powerPoints = new Points();
+	private final Points pulsePoints = new Points();
 
 	public BikeProgramVisualizer(Diagram diagram) {
 		this.diagram = diagram;
@@ -28,59 +31,95 @@ public class BikeProgramVisualizer implements DiagramVisualizer {
 			diagram.clearGraphs();
 			BikeDiagram.createLegend(diagram, true, bright, data.getDuration());
 
-			BikeProgramData.Action lastAction = null;
+			ProgramTimeline.Segment lastSegment = null;
+			powerPoints.clear();
+			pulsePoints.clear();
 
-			for (BikeProgramData.TimeEvent event : data.getEvents()) {
-				for (BikeProgramData.Action action : event.getActions()) {
-					if (stopped) return;
+			for (ProgramTimeline.Segment segment : data.getTimeline().getSegments()) {
+				if (stopped) return;
 
-					switchAction(event.getTime(), lastAction, action);
-					lastAction = action;
-				}
+				switchSegment(segment.getStart(), lastSegment, segment);
+				lastSegment = segment;
 			}
 
-			switchAction(data.getDuration(), lastAction, null);
+			switchSegment(data.getDuration(), lastSegment, null);
+
+			diagram.addValues("power-dest", powerPoints.times, powerPoints.values, 0, powerPoints.size);
+			diagram.addValues("pulse-dest", pulsePoints.times, pulsePoints.values, 0, pulsePoints.size);
 		}
 	}
 
-	private void switchAction(int time, BikeProgramData.Action action1, BikeProgramData.Action action2) {
-		if (action1 == null) {
-			actionUp(time, action2);
+	private void switchSegment(int time, ProgramTimeline.Segment segment1, ProgramTimeline.Segment segment2) {
+		if (segment1 == null) {
+			segmentUp(time, segment2);
 		}
-		else if (action2 == null) {
-			actionDown(time, action1);
+		else if (segment2 == null) {
+			segmentDown(time, segment1);
 		}
-		else if (action1.getType() == action2.getType()) {
-			addActionPoint(time, action1.getType(), action1.getValue());
-			addActionPoint(time, action2.getType(), action2.getValue());
+		else if (segment1.getType() == segment2.getType()) {
+			addActionPoint(time, segment1.getType(), getValue(segment1));
+			addActionPoint(time, segment2.getType(), getValue(segment2));
 		}
 		else {
-			actionDown(time, action1);
-			actionUp(time, action2);
+			segmentDown(time, segment1);
+			segmentUp(time, segment2);
 		}
 	}
 
-	private void actionUp(int time, BikeProgramData.Action action) {
-		addActionPoint(time, action.getType(), 0);
-		addActionPoint(time, action.getType(), action.getValue());
+	private void segmentUp(int time, ProgramTimeline.Segment segment) {
+		addActionPoint(time, segment.getType(), 0);
+		addActionPoint(time, segment.getType(), getValue(segment));
+	}
+
+	private void segmentDown(int time, ProgramTimeline.Segment segment) {
+		addActionPoint(time, segment.getType(), getValue(segment));
+		addActionPoint(time, segment.getType(), 0);
 	}
 
-	private void actionDown(int time, BikeProgramData.Action action) {
-		addActionPoint(time, action.getType(), action.getValue());
-		addActionPoint(time, action.getType(), 0);
+	private static int getValue(ProgramTimeline.Segment segment) {
+		return segment.getType() == BikeProgramData.Action.Type.pulse ? segment.getPulse() : segment.getPower();
 	}
 
 	private void addActionPoint(int time, BikeProgramData.Action.Type type, int value) {
 		if (type == BikeProgramData.Action.Type.power) {
-			diagram.addValue("power-dest", time, value);
+			powerPoints.add(time, value);
 		}
 		else if (type == BikeProgramData.Action.Type.pulse) {
-			diagram.addValue("pulse-dest", time, value);
+			pulsePoints.add(time, value);
+		}
+	}
+
+	/** Points of a graph collected before they are added to the diagram at once. */
+	private static class Points {
+		private long[] times = new long[16];
+		private int[] values = new int[16];
+		private int size = 0;
+
+		private void add(long time, int value) {
+			if (size == times.length) {
+				long[] newTimes = new long[2 * size];
+				int[] newValues = new int[2 * size];
+				System.arraycopy(times, 0, newTimes, 0, size);
+				System.arraycopy(values, 0, newValues, 0, size);
+				times = newTimes;
+				values = newValues;
+			}
+			times[size] = time;
+			values[size] = value;
+			size++;
+		}
+
+		private void clear() {
+			size = 0;
 		}
 	}
 
 // DiagramVisualizer
 	public void stopVisualization() {
 		stopped = true;
+		if (diagram != null) {
+			// renders requested by this visualization are superseded
+			diagram.cancelRendering();
+		}
 	}
 }
@@ -2,11 +2,8 @@ package org.jergometer.diagram;
 
 import org.jergometer.gui.Diagram;
 import org.jergometer.model.BikeSession;
-import org.jergometer.model.MiniDataRecord;
+import org.jergometer.model.SessionSamples;
 
-import java.awt.*;
-import java.util.ArrayList;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 
 /**
@@ -22,7 +19,7 @@ public class BikeSessionVisualizer implements DiagramVisualizer {
 
 	public void visualize(BikeSession bikeSession, boolean clearBefore, boolean fullSessionLength) throws IOException {
 		synchronized(diagram) {
-			ArrayList<MiniDataRecord> miniDataRecords = bikeSession.getData();
+			SessionSamples samples = bikeSession.getSamples();
 
 			int duration = fullSessionLength ? bikeSession.getStatsTotal().getDuration() : bikeSession.getProgramDuration();
 
@@ -33,22 +30,17 @@ public class BikeSessionVisualizer implements DiagramVisualizer {
 			}
 			BikeDiagram.createLegend(diagram, false, false, bikeSession.getProgramDuration());
 
-			int time = 0;
-			for (MiniDataRecord miniDataRecord : miniDataRecords) {
-				if (stopped) return;
-				if (time == duration) break;
-
-				diagram.addValue("pulse", time, miniDataRecord.getPulse());
-				diagram.addValue("pedalRPM", time, miniDataRecord.getPedalRpm());
-				diagram.addValue("power", time, miniDataRecord.getPower());
-
-				time++;
-			}
+			if (stopped) return;
+			BikeDiagram.addSamples(diagram, samples, 0, Math.min(samples.size(), duration));
 		}
 	}
 
 // DiagramVisualizer
 	public void stopVisualization() {
 		stopped = true;
+		if (diagram != null) {
+			// renders requested by this visualization are superseded
+			diagram.cancelRendering();
+		}
 	}
 }
@@ -5,7 +5,11 @@ package org.jergometer.diagram;
  *
  * @see BikeSessionVisualizer
  * @see BikeProgramVisualizer
+ * @see ProgressionVisualizer
  */
 public interface DiagramVisualizer {
+	/**
+	 * Stops the visualization and cancels the rendering of the diagram in progress.
+	 */
 	public void stopVisualization();
 }
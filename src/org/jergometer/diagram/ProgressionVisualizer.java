@@ -3,12 +3,16 @@ package org.jergometer.diagram;
 import org.jergometer.gui.Diagram;
 import org.jergometer.model.BikeSession;
 import org.jergometer.model.MiniDataRecord;
-import org.jergometer.model.StatsRecord;
+import org.jergometer.model.SessionRollup;
+import org.jergometer.model.SessionSummary;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 /**
+ * Used to visualize the progression of several sessions in the diagram, either one point
+ * per session or one point per bucket of a {@link SessionRollup}.
  */
 public class ProgressionVisualizer implements DiagramVisualizer {
 	private final Diagram diagram;
@@ -19,6 +23,11 @@ public class ProgressionVisualizer implements DiagramVisualizer {
 	}
 
 	public void stopVisualization() {
+		stopped = true;
+		if (diagram != null) {
+			// renders requested by this visualization are superseded
+			diagram.cancelRendering();
+		}
 	}
 
 	public void visualize(ArrayList<BikeSession> bikeSessions) {
@@ -37,23 +46,78 @@ public class ProgressionVisualizer implements DiagramVisualizer {
 			diagram.clearGraphs();
 			BikeDiagram.createLegend(diagram, false, false);
 
+			int count = bikeSessions.size();
+			long[] pulseTimes = new long[count], times = new long[count];
+			int[] pulse = new int[count], pedalRpm = new int[count], power = new int[count], performance = new int[count];
+			int pulseCount = 0, valueCount = 0;
+
 			for (BikeSession bikeSession : bikeSessions) {
 				if (stopped) return;
 
 				long time = bikeSession.getStartTime().getTime() - start;
 				int programDuration = bikeSession.getProgramDuration();
-				StatsRecord sum = bikeSession.getStatsRegular();
+				SessionSummary summary = bikeSession.getSummary();
 
-				if (sum.getPulseCount() != 0) {
-					diagram.addValue("pulse", time, (int) (sum.getAveragePulse() + 0.5));
+				if (summary.isPulseKnown()) {
+					pulseTimes[pulseCount] = time;
+					pulse[pulseCount++] = (int) (summary.getAveragePulse() + 0.5);
 				}
 				if (programDuration != 0) {
-					diagram.addValue("pedalRPM", time, (int) (sum.getAveragePedalRPM() + 0.5));
-					diagram.addValue("power", time, (int) (sum.getAveragePower() + 0.5));
-					double performance = (sum.getAveragePower() * sum.getAveragePedalRPM() / 60);
-					diagram.addValue("performance", time, (int) (performance + 0.5));
+					times[valueCount] = time;
+					pedalRpm[valueCount] = (int) (summary.getAveragePedalRpm() + 0.5);
+					power[valueCount] = (int) (summary.getAveragePower() + 0.5);
+					double performanceValue = (summary.getAveragePower() * summary.getAveragePedalRpm() / 60);
+					performance[valueCount++] = (int) (performanceValue + 0.5);
+				}
+			}
+
+			diagram.addValues("pulse", pulseTimes, pulse, 0, pulseCount);
+			diagram.addValues("pedalRPM", times, pedalRpm, 0, valueCount);
+			diagram.addValues("power", times, power, 0, valueCount);
+			diagram.addValues("performance", times, performance, 0, valueCount);
+		}
+	}
+
+	/**
+	 * Visualizes the progression of aggregated sessions (one point per bucket).
+	 *
+	 * @param buckets buckets sorted by start time
+	 * @param start start of the date range in ms
+	 * @param end end of the date range in ms
+	 */
+	public void visualize(List<SessionRollup.Bucket> buckets, long start, long end) {
+		synchronized(diagram) {
+			diagram.setTimeRange(new Diagram.Range(start,end));
+			diagram.setTimeAxisType(Diagram.TimeAxisType.date);
+
+			diagram.clearGraphs();
+			BikeDiagram.createLegend(diagram, false, false);
+
+			int count = buckets.size();
+			long[] pulseTimes = new long[count], times = new long[count];
+			int[] pulse = new int[count], pedalRpm = new int[count], power = new int[count], performance = new int[count];
+			int pulseCount = 0, valueCount = 0;
+
+			for (SessionRollup.Bucket bucket : buckets) {
+				if (stopped) return;
+
+				long time = Math.max(bucket.getStart(), start) - start;
+				if (bucket.hasPulse()) {
+					pulseTimes[pulseCount] = time;
+					pulse[pulseCount++] = (int) (bucket.getAveragePulse() + 0.5);
+				}
+				if (bucket.hasProgramSessions()) {
+					times[valueCount] = time;
+					pedalRpm[valueCount] = (int) (bucket.getAveragePedalRpm() + 0.5);
+					power[valueCount] = (int) (bucket.getAveragePower() + 0.5);
+					performance[valueCount++] = (int) (bucket.getAveragePerformance() + 0.5);
 				}
 			}
+
+			diagram.addValues("pulse", pulseTimes, pulse, 0, pulseCount);
+			diagram.addValues("pedalRPM", times, pedalRpm, 0, valueCount);
+			diagram.addValues("power", times, power, 0, valueCount);
+			diagram.addValues("performance", times, performance, 0, valueCount);
 		}
 	}
 }
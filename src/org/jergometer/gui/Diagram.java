@@ -1,5 +1,7 @@
 package org.jergometer.gui;
 
+import de.endrullis.utils.LatencyHistogram;
+
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ComponentEvent;
@@ -11,9 +13,21 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Diagram component to draw graphs.
+ * <p>
+ * The diagram is rendered in three layers which are composited in {@link #paint(Graphics)}:
+ * the background (highlights, grid, axes, legend), the program (markers and the graphs of
+ * the bike program) and the data (graphs of the recorded data).  A layer is only redrawn
+ * if its content changes; new values are drawn incrementally into their layer.
+ * <p>
+ * All drawing is done by a render thread shared by all diagrams: it takes a snapshot of the graphs (see {@link Snapshot}),
+ * draws the layers off-screen and publishes the finished frame, so that paint() only has to
+ * composite the images and the methods changing the diagram return immediately.
  */
 public class Diagram extends JPanel implements ComponentListener {
 	public enum Side {
@@ -41,6 +55,9 @@ public class Diagram extends JPanel implements ComponentListener {
 
 	public enum TimeAxisType { minute, date }
 
+	/** Render layers from bottom to top. */
+	public enum Layer { background, program, data }
+
 	/** Time range. */
 	private Range timeRange = new Range(0, 3600);
 	/** Time axis type. */
@@ -55,12 +72,42 @@ public class Diagram extends JPanel implements ComponentListener {
 	private HashMap<Object,Graph> key2Graph = new HashMap<Object, Graph>();
 	private ArrayList<Marker> verticalMarkers = new ArrayList<Marker>();
 
-	/** Background image. */
-	private BufferedImage backgroundImage = null;
+	/** Size of the layer images. */
+	private int imageWidth = 0, imageHeight = 0;
+
+	/** Layers which have to be redrawn completely (bit mask by layer ordinal). */
+	private int dirtyLayers = 0;
+	/** Incremented whenever a running render becomes obsolete. */
+	private volatile int renderGeneration = 0;
+	private final AtomicBoolean renderScheduled = new AtomicBoolean(false);
+	/** Thread rendering the layer images of all diagrams (diagrams are never disposed explicitly). */
+	private static final ExecutorService renderer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "diagram renderer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	private final Runnable renderTask = new Runnable() {
+		public void run() {
+			render();
+		}
+	};
+	/** Frame shown by paint() (replaced by the renderer). */
+	private volatile Frame frame = null;
+
+	/** Time needed to composite the layers in paint(). */
+	private final LatencyHistogram frameHistogram = new LatencyHistogram();
+	/** Time needed to redraw a layer (by layer). */
+	private final LatencyHistogram[] redrawHistograms = new LatencyHistogram[] {
+			new LatencyHistogram(), new LatencyHistogram(), new LatencyHistogram() };
 
 	/** Layout settings. */
 	private static Margin margin = new Margin(15,50,35,15);
 
+	/** Number of line segments after which a complete redraw checks whether it has been cancelled - 1. */
+	private static final int CANCEL_CHECK_MASK = 4095;
+
 	private static int markerSize = 2;
 	private static int crossSize = 5;
 
@@ -129,11 +176,11 @@ public class Diagram extends JPanel implements ComponentListener {
 		return new Color(r, g, b, a);
 	}
 
-	public void addHighlightRange(Range<Color> range) {
+	public synchronized void addHighlightRange(Range<Color> range) {
 		highlightRanges.add(range);
 	}
 
-	public void clearHighlightRanges() {
+	public synchronized void clearHighlightRanges() {
 		highlightRanges.clear();
 	}
 
@@ -141,20 +188,33 @@ public class Diagram extends JPanel implements ComponentListener {
 		return highlightRanges;
 	}
 
+	/**
+	 * Adds a graph to the data layer.
+	 */
 	public void addGraph(String key, Graph graph, Side lr) {
+		addGraph(key, graph, lr, Layer.data);
+	}
+
+	/**
+	 * Adds a graph to the given layer (program or data).
+	 */
+	public synchronized void addGraph(String key, Graph graph, Side lr, Layer layer) {
+		graph.layer = layer;
 		graphs[lr.getInt()].add(graph);
 		key2Graph.put(key, graph);
 
-		drawLegend(backgroundImage.createGraphics());
-
-		redrawImage();
+		// the new graph has no values yet, only the legend changes
+		redrawLayer(Layer.background);
 	}
 
-	public void clearGraph(String key) {
-		key2Graph.get(key).timedValues.clear();
+	public synchronized void clearGraph(String key) {
+		Graph graph = key2Graph.get(key);
+		graph.series.clear();
+
+		redrawLayer(graph.layer);
 	}
 
-	public void clearGraphs() {
+	public synchronized void clearGraphs() {
 		verticalMarkers.clear();
 
 		for (ArrayList<Graph> graph : graphs) {
@@ -170,136 +230,228 @@ public class Diagram extends JPanel implements ComponentListener {
 	 return(AlphaComposite.getInstance(type, alpha));
 	}
 	
+	/**
+	 * Adds a value to a graph.  The new line segment is drawn by the render thread.
+	 */
 	public synchronized void addValue(String key, long time, int value) {
-		Graph graph = key2Graph.get(key);
-		graph.timedValues.add(new Point(time, value));
+		key2Graph.get(key).series.add(time, value);
 
-		int n = graph.timedValues.size();
-		if(n < 2) return;
+		scheduleRender();
+	}
 
-		Point p1 = graph.timedValues.get(n-2);
-		Point p2 = graph.timedValues.get(n-1);
+	/**
+	 * Adds several values to a graph at once.
+	 *
+	 * @param key key of the graph
+	 * @param times times of the values
+	 * @param values values
+	 * @param offset index of the first value in the arrays
+	 * @param length number of values
+	 */
+	public synchronized void addValues(String key, long[] times, int[] values, int offset, int length) {
+		Graph graph = key2Graph.get(key);
+		graph.series.addAll(times, values, offset, length);
 
-		Graphics2D g = backgroundImage.createGraphics();
-		//g.setComposite(makeComposite(0.4f));
-		g.setPaint(graph.color);
-		g.setStroke(graph.stroke);
-		g.setRenderingHints(renderingHintsGraph);
+		valuesAdded(graph, length);
+	}
 
-		drawGraphLine(g, p1, p2, Side.left);
+	/**
+	 * Adds several values with equidistant times to a graph at once, e.g. the samples of a session.
+	 *
+	 * @param key key of the graph
+	 * @param startTime time of the first value
+	 * @param timeStep time between two values
+	 * @param values values
+	 * @param offset index of the first value in the array
+	 * @param length number of values
+	 */
+	public synchronized void addValues(String key, long startTime, long timeStep, int[] values, int offset, int length) {
+		Graph graph = key2Graph.get(key);
+		graph.series.addAll(startTime, timeStep, values, offset, length);
 
-		g.setRenderingHints(renderingHintsNormal);
-		g.setStroke(new BasicStroke());
-		g.setColor(Color.BLACK);
+		valuesAdded(graph, length);
+	}
 
-		int x = (int) getX(p1.x);
-		int width = (int) getX(p2.x) - x + 2;
-		repaint(x, 0, width, backgroundImage.getHeight());
+	private void valuesAdded(Graph graph, int count) {
+		if (count > imageWidth) {
+			// more values than pixel columns -> redraw the layer with the reduced graph
+			redrawLayer(graph.layer);
+		} else {
+			scheduleRender();
+		}
 	}
 
 	public synchronized void addVerticalMarker(Marker marker) {
 		verticalMarkers.add(marker);
-		drawVerticalMarker(marker);
+
+		redrawLayer(Layer.program);
 	}
 
 	public synchronized void removeVerticalMarker(Marker marker) {
 		verticalMarkers.remove(marker);
+
+		redrawLayer(Layer.program);
 	}
 
 	public void paint(Graphics g) {
+		long startTime = System.nanoTime();
 		super.paint(g);
-		g.drawImage(backgroundImage,0,0,null);
+		Frame frame = this.frame;
+		if (frame != null) {
+			for (BufferedImage image : frame.images) {
+				g.drawImage(image,0,0,null);
+			}
+		}
+		frameHistogram.record(System.nanoTime() - startTime);
 	}
 
-	public void redrawImage() {
-		Graphics2D g = backgroundImage.createGraphics();
-		int width = backgroundImage.getWidth();
-		int height = backgroundImage.getHeight();
-
-		g.setRenderingHints(renderingHintsNormal);
-		g.setStroke(normalStroke);
-
-		g.setBackground(Color.WHITE);
-		g.setColor(Color.WHITE);
-		g.fillRect(0,0,width,height);
-
-		g.setColor(Color.BLACK);
-
-		// draw highlights
-		drawHighlights(g);
+	/**
+	 * Redraws all layers.  Has to be called after the time or value range has been changed.
+	 * Supersedes (cancels) renders in progress.
+	 */
+	public synchronized void redrawImage() {
+		for (Layer layer : Layer.values()) {
+			redrawLayer(layer);
+		}
+	}
 
-		// draw marker lines
-		drawVerticalMarkers(g);
+	/**
+	 * Cancels the complete redraws in progress.  The cancelled layers are drawn with the next change.
+	 */
+	public void cancelRendering() {
+		renderGeneration++;
+	}
 
-		// draw graph
-		for(Side lr : new Side[] {Side.left, Side.right}) {
-			for(Graph graph : graphs[lr.getInt()]) drawGraph(g, graph, lr);
+	/**
+	 * Waits until the render thread has drawn all changes requested so far.
+	 * Must not be called while holding the lock of the diagram.
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void awaitRendering() throws InterruptedException {
+		try {
+			renderer.submit(new Runnable() {
+				public void run() {
+				}
+			}).get();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
 		}
-		drawLegend(g);
-
-		// axis
-		g.drawLine(margin.left, margin.top, margin.left, height - margin.bottom + crossSize);
-		g.drawLine(width - margin.right, margin.top, width - margin.right, height - margin.bottom + crossSize);
-		g.drawLine(margin.left - crossSize, height - margin.bottom, width - margin.right + crossSize, height - margin.bottom);
+	}
 
-		// left axis markers
-		drawVerticalAxisMarkers(g, Side.left, true);
-		drawTimeAxisMarkers(g, true);
+	private synchronized void redrawLayer(Layer layer) {
+		dirtyLayers |= 1 << layer.ordinal();
+		renderGeneration++;
+		scheduleRender();
+	}
 
-		repaint();
+	private void scheduleRender() {
+		if (renderScheduled.compareAndSet(false, true)) {
+			renderer.execute(renderTask);
+		}
 	}
 
-	private void drawVerticalMarkers(Graphics2D g) {
-		int height = backgroundImage.getHeight();
+	/**
+	 * Renders the requested changes (render thread).  Layers which have to be redrawn completely
+	 * are drawn into new images; values added since the last render are drawn incrementally
+	 * into copies of the current images.  The images shown by paint() are never changed, the
+	 * new images replace them atomically with the next frame.
+	 */
+	private void render() {
+		renderScheduled.set(false);
+
+		Snapshot snapshot;
+		int dirty;
+		int generation;
+		synchronized (this) {
+			if (imageWidth <= 0 || imageHeight <= 0) return;
+
+			snapshot = new Snapshot();
+			dirty = dirtyLayers;
+			dirtyLayers = 0;
+			generation = renderGeneration;
+		}
 
-		Color oldColor = g.getColor();
-		Stroke oldStroke = g.getStroke();
-		for (Marker verticalMarker : verticalMarkers) {
-			if (verticalMarker.color != null) g.setColor(verticalMarker.color);
-			if (verticalMarker.stroke != null) g.setStroke(verticalMarker.stroke);
-			long x = verticalMarker.x;
-			g.draw(new Line2D.Float(getX(x), margin.top, getX(x), height - margin.bottom + crossSize));
+		Frame oldFrame = frame;
+		if (oldFrame == null || oldFrame.width != snapshot.width || oldFrame.height != snapshot.height) {
+			dirty = (1 << Layer.values().length) - 1;
 		}
-		g.setColor(oldColor);
-		g.setStroke(oldStroke);
-	}
 
-	private void drawVerticalMarker(Marker verticalMarker) {
-		int height = backgroundImage.getHeight();
+		BufferedImage[] images = oldFrame == null ? new BufferedImage[Layer.values().length] : oldFrame.images.clone();
+		for (Layer layer : Layer.values()) {
+			if ((dirty & (1 << layer.ordinal())) == 0) continue;
 
-		Graphics2D g = backgroundImage.createGraphics();
+			long startTime = System.nanoTime();
+			BufferedImage image = snapshot.drawLayer(layer, generation);
+			if (image == null) {
+				// superseded -> draw it with the next render
+				synchronized (this) {
+					dirtyLayers |= dirty;
+				}
+				return;
+			}
+			images[layer.ordinal()] = image;
+			redrawHistograms[layer.ordinal()].record(System.nanoTime() - startTime);
+		}
+
+		// draw the values added since the last frame
+		Rectangle changed = null;
+		int copied = 0;
+		IdentityHashMap<Graph,Integer> drawnPoints = new IdentityHashMap<Graph, Integer>();
+		for (ArrayList<GraphView> views : snapshot.graphs) {
+			for (GraphView view : views) {
+				int size = view.series.size();
+				if ((dirty & (1 << view.graph.layer.ordinal())) == 0) {
+					Integer drawn = oldFrame.drawnPoints.get(view.graph);
+					if (drawn == null) drawn = 0;
+					if (drawn < size) {
+						int layer = view.graph.layer.ordinal();
+						if ((copied & (1 << layer)) == 0) {
+							// the image of the old frame may be painted at the same time
+							images[layer] = copyImage(images[layer]);
+							copied |= 1 << layer;
+						}
+						Rectangle bounds = snapshot.drawSegments(images[layer], view, drawn);
+						changed = changed == null ? bounds : changed.union(bounds);
+					}
+				}
+				drawnPoints.put(view.graph, size);
+			}
+		}
 
-		Color oldColor = g.getColor();
-		Stroke oldStroke = g.getStroke();
-		if (verticalMarker.color != null) g.setColor(verticalMarker.color);
-		if (verticalMarker.stroke != null) g.setStroke(verticalMarker.stroke);
-		long x = verticalMarker.x;
-		Line2D.Float line = new Line2D.Float(getX(x), margin.top, getX(x), height - margin.bottom + crossSize);
-		g.draw(line);
-		repaint(line.getBounds());
-		g.setColor(oldColor);
-		g.setStroke(oldStroke);
+		frame = new Frame(images, snapshot.scale, drawnPoints);
+		if (dirty != 0) {
+			repaint();
+		} else if (changed != null) {
+			repaint(changed);
+		}
 	}
 
-	private float getDiagramX(long value) {
-		int width = backgroundImage.getWidth();
-		int diagramWidth = width - margin.left - margin.right;
-		return diagramWidth * value / (float) (timeRange.max - timeRange.min);
+	private static BufferedImage copyImage(BufferedImage image) {
+		return new BufferedImage(image.getColorModel(), image.copyData(null), image.isAlphaPremultiplied(), null);
 	}
 
+	/**
+	 * Returns the x coordinate of the given time in the current frame.
+	 */
 	public float getX(long value) {
-		return margin.left + getDiagramX(value);
+		return getScale().getX(value);
 	}
 
-	private float getDiagramY(long value, Side lr) {
-		int height = backgroundImage.getHeight();
-		int diagramHeight = height - margin.top - margin.bottom;
-		return diagramHeight * value / (float) (valueRange[lr.getInt()].max - valueRange[lr.getInt()].min);
+	/**
+	 * Returns the y coordinate of the given value in the current frame.
+	 */
+	public float getY(long value, Side lr) {
+		return getScale().getY(value, lr);
 	}
 
-	public float getY(long value, Side lr) {
-		int height = backgroundImage.getHeight();
-		return height - margin.bottom - getDiagramY(value, lr);
+	private Scale getScale() {
+		Frame frame = this.frame;
+		if (frame != null) return frame.scale;
+
+		synchronized (this) {
+			return new Scale(imageWidth, imageHeight, timeRange, valueRange);
+		}
 	}
 
 	private long getMarkerValueDistance(Range range, int multiplesOf, int pxLength, int pxMinDistance) {
@@ -309,201 +461,507 @@ public class Diagram extends JPanel implements ComponentListener {
 		return factori == factorf ? factori * multiplesOf : (factori+1) * multiplesOf;
 	}
 
-	private void drawHighlights(Graphics2D g) {
-		int width = backgroundImage.getWidth();
+	public void componentResized(ComponentEvent e) {
+		componentShown(e);
+	}
+
+	public void componentMoved(ComponentEvent e) {
+	}
 
-		// horizontal lines
-		for(Range<Color> range : highlightRanges) {
-			int minY = (int) getY(range.max, Side.left);
-			int maxY = (int) getY(range.min, Side.left);
+	public synchronized void componentShown(ComponentEvent e) {
+		// the layers are still valid if the size has not changed
+		if (getWidth() == imageWidth && getHeight() == imageHeight) return;
 
-			g.setColor(range.attribute);
-			g.fillRect(margin.left, minY, width - margin.left - margin.right, maxY - minY);
-		}
-		g.setColor(Color.BLACK);
+		imageWidth = getWidth();
+		imageHeight = getHeight();
+		redrawImage();
 	}
 
-	private void drawVerticalAxisMarkers(Graphics2D g, Side lr, boolean lines) {
-		int width = backgroundImage.getWidth();
-		int height = backgroundImage.getHeight();
+	public synchronized Range getTimeRange() {
+		return timeRange;
+	}
 
-		int x = lr == Side.left ? margin.left : width - margin.right;
-		Range range = valueRange[lr.getInt()];
-		int minY = margin.top;
-		int maxY = height - margin.bottom;
+	public synchronized void setTimeRange(Range timeRange) {
+		this.timeRange = timeRange;
+	}
 
-		int markerValueDistance = (int) getMarkerValueDistance(range, 10, maxY - minY, 10);
-		float markerPixelDistance = (maxY - minY) * markerValueDistance / (float) (range.max - range.min);
+	public synchronized TimeAxisType getTimeAxisType() {
+		return timeAxisType;
+	}
 
-		// horizontal lines
-		for(int markerNr = 1; lines && markerNr * markerPixelDistance <= maxY - minY; markerNr++) {
-			int y = maxY - (int) (markerNr * markerPixelDistance);
+	public synchronized void setTimeAxisType(TimeAxisType timeAxisType) {
+		this.timeAxisType = timeAxisType;
+	}
 
-			g.setColor(markerNr % 2 == 0 ? gridColorEven : gridColorOdd);
-			g.setStroke(markerNr % 2 == 0 ? gridStrokeEven : gridStrokeOdd);
-			g.drawLine(margin.left + 1, y, width - margin.right - 1, y);
-		}
-		g.setColor(Color.BLACK);
-		g.setStroke(normalStroke);
+	public synchronized Range getValueRange(Side lr) {
+		return valueRange[lr.getInt()];
+	}
 
-		// markers and font
-		FontMetrics fm = g.getFontMetrics();
-		for(int markerNr = 1; markerNr * markerPixelDistance <= maxY - minY; markerNr ++) {
-			int y = maxY - (int) (markerNr * markerPixelDistance);
-			g.drawLine(x - markerSize, y, x + markerSize, y);
+	public synchronized void setValueRange(Side lr, Range valueRange) {
+		this.valueRange[lr.getInt()] = valueRange;
+	}
 
-			String value = (range.min + markerNr * markerValueDistance) + "";
-			Rectangle2D bounds = fm.getStringBounds(value, g);
-			if(markerNr % 2 == 0) g.drawString(value, x - (int) bounds.getWidth() - markerSize - 3, y + (int) bounds.getHeight() / 2 - 1);
-		}
+	public void componentHidden(ComponentEvent e) {
 	}
 
-	private void drawTimeAxisMarkers(Graphics2D g, boolean lines) {
-		int width = backgroundImage.getWidth();
-		int height = backgroundImage.getHeight();
+	/**
+	 * Returns the histogram of the frame times (compositing of the layers in paint()).
+	 *
+	 * @return frame time histogram
+	 */
+	public LatencyHistogram getFrameHistogram() {
+		return frameHistogram;
+	}
 
-		int y = height - margin.bottom;
-		Range range = timeRange;
-		int minX = margin.left;
-		int maxX = width - margin.right;
+	/**
+	 * Returns the histogram of the times needed to redraw the given layer completely.
+	 *
+	 * @param layer layer
+	 * @return redraw time histogram
+	 */
+	public LatencyHistogram getRedrawHistogram(Layer layer) {
+		return redrawHistograms[layer.ordinal()];
+	}
 
-		long markerValueDistance;
-		if (timeAxisType == TimeAxisType.minute) {
-			markerValueDistance = getMarkerValueDistance(range, 60, maxX - minX, 10);
-		} else {
-			markerValueDistance = getMarkerValueDistance(range, 24*60*60*1000, maxX - minX, 40);
+	/**
+	 * Returns frame and redraw times as text.
+	 *
+	 * @return render metrics
+	 */
+	public String getRenderMetrics() {
+		StringBuilder sb = new StringBuilder("frame: ").append(frameHistogram);
+		for (Layer layer : Layer.values()) {
+			sb.append("\nredraw ").append(layer).append(": ").append(getRedrawHistogram(layer));
 		}
-		float markerPixelDistance = (long) (maxX - minX) * markerValueDistance / (float) (range.max - range.min);
+		return sb.toString();
+	}
 
-		// vertical lines
-		for(int markerNr = 1; lines && markerNr * markerPixelDistance <= maxX - minX; markerNr++) {
-			int x = minX + (int) (markerNr * markerPixelDistance);
+	/** Layer images shown by paint() together with the number of points drawn per graph. */
+	private static class Frame {
+		private final BufferedImage[] images;
+		private final int width, height;
+		private final Scale scale;
+		private final IdentityHashMap<Graph,Integer> drawnPoints;
+
+		private Frame(BufferedImage[] images, Scale scale, IdentityHashMap<Graph,Integer> drawnPoints) {
+			this.images = images;
+			this.width = scale.width;
+			this.height = scale.height;
+			this.scale = scale;
+			this.drawnPoints = drawnPoints;
+		}
+	}
 
-			g.setColor(markerNr % 2 == 0 ? gridColorEven : gridColorOdd);
-			g.setStroke(markerNr % 2 == 0 ? gridStrokeEven : gridStrokeOdd);
-			g.drawLine(x, margin.top + 1, x, height - margin.bottom - 1);
+	/** Mapping of times and values to the coordinates of the layer images. */
+	private static class Scale {
+		private final int width, height;
+		private final long timeSpan;
+		private final long[] valueSpan;
+
+		private Scale(int width, int height, Range timeRange, Range[] valueRange) {
+			this.width = width;
+			this.height = height;
+			timeSpan = timeRange.max - timeRange.min;
+			valueSpan = new long[] { valueRange[0].max - valueRange[0].min, valueRange[1].max - valueRange[1].min };
 		}
-		g.setColor(Color.BLACK);
-		g.setStroke(normalStroke);
 
-		// markers and font
-		FontMetrics fm = g.getFontMetrics();
-		for(int markerNr = 1; lines && markerNr * markerPixelDistance <= maxX - minX; markerNr++) {
-			int x = minX + (int) (markerNr * markerPixelDistance);
-			g.drawLine(x, y - markerSize, x, y + markerSize);
+		private float getDiagramX(long value) {
+			int diagramWidth = width - margin.left - margin.right;
+			return diagramWidth * value / (float) timeSpan;
+		}
 
-			String value;
-			if (timeAxisType == TimeAxisType.minute) {
-				value = (range.min + markerNr * markerValueDistance) / 60 + "";
-			} else {
-				Date date = new Date(range.min + (long) markerNr * markerValueDistance);
-				value = dateFormat.format(date);
-			}
-			Rectangle2D bounds = fm.getStringBounds(value, g);
-			if(markerNr % 2 == 0) g.drawString(value, x - (int) bounds.getWidth() / 2, y + (int) bounds.getHeight() + markerSize + 1);
+		private float getX(long value) {
+			return margin.left + getDiagramX(value);
 		}
-	}
 
-	private void drawLegend(Graphics2D g) {
-		int width = backgroundImage.getWidth();
-		int height = backgroundImage.getHeight();
+		private float getDiagramY(long value, Side lr) {
+			int diagramHeight = height - margin.top - margin.bottom;
+			return diagramHeight * value / (float) valueSpan[lr.getInt()];
+		}
 
-		int y = height - margin.bottom + 22;
-		Range range = timeRange;
-		int minX = margin.left;
-		int maxX = width - margin.right;
+		private float getY(long value, Side lr) {
+			return height - margin.bottom - getDiagramY(value, lr);
+		}
+	}
 
-		// font metrics
-		FontMetrics fm = g.getFontMetrics();
+	/** Graph with a read-only view of its points. */
+	private static class GraphView {
+		private final Graph graph;
+		private final Side side;
+		private final GraphSeries series;
 
-		int spacing = 30;
+		private GraphView(Graph graph, Side side) {
+			this.graph = graph;
+			this.side = side;
+			this.series = graph.series.snapshot();
+		}
+	}
 
-		// determine total with of the legend
-		int totalWidth = -10;
-		for (ArrayList<Graph> graphs2 : graphs) {
-			for (Graph graph : graphs2) {
-				if (!graph.hideInLegend) {
-					Rectangle2D bounds = fm.getStringBounds(graph.name, g);
-					totalWidth += bounds.getWidth() + spacing;
+	/**
+	 * Copy of the diagram state which is drawn by the render thread
+	 * (has to be created while holding the lock of the diagram).
+	 */
+	private class Snapshot {
+		private final int width = imageWidth, height = imageHeight;
+		private final Range timeRange = new Range(Diagram.this.timeRange.min, Diagram.this.timeRange.max);
+		private final TimeAxisType timeAxisType = Diagram.this.timeAxisType;
+		private final Range[] valueRange = new Range[] {
+				new Range(Diagram.this.valueRange[0].min, Diagram.this.valueRange[0].max),
+				new Range(Diagram.this.valueRange[1].min, Diagram.this.valueRange[1].max) };
+		private final ArrayList<Range<Color>> highlightRanges = new ArrayList<Range<Color>>(Diagram.this.highlightRanges);
+		private final ArrayList<Marker> verticalMarkers = new ArrayList<Marker>(Diagram.this.verticalMarkers);
+		private final ArrayList<GraphView>[] graphs = new ArrayList[] { new ArrayList<GraphView>(), new ArrayList<GraphView>() };
+		private final Scale scale = new Scale(width, height, timeRange, valueRange);
+
+		private Snapshot() {
+			for (Side lr : Side.values()) {
+				for (Graph graph : Diagram.this.graphs[lr.getInt()]) {
+					graphs[lr.getInt()].add(new GraphView(graph, lr));
 				}
 			}
 		}
 
-		// draw legend
-		int x = minX + ((maxX-minX) - totalWidth)/2;
-		for (ArrayList<Graph> graphs2 : graphs) {
-			for (Graph graph : graphs2) {
-				if (!graph.hideInLegend) {
-					Rectangle2D bounds = fm.getStringBounds(graph.name, g);
-					g.setColor(graph.color);
-					g.setStroke(normalStroke);
-					g.drawString(graph.name, x, y + (int) bounds.getHeight() + markerSize + 1);
+		/**
+		 * Draws a layer into a new image.
+		 *
+		 * @param layer layer
+		 * @param generation render generation the drawing belongs to
+		 * @return image or null if the rendering has been cancelled
+		 */
+		private BufferedImage drawLayer(Layer layer, int generation) {
+			BufferedImage image = new BufferedImage(width, height, layer == Layer.background ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = image.createGraphics();
+
+			g.setRenderingHints(renderingHintsNormal);
+			g.setStroke(normalStroke);
+
+			try {
+				if (layer == Layer.background) {
+					g.setBackground(Color.WHITE);
+					g.setColor(Color.WHITE);
+					g.fillRect(0,0,width,height);
+					g.setColor(Color.BLACK);
+
+					// draw highlights
+					drawHighlights(g);
+
+					// grid and axis markers
+					drawVerticalAxisMarkers(g, Side.left, true);
+					drawTimeAxisMarkers(g, true);
+
+					// axis
+					g.drawLine(margin.left, margin.top, margin.left, height - margin.bottom + crossSize);
+					g.drawLine(width - margin.right, margin.top, width - margin.right, height - margin.bottom + crossSize);
+					g.drawLine(margin.left - crossSize, height - margin.bottom, width - margin.right + crossSize, height - margin.bottom);
+
+					drawLegend(g);
+				} else {
 					g.setColor(Color.BLACK);
-					g.setStroke(normalStroke);
 
-					x += bounds.getWidth() + spacing;
+					// draw marker lines
+					if (layer == Layer.program) {
+						drawVerticalMarkers(g);
+					}
+
+					// draw graphs
+					for (ArrayList<GraphView> views : graphs) {
+						for (GraphView view : views) {
+							if (generation != renderGeneration) return null;
+							if (view.graph.layer == layer && !drawGraph(g, view, generation)) return null;
+						}
+					}
 				}
+			} finally {
+				g.dispose();
 			}
+
+			return image;
 		}
-	}
 
-	private void drawGraph(Graphics2D g, Graph graph, Side lr) {
-		g.setPaint(graph.color);
-		g.setStroke(graph.stroke);
-		g.setRenderingHints(renderingHintsGraph);
+		/**
+		 * Draws the line segments of a graph starting at the given point into the image.
+		 *
+		 * @return bounds of the changed area
+		 */
+		private Rectangle drawSegments(BufferedImage image, GraphView view, int from) {
+			GraphSeries series = view.series;
+			int size = series.size();
+			Graph graph = view.graph;
+
+			Graphics2D g = image.createGraphics();
+			//g.setComposite(makeComposite(0.4f));
+			g.setPaint(graph.color);
+			g.setStroke(graph.stroke);
+			g.setRenderingHints(renderingHintsGraph);
+
+			Line2D.Float line = new Line2D.Float();
+			for (int i = Math.max(from, 1); i < size; i++) {
+				drawGraphLine(g, line, series.getTime(i-1), series.getValue(i-1), series.getTime(i), series.getValue(i), view.side);
+			}
+			g.dispose();
 
-		Point p1 = null;
-		for(Point p2 : graph.timedValues) {
-			if(p1 != null) drawGraphLine(g, p1, p2, lr);
-			p1 = p2;
+			int x = (int) getX(series.getTime(Math.max(from-1, 0)));
+			int width = (int) getX(series.getTime(size-1)) - x + 2;
+			return new Rectangle(x, 0, width, height);
 		}
 
-		g.setRenderingHints(renderingHintsNormal);
-		g.setStroke(new BasicStroke());
-		g.setColor(Color.BLACK);
-	}
+		private void drawVerticalMarkers(Graphics2D g) {
+			Color oldColor = g.getColor();
+			Stroke oldStroke = g.getStroke();
+			for (Marker verticalMarker : verticalMarkers) {
+				if (verticalMarker.color != null) g.setColor(verticalMarker.color);
+				if (verticalMarker.stroke != null) g.setStroke(verticalMarker.stroke);
+				long x = verticalMarker.x;
+				g.draw(new Line2D.Float(getX(x), margin.top, getX(x), height - margin.bottom + crossSize));
+			}
+			g.setColor(oldColor);
+			g.setStroke(oldStroke);
+		}
 
-	private void drawGraphLine(Graphics2D g, Point p1, Point p2, Side lr) {
-		g.draw(new Line2D.Float(getX(p1.x), getY(p1.y, lr), getX(p2.x), getY(p2.y, lr)));
-	}
+		private float getDiagramX(long value) {
+			return scale.getDiagramX(value);
+		}
 
-	public void componentResized(ComponentEvent e) {
-		componentShown(e);
-	}
+		private float getX(long value) {
+			return scale.getX(value);
+		}
 
-	public void componentMoved(ComponentEvent e) {
-	}
+		private float getY(long value, Side lr) {
+			return scale.getY(value, lr);
+		}
 
-	public void componentShown(ComponentEvent e) {
-		backgroundImage = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_RGB);
-		redrawImage();
-	}
+		private void drawHighlights(Graphics2D g) {
 
-	public Range getTimeRange() {
-		return timeRange;
-	}
+			// horizontal lines
+			for(Range<Color> range : highlightRanges) {
+				int minY = (int) getY(range.max, Side.left);
+				int maxY = (int) getY(range.min, Side.left);
 
-	public void setTimeRange(Range timeRange) {
-		this.timeRange = timeRange;
-	}
+				g.setColor(range.attribute);
+				g.fillRect(margin.left, minY, width - margin.left - margin.right, maxY - minY);
+			}
+			g.setColor(Color.BLACK);
+		}
 
-	public TimeAxisType getTimeAxisType() {
-		return timeAxisType;
-	}
+		private void drawVerticalAxisMarkers(Graphics2D g, Side lr, boolean lines) {
 
-	public void setTimeAxisType(TimeAxisType timeAxisType) {
-		this.timeAxisType = timeAxisType;
-	}
+			int x = lr == Side.left ? margin.left : width - margin.right;
+			Range range = valueRange[lr.getInt()];
+			int minY = margin.top;
+			int maxY = height - margin.bottom;
 
-	public Range getValueRange(Side lr) {
-		return valueRange[lr.getInt()];
-	}
+			int markerValueDistance = (int) getMarkerValueDistance(range, 10, maxY - minY, 10);
+			float markerPixelDistance = (maxY - minY) * markerValueDistance / (float) (range.max - range.min);
 
-	public void setValueRange(Side lr, Range valueRange) {
-		this.valueRange[lr.getInt()] = valueRange;
-	}
+			// horizontal lines
+			for(int markerNr = 1; lines && markerNr * markerPixelDistance <= maxY - minY; markerNr++) {
+				int y = maxY - (int) (markerNr * markerPixelDistance);
 
-	public void componentHidden(ComponentEvent e) {
+				g.setColor(markerNr % 2 == 0 ? gridColorEven : gridColorOdd);
+				g.setStroke(markerNr % 2 == 0 ? gridStrokeEven : gridStrokeOdd);
+				g.drawLine(margin.left + 1, y, width - margin.right - 1, y);
+			}
+			g.setColor(Color.BLACK);
+			g.setStroke(normalStroke);
+
+			// markers and font
+			FontMetrics fm = g.getFontMetrics();
+			for(int markerNr = 1; markerNr * markerPixelDistance <= maxY - minY; markerNr ++) {
+				int y = maxY - (int) (markerNr * markerPixelDistance);
+				g.drawLine(x - markerSize, y, x + markerSize, y);
+
+				String value = (range.min + markerNr * markerValueDistance) + "";
+				Rectangle2D bounds = fm.getStringBounds(value, g);
+				if(markerNr % 2 == 0) g.drawString(value, x - (int) bounds.getWidth() - markerSize - 3, y + (int) bounds.getHeight() / 2 - 1);
+			}
+		}
+
+		private void drawTimeAxisMarkers(Graphics2D g, boolean lines) {
+
+			int y = height - margin.bottom;
+			Range range = timeRange;
+			int minX = margin.left;
+			int maxX = width - margin.right;
+
+			long markerValueDistance;
+			if (timeAxisType == TimeAxisType.minute) {
+				markerValueDistance = getMarkerValueDistance(range, 60, maxX - minX, 10);
+			} else {
+				markerValueDistance = getMarkerValueDistance(range, 24*60*60*1000, maxX - minX, 40);
+			}
+			float markerPixelDistance = (long) (maxX - minX) * markerValueDistance / (float) (range.max - range.min);
+
+			// vertical lines
+			for(int markerNr = 1; lines && markerNr * markerPixelDistance <= maxX - minX; markerNr++) {
+				int x = minX + (int) (markerNr * markerPixelDistance);
+
+				g.setColor(markerNr % 2 == 0 ? gridColorEven : gridColorOdd);
+				g.setStroke(markerNr % 2 == 0 ? gridStrokeEven : gridStrokeOdd);
+				g.drawLine(x, margin.top + 1, x, height - margin.bottom - 1);
+			}
+			g.setColor(Color.BLACK);
+			g.setStroke(normalStroke);
+
+			// markers and font
+			FontMetrics fm = g.getFontMetrics();
+			for(int markerNr = 1; lines && markerNr * markerPixelDistance <= maxX - minX; markerNr++) {
+				int x = minX + (int) (markerNr * markerPixelDistance);
+				g.drawLine(x, y - markerSize, x, y + markerSize);
+
+				String value;
+				if (timeAxisType == TimeAxisType.minute) {
+					value = (range.min + markerNr * markerValueDistance) / 60 + "";
+				} else {
+					Date date = new Date(range.min + (long) markerNr * markerValueDistance);
+					value = dateFormat.format(date);
+				}
+				Rectangle2D bounds = fm.getStringBounds(value, g);
+				if(markerNr % 2 == 0) g.drawString(value, x - (int) bounds.getWidth() / 2, y + (int) bounds.getHeight() + markerSize + 1);
+			}
+		}
+
+		private void drawLegend(Graphics2D g) {
+
+			int y = height - margin.bottom + 22;
+			Range range = timeRange;
+			int minX = margin.left;
+			int maxX = width - margin.right;
+
+			// font metrics
+			FontMetrics fm = g.getFontMetrics();
+
+			int spacing = 30;
+
+			// determine total with of the legend
+			int totalWidth = -10;
+			for (ArrayList<GraphView> graphs2 : graphs) {
+				for (GraphView view : graphs2) {
+					Graph graph = view.graph;
+					if (!graph.hideInLegend) {
+						Rectangle2D bounds = fm.getStringBounds(graph.name, g);
+						totalWidth += bounds.getWidth() + spacing;
+					}
+				}
+			}
+
+			// draw legend
+			int x = minX + ((maxX-minX) - totalWidth)/2;
+			for (ArrayList<GraphView> graphs2 : graphs) {
+				for (GraphView view : graphs2) {
+					Graph graph = view.graph;
+					if (!graph.hideInLegend) {
+						Rectangle2D bounds = fm.getStringBounds(graph.name, g);
+						g.setColor(graph.color);
+						g.setStroke(normalStroke);
+						g.drawString(graph.name, x, y + (int) bounds.getHeight() + markerSize + 1);
+						g.setColor(Color.BLACK);
+						g.setStroke(normalStroke);
+
+						x += bounds.getWidth() + spacing;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Draws a graph completely.
+		 *
+		 * @return false if the rendering has been cancelled
+		 */
+		private boolean drawGraph(Graphics2D g, GraphView view, int generation) {
+			Graph graph = view.graph;
+			Side lr = view.side;
+			g.setPaint(graph.color);
+			g.setStroke(graph.stroke);
+			g.setRenderingHints(renderingHintsGraph);
+
+			GraphSeries series = view.series;
+			int size = series.size();
+			int columns = width - margin.left - margin.right;
+			Line2D.Float line = new Line2D.Float();
+			if (!series.isAscending() || size <= 4 * columns) {
+				for (int i = 1; i < size; i++) {
+					if ((i & CANCEL_CHECK_MASK) == 0 && generation != renderGeneration) return false;
+					drawGraphLine(g, line, series.getTime(i-1), series.getValue(i-1), series.getTime(i), series.getValue(i), lr);
+				}
+			} else {
+				float lineWidth = graph.stroke instanceof BasicStroke ? ((BasicStroke) graph.stroke).getLineWidth() : 1;
+				drawReducedGraph(g, line, series, lr, lineWidth);
+			}
+
+			g.setRenderingHints(renderingHintsNormal);
+			g.setStroke(new BasicStroke());
+			g.setColor(Color.BLACK);
+			return true;
+		}
+
+		/**
+		 * Draws a graph with more points than pixel columns.  Within a pixel column the many line segments
+		 * of such a graph cover the whole range between the minimal and maximal value, so only this
+		 * range is filled (M4 reduction: first, min, max and last point of every column) and the columns are
+		 * connected by lines.  This takes time proportional to the width instead of the number of points.
+		 */
+		private void drawReducedGraph(Graphics2D g, Line2D.Float line, GraphSeries series, Side lr, float lineWidth) {
+			int size = series.size();
+			Rectangle2D.Float rect = new Rectangle2D.Float();
+			boolean hasPrevious = false;
+			float prevX = 0, prevY = 0;
+
+			for (int from = 0; from < size;) {
+				int column = (int) Math.floor(getDiagramX(series.getTime(from)));
+				int to = getColumnEnd(series, from, column);
+
+				float firstX = getX(series.getTime(from));
+				float firstY = getY(series.getValue(from), lr);
+				if (hasPrevious) drawLine(g, line, prevX, prevY, firstX, firstY);
+
+				prevX = firstX;
+				prevY = firstY;
+				if (to - from > 1) {
+					series.queryRange(from, to);
+					float minY = getY(series.getRangeMin(), lr);
+					float maxY = getY(series.getRangeMax(), lr);
+					rect.setRect(margin.left + column + 0.5f - lineWidth / 2, maxY - lineWidth / 2, lineWidth, minY - maxY + lineWidth);
+					g.fill(rect);
+
+					prevX = getX(series.getTime(to-1));
+					prevY = getY(series.getValue(to-1), lr);
+				}
+				hasPrevious = true;
+				from = to;
+			}
+		}
+
+		/**
+		 * Returns the index of the first point right of the given pixel column.
+		 *
+		 * @param series graph series with ascending times
+		 * @param from index of a point in the column
+		 * @param column pixel column
+		 * @return index of the first point in the next column or the size of the series
+		 */
+		private int getColumnEnd(GraphSeries series, int from, int column) {
+			int low = from + 1;
+			int high = series.size();
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (Math.floor(getDiagramX(series.getTime(mid))) > column) {
+					high = mid;
+				} else {
+					low = mid + 1;
+				}
+			}
+			return low;
+		}
+
+		private void drawGraphLine(Graphics2D g, Line2D.Float line, long x1, int y1, long x2, int y2, Side lr) {
+			drawLine(g, line, getX(x1), getY(y1, lr), getX(x2), getY(y2, lr));
+		}
+
+		private void drawLine(Graphics2D g, Line2D.Float line, float x1, float y1, float x2, float y2) {
+			line.setLine(x1, y1, x2, y2);
+			g.draw(line);
+		}
 	}
 
 	/** Range with minimal and maximal value (and attribute). */
@@ -544,25 +1002,16 @@ public class Diagram extends JPanel implements ComponentListener {
 		public Color color;
 		public Stroke stroke;
 		public boolean hideInLegend;
-		public ArrayList<Point> timedValues;
+		public GraphSeries series;
+		/** Layer the graph is drawn in (set by addGraph). */
+		private Layer layer = Layer.data;
 
 		public Graph(String name, Color color, Stroke stroke, boolean hideInLegend) {
 			this.name = name;
 			this.color = color;
 			this.stroke = stroke;
 			this.hideInLegend = hideInLegend;
-			timedValues = new ArrayList<Point>();
-		}
-	}
-
-	/** Point with long value for x and int value for y. */
-	public class Point {
-		private long x;
-		private int y;
-
-		public Point(long x, int y) {
-			this.x = x;
-			this.y = y;
+			series = new GraphSeries();
 		}
 	}
 
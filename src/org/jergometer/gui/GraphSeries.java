@@ -0,0 +1,261 @@
+package org.jergometer.gui;
+
+/**
+ * Points of a graph stored in primitive arrays together with a min/max pyramid.
+ * <p>
+ * Level <i>l</i> of the pyramid holds the minimum and maximum value of every complete block
+ * of 2^<i>l</i> consecutive points (level 0 are the values themselves).  The pyramid is
+ * updated incrementally when points are appended and allows to determine the minimum and
+ * maximum of any index range in O(log n), which is used to reduce a graph to at most
+ * 4 points (first, min, max, last) per pixel column when drawing.
+ * <p>
+ * Points are only appended, so a {@link #snapshot()} can share the arrays with the series.
+ */
+public class GraphSeries {
+	private long[] times;
+	private int[] values;
+	private int size = 0;
+	/** True as long as the times have been appended in ascending order. */
+	private boolean ascending = true;
+
+	/** Minimum and maximum values per level (index 0 is unused, level 0 are the values). */
+	private int[][] mins = new int[1][];
+	private int[][] maxs = new int[1][];
+
+	/** True for snapshots. */
+	private final boolean readOnly;
+
+	// result of the last range query
+	private int rangeMin, rangeMax;
+
+	public GraphSeries() {
+		this(64);
+	}
+
+	public GraphSeries(int capacity) {
+		capacity = Math.max(capacity, 2);
+		times = new long[capacity];
+		values = new int[capacity];
+		readOnly = false;
+	}
+
+	private GraphSeries(GraphSeries series) {
+		times = series.times;
+		values = series.values;
+		size = series.size;
+		ascending = series.ascending;
+		// the level arrays may be replaced when the series grows
+		mins = series.mins.clone();
+		maxs = series.maxs.clone();
+		readOnly = true;
+	}
+
+	/**
+	 * Returns a read-only view of the current points.  Points appended to this series later
+	 * are not visible in the view and the view may be read by another thread.
+	 *
+	 * @return snapshot of the series
+	 */
+	public GraphSeries snapshot() {
+		return new GraphSeries(this);
+	}
+
+	/**
+	 * Appends a point.
+	 *
+	 * @param time time (x value)
+	 * @param value value (y value)
+	 */
+	public void add(long time, int value) {
+		if (readOnly) throw new UnsupportedOperationException("snapshot of a graph series");
+		ensureCapacity(size + 1);
+		if (size > 0 && time < times[size - 1]) {
+			ascending = false;
+		}
+		times[size] = time;
+		values[size] = value;
+		size++;
+
+		// complete the blocks ending with this point
+		for (int level = 1; (size & ((1 << level) - 1)) == 0; level++) {
+			int block = (size >> level) - 1;
+			int child = 2 * block;
+			int min1 = getMin(level - 1, child), min2 = getMin(level - 1, child + 1);
+			int max1 = getMax(level - 1, child), max2 = getMax(level - 1, child + 1);
+			ensureLevel(level, block);
+			mins[level][block] = Math.min(min1, min2);
+			maxs[level][block] = Math.max(max1, max2);
+		}
+	}
+
+	/**
+	 * Appends the given points.
+	 *
+	 * @param times times (x values)
+	 * @param values values (y values)
+	 * @param offset index of the first point in the arrays
+	 * @param length number of points
+	 */
+	public void addAll(long[] times, int[] values, int offset, int length) {
+		if (readOnly) throw new UnsupportedOperationException("snapshot of a graph series");
+		if (length <= 0) return;
+		ensureCapacity(size + length);
+		System.arraycopy(times, offset, this.times, size, length);
+		System.arraycopy(values, offset, this.values, size, length);
+		for (int i = Math.max(size, 1), end = size + length; i < end; i++) {
+			if (this.times[i] < this.times[i - 1]) {
+				ascending = false;
+				break;
+			}
+		}
+		appended(length);
+	}
+
+	/**
+	 * Appends points with equidistant times.
+	 *
+	 * @param startTime time of the first point
+	 * @param timeStep time between two points (must not be negative)
+	 * @param values values (y values)
+	 * @param offset index of the first value in the array
+	 * @param length number of points
+	 */
+	public void addAll(long startTime, long timeStep, int[] values, int offset, int length) {
+		if (readOnly) throw new UnsupportedOperationException("snapshot of a graph series");
+		if (length <= 0) return;
+		ensureCapacity(size + length);
+		if (size > 0 && startTime < times[size - 1]) {
+			ascending = false;
+		}
+		long time = startTime;
+		for (int i = size, end = size + length; i < end; i++) {
+			times[i] = time;
+			time += timeStep;
+		}
+		System.arraycopy(values, offset, this.values, size, length);
+		appended(length);
+	}
+
+	private void ensureCapacity(int minCapacity) {
+		if (minCapacity <= times.length) return;
+		int capacity = Math.max(minCapacity, times.length + (times.length >> 1));
+		long[] newTimes = new long[capacity];
+		int[] newValues = new int[capacity];
+		System.arraycopy(times, 0, newTimes, 0, size);
+		System.arraycopy(values, 0, newValues, 0, size);
+		times = newTimes;
+		values = newValues;
+	}
+
+	/**
+	 * Increases the size by the given number of points (already stored in the arrays) and
+	 * completes the blocks of the pyramid ending with these points.
+	 */
+	private void appended(int length) {
+		int oldSize = size;
+		size += length;
+		for (int level = 1; (size >> level) > (oldSize >> level); level++) {
+			int firstBlock = oldSize >> level;
+			int endBlock = size >> level;
+			ensureLevel(level, endBlock - 1);
+			int[] levelMins = mins[level];
+			int[] levelMaxs = maxs[level];
+			for (int block = firstBlock; block < endBlock; block++) {
+				int child = 2 * block;
+				levelMins[block] = Math.min(getMin(level - 1, child), getMin(level - 1, child + 1));
+				levelMaxs[block] = Math.max(getMax(level - 1, child), getMax(level - 1, child + 1));
+			}
+		}
+	}
+
+	private void ensureLevel(int level, int block) {
+		if (level >= mins.length) {
+			int[][] newMins = new int[level + 1][];
+			int[][] newMaxs = new int[level + 1][];
+			System.arraycopy(mins, 0, newMins, 0, mins.length);
+			System.arraycopy(maxs, 0, newMaxs, 0, maxs.length);
+			mins = newMins;
+			maxs = newMaxs;
+		}
+		if (mins[level] == null || block >= mins[level].length) {
+			int capacity = Math.max(8, (times.length >> level) + 1);
+			int[] newMins = new int[capacity];
+			int[] newMaxs = new int[capacity];
+			if (mins[level] != null) {
+				int length = Math.min(block, mins[level].length);
+				System.arraycopy(mins[level], 0, newMins, 0, length);
+				System.arraycopy(maxs[level], 0, newMaxs, 0, length);
+			}
+			mins[level] = newMins;
+			maxs[level] = newMaxs;
+		}
+	}
+
+	private int getMin(int level, int block) {
+		return level == 0 ? values[block] : mins[level][block];
+	}
+
+	private int getMax(int level, int block) {
+		return level == 0 ? values[block] : maxs[level][block];
+	}
+
+	/**
+	 * Determines minimum and maximum value of the points in the given index range.
+	 * The result is returned by {@link #getRangeMin()} and {@link #getRangeMax()}.
+	 *
+	 * @param from first index (inclusive)
+	 * @param to last index (exclusive), must be greater than from
+	 */
+	public void queryRange(int from, int to) {
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		while (from < to) {
+			// take the largest complete block starting at from
+			int level = 0;
+			while (level + 1 < mins.length && (from & ((2 << level) - 1)) == 0 && from + (2 << level) <= to) {
+				level++;
+			}
+			int block = from >> level;
+			min = Math.min(min, getMin(level, block));
+			max = Math.max(max, getMax(level, block));
+			from += 1 << level;
+		}
+		rangeMin = min;
+		rangeMax = max;
+	}
+
+	public int getRangeMin() {
+		return rangeMin;
+	}
+
+	public int getRangeMax() {
+		return rangeMax;
+	}
+
+	public void clear() {
+		if (readOnly) throw new UnsupportedOperationException("snapshot of a graph series");
+		// new arrays since snapshots may still use the old ones
+		times = new long[times.length];
+		values = new int[values.length];
+		mins = new int[1][];
+		maxs = new int[1][];
+		size = 0;
+		ascending = true;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getTime(int index) {
+		return times[index];
+	}
+
+	public int getValue(int index) {
+		return values[index];
+	}
+
+	public boolean isAscending() {
+		return ascending;
+	}
+}
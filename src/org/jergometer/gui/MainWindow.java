@@ -159,9 +159,12 @@ public class MainWindow extends JFrame implements ActionListener, TreeSelectionL
 	}
 
 	public void setData(DataRecord dataRecord) {
-		lastDataRecord = dataRecord;
+		// the record is reused by the bike reader
+		DataRecord copy = new DataRecord();
+		copy.copyFrom(dataRecord);
+		lastDataRecord = copy;
 
-		updateBikeInfoPane(dataRecord);
+		updateBikeInfoPane(copy);
 	}
 
 	public void updateBikeInfoPane(DataRecord dataRecord) {
@@ -13,6 +13,8 @@ public class BikeProgramData {
 	private String name;
 	private int duration;
 	private ArrayList<TimeEvent> events = new ArrayList<TimeEvent>();
+	/** Compiled events or null if they have to be compiled again. */
+	private ProgramTimeline timeline = null;
 
 	public BikeProgramData(XMLElement rootElement) {
 		fromXML(rootElement);
@@ -21,6 +23,7 @@ public class BikeProgramData {
 	public void fromXML(XMLElement rootElement) {
 		name = rootElement.getAttribute("name");
 		duration = getValue(GetTime.inst, rootElement.getAttribute("duration"), 0);
+		timeline = null;
 
 		LastState lastState = new LastState();
 
@@ -52,6 +55,18 @@ public class BikeProgramData {
 		return events;
 	}
 
+	/**
+	 * Returns the events compiled into segments.
+	 *
+	 * @return timeline of the program
+	 */
+	public synchronized ProgramTimeline getTimeline() {
+		if (timeline == null) {
+			timeline = new ProgramTimeline(duration, events);
+		}
+		return timeline;
+	}
+
 
 
 	private static int getValue(IntFunction1<String> f, String string, int lastValue) {
@@ -1,6 +1,5 @@
 package org.jergometer.model;
 
-import de.endrullis.utils.StreamUtils;
 import de.endrullis.xml.XMLDocument;
 import de.endrullis.xml.XMLParser;
 import org.jergometer.JergometerSettings;
@@ -10,7 +9,6 @@ import org.jergometer.control.BikeProgram;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeModel;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileFilter;
 import java.util.*;
 
@@ -61,7 +59,7 @@ public class BikeProgramTree extends DefaultTreeModel {
 			// load program
 			XMLParser parser = new XMLParser();
 			try {
-				XMLDocument doc = parser.parse(StreamUtils.readXmlStream(new FileInputStream(file)));
+				XMLDocument doc = parser.parse(file);
 				BikeProgram program = new BikeProgram(file, relativePath, new BikeProgramData(doc.getRootElement()));
 				newNode.setUserObject(program);
 				allProgramNodes.put(program.getProgramName(), newNode);
@@ -1,5 +1,7 @@
 package org.jergometer.model;
 
+import de.endrullis.utils.FileUtils;
+import de.endrullis.utils.IntArrayList;
 import de.endrullis.utils.VelocityUtils;
 import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
@@ -8,9 +10,10 @@ import java.io.*;
 import java.sql.Time;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.List;
 
 /**
  * Collection of the necessary input data of a bike session.
@@ -19,8 +22,9 @@ public class BikeSession {
 	private Date startTime;
 	private String programName;
 	private int programDuration;
-	private ArrayList<MiniDataRecord> data;
-	private ArrayList<Integer> pulseAfterSession = new ArrayList<Integer>();
+	/** Samples or null if only the mini info is loaded (see {@link SessionSampleCache}). */
+	private SessionSampleColumns data;
+	private IntArrayList pulseAfterSession = new IntArrayList();
 	private StatsRecord statsRegular = new StatsRecord(0, 0, 0, 0, 0);
 	private StatsRecord statsTotal = statsRegular;
 	private StatsRecord currentStats = statsRegular;
@@ -29,12 +33,17 @@ public class BikeSession {
 	private File file;
 	private boolean onlyMiniInfo = false;
 	private boolean needToBeSaved = false;
+	private int fileFormat = SessionFile.CURRENT_FORMAT;
+	/** Derived metrics or null if they have to be derived from the mini info again. */
+	private SessionSummary summary = null;
+	/** Latest pulses of a recorded session (created on the first sample). */
+	private PulseWindow pulseWindow = null;
 
 	public BikeSession(String programName, int programDuration) {
 		this.programName = programName.replaceAll("\\\\", "/");
 		this.programDuration = programDuration;
 		startTime = GregorianCalendar.getInstance().getTime();
-		data = new ArrayList<MiniDataRecord>(programDuration);
+		data = new SessionSampleColumns(programDuration);
 	}
 
 	/**
@@ -49,7 +58,12 @@ public class BikeSession {
 	}
 
 	private void loadFromFile(File file) throws IOException {
-		fromStream(new DataInputStream(new FileInputStream(file)));
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			fromStream(in);
+		} finally {
+			in.close();
+		}
 		onlyMiniInfo = false;
 	}
 
@@ -94,14 +108,27 @@ public class BikeSession {
 	}
 
 	public void initialVirtualBikeSession() {
-		data = new ArrayList<MiniDataRecord>();
+		data = new SessionSampleColumns(programDuration);
 		statsTotal.duration = programDuration;
 	}
 
+	/**
+	 * Adds a sample to a virtual bike session.
+	 *
+	 * @param pulse pulse
+	 * @param power power
+	 * @param pedalRpm pedal rpm
+	 */
+	public void addVirtualSample(int pulse, int power, int pedalRpm) {
+		data.add(pulse, power, pedalRpm);
+	}
+
 	public boolean update(DataRecord record) {
-		if(!record.time.equals(lastRecordTotal.time)) {
+		if(!record.sameTime(lastRecordTotal)) {
 			// ergometer is not paused -> add the data record to my list
-			data.add(new MiniDataRecord(record.pulse, record.realPower, record.pedalRpm));
+			data.add(record.pulse, record.realPower, record.pedalRpm);
+			getPulseWindow().add(record.pulse);
+			summary = null;
 
 			// update statistics
 			currentStats.duration++;
@@ -112,10 +139,11 @@ public class BikeSession {
 			currentStats.powerSum += record.realPower;
 			currentStats.pedalRpmSum += record.pedalRpm;
 
+			// the record may be reused by the caller -> copy it
 			if (currentStats == statsRegular) {
-				lastRecordRegular = record;
+				lastRecordRegular.copyFrom(record);
 			}
-			lastRecordTotal = record;
+			lastRecordTotal.copyFrom(record);
 			
 			// switch from regular to total stats end of program reached
 			if (currentStats.duration == programDuration) {
@@ -133,51 +161,125 @@ public class BikeSession {
 		}
 	}
 
+	/**
+	 * Prepares a session loaded from its file to record further samples, e.g. to continue a
+	 * session interrupted by a crash.
+	 *
+	 * @throws IOException if the samples could not be loaded
+	 */
+	public void continueRecording() throws IOException {
+		loadFull();
+		// the regular stats are the total stats until the end of the program is reached
+		if (statsTotal.duration < programDuration) {
+			statsTotal = statsRegular;
+		}
+		currentStats = statsTotal;
+
+		pulseWindow = new PulseWindow();
+		for (int i = Math.max(0, data.size() - pulseWindow.getCapacity()); i < data.size(); i++) {
+			pulseWindow.add(data.getPulse(i));
+		}
+		pulseAfterSession.clear();
+		summary = null;
+	}
+
 	public void recalculateMiniInfo() {
 		currentStats = null;
 		int size = data.size();
 
 		statsRegular = new StatsRecord(0, 0, 0, 0, 0);
 		for (int i = 0; i < size && i < programDuration; i++) {
-			MiniDataRecord record = data.get(i);
+			int pulse = data.getPulse(i);
 
 			statsRegular.duration++;
-			if (record.pulse > 0) {
+			if (pulse > 0) {
 				statsRegular.pulseCount++;
-				statsRegular.pulseSum += record.pulse;
+				statsRegular.pulseSum += pulse;
 			}
-			statsRegular.powerSum += record.power;
-			statsRegular.pedalRpmSum += record.pedalRpm;
+			statsRegular.powerSum += data.getPower(i);
+			statsRegular.pedalRpmSum += data.getPedalRpm(i);
 		}
 
 		statsTotal = statsRegular.clone();
 		for (int i = statsRegular.duration; i < size; i++) {
-			MiniDataRecord record = data.get(i);
+			int pulse = data.getPulse(i);
 
 			statsTotal.duration++;
-			if (record.pulse > 0) {
+			if (pulse > 0) {
 				statsTotal.pulseCount++;
-				statsTotal.pulseSum += record.pulse;
+				statsTotal.pulseSum += pulse;
 			}
-			statsTotal.powerSum += record.power;
-			statsTotal.pedalRpmSum += record.pedalRpm;
+			statsTotal.powerSum += data.getPower(i);
+			statsTotal.pedalRpmSum += data.getPedalRpm(i);
 		}
 
+		summary = null;
 		needToBeSaved = true;
 	}
 
 	public void save(String dir) throws IOException {
+		// the file may be overwritten -> load the samples before
+		boolean miniInfo = onlyMiniInfo;
+		loadFull();
+
 		new File(dir).mkdirs();
 		String filename = getFileName(dir + "/", startTime);
 		String filenameHRM = filename + ".hrm";
 		file = new File(getFileName(dir + "/", startTime));
-		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
-
-		toStream(out);
-		out.close();
+		// write to a temporary file first to not lose the session in case of an error
+		File tmpFile = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+		try {
+			toStream(out);
+		} finally {
+			out.close();
+		}
+		SessionSampleCache.getShared().invalidate(file);
+		FileUtils.replace(tmpFile, file);
 
 		toHRM(filenameHRM);
 		needToBeSaved = false;
+		fileFormat = SessionFile.CURRENT_FORMAT;
+
+		updateSummary();
+		if (miniInfo) {
+			releaseFull();
+		}
+	}
+
+	/**
+	 * Rewrites the session file in the current format if it has been written in an older format.
+	 *
+	 * @return true if the file has been rewritten
+	 * @throws IOException if an I/O error occurs
+	 */
+	public boolean migrateFile() throws IOException {
+		boolean miniInfo = onlyMiniInfo;
+		loadFull();
+		if (fileFormat >= SessionFile.CURRENT_FORMAT) {
+			if (miniInfo) {
+				releaseFull();
+			}
+			return false;
+		}
+
+		// write to a temporary file first to not lose the session in case of an error
+		File tmpFile = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+		try {
+			toStream(out);
+		} finally {
+			out.close();
+		}
+		SessionSampleCache.getShared().invalidate(file);
+		FileUtils.replace(tmpFile, file);
+		fileFormat = SessionFile.CURRENT_FORMAT;
+		updateSummary();
+		if (miniInfo) {
+			releaseFull();
+		}
+
+		return true;
 	}
 
 	private void toHRM(String filename) {
@@ -209,7 +311,7 @@ public class BikeSession {
 			context.put("note", programName);
 			context.put("distance", lastRecordRegular.getDistance());
 			context.put("seconds", secs);
-			context.put("hrdata", data);
+			context.put("hrdata", data.asRecordList());
 
 			Writer writer = new StringWriter();
 			template.merge(context, writer);
@@ -222,23 +324,15 @@ public class BikeSession {
 	}
 
 	private void toStream(DataOutputStream out) throws IOException {
-		out.writeUTF("jergometer session");
-		out.writeUTF("3");
-		out.writeLong(startTime.getTime());
-		out.writeUTF(programName);
-		out.writeInt(programDuration);
-		lastRecordRegular.toStream(out);
-		lastRecordTotal.toStream(out);
-		statsRegular.toStream(out);
-		statsTotal.toStream(out);
-		out.writeInt(data.size());
-		for (MiniDataRecord miniDataRecord : data) {
-			miniDataRecord.toStream(out);
-		}
-		out.writeInt(pulseAfterSession.size());
-		for (Integer pulse : pulseAfterSession) {
-			out.writeInt(pulse);
-		}
+		SessionFile.Header header = new SessionFile.Header();
+		header.startTime = startTime.getTime();
+		header.programName = programName;
+		header.programDuration = programDuration;
+		header.lastRecordRegular = lastRecordRegular;
+		header.lastRecordTotal = lastRecordTotal;
+		header.statsRegular = statsRegular;
+		header.statsTotal = statsTotal;
+		SessionFile.write(out, header, data, pulseAfterSession);
 	}
 
 	private void fromStream(DataInputStream in) throws IOException {
@@ -246,6 +340,7 @@ public class BikeSession {
 			String type = in.readUTF();
 			if (type.equals("jergometer session")) {
 				int format = Integer.parseInt(in.readUTF());
+				fileFormat = format;
 
 				if (format <= 2) {
 					startTime = new Time(in.readLong());
@@ -257,10 +352,8 @@ public class BikeSession {
 						programDuration = in.readInt();
 					}
 					int duration = in.readInt();
-					data = new ArrayList<MiniDataRecord>(duration);
-					for (int i = 0; i < duration; i++) {
-						data.add(new MiniDataRecord(in));
-					}
+					data = new SessionSampleColumns(duration);
+					data.fromStream(in, duration);
 					statsRegular = new StatsRecord(regularSum.getPulse(), regularSum.getPower(), regularSum.getPedalRpm(), duration, pulseCount);
 					statsTotal = statsRegular;
 					currentStats = null;
@@ -274,14 +367,25 @@ public class BikeSession {
 					statsRegular = new StatsRecord(in);
 					statsTotal = new StatsRecord(in);
 					int dataSize = in.readInt();
-					data = new ArrayList<MiniDataRecord>(dataSize);
-					for (int i = 0; i < dataSize; i++) {
-						data.add(new MiniDataRecord(in));
-					}
+					data = new SessionSampleColumns(dataSize);
+					data.fromStream(in, dataSize);
+					pulseAfterSession.clear();
 					int pulseSize = in.readInt();
 					for (int i = 0; i < pulseSize; i++) {
 						pulseAfterSession.add(in.readInt());
 					}
+				} else
+				if (format == 4) {
+					data = new SessionSampleColumns();
+					pulseAfterSession.clear();
+					SessionFile.Header header = SessionFile.read(in, data, pulseAfterSession);
+					startTime = new Date(header.startTime);
+					programName = header.programName;
+					programDuration = header.programDuration;
+					lastRecordRegular = header.lastRecordRegular;
+					lastRecordTotal = header.lastRecordTotal;
+					statsRegular = header.statsRegular;
+					statsTotal = header.statsTotal;
 				} else {
 					throw new IOException("Session format " + format + " too new for this version of JErgometer.  Seems you need to update JErgometer.");
 				}
@@ -299,12 +403,32 @@ public class BikeSession {
 		}
 	}
 
+	/**
+	 * Drops the samples of a session that has been loaded completely only temporarily.
+	 * They are read through the {@link SessionSampleCache} again when they are needed.
+	 */
+	private void releaseFull() {
+		data = null;
+		pulseAfterSession = new IntArrayList();
+		onlyMiniInfo = true;
+	}
+
 
 
 	public Date getStartTime() {
 		return startTime;
 	}
 
+	/**
+	 * Sets the start time of a new session (e.g. of a simulated one).  It determines the name
+	 * of the session file.
+	 *
+	 * @param startTime date and time of this session
+	 */
+	public void setStartTime(Date startTime) {
+		this.startTime = startTime;
+	}
+
 	public int getProgramDuration() {
 		return programDuration;
 	}
@@ -313,11 +437,70 @@ public class BikeSession {
 		return statsTotal.duration;
 	}
 
-	public ArrayList<MiniDataRecord> getData() throws IOException {
-		loadFull();
+	/**
+	 * Returns the samples of this session.  If only the mini info is available, the samples
+	 * are taken from the {@link SessionSampleCache#getShared() shared cache}; this session
+	 * does not keep a reference to them.
+	 *
+	 * @return read-only view of the samples
+	 * @throws IOException if the session file could not be loaded
+	 */
+	public SessionSamples getSamples() throws IOException {
+		if (onlyMiniInfo) {
+			return SessionSampleCache.getShared().get(file);
+		}
 		return data;
 	}
 
+	/**
+	 * Returns the samples from fromSecond (inclusive) to toSecond (exclusive).
+	 * If only the mini info of this session is loaded and the session file has the current format,
+	 * only the requested window is read from the file.
+	 *
+	 * @param fromSecond first second
+	 * @param toSecond end second (exclusive), will be truncated to the session length
+	 * @return samples of the window (index 0 corresponds to fromSecond)
+	 * @throws IOException if the session file could not be loaded
+	 */
+	public SessionSamples getSamples(int fromSecond, int toSecond) throws IOException {
+		if (onlyMiniInfo) {
+			SessionSampleColumns window = SessionFile.readSamples(file, fromSecond, toSecond);
+			if (window != null) {
+				return window;
+			}
+		}
+
+		SessionSamples samples = getSamples();
+		fromSecond = Math.max(0, fromSecond);
+		toSecond = Math.min(toSecond, samples.size());
+		SessionSampleColumns window = new SessionSampleColumns(toSecond - fromSecond);
+		for (int i = fromSecond; i < toSecond; i++) {
+			window.add(samples.getPulse(i), samples.getPower(i), samples.getPedalRpm(i));
+		}
+		return window;
+	}
+
+	/**
+	 * Returns the samples of this session as read-only list of MiniDataRecords.
+	 *
+	 * @return read-only list of the samples
+	 * @throws IOException if the session file could not be loaded
+	 * @deprecated allocates one record per access; use {@link #getSamples()} instead
+	 */
+	@Deprecated
+	public List<MiniDataRecord> getData() throws IOException {
+		final SessionSamples samples = getSamples();
+		return new AbstractList<MiniDataRecord>() {
+			public MiniDataRecord get(int index) {
+				return samples.getRecord(index);
+			}
+
+			public int size() {
+				return samples.size();
+			}
+		};
+	}
+
 	public StatsRecord getStatsRegular() {
 		return statsRegular;
 	}
@@ -337,6 +520,7 @@ public class BikeSession {
 
 	public void setProgramDuration(int programDuration) {
 		this.programDuration = programDuration;
+		summary = null;
 		needToBeSaved = true;
 	}
 
@@ -357,7 +541,53 @@ public class BikeSession {
 		return file;
 	}
 
-	public ArrayList<Integer> getPulseAfterSession() {
+	/**
+	 * Returns the derived metrics of this session.  If they have not been computed from the
+	 * samples yet, an {@link SessionSummary#isComplete() incomplete} summary derived from the
+	 * mini info is returned.
+	 *
+	 * @return summary
+	 */
+	public SessionSummary getSummary() {
+		if (summary == null) {
+			summary = SessionSummary.fromMiniInfo(this);
+		}
+		return summary;
+	}
+
+	/**
+	 * Computes the derived metrics of this session from its samples.
+	 *
+	 * @return complete summary
+	 * @throws IOException if the session file could not be loaded
+	 */
+	public SessionSummary updateSummary() throws IOException {
+		summary = SessionSummary.compute(this, getSamples());
+		return summary;
+	}
+
+	void setSummary(SessionSummary summary) {
+		this.summary = summary;
+	}
+
+	/**
+	 * Returns the window over the latest pulses recorded by {@link #update(DataRecord)}.
+	 * It is shared by the controllers of the session.
+	 *
+	 * @return pulse window
+	 */
+	public PulseWindow getPulseWindow() {
+		if (pulseWindow == null) {
+			pulseWindow = new PulseWindow();
+		}
+		return pulseWindow;
+	}
+
+	public int getFileFormat() {
+		return fileFormat;
+	}
+
+	public IntArrayList getPulseAfterSession() {
 		return pulseAfterSession;
 	}
 	
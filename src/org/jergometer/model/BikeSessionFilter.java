@@ -3,7 +3,9 @@ package org.jergometer.model;
 import org.jergometer.control.BikeProgram;
 
 /**
- * Filter for bike sessions.
+ * Filter for bike sessions.  The conditions (program or program directory, completion state
+ * and start time range) are combined by conjunction; {@link SessionCatalog#select(BikeSessionFilter)}
+ * evaluates them by its indexes, {@link #match(BikeSession)} checks a single session.
  */
 public class BikeSessionFilter {
 	public enum Type { off, program, programDir }
@@ -12,6 +14,8 @@ public class BikeSessionFilter {
 	private BikeProgram bikeProgram;
 	private BikeProgramDir programDir;
 	private boolean onlyCompletedSessions;
+	private boolean timeRange = false;
+	private long from, to;
 
 	public void setProgramFilter(BikeProgram bikeProgram) {
 		this.bikeProgram = bikeProgram;
@@ -27,7 +31,27 @@ public class BikeSessionFilter {
 		type = Type.off;
 	}
 
+	/**
+	 * Restricts the filter to sessions started in the given time range.
+	 *
+	 * @param from start of the range in ms (inclusive)
+	 * @param to end of the range in ms (exclusive)
+	 */
+	public void setTimeRange(long from, long to) {
+		this.from = from;
+		this.to = to;
+		timeRange = true;
+	}
+
+	public void clearTimeRange() {
+		timeRange = false;
+	}
+
 	public boolean match(BikeSession bikeSession) {
+		if (timeRange) {
+			long time = bikeSession.getStartTime().getTime();
+			if (time < from || time >= to) return false;
+		}
 		if (!onlyCompletedSessions || bikeSession.isCompleted()) {
 			switch (type) {
 				case off:
@@ -66,4 +90,16 @@ public class BikeSessionFilter {
 	public void setOnlyCompletedSessions(boolean onlyCompletedSessions) {
 		this.onlyCompletedSessions = onlyCompletedSessions;
 	}
+
+	public boolean hasTimeRange() {
+		return timeRange;
+	}
+
+	public long getFrom() {
+		return from;
+	}
+
+	public long getTo() {
+		return to;
+	}
 }
@@ -6,6 +6,10 @@ import java.io.IOException;
 
 /**
  * Bike data record.
+ * <p>
+ * The time is held as seconds ({@link #getTimeSeconds()}); the time string is only
+ * created if it is requested.  Records are mutable (see {@link #set} and {@link #copyFrom})
+ * so that they can be reused for decoding.
  */
 public class DataRecord {
 	protected int pulse;
@@ -14,9 +18,19 @@ public class DataRecord {
 	protected int distance;
 	protected int destPower;
 	protected int energy;
+	/** Time as string or null if it has not been created yet from timeSeconds. */
 	protected String time;
+	/** Time in seconds or -1 if the time string cannot be parsed. */
+	protected int timeSeconds;
 	protected int realPower;
 
+	/**
+	 * Creates an empty data record (e.g. to be filled by a decoder).
+	 */
+	public DataRecord() {
+		this(0, 0, 0, 0, 0, 0, "", 0);
+	}
+
 	public DataRecord(int pulse, int pedalRpm, int speed, int distance, int destPower, int energy, String time, int realPower) {
 		this.pulse = pulse;
 		this.pedalRpm = pedalRpm;
@@ -25,6 +39,7 @@ public class DataRecord {
 		this.destPower = destPower;
 		this.energy = energy;
 		this.time = time;
+		this.timeSeconds = parseTime(time);
 		this.realPower = realPower;
 	}
 
@@ -37,6 +52,7 @@ public class DataRecord {
 		destPower = Integer.parseInt(parts[4]);
 		energy = Integer.parseInt(parts[5]);
 		time = parts[6];
+		timeSeconds = parseTime(time);
 		realPower = Integer.parseInt(parts[7]);
 	}
 
@@ -45,7 +61,7 @@ public class DataRecord {
 	}
 
 	public String toString() {
-		return new StringBuilder().append("pulse: ").append(pulse).append(",\tpedal rpm: ").append(pedalRpm).append(",\tspeed: ").append(speed).append(",\tdistance: ").append(distance).append(",\tdest. power: ").append(destPower).append(",\tenergy: ").append(energy).append(",\ttime: ").append(time).append(",\treal power: ").append(realPower).toString();
+		return new StringBuilder().append("pulse: ").append(pulse).append(",\tpedal rpm: ").append(pedalRpm).append(",\tspeed: ").append(speed).append(",\tdistance: ").append(distance).append(",\tdest. power: ").append(destPower).append(",\tenergy: ").append(energy).append(",\ttime: ").append(getTime()).append(",\treal power: ").append(realPower).toString();
 	}
 
 	public void toStream(DataOutputStream out) throws IOException {
@@ -55,7 +71,7 @@ public class DataRecord {
 		out.writeInt(distance);
 		out.writeInt(destPower);
 		out.writeInt(energy);
-		out.writeUTF(time);
+		out.writeUTF(getTime());
 		out.writeInt(realPower);
 	}
 
@@ -67,9 +83,83 @@ public class DataRecord {
 		destPower = in.readInt();
 		energy = in.readInt();
 		time = in.readUTF();
+		timeSeconds = parseTime(time);
 		realPower = in.readInt();
 	}
 
+	/**
+	 * Sets all values of the record.
+	 *
+	 * @param pulse pulse
+	 * @param pedalRpm pedal rpm
+	 * @param speed speed
+	 * @param distance distance
+	 * @param destPower destination power
+	 * @param energy energy
+	 * @param timeSeconds time in seconds
+	 * @param realPower real power
+	 */
+	public void set(int pulse, int pedalRpm, int speed, int distance, int destPower, int energy, int timeSeconds, int realPower) {
+		this.pulse = pulse;
+		this.pedalRpm = pedalRpm;
+		this.speed = speed;
+		this.distance = distance;
+		this.destPower = destPower;
+		this.energy = energy;
+		this.time = null;
+		this.timeSeconds = timeSeconds;
+		this.realPower = realPower;
+	}
+
+	public void copyFrom(DataRecord record) {
+		pulse = record.pulse;
+		pedalRpm = record.pedalRpm;
+		speed = record.speed;
+		distance = record.distance;
+		destPower = record.destPower;
+		energy = record.energy;
+		time = record.time;
+		timeSeconds = record.timeSeconds;
+		realPower = record.realPower;
+	}
+
+	/**
+	 * Returns true if the bike time of both records is the same (i.e. the bike is paused).
+	 *
+	 * @param record other record
+	 * @return true if the time is the same
+	 */
+	public boolean sameTime(DataRecord record) {
+		if (timeSeconds >= 0 && record.timeSeconds >= 0) {
+			return timeSeconds == record.timeSeconds;
+		}
+		return getTime().equals(record.getTime());
+	}
+
+	/**
+	 * Parses a time string of the form "[[h:]m:]s".
+	 *
+	 * @param time time string
+	 * @return time in seconds or -1 if the string is not a valid time
+	 */
+	public static int parseTime(String time) {
+		int seconds = 0;
+		int value = -1;
+		for (int i = 0; i < time.length(); i++) {
+			char c = time.charAt(i);
+			if (c >= '0' && c <= '9') {
+				value = (value < 0 ? 0 : value * 10) + (c - '0');
+				if (value > 100000) return -1;
+			} else if (c == ':' && value >= 0) {
+				seconds = (seconds + value) * 60;
+				value = -1;
+			} else {
+				return -1;
+			}
+		}
+		return value < 0 ? -1 : seconds + value;
+	}
+
 
 	// getters and setters
 
@@ -98,9 +188,19 @@ public class DataRecord {
 	}
 
 	public String getTime() {
+		if (time == null) {
+			// format of the bike: mm:ss
+			int minutes = timeSeconds / 60;
+			int seconds = timeSeconds % 60;
+			time = (minutes < 10 ? "0" : "") + minutes + (seconds < 10 ? ":0" : ":") + seconds;
+		}
 		return time;
 	}
 
+	public int getTimeSeconds() {
+		return timeSeconds;
+	}
+
 	public int getRealPower() {
 		return realPower;
 	}
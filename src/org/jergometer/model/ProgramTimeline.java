@@ -0,0 +1,206 @@
+package org.jergometer.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compiled form of the time events of a bike program.
+ * <p>
+ * The program is divided into segments with a constant target: a power or a destination
+ * pulse.  The start times of the segments are kept in a sorted array, so the segment of
+ * any second is found by binary search.  This allows to start a program at any second
+ * (e.g. to resume an interrupted session) or to skip seconds (e.g. in an accelerated
+ * simulation) without replaying the events before.
+ * <p>
+ * A timeline is immutable and can be shared by all users of the program.
+ *
+ * @see BikeProgramData#getTimeline()
+ */
+public class ProgramTimeline {
+	/** Part of the program with a constant target. */
+	public static class Segment {
+		private final int start;
+		private final int end;
+		private final BikeProgramData.Action.Type type;
+		private final int power;
+		private final int pulse;
+
+		private Segment(int start, int end, BikeProgramData.Action.Type type, int power, int pulse) {
+			this.start = start;
+			this.end = end;
+			this.type = type;
+			this.power = power;
+			this.pulse = pulse;
+		}
+
+		/**
+		 * Returns the second the segment starts at.
+		 *
+		 * @return start (inclusive)
+		 */
+		public int getStart() {
+			return start;
+		}
+
+		/**
+		 * Returns the second the next segment starts at.
+		 *
+		 * @return end (exclusive; {@link Integer#MAX_VALUE} for the last segment)
+		 */
+		public int getEnd() {
+			return end;
+		}
+
+		public BikeProgramData.Action.Type getType() {
+			return type;
+		}
+
+		/**
+		 * Returns the power of a power segment.  For a pulse segment it is the power of the
+		 * last power segment before, which is used as initial power if the program is
+		 * started in this segment.
+		 *
+		 * @return power in W (0 if no power has been given before)
+		 */
+		public int getPower() {
+			return power;
+		}
+
+		/**
+		 * Returns the destination pulse.
+		 *
+		 * @return destination pulse (0 for power segments)
+		 */
+		public int getPulse() {
+			return pulse;
+		}
+
+		public String toString() {
+			return start + "-" + (end == Integer.MAX_VALUE ? "" : end) + ": " + type + " " + (type == BikeProgramData.Action.Type.pulse ? pulse : power);
+		}
+	}
+
+	private final int duration;
+	private final Segment[] segments;
+	/** Start times of the segments (for the binary search). */
+	private final int[] starts;
+
+	/**
+	 * Compiles the time events of a program.  The last action of an event determines the
+	 * target from this time on; events without actions are ignored.  Several events at the
+	 * same time are merged.  The first segment starts at second 0.
+	 *
+	 * @param duration duration of the program
+	 * @param events time events sorted by time
+	 */
+	public ProgramTimeline(int duration, List<BikeProgramData.TimeEvent> events) {
+		this.duration = duration;
+
+		// segments without end
+		ArrayList<Segment> targets = new ArrayList<Segment>();
+		int power = 0;
+		for (BikeProgramData.TimeEvent event : events) {
+			if (event.getActions().isEmpty()) continue;
+
+			BikeProgramData.Action last = null;
+			for (BikeProgramData.Action action : event.getActions()) {
+				if (action.getType() == BikeProgramData.Action.Type.power) {
+					power = action.getValue();
+				}
+				last = action;
+			}
+			int pulse = last.getType() == BikeProgramData.Action.Type.pulse ? last.getValue() : 0;
+			if (targets.isEmpty()) {
+				targets.add(new Segment(0, 0, last.getType(), power, pulse));
+			} else {
+				Segment previous = targets.get(targets.size() - 1);
+				Segment target = new Segment(Math.max(event.getTime(), previous.start), 0, last.getType(), power, pulse);
+				if (target.start == previous.start) {
+					targets.set(targets.size() - 1, target);
+				} else {
+					targets.add(target);
+				}
+			}
+		}
+		if (targets.isEmpty()) {
+			// program without actions
+			targets.add(new Segment(0, 0, BikeProgramData.Action.Type.power, 0, 0));
+		}
+
+		segments = new Segment[targets.size()];
+		starts = new int[targets.size()];
+		for (int i = 0; i < segments.length; i++) {
+			Segment target = targets.get(i);
+			int end = i + 1 < segments.length ? targets.get(i + 1).start : Integer.MAX_VALUE;
+			segments[i] = new Segment(target.start, end, target.type, target.power, target.pulse);
+			starts[i] = target.start;
+		}
+	}
+
+	/**
+	 * Returns the index of the segment containing the given second.
+	 *
+	 * @param second second of the program (seconds after the end belong to the last segment)
+	 * @return segment index
+	 */
+	public int getSegmentIndex(int second) {
+		int low = 0, high = starts.length - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (starts[middle] <= second) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the segment containing the given second.
+	 *
+	 * @param second second of the program
+	 * @return segment
+	 */
+	public Segment getSegmentAt(int second) {
+		return segments[getSegmentIndex(second)];
+	}
+
+	public Segment getSegment(int index) {
+		return segments[index];
+	}
+
+	/**
+	 * Returns the number of segments.
+	 *
+	 * @return number of segments (at least 1)
+	 */
+	public int size() {
+		return segments.length;
+	}
+
+	/**
+	 * Returns a read-only list of the segments in time order.
+	 *
+	 * @return segments
+	 */
+	public List<Segment> getSegments() {
+		return Collections.unmodifiableList(Arrays.asList(segments));
+	}
+
+	/**
+	 * Returns the destination pulse at the given second.
+	 *
+	 * @param second second of the program
+	 * @return destination pulse (0 while the power is given by the program)
+	 */
+	public int getDestPulse(int second) {
+		return getSegmentAt(second).getPulse();
+	}
+
+	public int getDuration() {
+		return duration;
+	}
+}
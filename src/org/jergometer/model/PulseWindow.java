@@ -0,0 +1,140 @@
+package org.jergometer.model;
+
+/**
+ * Sliding window over the latest pulse samples of a session.
+ * <p>
+ * The window is fed once per sample and keeps running prefix sums in a ring buffer, so the
+ * count, sum, average and slope of the known pulses (pulse &gt; 0) in any range of the
+ * latest {@link #getCapacity()} samples are answered in constant time.  Ranges are given
+ * by the age of the samples: age 0 is the latest sample, age 9 the sample 9 seconds before.
+ */
+public class PulseWindow {
+	/** Default number of samples the ranges may reach back. */
+	public static final int DEFAULT_CAPACITY = 60;
+
+	private final int capacity;
+	/** Number of samples added so far. */
+	private int size = 0;
+	// prefix sums over the known pulses; slot (n % length) holds the sums of the first n samples
+	private final int[] counts;
+	private final long[] sums;
+	private final long[] timeSums;
+	private final long[] timeSquareSums;
+	private final long[] timePulseSums;
+
+	public PulseWindow() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public PulseWindow(int capacity) {
+		this.capacity = capacity;
+		counts = new int[capacity + 1];
+		sums = new long[capacity + 1];
+		timeSums = new long[capacity + 1];
+		timeSquareSums = new long[capacity + 1];
+		timePulseSums = new long[capacity + 1];
+	}
+
+	/**
+	 * Adds the next sample.
+	 *
+	 * @param pulse pulse (&lt;= 0 if unknown)
+	 */
+	public void add(int pulse) {
+		int last = size % counts.length;
+		int next = (size + 1) % counts.length;
+		counts[next] = counts[last];
+		sums[next] = sums[last];
+		timeSums[next] = timeSums[last];
+		timeSquareSums[next] = timeSquareSums[last];
+		timePulseSums[next] = timePulseSums[last];
+		if (pulse > 0) {
+			long time = size;
+			counts[next]++;
+			sums[next] += pulse;
+			timeSums[next] += time;
+			timeSquareSums[next] += time * time;
+			timePulseSums[next] += time * pulse;
+		}
+		size++;
+	}
+
+	/**
+	 * Returns the slot holding the prefix sums of the samples older than the given age.
+	 */
+	private int slot(int age) {
+		if (age < 0 || age > capacity) {
+			throw new IllegalArgumentException("Age " + age + " is out of the window (capacity " + capacity + ").");
+		}
+		return Math.max(0, size - age) % counts.length;
+	}
+
+	/**
+	 * Returns the number of known pulses in the given range.
+	 *
+	 * @param fromAge age of the latest sample of the range (inclusive)
+	 * @param toAge age of the oldest sample of the range (exclusive)
+	 * @return number of samples with a known pulse
+	 */
+	public int getCount(int fromAge, int toAge) {
+		return counts[slot(fromAge)] - counts[slot(toAge)];
+	}
+
+	/**
+	 * Returns the sum of the known pulses in the given range.
+	 *
+	 * @param fromAge age of the latest sample of the range (inclusive)
+	 * @param toAge age of the oldest sample of the range (exclusive)
+	 * @return sum of the pulses
+	 */
+	public long getSum(int fromAge, int toAge) {
+		return sums[slot(fromAge)] - sums[slot(toAge)];
+	}
+
+	/**
+	 * Returns the average of the known pulses in the given range.
+	 *
+	 * @param fromAge age of the latest sample of the range (inclusive)
+	 * @param toAge age of the oldest sample of the range (exclusive)
+	 * @return average pulse (NaN if no pulse is known)
+	 */
+	public double getAverage(int fromAge, int toAge) {
+		return (double) getSum(fromAge, toAge) / getCount(fromAge, toAge);
+	}
+
+	/**
+	 * Returns the slope of the least squares line through the known pulses in the given range.
+	 *
+	 * @param fromAge age of the latest sample of the range (inclusive)
+	 * @param toAge age of the oldest sample of the range (exclusive)
+	 * @return slope in beats per minute per second (0 if less than 2 pulses are known)
+	 */
+	public double getSlope(int fromAge, int toAge) {
+		int from = slot(fromAge), to = slot(toAge);
+		long n = counts[from] - counts[to];
+		if (n < 2) return 0;
+		double t = timeSums[from] - timeSums[to];
+		double tt = timeSquareSums[from] - timeSquareSums[to];
+		double p = sums[from] - sums[to];
+		double tp = timePulseSums[from] - timePulseSums[to];
+		return (n * tp - t * p) / (n * tt - t * t);
+	}
+
+	/**
+	 * Returns the number of samples added so far.
+	 *
+	 * @return number of samples
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of samples the ranges may reach back.
+	 *
+	 * @return maximal age
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+}
@@ -0,0 +1,184 @@
+package org.jergometer.model;
+
+import java.util.Arrays;
+
+/**
+ * Per-second statistics of several bike sessions: mean, median and percentile bands of
+ * pulse, power and pedal rpm.  Pulse statistics only take the sessions with a known pulse
+ * (pulse &gt; 0) into account; if no session has a pulse in a second, all pulse statistics
+ * of this second are 0.
+ * <p>
+ * The means are computed by the {@link SessionAverager}.  The percentiles of a metric are
+ * computed when they are requested the first time: the columns are transposed block by
+ * block so that the values of one second are sorted in a contiguous array.
+ *
+ * @see SessionAverager
+ */
+public class SessionAggregate {
+	public static enum Metric { pulse, power, pedalRpm }
+
+	/** Percentiles provided by {@link #getPercentile(Metric, int, int)}. */
+	public static final int[] PERCENTILES = {10, 25, 50, 75, 90};
+
+	/** Number of seconds transposed at once for the percentiles. */
+	private static final int BLOCK_SIZE = 256;
+
+	private final String programName;
+	private final int programDuration;
+	private final int totalDuration;
+	/** columns[metric][session][second] */
+	private final int[][][] columns;
+	/** mean[metric][second] */
+	private final int[][] mean;
+	/** percentiles[metric][percentile index][second], computed on demand */
+	private final int[][][] percentiles;
+
+	private final BikeSession[] virtualSessions = new BikeSession[2];
+
+	SessionAggregate(String programName, int programDuration, int totalDuration, int[][][] columns, int[][] mean) {
+		this.programName = programName;
+		this.programDuration = programDuration;
+		this.totalDuration = totalDuration;
+		this.columns = columns;
+		this.mean = mean;
+		this.percentiles = new int[columns.length][][];
+	}
+
+	/**
+	 * Returns the number of seconds covered by the statistics.
+	 *
+	 * @return number of seconds
+	 */
+	public int getLength() {
+		return mean[0].length;
+	}
+
+	public int getSessionCount() {
+		return columns[0].length;
+	}
+
+	/**
+	 * Returns the minimal program duration of the sessions.
+	 *
+	 * @return duration in seconds
+	 */
+	public int getProgramDuration() {
+		return programDuration;
+	}
+
+	/**
+	 * Returns the minimal total duration of the sessions.
+	 *
+	 * @return duration in seconds
+	 */
+	public int getTotalDuration() {
+		return totalDuration;
+	}
+
+	public int getMean(Metric metric, int second) {
+		return mean[metric.ordinal()][second];
+	}
+
+	public int getMedian(Metric metric, int second) {
+		return getPercentile(metric, 50, second);
+	}
+
+	/**
+	 * Returns a percentile of the given metric (linear interpolation between the closest ranks).
+	 *
+	 * @param metric metric
+	 * @param percent one of {@link #PERCENTILES}
+	 * @param second second
+	 * @return percentile
+	 */
+	public synchronized int getPercentile(Metric metric, int percent, int second) {
+		for (int p = 0; p < PERCENTILES.length; p++) {
+			if (PERCENTILES[p] == percent) {
+				int m = metric.ordinal();
+				if (percentiles[m] == null) {
+					percentiles[m] = percentiles(columns[m], getLength(), metric == Metric.pulse);
+				}
+				return percentiles[m][p][second];
+			}
+		}
+		throw new IllegalArgumentException("Percentile " + percent + " is not computed");
+	}
+
+	/**
+	 * Computes the {@link #PERCENTILES} of every second.
+	 *
+	 * @param columns values per session
+	 * @param length number of seconds
+	 * @param masked true to ignore values &lt;= 0 (unknown pulse)
+	 * @return percentiles[percentile index][second]
+	 */
+	private static int[][] percentiles(int[][] columns, int length, boolean masked) {
+		int sessionCount = columns.length;
+		int[][] result = new int[PERCENTILES.length][length];
+		int[] block = new int[BLOCK_SIZE * sessionCount];
+		int[] count = new int[BLOCK_SIZE];
+
+		for (int start = 0; start < length; start += BLOCK_SIZE) {
+			int end = Math.min(start + BLOCK_SIZE, length);
+
+			// transpose the block: the values of one second are stored contiguously
+			Arrays.fill(count, 0);
+			for (int[] column : columns) {
+				for (int i = start; i < end; i++) {
+					int value = column[i];
+					if (!masked || value > 0) {
+						int j = i - start;
+						block[j * sessionCount + count[j]++] = value;
+					}
+				}
+			}
+
+			for (int i = start; i < end; i++) {
+				int j = i - start;
+				int n = count[j];
+				if (n == 0) continue;
+				int from = j * sessionCount;
+				Arrays.sort(block, from, from + n);
+				for (int p = 0; p < PERCENTILES.length; p++) {
+					result[p][i] = percentile(block, from, n, PERCENTILES[p]);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a percentile of sorted values (linear interpolation between the closest ranks).
+	 */
+	private static int percentile(int[] sorted, int from, int n, int percent) {
+		double rank = (n - 1) * percent / 100.0;
+		int lower = (int) rank;
+		int upper = Math.min(lower + 1, n - 1);
+		double value = sorted[from + lower] + (rank - lower) * (sorted[from + upper] - sorted[from + lower]);
+		return (int) Math.round(value);
+	}
+
+	/**
+	 * Returns a virtual bike session holding the mean of the sessions.
+	 * The virtual sessions are created once per duration type.
+	 *
+	 * @param fullLength true for the minimal total duration, false for the minimal program duration
+	 * @return virtual bike session
+	 */
+	public synchronized BikeSession toBikeSession(boolean fullLength) {
+		int index = fullLength ? 1 : 0;
+		if (virtualSessions[index] == null) {
+			int duration = Math.min(fullLength ? totalDuration : programDuration, getLength());
+			BikeSession virtualBikeSession = new BikeSession(programName, duration);
+			virtualBikeSession.initialVirtualBikeSession();
+			int[] pulse = mean[Metric.pulse.ordinal()];
+			int[] power = mean[Metric.power.ordinal()];
+			int[] pedalRpm = mean[Metric.pedalRpm.ordinal()];
+			for (int i = 0; i < duration; i++) {
+				virtualBikeSession.addVirtualSample(pulse[i], power[i], pedalRpm[i]);
+			}
+			virtualSessions[index] = virtualBikeSession;
+		}
+		return virtualSessions[index];
+	}
+}
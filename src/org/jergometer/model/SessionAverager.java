@@ -0,0 +1,205 @@
+package org.jergometer.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Averages the samples of several bike sessions second by second.
+ * <p>
+ * The samples of the sessions are loaded in parallel into one primitive column per session
+ * and metric.  Means are accumulated session by session over whole columns; the
+ * percentiles are computed by the {@link SessionAggregate} when they are requested.
+ * <p>
+ * The last aggregate is cached for the selection it has been computed for (same sessions
+ * in the same order with unchanged durations), so switching between program and total
+ * length does not compute it again.
+ */
+public class SessionAverager {
+	private List<BikeSession> cachedSessions = null;
+	private int[] cachedDurations = null;
+	private SessionAggregate cachedAggregate = null;
+
+	/**
+	 * Creates a virtual bike session holding the average of the given sessions.
+	 * The pulse is averaged over the sessions with a known pulse (pulse &gt; 0) only.
+	 *
+	 * @param bikeSessions sessions to average (at least one)
+	 * @param fullLength true to average the total duration, false to average the program duration only
+	 * @return virtual bike session with the length of the shortest session
+	 * @throws IOException if the samples of a session cannot be read
+	 */
+	public static BikeSession average(List<BikeSession> bikeSessions, boolean fullLength) throws IOException {
+		return compute(bikeSessions).toBikeSession(fullLength);
+	}
+
+	/**
+	 * Returns the aggregate of the given sessions.  The aggregate of the last selection is cached.
+	 *
+	 * @param bikeSessions sessions to aggregate (at least one)
+	 * @return aggregate
+	 * @throws IOException if the samples of a session cannot be read
+	 */
+	public synchronized SessionAggregate aggregate(List<BikeSession> bikeSessions) throws IOException {
+		int[] durations = new int[bikeSessions.size()];
+		for (int s = 0; s < durations.length; s++) {
+			durations[s] = bikeSessions.get(s).getDuration();
+		}
+		if (cachedAggregate == null || !isSameSelection(bikeSessions, durations)) {
+			cachedAggregate = compute(bikeSessions);
+			cachedSessions = new ArrayList<BikeSession>(bikeSessions);
+			cachedDurations = durations;
+		}
+		return cachedAggregate;
+	}
+
+	private boolean isSameSelection(List<BikeSession> bikeSessions, int[] durations) {
+		if (bikeSessions.size() != cachedSessions.size()) return false;
+		for (int s = 0; s < durations.length; s++) {
+			// sessions are compared by identity
+			if (bikeSessions.get(s) != cachedSessions.get(s)) return false;
+		}
+		return Arrays.equals(durations, cachedDurations);
+	}
+
+	/**
+	 * Computes the aggregate of the given sessions.
+	 *
+	 * @param bikeSessions sessions to aggregate (at least one)
+	 * @return aggregate
+	 * @throws IOException if the samples of a session cannot be read
+	 */
+	public static SessionAggregate compute(final List<BikeSession> bikeSessions) throws IOException {
+		final int sessionCount = bikeSessions.size();
+
+		// calculate minimal durations
+		int programDuration = Integer.MAX_VALUE;
+		int totalDuration = Integer.MAX_VALUE;
+		for (BikeSession bikeSession : bikeSessions) {
+			programDuration = Math.min(programDuration, bikeSession.getProgramDuration());
+			totalDuration = Math.min(totalDuration, bikeSession.getStatsTotal().getDuration());
+		}
+		final int length = Math.max(0, Math.max(programDuration, totalDuration));
+
+		// load the samples: columns[metric][session][second]
+		final int[][][] columns = new int[SessionAggregate.Metric.values().length][sessionCount][];
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(sessionCount);
+		// a session selected twice is loaded only once (BikeSession is not thread-safe)
+		IdentityHashMap<BikeSession,Integer> firstIndex = new IdentityHashMap<BikeSession, Integer>();
+		for (int s = 0; s < sessionCount; s++) {
+			if (firstIndex.containsKey(bikeSessions.get(s))) continue;
+			firstIndex.put(bikeSessions.get(s), s);
+			final int session = s;
+			tasks.add(new Callable<Object>() {
+				public Object call() throws IOException {
+					SessionSamples samples = bikeSessions.get(session).getSamples();
+					int size = Math.min(samples.size(), length);
+					int[] pulse = new int[length], power = new int[length], pedalRpm = new int[length];
+					for (int i = 0; i < size; i++) {
+						pulse[i] = samples.getPulse(i);
+						power[i] = samples.getPower(i);
+						pedalRpm[i] = samples.getPedalRpm(i);
+					}
+					columns[SessionAggregate.Metric.pulse.ordinal()][session] = pulse;
+					columns[SessionAggregate.Metric.power.ordinal()][session] = power;
+					columns[SessionAggregate.Metric.pedalRpm.ordinal()][session] = pedalRpm;
+					return null;
+				}
+			});
+		}
+		runAll(tasks);
+		for (int s = 0; s < sessionCount; s++) {
+			int first = firstIndex.get(bikeSessions.get(s));
+			for (int[][] metricColumns : columns) {
+				metricColumns[s] = metricColumns[first];
+			}
+		}
+
+		int[][] mean = new int[columns.length][];
+		for (SessionAggregate.Metric metric : SessionAggregate.Metric.values()) {
+			mean[metric.ordinal()] = mean(columns[metric.ordinal()], length, metric == SessionAggregate.Metric.pulse);
+		}
+
+		return new SessionAggregate(bikeSessions.get(0).getProgramName(), programDuration, totalDuration, columns, mean);
+	}
+
+	/**
+	 * Runs the given tasks in parallel (or in the calling thread if only one processor is available).
+	 *
+	 * @param tasks tasks
+	 * @throws IOException if a task has thrown an IOException or if the calling thread has been interrupted
+	 */
+	private static void runAll(List<Callable<Object>> tasks) throws IOException {
+		int threadCount = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), tasks.size()));
+		if (threadCount == 1) {
+			for (Callable<Object> task : tasks) {
+				try {
+					task.call();
+				} catch (IOException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+			return;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "session averager");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			for (Future<Object> future : executor.invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			throw new IOException("Averaging of the sessions has been interrupted.");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Computes the mean of every second.
+	 *
+	 * @param columns values per session
+	 * @param length number of seconds
+	 * @param masked true to ignore values &lt;= 0 (unknown pulse)
+	 * @return means
+	 */
+	private static int[] mean(int[][] columns, int length, boolean masked) {
+		int[] sum = new int[length];
+		int[] count = new int[length];
+		for (int[] column : columns) {
+			if (masked) {
+				for (int i = 0; i < length; i++) {
+					int value = column[i];
+					if (value > 0) {
+						sum[i] += value;
+						count[i]++;
+					}
+				}
+			} else {
+				for (int i = 0; i < length; i++) {
+					sum[i] += column[i];
+				}
+			}
+		}
+		for (int i = 0; i < length; i++) {
+			int n = masked ? count[i] : columns.length;
+			sum[i] = n == 0 ? 0 : sum[i] / n;
+		}
+		return sum;
+	}
+}
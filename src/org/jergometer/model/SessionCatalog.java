@@ -0,0 +1,294 @@
+package org.jergometer.model;
+
+import java.util.*;
+
+/**
+ * Indexes of the sessions of a user used to evaluate a {@link BikeSessionFilter} without
+ * matching every session.
+ * <p>
+ * The program directories form a trie (one node per path segment).  Every node holds the
+ * sessions of all programs below it, every program holds its own sessions, each once for
+ * all sessions and once for the completed sessions only.  All lists are sorted by start
+ * time, so a filter is answered by selecting the list of its program or directory and
+ * completion state and cutting out the time range by binary search.
+ * <p>
+ * {@link #view(BikeSessionFilter)} returns such a selection as a live list which is not
+ * copied but read from the indexes, so a table showing the selection does not have to
+ * hold a list of its own.
+ * <p>
+ * The indexes hold the rows of a {@link SessionList}, not the sessions, so the sessions
+ * are only read from the session index when the selection is accessed.
+ */
+public class SessionCatalog {
+	/** Sessions of a program or directory, sorted by start time. */
+	private static class Entry {
+		private final ArrayList<SessionList.Row> all = new ArrayList<SessionList.Row>();
+		private final ArrayList<SessionList.Row> completed = new ArrayList<SessionList.Row>();
+
+		void add(SessionList.Row row) {
+			insert(all, row);
+			if (row.completed) {
+				insert(completed, row);
+			}
+		}
+
+		void remove(long time) {
+			remove(all, time);
+			remove(completed, time);
+		}
+
+		boolean isEmpty() {
+			return all.isEmpty();
+		}
+
+		private static void insert(ArrayList<SessionList.Row> rows, SessionList.Row row) {
+			int index = lowerBound(rows, row.startTime);
+			if (index < rows.size() && rows.get(index).startTime == row.startTime) {
+				rows.set(index, row);
+			} else {
+				rows.add(index, row);
+			}
+		}
+
+		private static void remove(ArrayList<SessionList.Row> rows, long time) {
+			int index = lowerBound(rows, time);
+			if (index < rows.size() && rows.get(index).startTime == time) {
+				rows.remove(index);
+			}
+		}
+	}
+
+	/** Node of the directory trie. */
+	private static class Node extends Entry {
+		private final HashMap<String, Node> dirs = new HashMap<String, Node>();
+		private final HashMap<String, Entry> programs = new HashMap<String, Entry>();
+	}
+
+	private final SessionList sessions;
+	private final Node root = new Node();
+	/** Incremented whenever a session is added or removed. */
+	private int modifications = 0;
+
+	/**
+	 * Creates the indexes of the sessions of the list.  Sessions added to or removed from
+	 * the list later on have to be added to or removed from the catalog as well.
+	 *
+	 * @param sessions sessions
+	 */
+	public SessionCatalog(SessionList sessions) {
+		this.sessions = sessions;
+		for (SessionList.Row row : sessions.getRows()) {
+			add(row);
+		}
+	}
+
+	/**
+	 * Adds a session which has been added to the session list.
+	 *
+	 * @param session session
+	 */
+	public void add(BikeSession session) {
+		SessionList.Row row = sessions.getRow(session.getStartTime().getTime());
+		if (row != null) {
+			add(row);
+		}
+	}
+
+	private void add(SessionList.Row row) {
+		modifications++;
+		String[] path = row.programName.split("/");
+		Node node = root;
+		node.add(row);
+		for (int i = 0; i < path.length - 1; i++) {
+			Node child = node.dirs.get(path[i]);
+			if (child == null) {
+				child = new Node();
+				node.dirs.put(path[i], child);
+			}
+			node = child;
+			node.add(row);
+		}
+		Entry program = node.programs.get(row.programName);
+		if (program == null) {
+			program = new Entry();
+			node.programs.put(row.programName, program);
+		}
+		program.add(row);
+	}
+
+	/**
+	 * Removes a session.
+	 *
+	 * @param session session
+	 */
+	public void remove(BikeSession session) {
+		modifications++;
+		long time = session.getStartTime().getTime();
+		String[] path = session.getProgramName().split("/");
+		Node[] nodes = new Node[path.length];
+		nodes[0] = root;
+		for (int i = 0; i < path.length - 1; i++) {
+			nodes[i + 1] = nodes[i].dirs.get(path[i]);
+			if (nodes[i + 1] == null) return;
+		}
+
+		Node node = nodes[path.length - 1];
+		Entry program = node.programs.get(session.getProgramName());
+		if (program == null) return;
+		program.remove(time);
+		if (program.isEmpty()) {
+			node.programs.remove(session.getProgramName());
+		}
+		for (int i = path.length - 1; i >= 0; i--) {
+			nodes[i].remove(time);
+			if (i > 0 && nodes[i].isEmpty()) {
+				nodes[i - 1].dirs.remove(path[i - 1]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the sessions matching the filter sorted by start time.
+	 *
+	 * @param filter session filter
+	 * @return new list of the matching sessions
+	 */
+	public ArrayList<BikeSession> select(BikeSessionFilter filter) {
+		return new ArrayList<BikeSession>(view(filter));
+	}
+
+	/**
+	 * Returns a read-only view of the sessions matching the filter sorted by start time.
+	 * The view reflects sessions added to or removed from the catalog later on; later
+	 * changes of the filter do not affect it.
+	 *
+	 * @param filter session filter
+	 * @return live list of the matching sessions
+	 */
+	public List<BikeSession> view(BikeSessionFilter filter) {
+		return new View(filter);
+	}
+
+	/**
+	 * Selection of a filter.  The list and the bounds of the time range are looked up again
+	 * after the catalog has been modified.
+	 */
+	private class View extends AbstractList<BikeSession> implements RandomAccess {
+		private final BikeSessionFilter.Type type;
+		private final String name;
+		private final boolean onlyCompleted;
+		private final boolean timeRange;
+		private final long from, to;
+
+		private int expectedModifications = -1;
+		private List<SessionList.Row> rows;
+		private int fromIndex, toIndex;
+
+		private View(BikeSessionFilter filter) {
+			type = filter.getType();
+			switch (type) {
+				case program:
+					name = filter.getBikeProgram().getProgramName();
+					break;
+				case programDir:
+					name = filter.getProgramDir().getPath().replaceAll("\\\\", "/");
+					break;
+				default:
+					name = null;
+			}
+			onlyCompleted = filter.isOnlyCompletedSessions();
+			timeRange = filter.hasTimeRange();
+			from = filter.getFrom();
+			to = filter.getTo();
+		}
+
+		private void update() {
+			if (expectedModifications == modifications) return;
+			expectedModifications = modifications;
+
+			Entry entry = getEntry(type, name);
+			rows = entry == null ? Collections.<SessionList.Row>emptyList() : onlyCompleted ? entry.completed : entry.all;
+			fromIndex = 0;
+			toIndex = rows.size();
+			if (timeRange) {
+				fromIndex = lowerBound(rows, from);
+				toIndex = Math.max(fromIndex, lowerBound(rows, to));
+			}
+		}
+
+		@Override
+		public BikeSession get(int index) {
+			update();
+			if (index < 0 || index >= toIndex - fromIndex) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (toIndex - fromIndex));
+			}
+			return sessions.get(rows, fromIndex + index);
+		}
+
+		@Override
+		public int size() {
+			update();
+			return toIndex - fromIndex;
+		}
+
+		/**
+		 * Finds the session by binary search on its start time.
+		 */
+		@Override
+		public int indexOf(Object o) {
+			if (!(o instanceof BikeSession)) return -1;
+			update();
+			long time = ((BikeSession) o).getStartTime().getTime();
+			int i = lowerBound(rows, time);
+			return i >= fromIndex && i < toIndex && rows.get(i).startTime == time ? i - fromIndex : -1;
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return indexOf(o) >= 0;
+		}
+	}
+
+	private Entry getEntry(BikeSessionFilter.Type type, String name) {
+		switch (type) {
+			case program:
+				Node node = getNode(name.split("/"), 1);
+				return node == null ? null : node.programs.get(name);
+			case programDir:
+				return getNode(name.split("/"), 0);
+			default:
+				return root;
+		}
+	}
+
+	/**
+	 * Returns the node of a directory path.
+	 *
+	 * @param path path segments
+	 * @param ignoredSegments number of segments at the end of the path to ignore
+	 * @return node or null if there is no session below this directory
+	 */
+	private Node getNode(String[] path, int ignoredSegments) {
+		Node node = root;
+		for (int i = 0; i < path.length - ignoredSegments && node != null; i++) {
+			node = node.dirs.get(path[i]);
+		}
+		return node;
+	}
+
+	/**
+	 * Returns the index of the first row starting at or after the given time.
+	 */
+	private static int lowerBound(List<SessionList.Row> rows, long time) {
+		int low = 0, high = rows.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (rows.get(middle).startTime < time) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
@@ -0,0 +1,239 @@
+package org.jergometer.model;
+
+import de.endrullis.utils.IntArrayList;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Layout of the session files (format 4) and random access to their samples.
+ * <p>
+ * Format 4 starts with a header of fixed layout followed by a variable part
+ * (program name and last data records).  The samples follow as fixed-stride
+ * blocks, so the sample of second <i>n</i> is located at
+ * <code>sampleOffset + n * SAMPLE_STRIDE</code>:
+ * <pre>
+ * UTF  "jergometer session"
+ * UTF  "4"
+ * int  sampleOffset       (offset of the first sample block)
+ * int  sampleCount
+ * int  pulseAfterCount
+ * long startTime
+ * int  programDuration
+ * StatsRecord statsRegular, statsTotal
+ * UTF  programName
+ * DataRecord lastRecordRegular, lastRecordTotal
+ * sampleCount     * (short pulse, short power, short pedalRpm)
+ * pulseAfterCount * short pulse
+ * </pre>
+ * Formats 1 to 3 are still read by {@link BikeSession}, but they can only be parsed as a whole.
+ */
+public class SessionFile {
+	public static final String TYPE = "jergometer session";
+	public static final int CURRENT_FORMAT = 4;
+
+	/** Size of one sample block (pulse, power, pedal rpm as short). */
+	public static final int SAMPLE_STRIDE = 6;
+	/** Offset of the sample offset field (behind the type and format strings). */
+	private static final int FIXED_HEADER_OFFSET = (2 + TYPE.length()) + (2 + 1);
+	/** Size of the fixed header fields (offset, counts, start time, program duration, 2 stats records). */
+	private static final int FIXED_HEADER_SIZE = 4 + 4 + 4 + 8 + 4 + 2 * 32;
+
+	/** Fixed header of a format 4 session file. */
+	public static class Header {
+		public int sampleOffset;
+		public int sampleCount;
+		public int pulseAfterCount;
+		public long startTime;
+		public int programDuration;
+		public StatsRecord statsRegular;
+		public StatsRecord statsTotal;
+		/** Variable part of the header (only set by {@link SessionFile#read}). */
+		public String programName;
+		public DataRecord lastRecordRegular;
+		public DataRecord lastRecordTotal;
+
+		private void fromStream(DataInputStream in) throws IOException {
+			sampleOffset = in.readInt();
+			sampleCount = in.readInt();
+			pulseAfterCount = in.readInt();
+			startTime = in.readLong();
+			programDuration = in.readInt();
+			statsRegular = new StatsRecord(in);
+			statsTotal = new StatsRecord(in);
+		}
+
+		public int getPulseAfterOffset() {
+			return sampleOffset + sampleCount * SAMPLE_STRIDE;
+		}
+	}
+
+	/**
+	 * Reads the type and format of the session file.
+	 *
+	 * @param file session file
+	 * @return format number or -1 if the file is not a session file
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static int readFormat(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64));
+		try {
+			if (!in.readUTF().equals(TYPE)) return -1;
+			return Integer.parseInt(in.readUTF());
+		} catch (EOFException e) {
+			return -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the fixed header of a format 4 session file.
+	 *
+	 * @param file session file
+	 * @return header or null if the file has another format
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static Header readHeader(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), FIXED_HEADER_OFFSET + FIXED_HEADER_SIZE));
+		try {
+			if (!in.readUTF().equals(TYPE) || !in.readUTF().equals("" + CURRENT_FORMAT)) return null;
+			Header header = new Header();
+			header.fromStream(in);
+			return header;
+		} catch (EOFException e) {
+			throw new IOException("Session file corrupted (too short).  Please report this bug at jergometer.org.");
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the samples from fromSecond (inclusive) to toSecond (exclusive) of a format 4 session file.
+	 * Only the requested window is read from disk and the file is closed afterwards, so it can be
+	 * replaced or deleted at any time (a mapped file could not be deleted on Windows).
+	 *
+	 * @param file session file
+	 * @param fromSecond first second
+	 * @param toSecond end second (exclusive), will be truncated to the session length
+	 * @return samples of the window (index 0 corresponds to fromSecond) or null if the file has another format
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static SessionSampleColumns readSamples(File file, int fromSecond, int toSecond) throws IOException {
+		Header header = readHeader(file);
+		if (header == null) return null;
+
+		fromSecond = Math.max(0, fromSecond);
+		toSecond = Math.min(toSecond, header.sampleCount);
+		int count = Math.max(0, toSecond - fromSecond);
+
+		SessionSampleColumns samples = new SessionSampleColumns(count);
+		if (count == 0) return samples;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			checkLength(header, channel.size());
+			ByteBuffer buffer = ByteBuffer.allocate(count * SAMPLE_STRIDE);
+			long position = header.sampleOffset + (long) fromSecond * SAMPLE_STRIDE;
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, position + buffer.position()) < 0) {
+					throw new IOException("Session file corrupted (too short).  Please report this bug at jergometer.org.");
+				}
+			}
+			buffer.flip();
+			for (int i = 0; i < count; i++) {
+				samples.add(buffer.getShort(), buffer.getShort(), buffer.getShort());
+			}
+		} finally {
+			raf.close();
+		}
+
+		return samples;
+	}
+
+	private static void checkLength(Header header, long fileLength) throws IOException {
+		if (header.getPulseAfterOffset() + 2L * header.pulseAfterCount > fileLength) {
+			throw new IOException("Session file corrupted (too short).  Please report this bug at jergometer.org.");
+		}
+	}
+
+	/**
+	 * Writes a session in format 4.
+	 *
+	 * @param out output stream
+	 * @param header header of the session (sampleOffset and the counts are determined automatically)
+	 * @param samples samples of the session
+	 * @param pulseAfterSession pulse values recorded after the session
+	 * @throws IOException if an I/O error occurs
+	 */
+	static void write(DataOutputStream out, Header header, SessionSamples samples,
+	                  IntArrayList pulseAfterSession) throws IOException {
+		// variable part of the header
+		ByteArrayOutputStream variableBytes = new ByteArrayOutputStream();
+		DataOutputStream variableOut = new DataOutputStream(variableBytes);
+		variableOut.writeUTF(header.programName);
+		header.lastRecordRegular.toStream(variableOut);
+		header.lastRecordTotal.toStream(variableOut);
+		variableOut.close();
+
+		int sampleCount = samples.size();
+
+		out.writeUTF(TYPE);
+		out.writeUTF("" + CURRENT_FORMAT);
+		out.writeInt(FIXED_HEADER_OFFSET + FIXED_HEADER_SIZE + variableBytes.size());
+		out.writeInt(sampleCount);
+		out.writeInt(pulseAfterSession.size());
+		out.writeLong(header.startTime);
+		out.writeInt(header.programDuration);
+		header.statsRegular.toStream(out);
+		header.statsTotal.toStream(out);
+		variableBytes.writeTo(out);
+
+		for (int i = 0; i < sampleCount; i++) {
+			out.writeShort(samples.getPulse(i));
+			out.writeShort(samples.getPower(i));
+			out.writeShort(samples.getPedalRpm(i));
+		}
+		for (int i = 0; i < pulseAfterSession.size(); i++) {
+			out.writeShort(pulseAfterSession.get(i));
+		}
+	}
+
+	/**
+	 * Reads the remainder of a format 4 session file after the type and format strings.
+	 *
+	 * @param in input stream positioned behind the format string
+	 * @param samples sample store to fill
+	 * @param pulseAfterSession list for the pulse values after the session
+	 * @return complete header of the session
+	 * @throws IOException if an I/O error occurs
+	 */
+	static Header read(DataInputStream in, SessionSampleColumns samples, IntArrayList pulseAfterSession) throws IOException {
+		Header header = new Header();
+		header.fromStream(in);
+
+		// the variable part is read as a whole to allow future extensions of the header
+		byte[] variableBytes = new byte[header.sampleOffset - FIXED_HEADER_OFFSET - FIXED_HEADER_SIZE];
+		in.readFully(variableBytes);
+		DataInputStream variableIn = new DataInputStream(new ByteArrayInputStream(variableBytes));
+		header.programName = variableIn.readUTF();
+		header.lastRecordRegular = new DataRecord(variableIn);
+		header.lastRecordTotal = new DataRecord(variableIn);
+
+		byte[] sampleBytes = new byte[header.sampleCount * SAMPLE_STRIDE];
+		in.readFully(sampleBytes);
+		ByteBuffer buffer = ByteBuffer.wrap(sampleBytes);
+		for (int i = 0; i < header.sampleCount; i++) {
+			samples.add(buffer.getShort(), buffer.getShort(), buffer.getShort());
+		}
+		for (int i = 0; i < header.pulseAfterCount; i++) {
+			pulseAfterSession.add(in.readShort());
+		}
+
+		return header;
+	}
+}
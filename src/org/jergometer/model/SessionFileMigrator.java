@@ -0,0 +1,95 @@
+package org.jergometer.model;
+
+import org.jergometer.JergometerSettings;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+
+/**
+ * Rewrites session files of older formats in the current session file format.
+ * <p>
+ * Usage: <code>java org.jergometer.model.SessionFileMigrator [sessions directory ...]</code><br>
+ * Without arguments the session directories of all users are migrated.
+ */
+public class SessionFileMigrator {
+	private int migrated = 0;
+	private int upToDate = 0;
+	private int failed = 0;
+
+	public static void main(String[] args) {
+		SessionFileMigrator migrator = new SessionFileMigrator();
+
+		if (args.length == 0) {
+			File[] userDirs = new File(JergometerSettings.jergometerUsersDirName).listFiles();
+			if (userDirs != null) {
+				for (File userDir : userDirs) {
+					if (userDir.isDirectory()) {
+						migrator.migrateDir(new File(userDir, "sessions"));
+					}
+				}
+			}
+		} else {
+			for (String dirName : args) {
+				migrator.migrateDir(new File(dirName));
+			}
+		}
+
+		System.out.println(migrator.migrated + " session files migrated, " + migrator.upToDate + " up-to-date, " +
+				migrator.failed + " failed");
+	}
+
+	/**
+	 * Migrates all session files in the given directory.
+	 *
+	 * @param sessionsDir directory containing the session files
+	 */
+	public void migrateDir(File sessionsDir) {
+		File[] files = sessionsDir.listFiles(new FileFilter(){
+			public boolean accept(File pathname) {
+				return pathname.getName().endsWith(".dat");
+			}
+		});
+		if (files == null) return;
+
+		for (File file : files) {
+			try {
+				if (migrateFile(file)) {
+					migrated++;
+				} else {
+					upToDate++;
+				}
+			} catch (IOException e) {
+				System.err.println("Could not migrate \"" + file + "\": " + e.getMessage());
+				failed++;
+			}
+		}
+	}
+
+	/**
+	 * Migrates the given session file if it has an older format.
+	 *
+	 * @param file session file
+	 * @return true if the file has been rewritten
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static boolean migrateFile(File file) throws IOException {
+		if (SessionFile.readFormat(file) >= SessionFile.CURRENT_FORMAT) return false;
+
+		return new BikeSession(file).migrateFile();
+	}
+
+	// getters
+
+	public int getMigrated() {
+		return migrated;
+	}
+
+	public int getUpToDate() {
+		return upToDate;
+	}
+
+	public int getFailed() {
+		return failed;
+	}
+}
@@ -0,0 +1,374 @@
+package org.jergometer.model;
+
+import de.endrullis.utils.FileUtils;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Binary index of the sessions of a user holding the "mini info" of each session.
+ * <p>
+ * The index is an append-only journal: adding or deleting a session appends a single
+ * entry to the file, and loading the index is one sequential read.  Entries of the
+ * same session (identified by its start time) replace each other.  If the journal
+ * contains too many obsolete entries, it is compacted by rewriting it with the
+ * current sessions only.
+ * <pre>
+ * UTF  "jergometer session index"
+ * int  version
+ * entries:
+ *   byte ADD, long startTime, UTF programName, int programDuration, StatsRecord statsRegular, statsTotal,
+ *        boolean summary, [SessionSummary] (since version 2)
+ *   byte DELETE, long startTime
+ * </pre>
+ * An index of an older version is rewritten in the current version when it is loaded.
+ * <p>
+ * Loading the index keeps only the start time, the program, the completion state and the
+ * position of every entry (see {@link SessionList}).  The entries are read again by their
+ * position when the sessions are requested.
+ */
+public class SessionIndex {
+	public static final String TYPE = "jergometer session index";
+	public static final int VERSION = 2;
+
+	private static final byte ADD = 1;
+	private static final byte DELETE = 2;
+
+	/** Minimal number of obsolete entries before the journal is compacted. */
+	private static final int MIN_OBSOLETE_ENTRIES_FOR_COMPACTION = 100;
+
+	private File file;
+	/** Version of the index file. */
+	private int version = VERSION;
+	/** Number of entries in the journal file. */
+	private int journalEntries = 0;
+	/** Number of live sessions in the journal file. */
+	private int liveEntries = 0;
+
+	public SessionIndex(File file) {
+		this.file = file;
+	}
+
+	public boolean exists() {
+		return file.exists();
+	}
+
+	/**
+	 * Reads the index and returns the sessions sorted by start time.  The sessions are read
+	 * from the index on demand.
+	 *
+	 * @param sessionsDirName directory where the session files are stored (including trailing "/")
+	 * @return sessions in the index
+	 * @throws IOException if an I/O error occurs or the index is invalid
+	 */
+	public SessionList load(String sessionsDirName) throws IOException {
+		TreeMap<Long, SessionList.Row> rows = new TreeMap<Long, SessionList.Row>();
+		HashMap<String, String> programNames = new HashMap<String, String>();
+		StatsRecord stats = new StatsRecord(0, 0, 0, 0, 0);
+		journalEntries = 0;
+		boolean truncated = false;
+
+		PositionInputStream position = new PositionInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+		DataInputStream in = new DataInputStream(position);
+		try {
+			if (!in.readUTF().equals(TYPE)) {
+				throw new IOException("File \"" + file.getName() + "\" is not a valid session index.");
+			}
+			version = in.readInt();
+			if (version > VERSION) {
+				throw new IOException("Session index version " + version + " too new for this version of JErgometer.");
+			}
+
+			while (true) {
+				long offset = position.getPosition();
+				int op = in.read();
+				if (op == -1) break;
+
+				try {
+					long time = in.readLong();
+					if (op == ADD) {
+						SessionList.Row row = new SessionList.Row(time);
+						// the rows share the names of the programs
+						String programName = in.readUTF();
+						row.programName = programNames.get(programName);
+						if (row.programName == null) {
+							programNames.put(programName, programName);
+							row.programName = programName;
+						}
+						int programDuration = in.readInt();
+						stats.fromStream(in);
+						stats.fromStream(in);
+						row.completed = stats.getDuration() >= programDuration;
+						row.summary = version >= 2 && in.readBoolean();
+						if (row.summary) {
+							SessionSummary.skipStream(in);
+						}
+						row.offset = offset;
+						row.length = (int) (position.getPosition() - offset);
+						rows.put(time, row);
+					} else if (op == DELETE) {
+						rows.remove(time);
+					} else {
+						throw new IOException("Session index \"" + file.getName() + "\" corrupted (unknown entry type " + op + ").");
+					}
+					journalEntries++;
+				} catch (EOFException e) {
+					// last entry has not been written completely (e.g. crash) -> ignore it
+					truncated = true;
+					break;
+				}
+			}
+		} catch (EOFException e) {
+			throw new IOException("Session index \"" + file.getName() + "\" corrupted (too short).");
+		} finally {
+			in.close();
+		}
+
+		liveEntries = rows.size();
+		SessionList sessions = new SessionList(sessionsDirName, this, rows.values());
+		// rewrite a truncated journal or an old version to be able to append to it again
+		if (truncated || version < VERSION || needsCompaction()) {
+			write(sessions);
+		}
+
+		return sessions;
+	}
+
+	/**
+	 * Reads the sessions of the given rows.
+	 *
+	 * @param rows rows of the sessions in the index
+	 * @param sessionsDirName directory where the session files are stored (including trailing "/")
+	 * @return sessions in the order of the rows
+	 * @throws IOException if an I/O error occurs or the index has been modified
+	 */
+	List<BikeSession> read(List<SessionList.Row> rows, String sessionsDirName) throws IOException {
+		ArrayList<BikeSession> sessions = new ArrayList<BikeSession>(rows.size());
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			for (SessionList.Row row : rows) {
+				byte[] entry = new byte[row.length];
+				raf.seek(row.offset);
+				raf.readFully(entry);
+
+				DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry));
+				if (in.read() != ADD || in.readLong() != row.startTime) {
+					throw new IOException("Session index \"" + file.getName() + "\" has been modified.");
+				}
+				String programName = in.readUTF();
+				int programDuration = in.readInt();
+				StatsRecord statsRegular = new StatsRecord(in);
+				StatsRecord statsTotal = new StatsRecord(in);
+				BikeSession session = new BikeSession(sessionsDirName, new Date(row.startTime), programName, programDuration,
+						statsRegular, statsTotal);
+				if (version >= 2 && in.readBoolean()) {
+					session.setSummary(SessionSummary.fromStream(session, in));
+				}
+				sessions.add(session);
+			}
+		} finally {
+			raf.close();
+		}
+		return sessions;
+	}
+
+	/**
+	 * Rewrites the index with the sessions of the list (compaction) and backs the list by
+	 * this index.  Entries of the current version are copied, all other sessions are written.
+	 *
+	 * @param sessions all sessions of the user
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void write(SessionList sessions) throws IOException {
+		file.getParentFile().mkdirs();
+
+		synchronized (sessions) {
+			List<SessionList.Row> rows = sessions.getRows();
+			long[] offsets = new long[rows.size()];
+			int[] lengths = new int[rows.size()];
+
+			// write to a temporary file first to not lose the index in case of an error
+			File tmpFile = new File(file.getPath() + ".tmp");
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 65536));
+			RandomAccessFile in = null;
+			try {
+				out.writeUTF(TYPE);
+				out.writeInt(VERSION);
+				byte[] entry = new byte[0];
+				for (int i = 0; i < rows.size(); i++) {
+					SessionList.Row row = rows.get(i);
+					offsets[i] = out.size();
+					if (row.session == null && sessions.getIndex() == this && version == VERSION) {
+						if (in == null) {
+							in = new RandomAccessFile(file, "r");
+						}
+						if (entry.length < row.length) {
+							entry = new byte[row.length];
+						}
+						in.seek(row.offset);
+						in.readFully(entry, 0, row.length);
+						out.write(entry, 0, row.length);
+					} else {
+						BikeSession session = sessions.get(rows, i);
+						writeAdd(out, session);
+						row.set(session);
+					}
+					lengths[i] = (int) (out.size() - offsets[i]);
+				}
+			} finally {
+				if (in != null) {
+					in.close();
+				}
+				out.close();
+			}
+			FileUtils.replace(tmpFile, file);
+
+			for (int i = 0; i < rows.size(); i++) {
+				SessionList.Row row = rows.get(i);
+				row.offset = offsets[i];
+				row.length = lengths[i];
+				row.session = null;
+			}
+			sessions.setIndex(this);
+			version = VERSION;
+			journalEntries = rows.size();
+			liveEntries = rows.size();
+		}
+	}
+
+	/**
+	 * Appends a session to the index.  If a session with the same start time
+	 * is already in the index it will be replaced.
+	 *
+	 * @param session session to add
+	 * @param replaced true if the session replaces an existing one
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void add(BikeSession session, boolean replaced) throws IOException {
+		add(new SessionList.Row(session.getStartTime().getTime()), session, replaced);
+	}
+
+	/**
+	 * Appends a session to the index and stores the position of the entry in its row.
+	 *
+	 * @param row row of the session
+	 * @param session session to add
+	 * @param replaced true if the session replaces an existing one
+	 * @throws IOException if an I/O error occurs
+	 */
+	void add(SessionList.Row row, BikeSession session, boolean replaced) throws IOException {
+		long fileLength = file.exists() ? file.length() : 0;
+		DataOutputStream out = openForAppend();
+		int start;
+		try {
+			start = out.size();
+			writeAdd(out, session);
+			row.length = out.size() - start;
+		} finally {
+			out.close();
+		}
+		row.offset = fileLength + start;
+		journalEntries++;
+		if (!replaced) liveEntries++;
+	}
+
+	/**
+	 * Appends the deletion of a session to the index.
+	 *
+	 * @param session session to delete
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void delete(BikeSession session) throws IOException {
+		DataOutputStream out = openForAppend();
+		try {
+			out.writeByte(DELETE);
+			out.writeLong(session.getStartTime().getTime());
+		} finally {
+			out.close();
+		}
+		journalEntries++;
+		liveEntries--;
+	}
+
+	/**
+	 * Returns true if the journal contains so many obsolete entries that it should be compacted.
+	 *
+	 * @return true if the journal should be compacted
+	 */
+	public boolean needsCompaction() {
+		int obsoleteEntries = journalEntries - liveEntries;
+		return obsoleteEntries >= MIN_OBSOLETE_ENTRIES_FOR_COMPACTION && obsoleteEntries > liveEntries;
+	}
+
+	private DataOutputStream openForAppend() throws IOException {
+		boolean newFile = !file.exists();
+		if (newFile) {
+			file.getParentFile().mkdirs();
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+		if (newFile) {
+			out.writeUTF(TYPE);
+			out.writeInt(VERSION);
+		}
+		return out;
+	}
+
+	private static void writeAdd(DataOutputStream out, BikeSession session) throws IOException {
+		out.writeByte(ADD);
+		out.writeLong(session.getStartTime().getTime());
+		out.writeUTF(session.getProgramName());
+		out.writeInt(session.getProgramDuration());
+		session.getStatsRegular().toStream(out);
+		session.getStatsTotal().toStream(out);
+		SessionSummary summary = session.getSummary();
+		out.writeBoolean(summary.isComplete());
+		if (summary.isComplete()) {
+			summary.toStream(out);
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Input stream counting the bytes read (position in the file).
+	 */
+	private static class PositionInputStream extends FilterInputStream {
+		private long position = 0;
+
+		PositionInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) position++;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) position += n;
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			position += skipped;
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		long getPosition() {
+			return position;
+		}
+	}
+}
@@ -0,0 +1,252 @@
+package org.jergometer.model;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Sessions of a user sorted by start time, backed by the {@link SessionIndex}.
+ * <p>
+ * The list holds only a small {@link Row} per session (start time, program, completion
+ * state and position of the entry in the index).  The sessions with their summaries are
+ * read from the index when they are requested, one page of neighbouring rows at once, and
+ * only the most recently used sessions are kept.  So the heap needed for a user does not grow
+ * with the mini infos and summaries of all sessions.
+ * <p>
+ * Sessions which are not in the index yet (e.g. after parsing the session files) are held
+ * by their rows until the list is written to the index.  Sessions are identified by their
+ * start time like in the index.
+ */
+public class SessionList extends AbstractList<BikeSession> implements RandomAccess {
+	/** Number of neighbouring rows read from the index at once. */
+	private static final int PAGE_SIZE = 64;
+	/** Maximal number of sessions kept after they have been read from the index. */
+	private static final int CACHE_SIZE = 1024;
+
+	/** Session of the list. */
+	static class Row {
+		final long startTime;
+		String programName;
+		boolean completed;
+		/** True if the index holds a complete summary of the session. */
+		boolean summary;
+		/** Position of the entry in the index or -1 if the session is not in the index. */
+		long offset = -1;
+		/** Length of the entry in the index. */
+		int length;
+		/** Session if it is not in the index (or not written yet) or null. */
+		BikeSession session;
+
+		Row(long startTime) {
+			this.startTime = startTime;
+		}
+
+		/**
+		 * Takes over the mini info of the session.
+		 *
+		 * @param session session of this row
+		 */
+		void set(BikeSession session) {
+			programName = session.getProgramName();
+			completed = session.isCompleted();
+			summary = session.getSummary().isComplete();
+		}
+	}
+
+	private static final Comparator<Row> START_TIME_ORDER = new Comparator<Row>() {
+		public int compare(Row r1, Row r2) {
+			return r1.startTime < r2.startTime ? -1 : r1.startTime == r2.startTime ? 0 : 1;
+		}
+	};
+
+	private final String sessionsDirName;
+	private SessionIndex index = null;
+	private final ArrayList<Row> rows = new ArrayList<Row>();
+	/** Sessions read from the index (least recently used first). */
+	private final LinkedHashMap<Row, BikeSession> cache = new LinkedHashMap<Row, BikeSession>(64, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Row, BikeSession> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	/**
+	 * Creates an empty list which is not backed by an index yet.
+	 *
+	 * @param sessionsDirName directory where the session files are stored (including trailing "/")
+	 */
+	public SessionList(String sessionsDirName) {
+		this.sessionsDirName = sessionsDirName;
+	}
+
+	/**
+	 * Creates a list backed by the index.
+	 *
+	 * @param sessionsDirName directory where the session files are stored (including trailing "/")
+	 * @param index session index
+	 * @param rows rows of the index sorted by start time
+	 */
+	SessionList(String sessionsDirName, SessionIndex index, Collection<Row> rows) {
+		this.sessionsDirName = sessionsDirName;
+		this.index = index;
+		this.rows.addAll(rows);
+	}
+
+	/**
+	 * Sets the index holding the sessions of the rows (after all rows have been written to it).
+	 *
+	 * @param index session index
+	 */
+	synchronized void setIndex(SessionIndex index) {
+		this.index = index;
+		cache.clear();
+	}
+
+	synchronized SessionIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Returns the rows of the list (not copied).
+	 *
+	 * @return rows sorted by start time
+	 */
+	synchronized List<Row> getRows() {
+		return rows;
+	}
+
+	/**
+	 * Returns the row of the session starting at the given time.
+	 *
+	 * @param startTime start time in ms
+	 * @return row or null if there is no such session
+	 */
+	synchronized Row getRow(long startTime) {
+		int i = Collections.binarySearch(rows, new Row(startTime), START_TIME_ORDER);
+		return i < 0 ? null : rows.get(i);
+	}
+
+	@Override
+	public synchronized BikeSession get(int index) {
+		return get(rows, index);
+	}
+
+	/**
+	 * Returns the session of a row.  If it has to be read from the index, the sessions of
+	 * the other rows of its page are read as well.
+	 *
+	 * @param rows rows of this list (e.g. a selection of the {@link SessionCatalog})
+	 * @param index index of the row
+	 * @return session
+	 */
+	synchronized BikeSession get(List<Row> rows, int index) {
+		Row row = rows.get(index);
+		if (row.session != null) return row.session;
+
+		BikeSession session = cache.get(row);
+		if (session == null) {
+			ArrayList<Row> page = new ArrayList<Row>(PAGE_SIZE);
+			int start = index - index % PAGE_SIZE;
+			for (int i = start; i < Math.min(start + PAGE_SIZE, rows.size()); i++) {
+				Row pageRow = rows.get(i);
+				if (pageRow.session == null && (pageRow == row || !cache.containsKey(pageRow))) {
+					page.add(pageRow);
+				}
+			}
+			try {
+				List<BikeSession> sessions = this.index.read(page, sessionsDirName);
+				for (int i = 0; i < page.size(); i++) {
+					cache.put(page.get(i), sessions.get(i));
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException("Session index \"" + this.index.getFile().getName() + "\" could not be read.", e);
+			}
+			session = cache.get(row);
+		}
+		return session;
+	}
+
+	@Override
+	public synchronized int size() {
+		return rows.size();
+	}
+
+	/**
+	 * Finds the session by binary search on its start time.
+	 */
+	@Override
+	public synchronized int indexOf(Object o) {
+		if (!(o instanceof BikeSession)) return -1;
+		int i = Collections.binarySearch(rows, new Row(((BikeSession) o).getStartTime().getTime()), START_TIME_ORDER);
+		return Math.max(-1, i);
+	}
+
+	@Override
+	public int lastIndexOf(Object o) {
+		return indexOf(o);
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return indexOf(o) >= 0;
+	}
+
+	/**
+	 * Adds a session and appends it to the index.  A session with the same start time is
+	 * replaced, so this also stores a changed mini info or summary of a session.
+	 *
+	 * @param session new session
+	 * @throws IOException if the index could not be updated
+	 */
+	public synchronized void addSession(BikeSession session) throws IOException {
+		Row row = new Row(session.getStartTime().getTime());
+		int i = Collections.binarySearch(rows, row, START_TIME_ORDER);
+		if (i >= 0) {
+			row = rows.get(i);
+		}
+		store(row, session, i >= 0);
+		if (i < 0) {
+			rows.add(-i - 1, row);
+		}
+	}
+
+	private void store(Row row, BikeSession session, boolean replaced) throws IOException {
+		row.set(session);
+		if (index == null) {
+			row.session = session;
+		} else {
+			index.add(row, session, replaced);
+			row.session = null;
+			cache.put(row, session);
+		}
+	}
+
+	/**
+	 * Removes a session and appends the deletion to the index.
+	 *
+	 * @param session session to remove
+	 * @return true if the session was in the list
+	 * @throws IOException if the index could not be updated
+	 */
+	public synchronized boolean removeSession(BikeSession session) throws IOException {
+		int i = indexOf(session);
+		if (i < 0) return false;
+
+		Row row = rows.remove(i);
+		cache.remove(row);
+		if (index != null && row.offset >= 0) {
+			index.delete(session);
+		}
+		return true;
+	}
+
+	/**
+	 * Compacts the index if it contains too many obsolete entries.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	public synchronized void compactIndexIfNeeded() throws IOException {
+		if (index != null && index.needsCompaction()) {
+			index.write(this);
+		}
+	}
+}
@@ -0,0 +1,313 @@
+package org.jergometer.model;
+
+import java.util.*;
+
+/**
+ * Daily, weekly and monthly aggregates of the sessions of a user.
+ * <p>
+ * Every session is added to the buckets of its program, of all directories containing the
+ * program, and of the root (all sessions), once for all sessions and once more if the session
+ * is completed.  Adding or removing a session only updates these buckets, so a progression over
+ * years of data is answered from a few hundred buckets instead of all sessions.
+ * <p>
+ * Scopes are strings: "" for the root, the directory path followed by "/" for a program
+ * directory and the program name for a program (see {@link #getScope(BikeSessionFilter)}).
+ */
+public class SessionRollup {
+	public static enum Period {
+		day(Calendar.DAY_OF_MONTH, 24L * 60 * 60 * 1000),
+		week(Calendar.WEEK_OF_YEAR, 7 * 24L * 60 * 60 * 1000),
+		month(Calendar.MONTH, 30 * 24L * 60 * 60 * 1000);
+
+		private final int calendarField;
+		/** Approximate length in ms. */
+		private final long length;
+
+		Period(int calendarField, long length) {
+			this.calendarField = calendarField;
+			this.length = length;
+		}
+
+		/**
+		 * Returns the start of the bucket containing the given time.
+		 *
+		 * @param time time in ms
+		 * @return start of the bucket in ms
+		 */
+		public long getBucketStart(long time) {
+			Calendar calendar = Calendar.getInstance();
+			calendar.setTimeInMillis(time);
+			calendar.set(Calendar.HOUR_OF_DAY, 0);
+			calendar.set(Calendar.MINUTE, 0);
+			calendar.set(Calendar.SECOND, 0);
+			calendar.set(Calendar.MILLISECOND, 0);
+			if (this == week) {
+				calendar.set(Calendar.DAY_OF_WEEK, calendar.getFirstDayOfWeek());
+				if (calendar.getTimeInMillis() > time) {
+					calendar.add(Calendar.WEEK_OF_YEAR, -1);
+				}
+			} else if (this == month) {
+				calendar.set(Calendar.DAY_OF_MONTH, 1);
+			}
+			return calendar.getTimeInMillis();
+		}
+
+		/**
+		 * Returns the start of the next bucket.
+		 *
+		 * @param bucketStart start of a bucket in ms
+		 * @return start of the following bucket in ms
+		 */
+		public long getNextBucketStart(long bucketStart) {
+			Calendar calendar = Calendar.getInstance();
+			calendar.setTimeInMillis(bucketStart);
+			calendar.add(calendarField, 1);
+			return calendar.getTimeInMillis();
+		}
+	}
+
+	/**
+	 * Aggregate of the sessions started in one period.
+	 * The averages are averages of the per-session averages (as plotted by the progression view).
+	 */
+	public static class Bucket {
+		private final long start;
+		private int sessionCount;
+		/** Number of sessions with a program duration &gt; 0. */
+		private int programSessionCount;
+		/** Number of sessions with a known pulse. */
+		private int pulseSessionCount;
+		private long duration;
+		private long pulseSum, powerSum, pedalRpmSum;
+		private double averagePulseSum, averagePowerSum, averagePedalRpmSum, performanceSum;
+
+		private Bucket(long start) {
+			this.start = start;
+		}
+
+		private void add(BikeSession session, int sign) {
+			StatsRecord stats = session.getStatsRegular();
+			sessionCount += sign;
+			duration += sign * stats.getDuration();
+			pulseSum += sign * stats.getPulseSum();
+			powerSum += sign * stats.getPowerSum();
+			pedalRpmSum += sign * stats.getPedalRpmSum();
+			if (stats.getPulseCount() != 0) {
+				pulseSessionCount += sign;
+				averagePulseSum += sign * stats.getAveragePulse();
+			}
+			if (session.getProgramDuration() != 0) {
+				programSessionCount += sign;
+				averagePowerSum += sign * stats.getAveragePower();
+				averagePedalRpmSum += sign * stats.getAveragePedalRPM();
+				performanceSum += sign * stats.getAveragePower() * stats.getAveragePedalRPM() / 60;
+			}
+		}
+
+		/**
+		 * Returns the start of the period.
+		 *
+		 * @return start time in ms
+		 */
+		public long getStart() {
+			return start;
+		}
+
+		public int getSessionCount() {
+			return sessionCount;
+		}
+
+		/**
+		 * Returns the total duration of the sessions in the regular training time.
+		 *
+		 * @return duration in seconds
+		 */
+		public long getDuration() {
+			return duration;
+		}
+
+		public long getPulseSum() {
+			return pulseSum;
+		}
+
+		public long getPowerSum() {
+			return powerSum;
+		}
+
+		public long getPedalRpmSum() {
+			return pedalRpmSum;
+		}
+
+		public boolean hasPulse() {
+			return pulseSessionCount > 0;
+		}
+
+		public boolean hasProgramSessions() {
+			return programSessionCount > 0;
+		}
+
+		public double getAveragePulse() {
+			return averagePulseSum / pulseSessionCount;
+		}
+
+		public double getAveragePower() {
+			return averagePowerSum / programSessionCount;
+		}
+
+		public double getAveragePedalRpm() {
+			return averagePedalRpmSum / programSessionCount;
+		}
+
+		public double getAveragePerformance() {
+			return performanceSum / programSessionCount;
+		}
+	}
+
+	/** buckets[period][scope key] */
+	private final ArrayList<HashMap<String, TreeMap<Long, Bucket>>> buckets = new ArrayList<HashMap<String, TreeMap<Long, Bucket>>>();
+
+	public SessionRollup() {
+		for (Period ignored : Period.values()) {
+			buckets.add(new HashMap<String, TreeMap<Long, Bucket>>());
+		}
+	}
+
+	public SessionRollup(Collection<BikeSession> sessions) {
+		this();
+		for (BikeSession session : sessions) {
+			add(session);
+		}
+	}
+
+	public void add(BikeSession session) {
+		update(session, 1);
+	}
+
+	/**
+	 * Removes a session that has been added before.
+	 *
+	 * @param session session to remove
+	 */
+	public void remove(BikeSession session) {
+		update(session, -1);
+	}
+
+	private void update(BikeSession session, int sign) {
+		long time = session.getStartTime().getTime();
+		List<String> scopes = getScopes(session.getProgramName());
+		for (Period period : Period.values()) {
+			HashMap<String, TreeMap<Long, Bucket>> periodBuckets = buckets.get(period.ordinal());
+			long bucketStart = period.getBucketStart(time);
+			for (String scope : scopes) {
+				updateBucket(periodBuckets, getKey(scope, false), bucketStart, session, sign);
+				if (session.isCompleted()) {
+					updateBucket(periodBuckets, getKey(scope, true), bucketStart, session, sign);
+				}
+			}
+		}
+	}
+
+	private static void updateBucket(HashMap<String, TreeMap<Long, Bucket>> periodBuckets, String key, long bucketStart, BikeSession session, int sign) {
+		TreeMap<Long, Bucket> scopeBuckets = periodBuckets.get(key);
+		if (scopeBuckets == null) {
+			scopeBuckets = new TreeMap<Long, Bucket>();
+			periodBuckets.put(key, scopeBuckets);
+		}
+		Bucket bucket = scopeBuckets.get(bucketStart);
+		if (bucket == null) {
+			bucket = new Bucket(bucketStart);
+			scopeBuckets.put(bucketStart, bucket);
+		}
+		bucket.add(session, sign);
+		if (bucket.sessionCount == 0) {
+			scopeBuckets.remove(bucketStart);
+		}
+	}
+
+	/**
+	 * Returns the scopes a session of the given program belongs to: the root, all directories
+	 * containing the program and the program itself.
+	 *
+	 * @param programName program name (path separated by "/")
+	 * @return scopes
+	 */
+	static List<String> getScopes(String programName) {
+		ArrayList<String> scopes = new ArrayList<String>();
+		scopes.add("");
+		for (int i = programName.indexOf('/'); i >= 0; i = programName.indexOf('/', i + 1)) {
+			scopes.add(programName.substring(0, i + 1));
+		}
+		scopes.add(programName);
+		return scopes;
+	}
+
+	/**
+	 * Returns the scope corresponding to the program or directory filter.
+	 *
+	 * @param filter session filter
+	 * @return scope
+	 */
+	public static String getScope(BikeSessionFilter filter) {
+		switch (filter.getType()) {
+			case program:
+				return filter.getBikeProgram().getProgramName();
+			case programDir:
+				return filter.getProgramDir().getPath().replaceAll("\\\\", "/") + '/';
+			default:
+				return "";
+		}
+	}
+
+	private static String getKey(String scope, boolean onlyCompleted) {
+		return (onlyCompleted ? '+' : '-') + scope;
+	}
+
+	/**
+	 * Returns the buckets of the given scope in a date range.
+	 *
+	 * @param period period of the buckets
+	 * @param scope scope
+	 * @param onlyCompleted true to aggregate the completed sessions only
+	 * @param from start of the range in ms (inclusive)
+	 * @param to end of the range in ms (exclusive)
+	 * @return buckets sorted by start time (only buckets containing sessions)
+	 */
+	public List<Bucket> getBuckets(Period period, String scope, boolean onlyCompleted, long from, long to) {
+		TreeMap<Long, Bucket> scopeBuckets = buckets.get(period.ordinal()).get(getKey(scope, onlyCompleted));
+		if (scopeBuckets == null || from >= to) {
+			return new ArrayList<Bucket>();
+		}
+		return new ArrayList<Bucket>(scopeBuckets.subMap(period.getBucketStart(from), to).values());
+	}
+
+	/**
+	 * Returns the buckets of the sessions matching the filter in a date range.
+	 *
+	 * @param filter session filter
+	 * @param period period of the buckets
+	 * @param from start of the range in ms (inclusive)
+	 * @param to end of the range in ms (exclusive)
+	 * @return buckets sorted by start time
+	 */
+	public List<Bucket> getBuckets(BikeSessionFilter filter, Period period, long from, long to) {
+		return getBuckets(period, getScope(filter), filter.isOnlyCompletedSessions(), from, to);
+	}
+
+	/**
+	 * Returns the finest period which splits the date range into at most maxBuckets buckets
+	 * (used to zoom the progression).
+	 *
+	 * @param from start of the range in ms
+	 * @param to end of the range in ms
+	 * @param maxBuckets maximal number of buckets
+	 * @return period ({@link Period#month} if even months give too many buckets)
+	 */
+	public static Period getPeriod(long from, long to, int maxBuckets) {
+		for (Period period : Period.values()) {
+			if ((to - from) / period.length < maxBuckets) {
+				return period;
+			}
+		}
+		return Period.month;
+	}
+}
@@ -0,0 +1,219 @@
+package org.jergometer.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Cache of the samples of session files which are not loaded completely (mini info sessions).
+ * <p>
+ * The samples are kept in least recently used order as long as their total size fits into
+ * the byte budget.  The samples are read into the heap (format 4 files with positional reads,
+ * older formats are parsed completely), so no file stays open or mapped.
+ * If several threads request the samples of the same file at the same time, the file is
+ * loaded only once and the other threads wait for the result.
+ */
+public class SessionSampleCache {
+	/** Default byte budget (64 MB). */
+	public static final long DEFAULT_BYTE_BUDGET = 64L * 1024 * 1024;
+
+	private static final SessionSampleCache shared = new SessionSampleCache(DEFAULT_BYTE_BUDGET);
+
+	/** Samples of a file, loaded by the first thread requesting them. */
+	private static class Entry {
+		private final FutureTask<SessionSamples> task;
+		/** Size of the samples or 0 while they are loaded. */
+		private long bytes = 0;
+
+		private Entry(final File file) {
+			task = new FutureTask<SessionSamples>(new Callable<SessionSamples>() {
+				public SessionSamples call() throws IOException {
+					return load(file);
+				}
+			});
+		}
+	}
+
+	private final LinkedHashMap<File, Entry> entries = new LinkedHashMap<File, Entry>(16, 0.75f, true);
+	private long byteBudget;
+	private long bytes = 0;
+	private long hitCount = 0, missCount = 0, evictionCount = 0;
+
+	public SessionSampleCache(long byteBudget) {
+		this.byteBudget = byteBudget;
+	}
+
+	/**
+	 * Returns the cache shared by all sessions.
+	 *
+	 * @return shared cache
+	 */
+	public static SessionSampleCache getShared() {
+		return shared;
+	}
+
+	/**
+	 * Returns the samples of a session file.
+	 *
+	 * @param file session file
+	 * @return read-only samples
+	 * @throws IOException if the session file could not be loaded
+	 */
+	public SessionSamples get(File file) throws IOException {
+		Entry entry;
+		boolean loader = false;
+		synchronized (this) {
+			entry = entries.get(file);
+			if (entry == null) {
+				missCount++;
+				entry = new Entry(file);
+				entries.put(file, entry);
+				loader = true;
+			} else {
+				hitCount++;
+			}
+		}
+
+		if (loader) {
+			// load outside of the lock; other threads requesting this file wait for the task
+			entry.task.run();
+		}
+
+		SessionSamples samples;
+		try {
+			samples = entry.task.get();
+		} catch (InterruptedException e) {
+			throw new IOException("Loading of session file \"" + file.getName() + "\" has been interrupted.");
+		} catch (ExecutionException e) {
+			synchronized (this) {
+				// do not cache errors
+				if (entries.get(file) == entry) {
+					entries.remove(file);
+				}
+			}
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+
+		if (loader) {
+			synchronized (this) {
+				// the entry may have been invalidated in the meantime
+				if (entries.get(file) == entry) {
+					entry.bytes = getBytes(samples);
+					bytes += entry.bytes;
+					evict(entry);
+				}
+			}
+		}
+		return samples;
+	}
+
+	/**
+	 * Removes the samples of a file from the cache (e.g. because the file has been rewritten).
+	 *
+	 * @param file session file
+	 */
+	public synchronized void invalidate(File file) {
+		Entry entry = entries.remove(file);
+		if (entry != null) {
+			bytes -= entry.bytes;
+		}
+	}
+
+	/**
+	 * Removes all samples from the cache.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Evicts the least recently used samples until the cache fits into the byte budget.
+	 * Samples still being loaded and the given entry are kept.
+	 */
+	private void evict(Entry keep) {
+		Iterator<Map.Entry<File, Entry>> iterator = entries.entrySet().iterator();
+		while (bytes > byteBudget && iterator.hasNext()) {
+			Entry entry = iterator.next().getValue();
+			if (entry == keep || !entry.task.isDone()) continue;
+			iterator.remove();
+			bytes -= entry.bytes;
+			evictionCount++;
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "sample cache: " + entries.size() + " sessions, " + bytes / 1024 + " of " + byteBudget / 1024 + " KB, "
+				+ hitCount + " hits, " + missCount + " misses, " + evictionCount + " evictions";
+	}
+
+	private static SessionSamples load(File file) throws IOException {
+		SessionSamples samples = SessionFile.readSamples(file, 0, Integer.MAX_VALUE);
+		if (samples == null) {
+			// older formats can only be parsed completely
+			samples = new BikeSession(file).getSamples();
+		}
+		return samples;
+	}
+
+	private static long getBytes(SessionSamples samples) {
+		if (samples instanceof SessionSampleColumns) {
+			return ((SessionSampleColumns) samples).getHeapBytes();
+		}
+		return (long) samples.size() * SessionFile.SAMPLE_STRIDE;
+	}
+
+
+	// getters and setters
+
+	public synchronized long getByteBudget() {
+		return byteBudget;
+	}
+
+	/**
+	 * Sets the byte budget and evicts samples if they do not fit into it anymore.
+	 *
+	 * @param byteBudget maximal size of the cached samples in bytes
+	 */
+	public synchronized void setByteBudget(long byteBudget) {
+		this.byteBudget = byteBudget;
+		evict(null);
+	}
+
+	/**
+	 * Returns the size of the cached samples.
+	 *
+	 * @return size in bytes
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+}
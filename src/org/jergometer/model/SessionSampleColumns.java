@@ -0,0 +1,156 @@
+package org.jergometer.model;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Growable columnar store for the samples of a bike session.
+ * Pulse, power and pedal rpm are kept in separate primitive arrays instead of
+ * one MiniDataRecord object per second.  All values reported by the ergometer
+ * fit into a short.
+ */
+public class SessionSampleColumns implements SessionSamples {
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private short[] pulse;
+	private short[] power;
+	private short[] pedalRpm;
+	private int size = 0;
+
+	public SessionSampleColumns() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public SessionSampleColumns(int capacity) {
+		capacity = Math.max(capacity, 1);
+		pulse = new short[capacity];
+		power = new short[capacity];
+		pedalRpm = new short[capacity];
+	}
+
+	public void add(int pulse, int power, int pedalRpm) {
+		if (size == this.pulse.length) {
+			grow(size + 1);
+		}
+		this.pulse[size] = (short) pulse;
+		this.power[size] = (short) power;
+		this.pedalRpm[size] = (short) pedalRpm;
+		size++;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	private void grow(int minCapacity) {
+		int capacity = Math.max(minCapacity, pulse.length + (pulse.length >> 1) + 1);
+		pulse = copyOf(pulse, capacity);
+		power = copyOf(power, capacity);
+		pedalRpm = copyOf(pedalRpm, capacity);
+	}
+
+	private static short[] copyOf(short[] array, int length) {
+		short[] copy = new short[length];
+		System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+		return copy;
+	}
+
+	/**
+	 * Writes the samples in the layout of session format 3 (count followed by
+	 * pulse, power and pedal rpm as int per record).
+	 *
+	 * @param out output stream
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void toStream(DataOutputStream out) throws IOException {
+		out.writeInt(size);
+		for (int i = 0; i < size; i++) {
+			out.writeInt(pulse[i]);
+			out.writeInt(power[i]);
+			out.writeInt(pedalRpm[i]);
+		}
+	}
+
+	/**
+	 * Reads count samples in the layout written by {@link #toStream(DataOutputStream)}
+	 * (without the leading count) and appends them.
+	 *
+	 * @param in input stream
+	 * @param count number of samples to read
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void fromStream(DataInputStream in, int count) throws IOException {
+		if (size + count > pulse.length) {
+			grow(size + count);
+		}
+		for (int i = 0; i < count; i++) {
+			pulse[size] = (short) in.readInt();
+			power[size] = (short) in.readInt();
+			pedalRpm[size] = (short) in.readInt();
+			size++;
+		}
+	}
+
+	/**
+	 * Returns a read-only list view of the samples as MiniDataRecords.
+	 * Each access allocates a new record, so use it only where a list is required
+	 * (e.g. velocity templates).
+	 *
+	 * @return read-only list view
+	 */
+	public List<MiniDataRecord> asRecordList() {
+		return new AbstractList<MiniDataRecord>() {
+			public MiniDataRecord get(int index) {
+				return getRecord(index);
+			}
+
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * Returns the approximate number of heap bytes used by the sample arrays.
+	 *
+	 * @return number of bytes
+	 */
+	public long getHeapBytes() {
+		return 3L * 2 * pulse.length;
+	}
+
+// SessionSamples
+
+	public int size() {
+		return size;
+	}
+
+	public int getPulse(int second) {
+		checkIndex(second);
+		return pulse[second];
+	}
+
+	public int getPower(int second) {
+		checkIndex(second);
+		return power[second];
+	}
+
+	public int getPedalRpm(int second) {
+		checkIndex(second);
+		return pedalRpm[second];
+	}
+
+	public MiniDataRecord getRecord(int second) {
+		checkIndex(second);
+		return new MiniDataRecord(pulse[second], power[second], pedalRpm[second]);
+	}
+
+	private void checkIndex(int second) {
+		if (second >= size) {
+			throw new IndexOutOfBoundsException("Index: " + second + ", Size: " + size);
+		}
+	}
+}
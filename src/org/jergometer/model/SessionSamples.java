@@ -0,0 +1,30 @@
+package org.jergometer.model;
+
+/**
+ * Read-only view of the per-second samples of a bike session.
+ *
+ * @see SessionSampleColumns
+ */
+public interface SessionSamples {
+	/**
+	 * Returns the number of samples (seconds) in this session.
+	 *
+	 * @return number of samples
+	 */
+	public int size();
+
+	public int getPulse(int second);
+
+	public int getPower(int second);
+
+	public int getPedalRpm(int second);
+
+	/**
+	 * Returns the sample of the given second as MiniDataRecord.
+	 * This allocates a new record and exists only for compatibility.
+	 *
+	 * @param second second of the session
+	 * @return new record holding the sample
+	 */
+	public MiniDataRecord getRecord(int second);
+}
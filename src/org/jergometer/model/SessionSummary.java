@@ -0,0 +1,261 @@
+package org.jergometer.model;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Derived metrics of a bike session used by the session table and the progression view.
+ * <p>
+ * The metrics derived from the samples (maximal pulse, normalized power, work and time in
+ * the pulse zones) are computed once when the session is saved or migrated and are stored
+ * in the session index.  The averages are derived from the mini info.  The display texts
+ * are formatted on every call; the {@link SessionTableModel} keeps them for the visible rows.
+ * A summary created from the mini info only is not {@link #isComplete() complete}.
+ */
+public class SessionSummary {
+	/** Lower bounds (bpm) of the pulse zones 2 to 5; zone 1 is everything below. */
+	public static final int[] PULSE_ZONE_BOUNDS = {100, 120, 140, 160};
+	/** Length of the rolling average for the normalized power in seconds. */
+	private static final int NORMALIZED_POWER_WINDOW = 30;
+
+	// derived from the samples (persisted)
+	private final boolean complete;
+	private final int maxPulse;
+	private final int normalizedPower;
+	private final long work;
+	private final int[] pulseZoneSeconds;
+
+	// derived from the mini info
+	private final Date startTime;
+	private final boolean pulseKnown;
+	private final double averagePulse;
+	private final double averagePower;
+	private final double averagePedalRpm;
+	private final int durationRegular;
+	private final int durationTotal;
+
+	private SessionSummary(BikeSession session, boolean complete, int maxPulse, int normalizedPower, long work, int[] pulseZoneSeconds) {
+		this.complete = complete;
+		this.maxPulse = maxPulse;
+		this.normalizedPower = normalizedPower;
+		this.work = work;
+		this.pulseZoneSeconds = pulseZoneSeconds;
+
+		StatsRecord stats = session.getStatsRegular();
+		startTime = session.getStartTime();
+		pulseKnown = stats.getPulseCount() != 0;
+		averagePulse = stats.getAveragePulse();
+		averagePower = stats.getAveragePower();
+		averagePedalRpm = stats.getAveragePedalRPM();
+		durationRegular = Math.min(session.getDuration(), session.getProgramDuration());
+		durationTotal = session.getStatsTotal().getDuration();
+	}
+
+	/**
+	 * Creates a summary from the mini info of the session only.
+	 *
+	 * @param session session
+	 * @return incomplete summary
+	 */
+	static SessionSummary fromMiniInfo(BikeSession session) {
+		return new SessionSummary(session, false, 0, 0, 0, new int[PULSE_ZONE_BOUNDS.length + 1]);
+	}
+
+	/**
+	 * Computes the summary of a session from its samples.
+	 *
+	 * @param session session
+	 * @param samples samples of the session
+	 * @return complete summary
+	 */
+	static SessionSummary compute(BikeSession session, SessionSamples samples) {
+		int size = samples.size();
+		int maxPulse = 0;
+		long work = 0;
+		int[] pulseZoneSeconds = new int[PULSE_ZONE_BOUNDS.length + 1];
+
+		// normalized power: 4th root of the mean of the 4th powers of the rolling average
+		long windowSum = 0;
+		double sum4 = 0;
+		int windows = 0;
+
+		for (int i = 0; i < size; i++) {
+			int pulse = samples.getPulse(i);
+			int power = samples.getPower(i);
+
+			if (pulse > 0) {
+				maxPulse = Math.max(maxPulse, pulse);
+				int zone = 0;
+				while (zone < PULSE_ZONE_BOUNDS.length && pulse >= PULSE_ZONE_BOUNDS[zone]) {
+					zone++;
+				}
+				pulseZoneSeconds[zone]++;
+			}
+			work += power;
+
+			windowSum += power;
+			if (i >= NORMALIZED_POWER_WINDOW) {
+				windowSum -= samples.getPower(i - NORMALIZED_POWER_WINDOW);
+			}
+			if (i >= NORMALIZED_POWER_WINDOW - 1) {
+				double average = (double) windowSum / NORMALIZED_POWER_WINDOW;
+				sum4 += average * average * average * average;
+				windows++;
+			}
+		}
+
+		int normalizedPower;
+		if (windows > 0) {
+			normalizedPower = (int) Math.round(Math.pow(sum4 / windows, 0.25));
+		} else {
+			// too short for the rolling average
+			normalizedPower = size == 0 ? 0 : (int) Math.round((double) work / size);
+		}
+
+		return new SessionSummary(session, true, maxPulse, normalizedPower, work, pulseZoneSeconds);
+	}
+
+	/**
+	 * Reads the metrics derived from the samples in the layout written by {@link #toStream(DataOutputStream)}.
+	 *
+	 * @param session session the summary belongs to (mini info)
+	 * @param in input stream
+	 * @return complete summary
+	 * @throws IOException if an I/O error occurs
+	 */
+	static SessionSummary fromStream(BikeSession session, DataInputStream in) throws IOException {
+		int maxPulse = in.readInt();
+		int normalizedPower = in.readInt();
+		long work = in.readLong();
+		int zones = in.readByte();
+		int[] pulseZoneSeconds = new int[PULSE_ZONE_BOUNDS.length + 1];
+		for (int zone = 0; zone < zones; zone++) {
+			int seconds = in.readInt();
+			// zones of another layout are merged into the highest zone
+			pulseZoneSeconds[Math.min(zone, pulseZoneSeconds.length - 1)] += seconds;
+		}
+		return new SessionSummary(session, true, maxPulse, normalizedPower, work, pulseZoneSeconds);
+	}
+
+	/**
+	 * Skips the metrics written by {@link #toStream(DataOutputStream)}.
+	 *
+	 * @param in input stream
+	 * @throws IOException if an I/O error occurs
+	 */
+	static void skipStream(DataInputStream in) throws IOException {
+		in.readInt();
+		in.readInt();
+		in.readLong();
+		int zones = in.readByte();
+		for (int zone = 0; zone < zones; zone++) {
+			in.readInt();
+		}
+	}
+
+	/**
+	 * Writes the metrics derived from the samples.
+	 *
+	 * @param out output stream
+	 * @throws IOException if an I/O error occurs
+	 */
+	void toStream(DataOutputStream out) throws IOException {
+		out.writeInt(maxPulse);
+		out.writeInt(normalizedPower);
+		out.writeLong(work);
+		out.writeByte(pulseZoneSeconds.length);
+		for (int seconds : pulseZoneSeconds) {
+			out.writeInt(seconds);
+		}
+	}
+
+	/**
+	 * Returns true if the metrics derived from the samples are available.
+	 *
+	 * @return true if the summary has been computed from the samples
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	public boolean isPulseKnown() {
+		return pulseKnown;
+	}
+
+	/**
+	 * Returns the average pulse in the regular training time.
+	 *
+	 * @return average pulse (NaN if the pulse is unknown)
+	 */
+	public double getAveragePulse() {
+		return averagePulse;
+	}
+
+	public double getAveragePower() {
+		return averagePower;
+	}
+
+	public double getAveragePedalRpm() {
+		return averagePedalRpm;
+	}
+
+	/**
+	 * Returns the maximal pulse of the session.
+	 *
+	 * @return maximal pulse or 0 if unknown
+	 */
+	public int getMaxPulse() {
+		return maxPulse;
+	}
+
+	/**
+	 * Returns the normalized power of the session (4th root of the mean of the 4th powers
+	 * of the 30 s rolling average of the power).
+	 *
+	 * @return normalized power in watts
+	 */
+	public int getNormalizedPower() {
+		return normalizedPower;
+	}
+
+	/**
+	 * Returns the work done in the session.
+	 *
+	 * @return work in kJ
+	 */
+	public double getWork() {
+		return work / 1000.0;
+	}
+
+	/**
+	 * Returns the seconds spent in the given pulse zone.
+	 *
+	 * @param zone zone (0 to {@link #PULSE_ZONE_BOUNDS}.length)
+	 * @return seconds in the zone
+	 */
+	public int getPulseZoneSeconds(int zone) {
+		return pulseZoneSeconds[zone];
+	}
+
+	public String getDateText() {
+		return String.format("%1$td.%1$tm.%1$ty %1$tH:%1$tM", startTime);
+	}
+
+	public String getPulseText() {
+		return String.format("%.1f", averagePulse);
+	}
+
+	public String getPowerText() {
+		return String.format("%.1f", averagePower);
+	}
+
+	public String getDurationText() {
+		if (durationRegular == durationTotal) {
+			return SessionTableModel.formatTime(durationRegular, true);
+		} else {
+			return SessionTableModel.formatTime(durationRegular, true) + " +" + SessionTableModel.formatTime(durationTotal - durationRegular, false);
+		}
+	}
+}
@@ -3,16 +3,32 @@ package org.jergometer.model;
 import org.jergometer.translation.I18n;
 
 import javax.swing.table.AbstractTableModel;
-import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * TabelModel for the session table.
+ * <p>
+ * The rows are read from a list of sessions which is usually a live view of the
+ * {@link SessionCatalog}, so the model does not copy the sessions.  The texts of the cells
+ * are formatted when a row is painted and kept for the most recently painted rows only.
  */
 public class SessionTableModel extends AbstractTableModel {
+	/** Maximal number of rows whose cell texts are kept. */
+	private static final int ROW_CACHE_SIZE = 512;
+
 	private String[] columnNames = new String[]{ I18n.getString("property.date"), I18n.getString("property.program"), I18n.getString("property.pulse"), I18n.getString("property.power"), I18n.getString("property.duration") };
-	private ArrayList<BikeSession> sessions;
+	private List<BikeSession> sessions;
+	/** Cell texts of the recently painted rows (least recently used first). */
+	private LinkedHashMap<BikeSession, String[]> rowCache = new LinkedHashMap<BikeSession, String[]>(64, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<BikeSession, String[]> eldest) {
+			return size() > ROW_CACHE_SIZE;
+		}
+	};
 
-	public SessionTableModel(ArrayList<BikeSession> sessions) {
+	public SessionTableModel(List<BikeSession> sessions) {
 		this.sessions = sessions;
 	}
 
@@ -24,26 +40,13 @@ public class SessionTableModel extends AbstractTableModel {
 
 	public Object getValueAt(int row, int col) {
 		BikeSession bikeSession = sessions.get(row);
-
-		switch(col) {
-			case 0: return String.format("%1$td.%1$tm.%1$ty %1$tH:%1$tM", bikeSession.getStartTime());
-			case 1: return bikeSession.getProgramName();
-			case 2: return String.format("%.1f", bikeSession.getStatsRegular().getAveragePulse());
-			case 3: return String.format("%.1f", bikeSession.getStatsRegular().getAveragePower());
-			case 4:
-				int durationRegular = Math.min(bikeSession.getDuration(), bikeSession.getProgramDuration());
-				int durationTotal = bikeSession.getStatsTotal().getDuration();
-				return formatTime(durationRegular, durationTotal);
-			default: return "";
-		}
-	}
-
-	private String formatTime(int durationRegular, int durationTotal) {
-		if (durationRegular == durationTotal) {
-			return formatTime(durationRegular, true);
-		} else {
-			return formatTime(durationRegular, true) + " +" + formatTime(durationTotal-durationRegular, false);
+		String[] texts = rowCache.get(bikeSession);
+		if (texts == null) {
+			SessionSummary summary = bikeSession.getSummary();
+			texts = new String[] { summary.getDateText(), bikeSession.getProgramName(), summary.getPulseText(), summary.getPowerText(), summary.getDurationText() };
+			rowCache.put(bikeSession, texts);
 		}
+		return col < texts.length ? texts[col] : "";
 	}
 
 	public static String formatTime(int duration, boolean full) {
@@ -62,4 +65,50 @@ public class SessionTableModel extends AbstractTableModel {
 	public BikeSession getSessionAtRow(int row) {
 		return sessions.get(row);
 	}
+
+	/**
+	 * Replaces all sessions of the table.
+	 *
+	 * @param sessions sessions sorted by start time
+	 */
+	public void setSessions(List<BikeSession> sessions) {
+		this.sessions = sessions;
+		rowCache.clear();
+		fireTableDataChanged();
+	}
+
+	/**
+	 * Returns the row of a session.
+	 *
+	 * @param session session
+	 * @return row or -1 if the session is not shown
+	 */
+	public int getRow(BikeSession session) {
+		return sessions.indexOf(session);
+	}
+
+	/**
+	 * Notifies the table that a session has been added to the list of sessions.
+	 *
+	 * @param session new session
+	 */
+	public void sessionAdded(BikeSession session) {
+		int row = sessions.indexOf(session);
+		if (row >= 0) {
+			fireTableRowsInserted(row, row);
+		}
+	}
+
+	/**
+	 * Notifies the table that a session has been removed from the list of sessions.
+	 *
+	 * @param session removed session
+	 * @param row row of the session before it has been removed (see {@link #getRow(BikeSession)})
+	 */
+	public void sessionRemoved(BikeSession session, int row) {
+		rowCache.remove(session);
+		if (row >= 0) {
+			fireTableRowsDeleted(row, row);
+		}
+	}
 }
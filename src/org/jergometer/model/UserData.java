@@ -1,6 +1,5 @@
 package org.jergometer.model;
 
-import de.endrullis.utils.StreamUtils;
 import de.endrullis.xml.XMLDocument;
 import de.endrullis.xml.XMLElement;
 import de.endrullis.xml.XMLParser;
@@ -9,103 +8,169 @@ import org.jergometer.control.BikeProgram;
 
 import javax.swing.*;
 import java.io.*;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Date;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * User data.
  */
 public class UserData {
 	private String userName;
-	private ArrayList<BikeSession> sessions = new ArrayList<BikeSession>();
+	private SessionList sessions;
 	private ProgressMonitor progressMonitor;
+	private SessionIndex sessionIndex;
+	/** Aggregates of the sessions or null if they have to be built again. */
+	private SessionRollup rollup = null;
+	/** Indexes of the sessions or null if they have to be built again. */
+	private SessionCatalog catalog = null;
+	/** Session files that could not be parsed during the last {@link #generate()}. */
+	private LinkedHashMap<File, IOException> generateErrors = new LinkedHashMap<File, IOException>();
 
 	public UserData(String userName, BikeProgramTree programTree) {
 		this.userName = userName;
+		this.sessionIndex = new SessionIndex(new File(getUserDirName() + "/sessions.idx"));
 
 		// load sessions
 		load(programTree);
 	}
 
+	/**
+	 * Parses all session files of the user.  The files are parsed in parallel by a bounded
+	 * thread pool while the calling thread updates the progress monitor.  Files that
+	 * cannot be parsed are skipped and collected in {@link #getGenerateErrors()}.
+	 * If the progress monitor is canceled, the sessions parsed so far are kept.
+	 *
+	 * @throws IOException if the parsing has been interrupted
+	 */
 	public void generate() throws IOException {
-		sessions.clear();
+		// the parsed sessions replace the index when the user data is saved
+		sessions = new SessionList(getSessionsDirName());
+		rollup = null;
+		catalog = null;
+		generateErrors.clear();
 
-		File[] sessionFiles = getSessionFiles();
+		final File[] sessionFiles = getSessionFiles();
 		Arrays.sort(sessionFiles);
 		if (progressMonitor != null)
 			progressMonitor.setMaximum(sessionFiles.length);
 
-		int nr = 0;
-		for (File file : sessionFiles) {
-			sessions.add(new BikeSession(file));
-			nr++;
-			if (progressMonitor != null) {
-				progressMonitor.setProgress(nr);
-				if (progressMonitor.isCanceled()) {
-					break;
-				}
+		int threadCount = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), sessionFiles.length));
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "session parser");
+				thread.setDaemon(true);
+				return thread;
 			}
-		}
-	}
-
-	public void load(BikeProgramTree programTree) {
-		sessions.clear();
+		});
+		final AtomicBoolean canceled = new AtomicBoolean(false);
+		CompletionService<Integer> completionService = new ExecutorCompletionService<Integer>(executor);
+		final BikeSession[] parsedSessions = new BikeSession[sessionFiles.length];
+		final IOException[] errors = new IOException[sessionFiles.length];
+		ArrayList<BikeSession> parsed = new ArrayList<BikeSession>();
 
-		String sessionsDirName = JergometerSettings.jergometerUsersDirName + "/" + userName + "/sessions/";
-		File sessionsFile = new File(JergometerSettings.jergometerUsersDirName + "/" + userName + "/sessions.xml");
-		if (sessionsFile.exists()) {
-			XMLParser parser = new XMLParser();
-			try {
-				XMLDocument doc = parser.parse(StreamUtils.readXmlStream(new FileInputStream(sessionsFile)));
-				XMLElement root = doc.getRootElement();
-
-				XMLElement sessionsXml = root.getChildElement("sessions");
-
-				for (XMLElement sessionXml : sessionsXml.getChildElements()) {
-					long time = Long.parseLong(sessionXml.getAttribute("date"));
-					String programName = sessionXml.getAttribute("programName");
-					String programdurationString = sessionXml.getAttribute("programduration");
-					int programduration;
-					if (programdurationString != null) {
-						programduration = Integer.parseInt(programdurationString);
-					} else {
-						programduration = -1;
-					}
-					if (programduration == -1) {
-						// handle old session format 1 -> try to determine the program duration
-						BikeProgram program = programTree.getProgram(programName);
-						if (program != null) {
-							programduration = programTree.getProgram(programName).getProgramData().getDuration();
+		try {
+			for (int i = 0; i < sessionFiles.length; i++) {
+				final int index = i;
+				completionService.submit(new Callable<Integer>() {
+					public Integer call() {
+						if (canceled.get()) return index;
+						try {
+							BikeSession session = new BikeSession(sessionFiles[index]);
+							// the samples are in memory now -> derive the metrics for the session index
+							session.updateSummary();
+							parsedSessions[index] = session;
+						} catch (IOException e) {
+							errors[index] = e;
+						} catch (RuntimeException e) {
+							// corrupted files may lead to arbitrary runtime exceptions
+							IOException ioException = new IOException("Session file corrupted: " + e);
+							ioException.initCause(e);
+							errors[index] = ioException;
 						}
+						return index;
 					}
+				});
+			}
 
-					StatsRecord statsRegular, statsTotal;
-					XMLElement statsRegularXml = sessionXml.getChildElement("statsRegular");
-					if (statsRegularXml != null) {
-						statsRegular = new StatsRecord(statsRegularXml);
-					} else {
-						int duration = Integer.parseInt(sessionXml.getAttribute("duration"));
-						int sumPulse = Integer.parseInt(sessionXml.getAttribute("sumPulse"));
-						int sumPower = Integer.parseInt(sessionXml.getAttribute("sumPower"));
-						int sumPedalRpm = Integer.parseInt(sessionXml.getAttribute("sumPedalRpm"));
-						int pulseCount = Integer.parseInt(sessionXml.getAttribute("pulseCount"));
-						statsRegular = new StatsRecord(sumPulse, sumPower, sumPedalRpm, duration, pulseCount);
+			int nr = 0;
+			while (nr < sessionFiles.length) {
+				Future<Integer> future = completionService.poll(100, TimeUnit.MILLISECONDS);
+				if (future != null) {
+					nr++;
+					// only results of completed tasks are taken (Future.get() makes them visible)
+					int index = future.get();
+					if (parsedSessions[index] != null) {
+						parsed.add(parsedSessions[index]);
+					} else if (errors[index] != null) {
+						generateErrors.put(sessionFiles[index], errors[index]);
 					}
-
-					XMLElement statsTotalXml = sessionXml.getChildElement("statsTotal");
-					if (statsTotalXml != null) {
-						statsTotal = new StatsRecord(statsTotalXml);
-					} else {
-						statsTotal = statsRegular;
+				}
+				if (progressMonitor != null) {
+					progressMonitor.setProgress(nr);
+					if (progressMonitor.isCanceled()) {
+						canceled.set(true);
+						break;
 					}
-
-					sessions.add(new BikeSession(sessionsDirName, new Date(time), programName, programduration,
-							statsRegular, statsTotal));
 				}
+			}
+		} catch (InterruptedException e) {
+			canceled.set(true);
+			throw new IOException("Parsing of the session files has been interrupted.");
+		} catch (ExecutionException e) {
+			// cannot happen since the tasks catch their exceptions
+			throw new RuntimeException(e);
+		} finally {
+			executor.shutdownNow();
+		}
 
-			} catch (Exception ignored) {
+		// tasks complete in arbitrary order
+		Collections.sort(parsed, new Comparator<BikeSession>() {
+			public int compare(BikeSession s1, BikeSession s2) {
+				return s1.getStartTime().compareTo(s2.getStartTime());
 			}
+		});
+		for (BikeSession session : parsed) {
+			sessions.addSession(session);
+		}
+	}
+
+	private String getUserDirName() {
+		return JergometerSettings.jergometerUsersDirName + "/" + userName;
+	}
+
+	private String getSessionsDirName() {
+		return getUserDirName() + "/sessions/";
+	}
+
+	/**
+	 * Loads the sessions from the session index.  If there is no index yet, the sessions are
+	 * imported from the old sessions.xml or generated from the session files.
+	 *
+	 * @param programTree program tree (used to determine program durations of very old sessions)
+	 */
+	public void load(BikeProgramTree programTree) {
+		rollup = null;
+		catalog = null;
+
+		String sessionsDirName = getSessionsDirName();
+		if (sessionIndex.exists()) {
+			try {
+				sessions = sessionIndex.load(sessionsDirName);
+				completeSummaries();
+				sessions.compactIndexIfNeeded();
+				return;
+			} catch (IOException e) {
+				// fall back to sessions.xml or the session files
+				e.printStackTrace();
+			}
+		}
+		sessions = new SessionList(sessionsDirName);
+
+		File sessionsFile = new File(getUserDirName() + "/sessions.xml");
+		if (sessionsFile.exists() && importXml(sessionsFile, sessionsDirName, programTree)) {
+			completeSummaries();
+			save();
 		} else {
 			try {
 				generate();
@@ -116,8 +181,94 @@ public class UserData {
 		}
 	}
 
+	/**
+	 * Computes the derived metrics of the sessions which have none yet (e.g. after the
+	 * session index has been migrated) and stores them in the session index.  Sessions
+	 * whose files cannot be read are skipped.
+	 */
+	private void completeSummaries() {
+		List<SessionList.Row> rows = sessions.getRows();
+		for (int i = 0; i < rows.size(); i++) {
+			if (rows.get(i).summary) continue;
+			BikeSession session = sessions.get(i);
+			try {
+				session.updateSummary();
+				sessions.addSession(session);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Imports the sessions from a sessions.xml (used before the session index has been introduced).
+	 *
+	 * @param sessionsFile sessions.xml
+	 * @param sessionsDirName directory where the session files are stored (including trailing "/")
+	 * @param programTree program tree (used to determine program durations of very old sessions)
+	 * @return true if the import was successful
+	 */
+	private boolean importXml(File sessionsFile, String sessionsDirName, BikeProgramTree programTree) {
+		XMLParser parser = new XMLParser();
+		try {
+			XMLDocument doc = parser.parse(sessionsFile);
+			XMLElement root = doc.getRootElement();
+
+			XMLElement sessionsXml = root.getChildElement("sessions");
+
+			for (XMLElement sessionXml : sessionsXml.getChildElements()) {
+				long time = Long.parseLong(sessionXml.getAttribute("date"));
+				String programName = sessionXml.getAttribute("programName");
+				String programdurationString = sessionXml.getAttribute("programduration");
+				int programduration;
+				if (programdurationString != null) {
+					programduration = Integer.parseInt(programdurationString);
+				} else {
+					programduration = -1;
+				}
+				if (programduration == -1) {
+					// handle old session format 1 -> try to determine the program duration
+					BikeProgram program = programTree.getProgram(programName);
+					if (program != null) {
+						programduration = programTree.getProgram(programName).getProgramData().getDuration();
+					}
+				}
+
+				StatsRecord statsRegular, statsTotal;
+				XMLElement statsRegularXml = sessionXml.getChildElement("statsRegular");
+				if (statsRegularXml != null) {
+					statsRegular = new StatsRecord(statsRegularXml);
+				} else {
+					int duration = Integer.parseInt(sessionXml.getAttribute("duration"));
+					int sumPulse = Integer.parseInt(sessionXml.getAttribute("sumPulse"));
+					int sumPower = Integer.parseInt(sessionXml.getAttribute("sumPower"));
+					int sumPedalRpm = Integer.parseInt(sessionXml.getAttribute("sumPedalRpm"));
+					int pulseCount = Integer.parseInt(sessionXml.getAttribute("pulseCount"));
+					statsRegular = new StatsRecord(sumPulse, sumPower, sumPedalRpm, duration, pulseCount);
+				}
+
+				XMLElement statsTotalXml = sessionXml.getChildElement("statsTotal");
+				if (statsTotalXml != null) {
+					statsTotal = new StatsRecord(statsTotalXml);
+				} else {
+					statsTotal = statsRegular;
+				}
+
+				sessions.addSession(new BikeSession(sessionsDirName, new Date(time), programName, programduration,
+						statsRegular, statsTotal));
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			sessions = new SessionList(sessionsDirName);
+			return false;
+		}
+
+		return true;
+	}
+
 	private File[] getSessionFiles() {
-		File sessionsDir = new File(JergometerSettings.jergometerUsersDirName + "/" + userName + "/sessions");
+		File sessionsDir = new File(getUserDirName() + "/sessions");
 		if (sessionsDir.exists() && sessionsDir.isDirectory()) {
 			File[] files = sessionsDir.listFiles(new FileFilter(){
 				public boolean accept(File pathname) {
@@ -131,7 +282,62 @@ public class UserData {
 		}
 	}
 
+	/**
+	 * Rewrites the session index with all sessions.  Afterwards the sessions are read from the index.
+	 */
 	public void save() {
+		try {
+			sessionIndex.write(sessions);
+			// the mini infos of the sessions may have changed
+			rollup = null;
+			catalog = null;
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Adds a new session and appends it to the session index.
+	 *
+	 * @param session new session
+	 * @throws IOException if the session index could not be updated
+	 */
+	public void addSession(BikeSession session) throws IOException {
+		sessions.addSession(session);
+		if (rollup != null) {
+			rollup.add(session);
+		}
+		if (catalog != null) {
+			catalog.add(session);
+		}
+		sessions.compactIndexIfNeeded();
+	}
+
+	/**
+	 * Removes a session and appends the deletion to the session index.
+	 *
+	 * @param session session to remove
+	 * @throws IOException if the session index could not be updated
+	 */
+	public void removeSession(BikeSession session) throws IOException {
+		if (sessions.removeSession(session)) {
+			if (rollup != null) {
+				rollup.remove(session);
+			}
+			if (catalog != null) {
+				catalog.remove(session);
+			}
+			sessions.compactIndexIfNeeded();
+		}
+	}
+
+	/**
+	 * Exports the mini info of all sessions as XML (format of the old sessions.xml).
+	 *
+	 * @param xmlFile destination file
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void exportXml(File xmlFile) throws IOException {
 		XMLElement root = new XMLElement("sessions");
 		root.setAttribute("version", "3");
 
@@ -159,11 +365,11 @@ public class UserData {
 		// write the document
 		XMLDocument doc = new XMLDocument();
 		doc.setRootElement(root);
+		FileWriter writer = new FileWriter(xmlFile);
 		try {
-			FileWriter writer = new FileWriter(JergometerSettings.jergometerUsersDirName + "/" + userName + "/sessions.xml");
 			writer.write(doc.toString());
+		} finally {
 			writer.close();
-		} catch (IOException ignored) {
 		}
 	}
 
@@ -174,10 +380,51 @@ public class UserData {
 		return userName;
 	}
 
-	public ArrayList<BikeSession> getSessions() {
+	/**
+	 * Returns the sessions sorted by start time.  They are read from the session index on demand.
+	 *
+	 * @return sessions
+	 */
+	public SessionList getSessions() {
 		return sessions;
 	}
 
+	/**
+	 * Returns the indexes of the sessions used for filtering.  They are built on first use
+	 * and updated when sessions are added or removed.
+	 *
+	 * @return session catalog
+	 */
+	public SessionCatalog getCatalog() {
+		if (catalog == null) {
+			catalog = new SessionCatalog(sessions);
+		}
+		return catalog;
+	}
+
+	/**
+	 * Returns the daily, weekly and monthly aggregates of the sessions.  They are built on
+	 * first use and updated when sessions are added or removed.
+	 *
+	 * @return session rollup
+	 */
+	public SessionRollup getRollup() {
+		if (rollup == null) {
+			rollup = new SessionRollup(sessions);
+		}
+		return rollup;
+	}
+
+	/**
+	 * Returns the session files that could not be parsed during the last {@link #generate()}
+	 * together with the corresponding errors.
+	 *
+	 * @return map from session file to error
+	 */
+	public Map<File, IOException> getGenerateErrors() {
+		return generateErrors;
+	}
+
 	public ProgressMonitor getProgressMonitor() {
 		return progressMonitor;
 	}
@@ -0,0 +1,59 @@
+package de.endrullis.xml;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Tests for the XML parser.
+ */
+public class XMLParserTest extends TestCase{
+  public void testTree() throws XMLException{
+    XMLDocument doc = new XMLParser().parse(
+        "<?xml version=\"1.1\" encoding=\"ISO-8859-1\"?>\n" +
+        "<!DOCTYPE program [ <!ELEMENT program ANY> ]>\n" +
+        "<!-- comment with <tags> -->\n" +
+        "<program name='test' version=\"2\">\n" +
+        "  <description>first\nline <!-- hidden --> </description>\n" +
+        "  <sessions>\n" +
+        "    <session date=\"1\" programName=\"a > b\"/>\n" +
+        "    <session\tdate=\"2\" />\n" +
+        "  </SESSIONS>\n" +
+        "</program>\n");
+
+    assertEquals("1.1", doc.getXMLVersion());
+    assertEquals("ISO-8859-1", doc.getXMLEncoding());
+    XMLElement root = doc.getRootElement();
+    assertEquals("program", root.getName());
+    assertEquals("test", root.getAttribute("name"));
+    assertEquals("first line", root.getChildElement("description").getText());
+    XMLElement sessions = root.getChildElement("sessions");
+    assertEquals(2, sessions.getChildElements().size());
+    assertEquals("a > b", sessions.getChildElements().get(0).getAttribute("programName"));
+    assertEquals("2", sessions.getChildElements().get(1).getAttribute("date"));
+  }
+
+  public void testEncoding() throws XMLException, IOException{
+    byte[] bytes = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><a b=\"ä\"/>".getBytes("ISO-8859-1");
+    XMLDocument doc = new XMLParser().parse(new ByteArrayInputStream(bytes));
+    assertEquals("ä", doc.getRootElement().getAttribute("b"));
+  }
+
+  public void testErrors(){
+    assertError("<a>text<b/></a>");
+    assertError("<a><b/>text</a>");
+    assertError("<a></b>");
+    assertError("<a/><b/>");
+    assertError("<a b=c/>");
+    assertError("<a/>text");
+  }
+
+  private void assertError(String xml){
+    try{
+      new XMLParser().parse(xml);
+      fail("XMLException expected for " + xml);
+    } catch(XMLException expected){
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package org.jergometer;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+
+/**
+ * Test case with a temporary directory which is deleted with its content after every test.
+ */
+public abstract class TempDirTestCase extends TestCase {
+	/** Temporary directory of the test. */
+	protected File dir;
+
+	protected void setUp() throws Exception {
+		dir = File.createTempFile("jergometer", "test");
+		dir.delete();
+		dir.mkdirs();
+	}
+
+	protected void tearDown() throws Exception {
+		delete(dir);
+	}
+
+	/**
+	 * Deletes a file or a directory with its content.
+	 *
+	 * @param file file or directory
+	 */
+	protected static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,134 @@
+package org.jergometer.communication;
+
+import gnu.io.UnsupportedCommOperationException;
+import junit.framework.TestCase;
+import org.jergometer.model.DataRecord;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Tests for the command scheduler.
+ */
+public class BikeCommandSchedulerTest extends TestCase {
+	/** Bike answering every command immediately. */
+	private static class FakeBikeConnector implements BikeConnector {
+		private BikeListener listener;
+		private final ArrayList<String> commands = new ArrayList<String>();
+		private int power = 0;
+		private int second = 0;
+
+		public void connect(String serialName, BikeListener listener) throws BikeException, UnsupportedCommOperationException, IOException {
+			this.listener = listener;
+		}
+
+		public void sendHello() {
+			commands.add("CM");
+			listener.bikeAck();
+		}
+
+		public void sendReset() {
+			commands.add("RS");
+			listener.bikeAck();
+		}
+
+		public void sendGetId() {
+		}
+
+		public void sendGetData() {
+			synchronized (commands) {
+				commands.add(power != 0 ? "PW " + power : "ST");
+			}
+			listener.bikeData(new DataRecord(100, 80, 30, second, power, second, "" + second++, power));
+		}
+
+		public void sendSetPower(int power) {
+			this.power = power;
+		}
+
+		public void close() {
+		}
+
+		public String getName() {
+			return "fake";
+		}
+	}
+
+	private static class Receiver implements BikeListener {
+		private int acks = 0;
+		private int data = 0;
+
+		public synchronized void bikeAck() {
+			acks++;
+		}
+
+		public synchronized void bikeData(DataRecord data) {
+			this.data++;
+			notifyAll();
+		}
+
+		public void bikeError() {
+		}
+
+		public void bikeDestPowerChanged(int change) {
+		}
+
+		private synchronized void waitForData(int count) throws InterruptedException {
+			long end = System.currentTimeMillis() + 5000;
+			while (data < count && System.currentTimeMillis() < end) {
+				wait(100);
+			}
+		}
+	}
+
+	public void testHandshakeAndPolling() throws Exception {
+		FakeBikeConnector bike = new FakeBikeConnector();
+		Receiver receiver = new Receiver();
+		BikeCommandScheduler scheduler = new BikeCommandScheduler(bike, receiver, 1, 10);
+		bike.connect("fake", scheduler);
+
+		scheduler.setPower(100);
+		scheduler.setPower(120);
+		scheduler.start();
+		receiver.waitForData(5);
+		scheduler.stop();
+
+		assertTrue(receiver.data >= 5);
+		assertEquals(2, receiver.acks);
+		assertEquals("RS", bike.commands.get(0));
+		assertEquals("CM", bike.commands.get(1));
+		// only the latest power is sent
+		assertEquals("PW 120", bike.commands.get(2));
+		assertFalse(bike.commands.contains("PW 100"));
+
+		assertEquals(1, scheduler.getSetpointLatencyHistogram().getCount());
+		assertTrue(scheduler.getRoundTripHistogram().getCount() >= 5);
+		assertTrue(scheduler.getSamplingRate() > 0);
+		assertEquals(0, scheduler.getTimeouts());
+		// the handshake does not wait for a fixed time
+		assertTrue(scheduler.getConnectTime() >= 0);
+		assertTrue(scheduler.getConnectTime() < 1000);
+	}
+
+	public void testHelloRetry() throws Exception {
+		// bike ignores the first two hello commands (not ready after the reset)
+		FakeBikeConnector bike = new FakeBikeConnector() {
+			private int hellos = 0;
+
+			public void sendHello() {
+				if (++hellos > 2) super.sendHello();
+			}
+		};
+		Receiver receiver = new Receiver();
+		BikeCommandScheduler scheduler = new BikeCommandScheduler(bike, receiver, 1, 10);
+		bike.connect("fake", scheduler);
+
+		scheduler.start();
+		receiver.waitForData(1);
+		scheduler.stop();
+
+		assertTrue(receiver.data >= 1);
+		// hello retried after 100 and 200 ms
+		assertTrue(scheduler.getConnectTime() >= 300);
+	}
+}
@@ -0,0 +1,53 @@
+package org.jergometer.communication;
+
+import junit.framework.TestCase;
+import org.jergometer.model.DataRecord;
+
+/**
+ * Tests for the decoder of the Kettler status frames.
+ */
+public class KettlerFrameDecoderTest extends TestCase {
+	private KettlerFrameDecoder decoder = new KettlerFrameDecoder();
+
+	private boolean decode(String frame, DataRecord record) {
+		byte[] bytes = ("xx" + frame + "yy").getBytes();
+		return decoder.decode(bytes, 2, bytes.length - 4, record);
+	}
+
+	public void testDecode() {
+		String frame = "112\t75\t259\t43\t120\t37\t12:34\t118";
+		DataRecord record = new DataRecord();
+		assertTrue(decode(frame, record));
+
+		DataRecord expected = new DataRecord(frame);
+		assertEquals(expected.getPulse(), record.getPulse());
+		assertEquals(expected.getPedalRpm(), record.getPedalRpm());
+		assertEquals(expected.getSpeed(), record.getSpeed());
+		assertEquals(expected.getDistance(), record.getDistance());
+		assertEquals(expected.getDestPower(), record.getDestPower());
+		assertEquals(expected.getEnergy(), record.getEnergy());
+		assertEquals(expected.getRealPower(), record.getRealPower());
+		assertEquals(12 * 60 + 34, record.getTimeSeconds());
+		assertEquals("12:34", record.getTime());
+		assertTrue(record.sameTime(expected));
+
+		assertTrue(decode(frame + "\t99", record));
+	}
+
+	public void testErrors() {
+		DataRecord record = new DataRecord();
+		assertFalse(decode("112\t75\t259\t43\t120\t37\t12:34", record));
+		assertEquals(KettlerFrameDecoder.Error.missingField, decoder.getError());
+		assertEquals(7, decoder.getErrorField());
+
+		assertFalse(decode("112\t7x\t259\t43\t120\t37\t12:34\t118", record));
+		assertEquals(KettlerFrameDecoder.Error.invalidNumber, decoder.getError());
+		assertEquals(1, decoder.getErrorField());
+
+		assertFalse(decode("112\t75\t259\t43\t120\t37\t12-34\t118", record));
+		assertEquals(KettlerFrameDecoder.Error.invalidTime, decoder.getError());
+
+		assertFalse(decode("", record));
+		assertEquals(0, record.getPulse());
+	}
+}
@@ -0,0 +1,57 @@
+package org.jergometer.communication;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+/**
+ * Tests for the framing of the bike messages.
+ */
+public class LineFramerTest extends TestCase {
+	/** Stream returning the data in chunks of the given size. */
+	private static class ChunkedInputStream extends ByteArrayInputStream {
+		private int chunkSize;
+
+		private ChunkedInputStream(String data, int chunkSize) {
+			super(data.getBytes());
+			this.chunkSize = chunkSize;
+		}
+
+		public synchronized int read(byte[] b, int off, int len) {
+			return super.read(b, off, Math.min(len, chunkSize));
+		}
+	}
+
+	private ArrayList<String> readFrames(InputStream in, int capacity) throws IOException {
+		final ArrayList<String> frames = new ArrayList<String>();
+		LineFramer framer = new LineFramer(capacity);
+		while (framer.readFrom(in, new LineFramer.FrameHandler() {
+			public void frame(byte[] buffer, int offset, int length, long arrivalNanos) {
+				frames.add(new String(buffer, offset, length));
+			}
+		})) {
+			// read until the end of the stream
+		}
+		return frames;
+	}
+
+	public void testFraming() throws IOException {
+		String data = "ACK\r\n100\t80\t30\t01:05\r\nRUN\n\nERROR\rincomplete";
+		for (int chunkSize = 1; chunkSize <= data.length(); chunkSize++) {
+			ArrayList<String> frames = readFrames(new ChunkedInputStream(data, chunkSize), 64);
+			assertEquals(4, frames.size());
+			assertEquals("ACK", frames.get(0));
+			assertEquals("100\t80\t30\t01:05", frames.get(1));
+			assertEquals("RUN", frames.get(2));
+			assertEquals("ERROR", frames.get(3));
+		}
+	}
+
+	public void testOverflow() throws IOException {
+		ArrayList<String> frames = readFrames(new ChunkedInputStream("0123456789abcdef\r\nACK\r\n", 4), 8);
+		assertEquals("ACK", frames.get(frames.size() - 1));
+	}
+}
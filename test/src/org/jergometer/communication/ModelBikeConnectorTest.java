@@ -0,0 +1,140 @@
+package org.jergometer.communication;
+
+import junit.framework.TestCase;
+import org.jergometer.control.SyntheticRider;
+import org.jergometer.model.DataRecord;
+
+import java.util.ArrayList;
+
+/**
+ * Tests for the simulated bike.
+ */
+public class ModelBikeConnectorTest extends TestCase {
+	private static class Receiver implements BikeListener {
+		private final ArrayList<DataRecord> records = new ArrayList<DataRecord>();
+
+		public void bikeAck() {
+		}
+
+		public synchronized void bikeData(DataRecord data) {
+			DataRecord copy = new DataRecord();
+			copy.copyFrom(data);
+			records.add(copy);
+			notifyAll();
+		}
+
+		public void bikeError() {
+		}
+
+		public void bikeDestPowerChanged(int change) {
+		}
+
+		private synchronized void waitForRecords(int count) throws InterruptedException {
+			long end = System.currentTimeMillis() + 5000;
+			while (records.size() < count && System.currentTimeMillis() < end) {
+				wait(100);
+			}
+		}
+	}
+
+	public void testPulseFollowsPower() throws Exception {
+		SyntheticRider.Parameters parameters = new SyntheticRider.Parameters();
+		parameters.fatigueDrift = 0;
+		ModelBikeConnector connector = new ModelBikeConnector();
+		connector.setParameters(parameters);
+		Receiver receiver = new Receiver();
+		connector.connect(null, receiver);
+
+		connector.sendSetPower(50);
+		connector.advanceTo(300);
+		double lowPulse = connector.getPulse();
+		connector.sendSetPower(200);
+		connector.advanceTo(600);
+		double highPulse = connector.getPulse();
+
+		assertEquals(parameters.restPulse + parameters.gain * 50, lowPulse, 1);
+		assertEquals(parameters.restPulse + parameters.gain * 200, highPulse, 1);
+
+		// one record per second, the measured pulse contains dropouts
+		assertEquals(600, receiver.records.size());
+		int dropouts = 0;
+		for (int i = 0; i < receiver.records.size(); i++) {
+			DataRecord record = receiver.records.get(i);
+			assertEquals(i + 1, record.getTimeSeconds());
+			if (record.getPulse() == 0) dropouts++;
+		}
+		assertTrue("dropouts: " + dropouts, dropouts < 100);
+	}
+
+	public void testMeasuredPulseLags() throws Exception {
+		SyntheticRider.Parameters parameters = new SyntheticRider.Parameters();
+		parameters.pulseLag = 10;
+		parameters.pulseNoise = 0;
+		parameters.dropoutRate = 0;
+		SyntheticRider rider = new SyntheticRider(parameters, 1);
+		DataRecord record = new DataRecord();
+		double[] pulses = new double[100];
+		for (int second = 0; second < 100; second++) {
+			rider.ride(second, 200, record);
+			pulses[second] = rider.getPulse();
+			if (second >= 10) {
+				assertEquals((int) Math.round(pulses[second - 10]), record.getPulse());
+			}
+		}
+	}
+
+	public void testSameSeedSameRide() throws Exception {
+		Receiver receiver1 = new Receiver(), receiver2 = new Receiver();
+		ModelBikeConnector connector = new ModelBikeConnector();
+		connector.setSeed(5);
+		connector.connect(null, receiver1);
+		connector.advanceTo(200);
+		connector.connect(null, receiver2);
+		connector.advanceTo(200);
+		for (int i = 0; i < 200; i++) {
+			assertEquals(receiver1.records.get(i).toString(), receiver2.records.get(i).toString());
+		}
+	}
+
+	public void testAcceleratedTimeWithScheduler() throws Exception {
+		ModelBikeConnector connector = new ModelBikeConnector();
+		connector.setTimeScale(1000);
+		Receiver receiver = new Receiver();
+		BikeCommandScheduler scheduler = new BikeCommandScheduler(connector, receiver, 1, ModelBikeConnector.getMaxPollPeriod(1000));
+		connector.connect(null, scheduler);
+		scheduler.start();
+		try {
+			receiver.waitForRecords(500);
+		} finally {
+			scheduler.stop();
+		}
+
+		// no bike second is lost although the bike time runs faster than the bike is polled
+		synchronized (receiver) {
+			assertTrue(receiver.records.size() >= 500);
+			int last = 0;
+			for (DataRecord record : receiver.records) {
+				assertTrue(record.getTimeSeconds() == last || record.getTimeSeconds() == last + 1);
+				last = record.getTimeSeconds();
+			}
+		}
+	}
+
+	public void testPowerChangeTakesEffectInNextSecond() throws Exception {
+		ModelBikeConnector connector = new ModelBikeConnector();
+		connector.setTimeScale(1000);
+		Receiver receiver = new Receiver();
+		connector.connect(null, receiver);
+		Thread.sleep(100);
+
+		// many seconds have passed, but every request rides only one of them
+		connector.sendGetData();
+		connector.sendSetPower(200);
+		connector.sendGetData();
+		assertEquals(2, receiver.records.size());
+		assertEquals(1, receiver.records.get(0).getTimeSeconds());
+		assertEquals(25, receiver.records.get(0).getDestPower());
+		assertEquals(2, receiver.records.get(1).getTimeSeconds());
+		assertEquals(200, receiver.records.get(1).getDestPower());
+	}
+}
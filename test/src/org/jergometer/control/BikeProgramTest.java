@@ -0,0 +1,83 @@
+package org.jergometer.control;
+
+import de.endrullis.xml.XMLParser;
+import junit.framework.TestCase;
+import org.jergometer.model.BikeProgramData;
+import org.jergometer.model.BikeSession;
+import org.jergometer.model.DataRecord;
+
+import java.io.File;
+
+/**
+ * Tests how a bike program follows its timeline.
+ */
+public class BikeProgramTest extends TestCase {
+	private BikeProgram createProgram() throws Exception {
+		BikeProgramData programData = new BikeProgramData(new XMLParser().parse(
+				"<program name=\"test\" duration=\"1m\"><timeEvents>" +
+				"<timeEvent time=\"0\"><action type=\"power\" value=\"80\"/></timeEvent>" +
+				"<timeEvent time=\"10\"><action type=\"power\" value=\"100\"/></timeEvent>" +
+				"<timeEvent time=\"20\"><action type=\"pulse\" value=\"130\"/></timeEvent>" +
+				"<timeEvent time=\"40\"><action type=\"power\" value=\"60\"/></timeEvent>" +
+				"</timeEvents></program>").getRootElement());
+		return new BikeProgram(new File("test.xml"), "test", programData);
+	}
+
+	private static void ride(BikeProgram program, int from, int to) {
+		for (int second = from; second < to; second++) {
+			program.update(new DataRecord(100, 60, 0, 0, program.getPower(), 0, "" + (second + 1), program.getPower()));
+		}
+	}
+
+	public void testEverySessionFollowsTheProgram() throws Exception {
+		BikeProgram program = createProgram();
+		for (int i = 0; i < 2; i++) {
+			program.newSession();
+			assertEquals(80, program.getPower());
+			ride(program, 0, 10);
+			assertEquals(100, program.getPower());
+			ride(program, 10, 45);
+			assertEquals(60, program.getPower());
+		}
+	}
+
+	public void testSeek() throws Exception {
+		BikeProgram program = createProgram();
+		program.newSession();
+		program.seek(45);
+		assertEquals(60, program.getPower());
+		program.seek(15);
+		assertEquals(100, program.getPower());
+	}
+
+	public void testResumeSession() throws Exception {
+		File dir = File.createTempFile("jergometer", "sessions");
+		dir.delete();
+		try {
+			BikeProgram program = createProgram();
+			BikeSession session = program.newSession();
+			ride(program, 0, 15);
+			session.save(dir.getPath());
+
+			// continue the saved session with a new program instance
+			program = createProgram();
+			BikeSession resumed = new BikeSession(session.getFile());
+			program.resumeSession(resumed);
+			assertSame(resumed, program.getSession());
+			assertEquals(100, program.getPower());
+			ride(program, 15, 45);
+			assertEquals(60, program.getPower());
+			assertEquals(45, resumed.getDuration());
+			assertEquals(45, resumed.getSamples().size());
+			assertEquals(20, resumed.getPulseWindow().getCount(0, 20));
+		} finally {
+			File[] files = dir.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					file.delete();
+				}
+			}
+			dir.delete();
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package org.jergometer.control;
+
+import de.endrullis.xml.XMLParser;
+import junit.framework.TestCase;
+import org.jergometer.model.BikeProgramData;
+import org.jergometer.model.PulseWindow;
+import org.jergometer.model.SessionSampleColumns;
+
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Tests the pulse controllers against heart rate models.
+ */
+public class PulseControllerTest extends TestCase {
+	private BikeProgramData loadProgram() throws Exception {
+		return new BikeProgramData(new XMLParser().parse(new File("programs/examples/pulse_130_to_140_45.xml")).getRootElement());
+	}
+
+	public void testRegistry() {
+		assertEquals(SwitcherPulseController.NAME, PulseControllers.create(PulseControllers.DEFAULT).getName());
+		assertEquals(PidPulseController.NAME, PulseControllers.create("pid").getName());
+		assertEquals(ModelPulseController.NAME, PulseControllers.create("model").getName());
+		// unknown controllers fall back to the default
+		assertEquals(PulseControllers.DEFAULT, PulseControllers.create("unknown").getName());
+	}
+
+	public void testControllersBeatSwitcher() throws Exception {
+		BikeProgramData programData = loadProgram();
+		for (double gain : new double[]{0.25, 0.6}) {
+			HeartRateModel model = new HeartRateModel(65, gain, 40);
+			model.setPulse(90);
+			PulseControllerEvaluation.Result switcher = PulseControllerEvaluation.evaluate("switcher", programData, model);
+			PulseControllerEvaluation.Result pid = PulseControllerEvaluation.evaluate("pid", programData, model);
+			PulseControllerEvaluation.Result modelResult = PulseControllerEvaluation.evaluate("model", programData, model);
+
+			assertTrue(pid + " / " + switcher, pid.getRmsError() < switcher.getRmsError());
+			assertTrue(pid.toString(), pid.getMaxOvershoot() <= 2 * PulseControllerEvaluation.SETTLING_TOLERANCE);
+			assertTrue(modelResult + " / " + switcher, modelResult.getRmsError() < switcher.getRmsError());
+		}
+	}
+
+	public void testPidHoldsPowerLimits() throws Exception {
+		// the destination pulse cannot be reached -> the power stays at the limit and
+		// recovers immediately when the destination becomes reachable (no windup)
+		PidPulseController controller = new PidPulseController();
+		PulseWindow window = new PulseWindow();
+		controller.setDestPulse(200, 100);
+		int power = 100;
+		for (int i = 0; i < 600; i++) {
+			window.add(120);
+			power = controller.update(window, 120, power);
+		}
+		assertEquals(SubProgram.MAX_POWER, power);
+
+		controller.setDestPulse(100, power);
+		for (int i = 0; i < 30; i++) {
+			window.add(120);
+			power = controller.update(window, 120, power);
+		}
+		assertTrue("power " + power, power < SubProgram.MAX_POWER / 2);
+	}
+
+	public void testFitRecoversModel() {
+		HeartRateModel rider = new HeartRateModel(60, 0.5, 30);
+		Random random = new Random(3);
+		SessionSampleColumns samples = new SessionSampleColumns();
+		int power = 100;
+		for (int second = 0; second < 1800; second++) {
+			if (second % 120 == 0) {
+				power = 50 + random.nextInt(30) * 5;
+			}
+			int pulse = (int) Math.round(rider.step(power) + random.nextGaussian());
+			samples.add(pulse, power, 60);
+		}
+
+		HeartRateModel model = HeartRateModel.fit(samples);
+		assertNotNull(model);
+		assertEquals(60, model.getRestPulse(), 8);
+		assertEquals(0.5, model.getGain(), 0.08);
+		assertEquals(30, model.getTimeConstant(), 8);
+	}
+
+	public void testFitNeedsPulse() {
+		SessionSampleColumns samples = new SessionSampleColumns();
+		for (int second = 0; second < 600; second++) {
+			samples.add(0, 100, 60);
+		}
+		assertNull(HeartRateModel.fit(samples));
+	}
+}
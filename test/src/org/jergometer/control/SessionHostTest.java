@@ -0,0 +1,96 @@
+package org.jergometer.control;
+
+import de.endrullis.xml.XMLParser;
+import org.jergometer.TempDirTestCase;
+import org.jergometer.communication.BikeCommandScheduler;
+import org.jergometer.communication.BikeConnectors;
+import org.jergometer.communication.ModelBikeConnector;
+import org.jergometer.model.BikeProgramData;
+import org.jergometer.model.BikeSession;
+
+import java.io.File;
+
+/**
+ * Tests for hosting several simulated bikes in one process.
+ */
+public class SessionHostTest extends TempDirTestCase {
+	private static final int BIKES = 30;
+	private static final int THREADS = 4;
+
+	private static int countSessionHostThreads() {
+		int threads = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().equals("session host")) threads++;
+		}
+		return threads;
+	}
+
+	public void testConnectorsAreNotShared() throws Exception {
+		assertNotSame(BikeConnectors.create(ModelBikeConnector.NAME), BikeConnectors.create(ModelBikeConnector.NAME));
+		assertTrue(BikeConnectors.create(ModelBikeConnector.NAME) instanceof ModelBikeConnector);
+		assertNull(BikeConnectors.create("unknown"));
+	}
+
+	public void testManyBikesOnFewThreads() throws Exception {
+		BikeProgramData programData = new BikeProgramData(new XMLParser().parse(
+				"<program name=\"test\" duration=\"2m\"><timeEvents>" +
+				"<timeEvent time=\"0\"><action type=\"power\" value=\"80\"/></timeEvent>" +
+				"<timeEvent time=\"1m\"><action type=\"power\" value=\"120\"/></timeEvent>" +
+				"</timeEvents></program>").getRootElement());
+
+		SessionHost host = new SessionHost(THREADS);
+		host.setMinPollPeriod(20);
+		host.setOutDir(dir.getPath());
+		for (int i = 0; i < BIKES; i++) {
+			HostedBike bike = host.addBike("bike" + i, ModelBikeConnector.NAME, null, new BikeProgram(new File("test.xml"), "test", programData));
+			ModelBikeConnector connector = (ModelBikeConnector) bike.getBikeConnector();
+			connector.setTimeScale(100);
+			connector.setSeed(i);
+		}
+		try {
+			host.addBike("bike0", ModelBikeConnector.NAME, null, new BikeProgram(new File("test.xml"), "test", programData));
+			fail("bike names must be unique");
+		} catch (IllegalArgumentException ignored) {
+		}
+
+		host.start();
+		try {
+			assertTrue(host.awaitFinished(30000));
+			assertTrue(countSessionHostThreads() <= THREADS);
+		} finally {
+			host.stop();
+		}
+		assertFalse(host.isRunning());
+
+		long records = 0;
+		for (HostedBike bike : host.getBikes()) {
+			assertFalse(bike.isRunning());
+			assertEquals(BikeCommandScheduler.State.notConnected, bike.getCommandScheduler().getState());
+			assertTrue(bike.getSeconds() >= 120);
+			// every bike follows its own program
+			assertEquals(120, bike.getProgram().getPower());
+			assertTrue(bike.getCommandScheduler().getSetpointLatencyHistogram().getCount() > 0);
+			records += bike.getRecords();
+
+			int sessions = 0;
+			for (File file : new File(dir, bike.getName()).listFiles()) {
+				if (file.getName().endsWith(".dat")) {
+					assertEquals(bike.getSeconds(), new BikeSession(file).getDuration());
+					sessions++;
+				}
+			}
+			assertEquals(1, sessions);
+		}
+		assertEquals(records, host.getRecords());
+		assertTrue(host.getThroughput() > 0);
+		assertEquals(host.getRoundTripHistogram().getCount(), sumRoundTrips(host));
+	}
+
+	private static long sumRoundTrips(SessionHost host) {
+		long count = 0;
+		for (HostedBike bike : host.getBikes()) {
+			count += bike.getCommandScheduler().getRoundTripHistogram().getCount();
+		}
+		return count;
+	}
+}
@@ -0,0 +1,96 @@
+package org.jergometer.control;
+
+import de.endrullis.xml.XMLParser;
+import org.jergometer.TempDirTestCase;
+import org.jergometer.model.BikeProgramData;
+import org.jergometer.model.BikeSession;
+import org.jergometer.model.DataRecord;
+import org.jergometer.model.SessionSamples;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Tests for the headless simulation.
+ */
+public class SimulationRunnerTest extends TempDirTestCase {
+	private BikeProgramData loadProgram() throws Exception {
+		return new BikeProgramData(new XMLParser().parse(new File("programs/examples/pulse_130_to_140_45.xml")).getRootElement());
+	}
+
+	public void testParallelRidesAreSaved() throws Exception {
+		BikeProgramData programData = loadProgram();
+		SimulationRunner runner = new SimulationRunner(programData, "examples/pulse_130_to_140_45.xml");
+		runner.setThreadCount(3);
+		runner.setOutDir(dir.getPath());
+		List<SimulationRunner.RiderFactory> riders = SimulationRunner.createSyntheticRiders(4, 7);
+		LinkedHashMap<String, PulseControllerEvaluation.Result> results = runner.run(Arrays.asList("switcher", "pid"), riders);
+
+		assertEquals(Arrays.asList("switcher", "pid"), Arrays.asList(results.keySet().toArray()));
+		for (PulseControllerEvaluation.Result result : results.values()) {
+			assertEquals(4L * programData.getDuration(), result.getSeconds());
+			assertTrue(result.getSegments() > 0);
+		}
+		assertTrue(runner.getSpeedup() > 0);
+
+		File[] files = new File(dir, "pid").listFiles();
+		int sessions = 0;
+		for (File file : files) {
+			if (file.getName().endsWith(".dat")) {
+				BikeSession session = new BikeSession(file);
+				assertEquals("examples/pulse_130_to_140_45.xml", session.getProgramName());
+				assertEquals(programData.getDuration(), session.getDuration());
+				sessions++;
+			}
+		}
+		assertEquals(4, sessions);
+	}
+
+	public void testSameRidersGiveSameResults() throws Exception {
+		BikeProgramData programData = loadProgram();
+		List<String> controllers = Arrays.asList("pid");
+		SimulationRunner runner = new SimulationRunner(programData, "test");
+		runner.setThreadCount(1);
+		String sequential = runner.run(controllers, SimulationRunner.createSyntheticRiders(3, 1)).get("pid").toString();
+		runner.setThreadCount(3);
+		String parallel = runner.run(controllers, SimulationRunner.createSyntheticRiders(3, 1)).get("pid").toString();
+		assertEquals(sequential, parallel);
+	}
+
+	public void testUnknownController() throws Exception {
+		SimulationRunner runner = new SimulationRunner(loadProgram(), "test");
+		try {
+			runner.run(Arrays.asList("pid", "pdi"), SimulationRunner.createSyntheticRiders(1, 1));
+			fail("unknown controllers must be rejected");
+		} catch (IllegalArgumentException ignored) {
+		}
+	}
+
+	public void testReplayRecords() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		new DataRecord(100, 60, 0, 0, 80, 0, "00:01", 80).toStream(out);
+		new DataRecord(101, 61, 0, 0, 80, 0, "00:02", 80).toStream(out);
+		// paused
+		new DataRecord(102, 0, 0, 0, 80, 0, "00:02", 80).toStream(out);
+		new DataRecord(103, 62, 0, 0, 80, 0, "00:03", 80).toStream(out);
+		out.close();
+
+		SessionSamples samples = RecordedRider.readRecords(new ByteArrayInputStream(bytes.toByteArray()));
+		assertEquals(3, samples.size());
+		assertEquals(103, samples.getPulse(2));
+
+		RecordedRider rider = new RecordedRider(samples);
+		DataRecord record = new DataRecord();
+		assertTrue(rider.ride(1, 120, record));
+		assertEquals(101, record.getPulse());
+		assertEquals(120, record.getRealPower());
+		assertEquals(101.0, rider.getPulse());
+		assertFalse(rider.ride(3, 120, record));
+	}
+}
@@ -0,0 +1,139 @@
+package org.jergometer.gui;
+
+import junit.framework.TestCase;
+
+import java.awt.*;
+
+/**
+ * Tests that the diagram only redraws the layers whose content has changed.
+ */
+public class DiagramTest extends TestCase {
+	private Diagram diagram;
+
+	@Override
+	protected void setUp() throws InterruptedException {
+		diagram = new Diagram();
+		diagram.setSize(640, 480);
+		diagram.componentShown(null);
+		diagram.addGraph("program", new Diagram.Graph("program", Color.BLUE, new BasicStroke(2), false), Diagram.Side.left, Diagram.Layer.program);
+		diagram.addGraph("data", new Diagram.Graph("data", Color.RED, new BasicStroke(), false), Diagram.Side.left);
+		diagram.awaitRendering();
+	}
+
+	private long redraws(Diagram.Layer layer) {
+		return diagram.getRedrawHistogram(layer).getCount();
+	}
+
+	public void testAddValueRedrawsNothing() throws InterruptedException {
+		long background = redraws(Diagram.Layer.background);
+		long program = redraws(Diagram.Layer.program);
+		long data = redraws(Diagram.Layer.data);
+
+		for (int time = 0; time < 100; time++) {
+			diagram.addValue("data", time, 100 + time % 10);
+		}
+		diagram.awaitRendering();
+
+		assertEquals(background, redraws(Diagram.Layer.background));
+		assertEquals(program, redraws(Diagram.Layer.program));
+		assertEquals(data, redraws(Diagram.Layer.data));
+	}
+
+	public void testAddValuesRedrawsOnlyItsLayerForLargeBulks() throws InterruptedException {
+		long background = redraws(Diagram.Layer.background);
+		long program = redraws(Diagram.Layer.program);
+		long data = redraws(Diagram.Layer.data);
+
+		diagram.addValues("data", 0, 1, new int[] {100, 110, 105}, 0, 3);
+		diagram.awaitRendering();
+		assertEquals(data, redraws(Diagram.Layer.data));
+
+		int[] values = new int[7200];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = 100 + i % 50;
+		}
+		diagram.addValues("data", 3, 1, values, 0, values.length);
+		diagram.awaitRendering();
+
+		assertEquals(background, redraws(Diagram.Layer.background));
+		assertEquals(program, redraws(Diagram.Layer.program));
+		assertEquals(data + 1, redraws(Diagram.Layer.data));
+	}
+
+	public void testLayerInvalidation() throws InterruptedException {
+		long background = redraws(Diagram.Layer.background);
+		long program = redraws(Diagram.Layer.program);
+		long data = redraws(Diagram.Layer.data);
+
+		Diagram.Marker marker = new Diagram.Marker(60, Color.YELLOW, new BasicStroke(), "session end");
+		diagram.addVerticalMarker(marker);
+		diagram.awaitRendering();
+		assertEquals(background, redraws(Diagram.Layer.background));
+		assertEquals(program + 1, redraws(Diagram.Layer.program));
+		assertEquals(data, redraws(Diagram.Layer.data));
+
+		diagram.clearGraph("data");
+		diagram.awaitRendering();
+		assertEquals(background, redraws(Diagram.Layer.background));
+		assertEquals(program + 1, redraws(Diagram.Layer.program));
+		assertEquals(data + 1, redraws(Diagram.Layer.data));
+
+		diagram.redrawImage();
+		diagram.awaitRendering();
+		assertEquals(background + 1, redraws(Diagram.Layer.background));
+		assertEquals(program + 2, redraws(Diagram.Layer.program));
+		assertEquals(data + 2, redraws(Diagram.Layer.data));
+	}
+
+	public void testRedrawsAreCoalesced() throws InterruptedException {
+		long background = redraws(Diagram.Layer.background);
+
+		// keep the render thread waiting for the lock while the redraws are requested
+		synchronized (diagram) {
+			for (int i = 0; i < 10; i++) {
+				diagram.redrawImage();
+			}
+		}
+		diagram.awaitRendering();
+
+		assertEquals(background + 1, redraws(Diagram.Layer.background));
+	}
+
+	public void testSnapshotIsNotAffectedByLaterValues() {
+		GraphSeries series = new GraphSeries();
+		for (int i = 0; i < 10; i++) {
+			series.add(i, i);
+		}
+		GraphSeries snapshot = series.snapshot();
+		series.clear();
+		for (int i = 0; i < 100; i++) {
+			series.add(i, -i);
+		}
+
+		assertEquals(10, snapshot.size());
+		snapshot.queryRange(0, 10);
+		assertEquals(0, snapshot.getRangeMin());
+		assertEquals(9, snapshot.getRangeMax());
+		try {
+			snapshot.add(10, 10);
+			fail("snapshots must be read-only");
+		} catch (UnsupportedOperationException ignored) {
+		}
+	}
+
+	public void testCancelKeepsRequestedRedraws() throws InterruptedException {
+		for (int time = 0; time < 1000; time++) {
+			diagram.addValue("data", time, 100);
+		}
+		diagram.awaitRendering();
+		long data = redraws(Diagram.Layer.data);
+
+		// cancelling only affects renders in progress, the requested redraw is still done
+		synchronized (diagram) {
+			diagram.redrawImage();
+			diagram.cancelRendering();
+		}
+		diagram.awaitRendering();
+		assertEquals(data + 1, redraws(Diagram.Layer.data));
+	}
+}
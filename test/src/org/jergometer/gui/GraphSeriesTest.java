@@ -0,0 +1,90 @@
+package org.jergometer.gui;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Tests for the min/max pyramid of the graph series.
+ */
+public class GraphSeriesTest extends TestCase {
+	public void testRangeQueries() {
+		Random random = new Random(7);
+		GraphSeries series = new GraphSeries(2);
+		int[] values = new int[1000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = random.nextInt(400) - 100;
+			series.add(i, values[i]);
+		}
+		assertEquals(values.length, series.size());
+		assertTrue(series.isAscending());
+
+		for (int n = 0; n < 2000; n++) {
+			int from = random.nextInt(values.length);
+			int to = from + 1 + random.nextInt(values.length - from);
+
+			int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+			for (int i = from; i < to; i++) {
+				min = Math.min(min, values[i]);
+				max = Math.max(max, values[i]);
+			}
+			series.queryRange(from, to);
+			assertEquals("min of [" + from + "," + to + ")", min, series.getRangeMin());
+			assertEquals("max of [" + from + "," + to + ")", max, series.getRangeMax());
+		}
+	}
+
+	public void testClear() {
+		GraphSeries series = new GraphSeries();
+		for (int i = 0; i < 100; i++) {
+			series.add(100 - i, 1000);
+		}
+		assertFalse(series.isAscending());
+
+		series.clear();
+		assertEquals(0, series.size());
+		assertTrue(series.isAscending());
+
+		for (int i = 0; i < 64; i++) {
+			series.add(i, i);
+		}
+		series.queryRange(0, 64);
+		assertEquals(0, series.getRangeMin());
+		assertEquals(63, series.getRangeMax());
+		assertEquals(63, series.getTime(63));
+	}
+
+	public void testAddAllMatchesAdd() {
+		Random random = new Random(11);
+		GraphSeries single = new GraphSeries(2);
+		GraphSeries bulk = new GraphSeries(2);
+		int time = 0;
+		for (int chunk = 0; chunk < 50; chunk++) {
+			int length = random.nextInt(40);
+			int[] values = new int[length + 3];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = random.nextInt(1000);
+			}
+			for (int i = 0; i < length; i++) {
+				single.add(time + i, values[3 + i]);
+			}
+			bulk.addAll(time, 1, values, 3, length);
+			time += length;
+		}
+		assertEquals(single.size(), bulk.size());
+		assertTrue(bulk.isAscending());
+
+		for (int n = 0; n < 1000; n++) {
+			int from = random.nextInt(single.size());
+			int to = from + 1 + random.nextInt(single.size() - from);
+			single.queryRange(from, to);
+			bulk.queryRange(from, to);
+			assertEquals(single.getRangeMin(), bulk.getRangeMin());
+			assertEquals(single.getRangeMax(), bulk.getRangeMax());
+			assertEquals(single.getTime(from), bulk.getTime(from));
+		}
+
+		bulk.addAll(new long[] {time - 10}, new int[] {0}, 0, 1);
+		assertFalse(bulk.isAscending());
+	}
+}
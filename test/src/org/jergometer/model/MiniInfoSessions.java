@@ -0,0 +1,42 @@
+package org.jergometer.model;
+
+import java.util.Date;
+
+/**
+ * Creates bike sessions from a "mini info" (without session file) for the tests.
+ */
+final class MiniInfoSessions {
+	/** Duration of the program of the created sessions. */
+	static final int PROGRAM_DURATION = 60;
+
+	private MiniInfoSessions() {
+	}
+
+	/**
+	 * Creates a session with the given statistics.
+	 *
+	 * @param time start time of the session
+	 * @param programName name of the program
+	 * @param statsRegular statistics in the regular training time
+	 * @param statsTotal statistics in the real total training time
+	 * @return session
+	 */
+	static BikeSession create(long time, String programName, StatsRecord statsRegular, StatsRecord statsTotal) {
+		return new BikeSession("/tmp/", new Date(time), programName, PROGRAM_DURATION, statsRegular, statsTotal);
+	}
+
+	/**
+	 * Creates a session with a constant pulse of 120, the given power and 80 rpm in every second.
+	 *
+	 * @param time start time of the session
+	 * @param programName name of the program
+	 * @param duration duration of the session in seconds
+	 * @param power power in every second
+	 * @return session
+	 */
+	static BikeSession create(long time, String programName, int duration, int power) {
+		return create(time, programName,
+				new StatsRecord(120 * duration, power * duration, 80 * duration, duration, duration),
+				new StatsRecord(120 * duration, power * duration, 80 * duration, duration, duration));
+	}
+}
@@ -0,0 +1,60 @@
+package org.jergometer.model;
+
+import de.endrullis.xml.XMLParser;
+import junit.framework.TestCase;
+
+/**
+ * Tests for the compiled program timeline.
+ */
+public class ProgramTimelineTest extends TestCase {
+	static BikeProgramData parse(String timeEvents) throws Exception {
+		return new BikeProgramData(new XMLParser().parse(
+				"<program name=\"test\" duration=\"10m\"><timeEvents>" + timeEvents + "</timeEvents></program>").getRootElement());
+	}
+
+	public void testSegments() throws Exception {
+		ProgramTimeline timeline = parse(
+				"<timeEvent time=\"0\"><action type=\"power\" value=\"80\"/></timeEvent>" +
+				"<timeEvent time=\"1m\"><action type=\"pulse\" value=\"120\"/></timeEvent>" +
+				"<timeEvent time=\"+1m\"><action type=\"pulse\" value=\"+10\"/></timeEvent>" +
+				"<timeEvent time=\"+1m\"/>" +
+				"<timeEvent time=\"4m\"><action type=\"power\" value=\"100\"/><action type=\"pulse\" value=\"140\"/></timeEvent>" +
+				"<timeEvent time=\"4m\"><action type=\"power\" value=\"+20\"/></timeEvent>").getTimeline();
+
+		assertEquals(600, timeline.getDuration());
+		assertEquals(4, timeline.size());
+		assertEquals("0-60: power 80", timeline.getSegment(0).toString());
+		assertEquals("60-120: pulse 120", timeline.getSegment(1).toString());
+		// events without actions are ignored
+		assertEquals("120-240: pulse 130", timeline.getSegment(2).toString());
+		// events at the same time are merged, the last action wins
+		assertEquals("240-: power 120", timeline.getSegment(3).toString());
+
+		// pulse segments know the power given before
+		assertEquals(80, timeline.getSegment(2).getPower());
+		assertEquals(0, timeline.getSegment(0).getPulse());
+	}
+
+	public void testSegmentIndex() throws Exception {
+		ProgramTimeline timeline = parse(
+				"<timeEvent time=\"0\"><action type=\"power\" value=\"80\"/></timeEvent>" +
+				"<timeEvent time=\"10\"><action type=\"pulse\" value=\"120\"/></timeEvent>" +
+				"<timeEvent time=\"20\"><action type=\"pulse\" value=\"130\"/></timeEvent>").getTimeline();
+
+		assertEquals(0, timeline.getSegmentIndex(0));
+		assertEquals(0, timeline.getSegmentIndex(9));
+		assertEquals(1, timeline.getSegmentIndex(10));
+		assertEquals(1, timeline.getSegmentIndex(19));
+		assertEquals(2, timeline.getSegmentIndex(20));
+		// seconds after the end of the program belong to the last segment
+		assertEquals(2, timeline.getSegmentIndex(100000));
+		assertEquals(0, timeline.getDestPulse(5));
+		assertEquals(130, timeline.getDestPulse(700));
+	}
+
+	public void testEmptyProgram() throws Exception {
+		ProgramTimeline timeline = parse("").getTimeline();
+		assertEquals(1, timeline.size());
+		assertEquals(BikeProgramData.Action.Type.power, timeline.getSegmentAt(10).getType());
+	}
+}
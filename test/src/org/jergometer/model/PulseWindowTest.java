@@ -0,0 +1,56 @@
+package org.jergometer.model;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Tests the pulse window against sums over all samples.
+ */
+public class PulseWindowTest extends TestCase {
+	public void testRangesMatchSamples() {
+		Random random = new Random(5);
+		PulseWindow window = new PulseWindow(20);
+		int[] pulses = new int[200];
+		for (int n = 0; n < pulses.length; n++) {
+			pulses[n] = random.nextInt(4) == 0 ? 0 : 80 + random.nextInt(80);
+			window.add(pulses[n]);
+			assertEquals(n + 1, window.size());
+
+			for (int from = 0; from <= 20; from += 5) {
+				for (int to = from; to <= 20; to += 5) {
+					int count = 0;
+					long sum = 0;
+					for (int i = Math.max(0, n + 1 - to); i < n + 1 - from; i++) {
+						if (pulses[i] > 0) {
+							count++;
+							sum += pulses[i];
+						}
+					}
+					assertEquals(count, window.getCount(from, to));
+					assertEquals(sum, window.getSum(from, to));
+				}
+			}
+		}
+	}
+
+	public void testSlope() {
+		PulseWindow window = new PulseWindow(30);
+		for (int i = 0; i < 50; i++) {
+			// unknown pulses are ignored
+			window.add(i % 3 == 0 ? 0 : 100 + 2 * i);
+		}
+		assertEquals(2.0, window.getSlope(0, 30), 1e-9);
+		assertEquals(0.0, window.getSlope(0, 1), 1e-9);
+		assertEquals((198.0 + 194) / 2, window.getAverage(0, 3), 1e-9);
+	}
+
+	public void testAgeOutOfWindow() {
+		PulseWindow window = new PulseWindow(10);
+		try {
+			window.getSum(0, 11);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+}
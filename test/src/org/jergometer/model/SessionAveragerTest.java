@@ -0,0 +1,69 @@
+package org.jergometer.model;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Tests for the averaging of several sessions.
+ */
+public class SessionAveragerTest extends TestCase {
+	private static BikeSession createSession(int programDuration, int duration, int pulse, int power) {
+		BikeSession session = new BikeSession("test", programDuration);
+		for (int i = 0; i < duration; i++) {
+			session.update(new DataRecord(pulse, 80 + i, 300, i, power, i, "" + i, power + i % 2));
+		}
+		return session;
+	}
+
+	public void testMeanMatchesAverage() throws IOException {
+		ArrayList<BikeSession> sessions = new ArrayList<BikeSession>();
+		sessions.add(createSession(10, 15, 100, 100));
+		sessions.add(createSession(10, 12, 0, 150));
+		sessions.add(createSession(10, 20, 121, 200));
+
+		SessionAggregate aggregate = SessionAverager.compute(sessions);
+		assertEquals(10, aggregate.getProgramDuration());
+		assertEquals(12, aggregate.getTotalDuration());
+
+		for (int i = 0; i < 12; i++) {
+			// the session without pulse is masked
+			assertEquals(110, aggregate.getMean(SessionAggregate.Metric.pulse, i));
+			assertEquals(150 + i % 2, aggregate.getMean(SessionAggregate.Metric.power, i));
+			assertEquals(80 + i, aggregate.getMean(SessionAggregate.Metric.pedalRpm, i));
+			assertEquals(111, aggregate.getMedian(SessionAggregate.Metric.pulse, i));
+			assertEquals(150 + i % 2, aggregate.getMedian(SessionAggregate.Metric.power, i));
+			assertEquals(125 + i % 2, aggregate.getPercentile(SessionAggregate.Metric.power, 25, i));
+		}
+
+		BikeSession program = SessionAverager.average(sessions, false);
+		BikeSession full = SessionAverager.average(sessions, true);
+		assertEquals(10, program.getSamples().size());
+		assertEquals(12, full.getSamples().size());
+		assertEquals(110, full.getSamples().getPulse(11));
+		assertEquals(151, full.getSamples().getPower(11));
+	}
+
+	public void testAggregateIsCachedPerSelection() throws IOException {
+		ArrayList<BikeSession> sessions = new ArrayList<BikeSession>();
+		sessions.add(createSession(10, 10, 100, 100));
+		sessions.add(createSession(10, 10, 120, 120));
+
+		SessionAverager averager = new SessionAverager();
+		SessionAggregate aggregate = averager.aggregate(sessions);
+		assertSame(aggregate, averager.aggregate(new ArrayList<BikeSession>(sessions)));
+		assertSame(aggregate.toBikeSession(true), aggregate.toBikeSession(true));
+
+		// a session has been extended
+		sessions.get(1).update(new DataRecord(120, 80, 300, 10, 120, 10, "10", 120));
+		assertNotSame(aggregate, averager.aggregate(sessions));
+
+		// the same session twice is a different selection
+		aggregate = averager.aggregate(sessions);
+		sessions.add(sessions.get(0));
+		SessionAggregate aggregate2 = averager.aggregate(sessions);
+		assertNotSame(aggregate, aggregate2);
+		assertEquals(106, aggregate2.getMean(SessionAggregate.Metric.pulse, 0));
+	}
+}
@@ -0,0 +1,136 @@
+package org.jergometer.model;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests that the session catalog selects the same sessions as matching every session.
+ */
+public class SessionCatalogTest extends TestCase {
+	private static final String[] PROGRAMS = {"a/p1", "a/p2", "a/b/p3", "ab/p4", "p5"};
+	private static final String[] DIRS = {"a", "a/b", "ab", "b"};
+
+	private ArrayList<BikeSession> sessions;
+	private SessionList sessionList;
+
+	@Override
+	protected void setUp() throws Exception {
+		Random random = new Random(3);
+		sessions = new ArrayList<BikeSession>();
+		sessionList = new SessionList("/tmp/");
+		for (int i = 0; i < 500; i++) {
+			int duration = 30 + random.nextInt(60);
+			// sessions are identified by their start time
+			BikeSession session = MiniInfoSessions.create(200 * i + 1 + random.nextInt(199), PROGRAMS[random.nextInt(PROGRAMS.length)], duration, 100);
+			sessions.add(session);
+			sessionList.addSession(session);
+		}
+	}
+
+	private ArrayList<BikeSession> scan(BikeSessionFilter filter) {
+		ArrayList<BikeSession> result = new ArrayList<BikeSession>();
+		for (BikeSession session : sessions) {
+			if (filter.match(session)) {
+				result.add(session);
+			}
+		}
+		return result;
+	}
+
+	private void assertSameSessions(BikeSessionFilter filter, SessionCatalog catalog) {
+		assertSameSessions(filter, catalog.select(filter));
+	}
+
+	private void assertSameSessions(BikeSessionFilter filter, List<BikeSession> selected) {
+		ArrayList<BikeSession> expected = scan(filter);
+		assertEquals(expected.size(), selected.size());
+		for (int i = 0; i < selected.size(); i++) {
+			assertTrue(expected.contains(selected.get(i)));
+			if (i > 0) {
+				assertFalse(selected.get(i).getStartTime().before(selected.get(i - 1).getStartTime()));
+			}
+		}
+	}
+
+	private void assertAllFilters(SessionCatalog catalog) {
+		BikeSessionFilter filter = new BikeSessionFilter();
+		for (boolean onlyCompleted : new boolean[] {false, true}) {
+			filter.setOnlyCompletedSessions(onlyCompleted);
+			filter.deactivateFilter();
+			filter.clearTimeRange();
+			assertSameSessions(filter, catalog);
+			filter.setTimeRange(20000, 70000);
+			assertSameSessions(filter, catalog);
+			for (String dir : DIRS) {
+				filter.setProgramDirFilter(new BikeProgramDir(new File(dir), dir, dir));
+				filter.clearTimeRange();
+				assertSameSessions(filter, catalog);
+				filter.setTimeRange(50000, 60000);
+				assertSameSessions(filter, catalog);
+			}
+		}
+	}
+
+	public void testSelectMatchesScan() {
+		assertAllFilters(new SessionCatalog(sessionList));
+	}
+
+	public void testIncrementalUpdates() throws Exception {
+		SessionList incremental = new SessionList("/tmp/");
+		SessionCatalog catalog = new SessionCatalog(incremental);
+		for (BikeSession session : sessions) {
+			incremental.addSession(session);
+			catalog.add(session);
+		}
+		for (int i = sessions.size() - 1; i >= 0; i -= 3) {
+			BikeSession session = sessions.remove(i);
+			incremental.removeSession(session);
+			catalog.remove(session);
+		}
+		assertAllFilters(catalog);
+
+		for (BikeSession session : new ArrayList<BikeSession>(sessions)) {
+			incremental.removeSession(session);
+			catalog.remove(session);
+		}
+		assertTrue(catalog.select(new BikeSessionFilter()).isEmpty());
+	}
+
+	public void testViewIsLive() throws Exception {
+		SessionCatalog catalog = new SessionCatalog(sessionList);
+		BikeSessionFilter filter = new BikeSessionFilter();
+		filter.setProgramDirFilter(new BikeProgramDir(new File("a"), "a", "a"));
+		filter.setTimeRange(20000, 70000);
+		List<BikeSession> view = catalog.view(filter);
+		assertSameSessions(filter, view);
+
+		// later changes of the filter do not affect the view
+		filter.deactivateFilter();
+		filter.clearTimeRange();
+		assertEquals(sessions.size(), catalog.view(filter).size());
+		filter = new BikeSessionFilter();
+		filter.setProgramDirFilter(new BikeProgramDir(new File("a"), "a", "a"));
+		filter.setTimeRange(20000, 70000);
+		assertSameSessions(filter, view);
+
+		BikeSession added = MiniInfoSessions.create(30000, "a/new", 60, 100);
+		sessions.add(added);
+		sessionList.addSession(added);
+		catalog.add(added);
+		assertSameSessions(filter, view);
+		assertSame(added, view.get(view.indexOf(added)));
+
+		sessions.remove(added);
+		sessionList.removeSession(added);
+		catalog.remove(added);
+		assertEquals(-1, view.indexOf(added));
+		assertSameSessions(filter, view);
+		for (int i = 0; i < view.size(); i++) {
+			assertEquals(i, view.indexOf(view.get(i)));
+		}
+	}
+}
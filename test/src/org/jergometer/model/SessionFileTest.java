@@ -0,0 +1,123 @@
+package org.jergometer.model;
+
+import org.jergometer.TempDirTestCase;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Tests for the session file format.
+ */
+public class SessionFileTest extends TempDirTestCase {
+	private BikeSession createSession(int seconds) {
+		BikeSession session = new BikeSession("examples/test", 60);
+		for (int i = 0; i < seconds; i++) {
+			session.update(new DataRecord(100 + i % 50, 80 + i % 7, 30, i, 100, i, "" + i, 100 + i % 30));
+		}
+		// pulse after the session (time does not change)
+		session.update(new DataRecord(110, 0, 0, seconds, 100, seconds, "" + (seconds - 1), 0));
+		session.update(new DataRecord(108, 0, 0, seconds, 100, seconds, "" + (seconds - 1), 0));
+		return session;
+	}
+
+	private void assertSameSamples(SessionSamples expected, SessionSamples actual, int offset) {
+		for (int i = 0; i < actual.size(); i++) {
+			assertEquals(expected.getPulse(i + offset), actual.getPulse(i));
+			assertEquals(expected.getPower(i + offset), actual.getPower(i));
+			assertEquals(expected.getPedalRpm(i + offset), actual.getPedalRpm(i));
+		}
+	}
+
+	public void testRoundTrip() throws IOException {
+		BikeSession session = createSession(90);
+		session.save(dir.getPath());
+
+		assertEquals(SessionFile.CURRENT_FORMAT, SessionFile.readFormat(session.getFile()));
+
+		BikeSession loaded = new BikeSession(session.getFile());
+		assertEquals(session.getStartTime().getTime(), loaded.getStartTime().getTime());
+		assertEquals("examples/test", loaded.getProgramName());
+		assertEquals(60, loaded.getProgramDuration());
+		assertEquals(90, loaded.getDuration());
+		assertEquals(session.getStatsRegular().getPulseSum(), loaded.getStatsRegular().getPulseSum());
+		assertEquals(session.getStatsTotal().getPowerSum(), loaded.getStatsTotal().getPowerSum());
+		assertEquals(2, loaded.getPulseAfterSession().size());
+		assertEquals(108, loaded.getPulseAfterSession().get(1));
+		assertEquals(90, loaded.getSamples().size());
+		assertSameSamples(session.getSamples(), loaded.getSamples(), 0);
+	}
+
+	public void testSaveReplacesCachedSamples() throws IOException {
+		BikeSession session = createSession(90);
+		session.save(dir.getPath());
+		SessionSamples cached = SessionSampleCache.getShared().get(session.getFile());
+
+		session.update(new DataRecord(120, 80, 30, 90, 100, 90, "90", 100));
+		session.save(dir.getPath());
+
+		// the old samples stay readable, the cache and the file contain the new samples
+		assertEquals(90, cached.size());
+		assertSameSamples(createSession(90).getSamples(), cached, 0);
+		assertEquals(91, SessionSampleCache.getShared().get(session.getFile()).size());
+		assertEquals(91, new BikeSession(session.getFile()).getDuration());
+		assertFalse(new File(session.getFile().getPath() + ".tmp").exists());
+	}
+
+	public void testCachedAndRangedAccess() throws IOException {
+		BikeSession session = createSession(90);
+		session.save(dir.getPath());
+
+		BikeSession miniInfo = new BikeSession(session.getFile(), session.getStartTime(), session.getProgramName(),
+				session.getProgramDuration(), session.getStatsRegular(), session.getStatsTotal());
+
+		SessionSamples window = miniInfo.getSamples(30, 40);
+		assertEquals(10, window.size());
+		assertSameSamples(session.getSamples(), window, 30);
+		assertEquals(5, miniInfo.getSamples(85, 200).size());
+
+		SessionSamples cached = miniInfo.getSamples();
+		assertEquals(90, cached.size());
+		assertSameSamples(session.getSamples(), cached, 0);
+		// the cached samples do not keep the file open
+		assertTrue(session.getFile().delete());
+		assertSameSamples(session.getSamples(), cached, 0);
+	}
+
+	public void testMigrateFormat3() throws IOException {
+		BikeSession session = createSession(70);
+		SessionSamples samples = session.getSamples();
+
+		// write the session in the old format 3
+		File file = new File(dir, "old.dat");
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		out.writeUTF("jergometer session");
+		out.writeUTF("3");
+		out.writeLong(session.getStartTime().getTime());
+		out.writeUTF(session.getProgramName());
+		out.writeInt(session.getProgramDuration());
+		session.getLastRecordRegular().toStream(out);
+		session.getLastRecordRegular().toStream(out);
+		session.getStatsRegular().toStream(out);
+		session.getStatsTotal().toStream(out);
+		out.writeInt(samples.size());
+		for (int i = 0; i < samples.size(); i++) {
+			samples.getRecord(i).toStream(out);
+		}
+		out.writeInt(1);
+		out.writeInt(99);
+		out.close();
+
+		assertEquals(3, SessionFile.readFormat(file));
+		assertNull(SessionFile.readHeader(file));
+		assertTrue(SessionFileMigrator.migrateFile(file));
+		assertEquals(SessionFile.CURRENT_FORMAT, SessionFile.readFormat(file));
+		assertFalse(SessionFileMigrator.migrateFile(file));
+
+		BikeSession migrated = new BikeSession(file);
+		assertEquals(70, migrated.getDuration());
+		assertEquals(99, migrated.getPulseAfterSession().get(0));
+		assertSameSamples(samples, migrated.getSamples(), 0);
+	}
+}
@@ -0,0 +1,153 @@
+package org.jergometer.model;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Tests for the binary session index.
+ */
+public class SessionIndexTest extends TestCase {
+	private File file;
+
+	protected void setUp() throws Exception {
+		file = File.createTempFile("sessions", ".idx");
+		file.delete();
+	}
+
+	protected void tearDown() throws Exception {
+		file.delete();
+	}
+
+	private BikeSession createSession(long time, String programName) {
+		return MiniInfoSessions.create(time, programName,
+				new StatsRecord(6000, 5000, 4000, 60, 50), new StatsRecord(7000, 6000, 5000, 70, 60));
+	}
+
+	public void testAppendAndDelete() throws IOException {
+		SessionIndex index = new SessionIndex(file);
+		BikeSession s1 = createSession(3000, "a");
+		BikeSession s2 = createSession(1000, "b");
+		BikeSession s3 = createSession(2000, "c");
+		index.add(s1, false);
+		index.add(s2, false);
+		index.add(s3, false);
+		index.delete(s1);
+
+		SessionList sessions = new SessionIndex(file).load("/tmp/");
+		assertEquals(2, sessions.size());
+		// sorted by start time
+		assertEquals("b", sessions.get(0).getProgramName());
+		assertEquals("c", sessions.get(1).getProgramName());
+		assertEquals(7000, sessions.get(1).getStatsTotal().getPulseSum());
+		assertEquals(60, sessions.get(1).getProgramDuration());
+
+		// replace a session
+		index.add(createSession(2000, "d"), true);
+		sessions = new SessionIndex(file).load("/tmp/");
+		assertEquals(2, sessions.size());
+		assertEquals("d", sessions.get(1).getProgramName());
+	}
+
+	public void testCompactionAndTruncatedEntry() throws IOException {
+		SessionIndex index = new SessionIndex(file);
+		SessionList sessions = new SessionList("/tmp/");
+		for (int i = 0; i < 10; i++) {
+			sessions.addSession(createSession(i, "p" + i));
+		}
+		index.write(sessions);
+		for (int i = 0; i < 300; i++) {
+			index.add(sessions.get(i % 10), true);
+		}
+		assertTrue(index.needsCompaction());
+		long length = file.length();
+
+		// simulate a crash while appending
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(length - 5);
+		raf.close();
+
+		SessionIndex reloaded = new SessionIndex(file);
+		assertEquals(10, reloaded.load("/tmp/").size());
+		assertFalse(reloaded.needsCompaction());
+		assertTrue(file.length() < length);
+
+		reloaded.add(createSession(100, "new"), false);
+		assertEquals(11, new SessionIndex(file).load("/tmp/").size());
+	}
+
+	public void testSummaryIsStored() throws IOException {
+		BikeSession session = new BikeSession("summary", 60);
+		for (int i = 0; i < 90; i++) {
+			session.update(new DataRecord(i < 45 ? 110 : 150, 80, 300, i, 200, i, "" + i, i < 60 ? 100 : 200));
+		}
+		SessionSummary summary = session.updateSummary();
+		assertTrue(summary.isComplete());
+		assertEquals(150, summary.getMaxPulse());
+		assertEquals(12.0, summary.getWork(), 1e-9);
+		assertEquals(45, summary.getPulseZoneSeconds(1));
+		assertEquals(45, summary.getPulseZoneSeconds(3));
+		// 30 s rolling average: 31 windows of 100 W, 30 rising windows, 1 window of 200 W
+		assertTrue(summary.getNormalizedPower() > 133 && summary.getNormalizedPower() < 200);
+
+		SessionIndex index = new SessionIndex(file);
+		index.add(session, false);
+		index.add(createSession(1000, "without summary"), false);
+
+		SessionList sessions = new SessionIndex(file).load("/tmp/");
+		assertEquals(2, sessions.size());
+		assertFalse(sessions.get(0).getSummary().isComplete());
+		SessionSummary loaded = sessions.get(1).getSummary();
+		assertTrue(loaded.isComplete());
+		assertEquals(summary.getMaxPulse(), loaded.getMaxPulse());
+		assertEquals(summary.getNormalizedPower(), loaded.getNormalizedPower());
+		assertEquals(summary.getWork(), loaded.getWork(), 1e-9);
+		assertEquals(summary.getPulseZoneSeconds(3), loaded.getPulseZoneSeconds(3));
+		assertEquals("0:01:00 +30", loaded.getDurationText());
+	}
+
+	public void testSessionsAreReadOnDemand() throws IOException {
+		SessionList sessions = new SessionList("/tmp/");
+		for (int i = 0; i < 300; i++) {
+			sessions.addSession(createSession(1000 * i, "p" + i % 3));
+		}
+		new SessionIndex(file).write(sessions);
+		for (SessionList.Row row : sessions.getRows()) {
+			assertNull(row.session);
+		}
+
+		SessionList loaded = new SessionIndex(file).load("/tmp/");
+		assertEquals(300, loaded.size());
+		assertEquals("p1", loaded.getRows().get(250).programName);
+		for (SessionList.Row row : loaded.getRows()) {
+			assertNull(row.session);
+		}
+		BikeSession session = loaded.get(250);
+		assertEquals(250000, session.getStartTime().getTime());
+		assertEquals("p1", session.getProgramName());
+		assertEquals(7000, session.getStatsTotal().getPulseSum());
+		assertEquals(250, loaded.indexOf(createSession(250000, "other instance")));
+
+		// appended and compacted entries are found at their new positions
+		loaded.addSession(createSession(1000 * 250, "replaced"));
+		loaded.removeSession(loaded.get(0));
+		loaded.addSession(createSession(1000 * 300, "new"));
+		for (int i = 0; i < 300; i++) {
+			loaded.addSession(createSession(1000 * (i % 10 + 1), "p" + (i % 10 + 1) % 3));
+		}
+		loaded.compactIndexIfNeeded();
+		assertFalse(loaded.getIndex().needsCompaction());
+		assertEquals(300, loaded.size());
+		assertEquals("replaced", loaded.get(249).getProgramName());
+		assertEquals("new", loaded.get(299).getProgramName());
+		assertEquals("p1", loaded.get(0).getProgramName());
+
+		SessionList reloaded = new SessionIndex(file).load("/tmp/");
+		assertEquals(300, reloaded.size());
+		for (int i = 0; i < reloaded.size(); i++) {
+			assertEquals(loaded.get(i).getProgramName(), reloaded.get(i).getProgramName());
+		}
+	}
+}
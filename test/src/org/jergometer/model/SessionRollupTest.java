@@ -0,0 +1,74 @@
+package org.jergometer.model;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * Tests for the time-bucketed session aggregates.
+ */
+public class SessionRollupTest extends TestCase {
+	private static long time(int year, int month, int day, int hour) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(year, month, day, hour, 0);
+		return calendar.getTimeInMillis();
+	}
+
+	public void testScopes() {
+		List<String> scopes = SessionRollup.getScopes("a/b/program");
+		assertEquals(4, scopes.size());
+		assertEquals("", scopes.get(0));
+		assertEquals("a/", scopes.get(1));
+		assertEquals("a/b/", scopes.get(2));
+		assertEquals("a/b/program", scopes.get(3));
+	}
+
+	public void testBucketsAndIncrementalUpdates() {
+		ArrayList<BikeSession> sessions = new ArrayList<BikeSession>();
+		sessions.add(MiniInfoSessions.create(time(2020, Calendar.MARCH, 2, 8), "a/p1", 60, 100));
+		sessions.add(MiniInfoSessions.create(time(2020, Calendar.MARCH, 2, 18), "a/p2", 30, 200));
+		sessions.add(MiniInfoSessions.create(time(2020, Calendar.MARCH, 20, 8), "a/p1", 60, 150));
+		sessions.add(MiniInfoSessions.create(time(2020, Calendar.APRIL, 1, 8), "b/p3", 60, 300));
+		SessionRollup rollup = new SessionRollup(sessions);
+
+		long from = time(2020, Calendar.JANUARY, 1, 0);
+		long to = time(2021, Calendar.JANUARY, 1, 0);
+
+		List<SessionRollup.Bucket> days = rollup.getBuckets(SessionRollup.Period.day, "a/", false, from, to);
+		assertEquals(2, days.size());
+		assertEquals(time(2020, Calendar.MARCH, 2, 0), days.get(0).getStart());
+		assertEquals(2, days.get(0).getSessionCount());
+		assertEquals(90, days.get(0).getDuration());
+		assertEquals(150.0, days.get(0).getAveragePower(), 1e-9);
+
+		List<SessionRollup.Bucket> months = rollup.getBuckets(SessionRollup.Period.month, "", false, from, to);
+		assertEquals(2, months.size());
+		assertEquals(3, months.get(0).getSessionCount());
+		assertEquals(time(2020, Calendar.APRIL, 1, 0), months.get(1).getStart());
+
+		// only completed sessions (program duration 60 s)
+		assertEquals(2, rollup.getBuckets(SessionRollup.Period.month, "a/", true, from, to).get(0).getSessionCount());
+
+		// zoomed range
+		List<SessionRollup.Bucket> zoomed = rollup.getBuckets(SessionRollup.Period.week, "a/p1", false,
+				time(2020, Calendar.MARCH, 19, 0), time(2020, Calendar.MARCH, 21, 0));
+		assertEquals(1, zoomed.size());
+		assertTrue(zoomed.get(0).getStart() <= time(2020, Calendar.MARCH, 20, 8));
+
+		rollup.remove(sessions.get(1));
+		days = rollup.getBuckets(SessionRollup.Period.day, "a/", false, from, to);
+		assertEquals(1, days.get(0).getSessionCount());
+		assertEquals(100.0, days.get(0).getAveragePower(), 1e-9);
+		assertTrue(rollup.getBuckets(SessionRollup.Period.day, "a/p2", false, from, to).isEmpty());
+	}
+
+	public void testPeriodForRange() {
+		long day = 24L * 60 * 60 * 1000;
+		assertEquals(SessionRollup.Period.day, SessionRollup.getPeriod(0, 100 * day, 400));
+		assertEquals(SessionRollup.Period.week, SessionRollup.getPeriod(0, 3 * 365 * day, 400));
+		assertEquals(SessionRollup.Period.month, SessionRollup.getPeriod(0, 20 * 365 * day, 400));
+	}
+}
@@ -0,0 +1,103 @@
+package org.jergometer.model;
+
+import org.jergometer.TempDirTestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Tests for the session sample cache.
+ */
+public class SessionSampleCacheTest extends TempDirTestCase {
+	private File[] files = new File[3];
+
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		// session files are named after the start minute -> one directory per session
+		for (int s = 0; s < files.length; s++) {
+			BikeSession session = new BikeSession("examples/test", 60);
+			for (int i = 0; i < 100; i++) {
+				session.update(new DataRecord(100 + s, 80 + i % 7, 30, i, 100, i, "" + i, 100));
+			}
+			session.save(new File(dir, "" + s).getPath());
+			files[s] = session.getFile();
+		}
+	}
+
+	public void testLeastRecentlyUsedEviction() throws IOException {
+		// 100 samples need 600 bytes -> two sessions fit
+		SessionSampleCache cache = new SessionSampleCache(1300);
+		assertEquals(100, cache.get(files[0]).getPulse(0));
+		assertSame(cache.get(files[0]), cache.get(files[0]));
+		cache.get(files[1]);
+		cache.get(files[2]);
+		assertEquals(2, cache.size());
+		assertEquals(1200, cache.getBytes());
+		assertEquals(3, cache.getMissCount());
+		assertEquals(2, cache.getHitCount());
+		assertEquals(1, cache.getEvictionCount());
+
+		// files[1] has been used more recently than files[2]
+		cache.get(files[1]);
+		cache.get(files[0]);
+		assertEquals(4, cache.getMissCount());
+		assertEquals(2, cache.getEvictionCount());
+		cache.get(files[1]);
+		assertEquals(4, cache.getMissCount());
+
+		cache.invalidate(files[1]);
+		assertEquals(1, cache.size());
+		assertEquals(600, cache.getBytes());
+
+		cache.setByteBudget(100);
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getBytes());
+	}
+
+	public void testConcurrentLoadsAreDeduplicated() throws Exception {
+		final SessionSampleCache cache = new SessionSampleCache(SessionSampleCache.DEFAULT_BYTE_BUDGET);
+		final CountDownLatch start = new CountDownLatch(1);
+		final SessionSamples[] results = new SessionSamples[8];
+		Thread[] threads = new Thread[results.length];
+		for (int t = 0; t < threads.length; t++) {
+			final int index = t;
+			threads[t] = new Thread() {
+				public void run() {
+					try {
+						start.await();
+						results[index] = cache.get(files[0]);
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			threads[t].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(1, cache.getMissCount());
+		assertEquals(results.length - 1, cache.getHitCount());
+		for (SessionSamples samples : results) {
+			assertSame(results[0], samples);
+		}
+	}
+
+	public void testErrorsAreNotCached() {
+		SessionSampleCache cache = new SessionSampleCache(SessionSampleCache.DEFAULT_BYTE_BUDGET);
+		File missing = new File(dir, "missing.dat");
+		for (int i = 0; i < 2; i++) {
+			try {
+				cache.get(missing);
+				fail("IOException expected");
+			} catch (IOException expected) {
+			}
+		}
+		assertEquals(2, cache.getMissCount());
+		assertEquals(0, cache.size());
+	}
+}